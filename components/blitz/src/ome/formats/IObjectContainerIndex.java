@@ -0,0 +1,338 @@
+/*
+ * ome.formats.IObjectContainerIndex
+ *
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2015 University of Dundee. All rights reserved.
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+
+package ome.formats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ome.util.LSID;
+import omero.metadatastore.IObjectContainer;
+
+/**
+ * Index of the {@link IObjectContainer}s of an {@link OMEROMetadataStoreClient}
+ * by class and by index path. For each class a tree is kept whose nodes are
+ * addressed by the successive indexes of an LSID, so that an existing
+ * container is found without building its LSID, and the containers of a
+ * class or of an index prefix are listed or counted without scanning the
+ * whole container cache.
+ *
+ * @since 5.1
+ */
+class IObjectContainerIndex
+{
+    /** Orders the containers of a class as the container cache does. */
+    private final Comparator<LSID> comparator;
+
+    /** The root node of each class. */
+    private final Map<Class<?>, Node> roots = new HashMap<Class<?>, Node>();
+
+    /**
+     * Constructor.
+     * @param comparator The comparator of the container cache, used to order
+     * the containers of classes whose LSIDs have different numbers of indexes.
+     */
+    IObjectContainerIndex(Comparator<LSID> comparator)
+    {
+        this.comparator = comparator;
+    }
+
+    /**
+     * Looks up a container.
+     * @param klass The class of the container.
+     * @param indexes The indexes of the container within the data model.
+     * @return See above or <code>null</code> if there is none.
+     */
+    IObjectContainer get(Class<?> klass, Collection<Integer> indexes)
+    {
+        Node node = roots.get(klass);
+        for (Integer index : indexes)
+        {
+            if (node == null)
+            {
+                return null;
+            }
+            node = node.child(index);
+        }
+        return node == null ? null : node.container;
+    }
+
+    /**
+     * Adds or replaces a container.
+     * @param lsid The class based LSID of the container.
+     * @param container The container.
+     */
+    void put(LSID lsid, IObjectContainer container)
+    {
+        Class<?> klass = lsid.getJavaClass();
+        if (klass == null)
+        {
+            return;
+        }
+        int[] indexes = lsid.getIndexes();
+        Node root = roots.get(klass);
+        if (root == null)
+        {
+            root = new Node();
+            roots.put(klass, root);
+        }
+        Node node = root;
+        for (int index : indexes)
+        {
+            node = node.childOrCreate(index);
+        }
+        boolean added = node.container == null;
+        node.lsid = lsid;
+        node.container = container;
+        if (added)
+        {
+            adjustSizes(root, indexes, 1);
+            root.minDepth = Math.min(root.minDepth, indexes.length);
+            root.maxDepth = Math.max(root.maxDepth, indexes.length);
+        }
+    }
+
+    /**
+     * Removes a container.
+     * @param lsid The LSID of the container.
+     */
+    void remove(LSID lsid)
+    {
+        Class<?> klass = lsid.getJavaClass();
+        Node root = klass == null ? null : roots.get(klass);
+        if (root == null)
+        {
+            return;
+        }
+        int[] indexes = lsid.getIndexes();
+        Node node = root;
+        for (int index : indexes)
+        {
+            node = node.child(index);
+            if (node == null)
+            {
+                return;
+            }
+        }
+        if (node.container != null)
+        {
+            node.lsid = null;
+            node.container = null;
+            adjustSizes(root, indexes, -1);
+        }
+    }
+
+    /**
+     * Removes all containers.
+     */
+    void clear()
+    {
+        roots.clear();
+    }
+
+    /**
+     * Lists the containers of a class in the order of the container cache.
+     * @param klass The class.
+     * @return See above.
+     */
+    List<IObjectContainer> list(Class<?> klass)
+    {
+        Node root = roots.get(klass);
+        if (root == null)
+        {
+            return new ArrayList<IObjectContainer>();
+        }
+        List<Node> nodes = new ArrayList<Node>(root.size);
+        collect(root, nodes);
+        if (root.minDepth != root.maxDepth)
+        {
+            Collections.sort(nodes, new Comparator<Node>()
+            {
+                public int compare(Node x, Node y)
+                {
+                    return comparator.compare(x.lsid, y.lsid);
+                }
+            });
+        }
+        List<IObjectContainer> toReturn =
+            new ArrayList<IObjectContainer>(nodes.size());
+        for (Node node : nodes)
+        {
+            toReturn.add(node.container);
+        }
+        return toReturn;
+    }
+
+    /**
+     * Counts the containers of a class whose indexes match the given ones,
+     * comparing only as many indexes as the shorter of both has.
+     * @param klass The class.
+     * @param indexes The indexes or <code>null</code> to count all the
+     * containers of the class.
+     * @return See above.
+     */
+    int count(Class<?> klass, int[] indexes)
+    {
+        Node node = roots.get(klass);
+        if (node == null)
+        {
+            return 0;
+        }
+        if (indexes == null)
+        {
+            return node.size;
+        }
+        int count = 0;
+        for (int index : indexes)
+        {
+            // Containers with fewer indexes which match so far
+            if (node.container != null)
+            {
+                count++;
+            }
+            node = node.child(index);
+            if (node == null)
+            {
+                return count;
+            }
+        }
+        return count + node.size;
+    }
+
+    private static void adjustSizes(Node root, int[] indexes, int delta)
+    {
+        Node node = root;
+        node.size += delta;
+        for (int index : indexes)
+        {
+            node = node.child(index);
+            node.size += delta;
+        }
+    }
+
+    /**
+     * Adds the nodes with a container in ascending index order, each before
+     * its children.
+     */
+    private static void collect(Node node, List<Node> nodes)
+    {
+        if (node.size == 0)
+        {
+            return;
+        }
+        if (node.container != null)
+        {
+            nodes.add(node);
+        }
+        if (node.negative != null)
+        {
+            for (Node child : node.negative.values())
+            {
+                collect(child, nodes);
+            }
+        }
+        if (node.children != null)
+        {
+            for (Node child : node.children)
+            {
+                if (child != null)
+                {
+                    collect(child, nodes);
+                }
+            }
+        }
+    }
+
+    /**
+     * A position in the index tree of a class.
+     */
+    private static final class Node
+    {
+        /** The LSID of {@link #container}. */
+        LSID lsid;
+
+        /** The container at this position, if any. */
+        IObjectContainer container;
+
+        /** The number of containers at this position and below. */
+        int size;
+
+        /** The children with non-negative indexes, addressed by index. */
+        Node[] children;
+
+        /** The children with negative indexes, which are not expected. */
+        TreeMap<Integer, Node> negative;
+
+        /** The shortest and longest index count, only kept by roots. */
+        int minDepth = Integer.MAX_VALUE, maxDepth = -1;
+
+        Node child(int index)
+        {
+            if (index < 0)
+            {
+                return negative == null ? null : negative.get(index);
+            }
+            return children == null || index >= children.length ?
+                    null : children[index];
+        }
+
+        Node childOrCreate(int index)
+        {
+            Node child = child(index);
+            if (child != null)
+            {
+                return child;
+            }
+            child = new Node();
+            if (index < 0)
+            {
+                if (negative == null)
+                {
+                    negative = new TreeMap<Integer, Node>();
+                }
+                negative.put(index, child);
+            }
+            else
+            {
+                if (children == null)
+                {
+                    children = new Node[Math.max(4, index + 1)];
+                }
+                else if (index >= children.length)
+                {
+                    children = Arrays.copyOf(children,
+                            Math.max(index + 1, children.length * 2));
+                }
+                children[index] = child;
+            }
+            return child;
+        }
+    }
+}
@@ -245,6 +245,13 @@ public class OMEROMetadataStoreClient
     private Map<LSID, IObjectContainer> containerCache =
         new TreeMap<LSID, IObjectContainer>(new OMEXMLModelComparator());
 
+    /**
+     * Index of the class based entries of {@link #containerCache} by class
+     * and index path.
+     */
+    private IObjectContainerIndex containerIndex =
+        new IObjectContainerIndex(new OMEXMLModelComparator());
+
     /** Our LSID reference cache. */
     private Map<LSID, List<LSID>> referenceCache =
         new HashMap<LSID, List<LSID>>();
@@ -1193,6 +1200,7 @@ public class OMEROMetadataStoreClient
                 new HashMap<Class<? extends IObject>, Map<String, IObjectContainer>>();
             containerCache =
                 new TreeMap<LSID, IObjectContainer>(new OMEXMLModelComparator());
+            containerIndex.clear();
             referenceCache = new HashMap<LSID, List<LSID>>();
             referenceCacheCheck = new HashMap<LSID, Set<LSID>>();
             referenceStringCache = null;
@@ -2356,6 +2364,13 @@ public class OMEROMetadataStoreClient
     public IObjectContainer getIObjectContainer(Class<? extends IObject> klass,
                                                 LinkedHashMap<Index, Integer> indexes)
     {
+        // Existing containers are found without any allocation.
+        IObjectContainer existing = containerIndex.get(klass, indexes.values());
+        if (existing != null)
+        {
+            return existing;
+        }
+
         // Transform an integer collection into an integer array without using
         // wrapper objects.
         Collection<Integer> indexValues = indexes.values();
@@ -2376,16 +2391,17 @@ public class OMEROMetadataStoreClient
             asString.put(v.getKey().toString(), v.getValue());
         }
 
-        if (!containerCache.containsKey(lsid))
+        IObjectContainer c = containerCache.get(lsid);
+        if (c == null)
         {
-            IObjectContainer c = new IObjectContainer();
+            c = new IObjectContainer();
             c.indexes = asString;
             c.LSID = lsid.toString();
             c.sourceObject = getSourceObjectInstance(klass);
             containerCache.put(lsid, c);
         }
-
-        return containerCache.get(lsid);
+        containerIndex.put(lsid, c);
+        return c;
     }
 
     /* (non-Javadoc)
@@ -2395,6 +2411,7 @@ public class OMEROMetadataStoreClient
     public void removeIObjectContainer(LSID lsid)
     {
         containerCache.remove(lsid);
+        containerIndex.remove(lsid);
     }
 
     /* (non-Javadoc)
@@ -2403,17 +2420,7 @@ public class OMEROMetadataStoreClient
     @SuppressWarnings("unchecked")
     public List<IObjectContainer> getIObjectContainers(Class<? extends IObject> klass)
     {
-        Set<LSID> keys = containerCache.keySet();
-        List<IObjectContainer> toReturn = new ArrayList<IObjectContainer>();
-        for (LSID key : keys)
-        {
-            Class<? extends IObject> keyClass = key.getJavaClass();
-            if (keyClass != null && keyClass.equals(klass))
-            {
-                toReturn.add(containerCache.get(key));
-            }
-        }
-        return toReturn;
+        return containerIndex.list(klass);
     }
 
     /**
@@ -2439,40 +2446,7 @@ public class OMEROMetadataStoreClient
             return new HashSet<IObjectContainer>(containerCache.values()).size();
         }
 
-        int count = 0;
-        for (LSID lsid : containerCache.keySet())
-        {
-            Class<? extends IObject> lsidClass = lsid.getJavaClass();
-            if (lsidClass != null && lsidClass.equals(klass))
-            {
-                if (indexes == null)
-                {
-                    // We're just doing a class match, increment the count
-                    count++;
-                }
-                else
-                {
-                    // We're doing a class and index match, loop over and
-                    // check the indexes based on the shortest array.
-                    int[] lsidIndexes = lsid.getIndexes();
-                    int n = Math.min(indexes.length, lsidIndexes.length);
-                    boolean match = true;
-                    for (int i = 0; i < n; i++)
-                    {
-                        if (lsidIndexes[i] != indexes[i])
-                        {
-                            match = false;
-                            break;
-                        }
-                    }
-                    if (match)
-                    {
-                        count++;
-                    }
-                }
-            }
-        }
-        return count;
+        return containerIndex.count(klass, indexes);
     }
 
     /* (non-Javadoc)
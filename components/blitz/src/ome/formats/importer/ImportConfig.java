@@ -30,6 +30,7 @@ import loci.formats.FormatTools;
 import ome.formats.OMEROMetadataStoreClient;
 import ome.formats.importer.targets.ImportTarget;
 import ome.formats.importer.targets.TargetBuilder;
+import ome.formats.importer.transfers.UploadFileTransfer;
 import ome.formats.importer.util.IniFileLoader;
 import ome.system.PreferenceContext;
 import ome.system.UpgradeCheck;
@@ -144,6 +145,15 @@ public class ImportConfig {
     public final StrValue readersPath;
     public final StrValue checksumAlgorithm;
 
+    /**
+     * Number of writes each file upload may have in flight at once, by
+     * default {@link UploadFileTransfer#DEFAULT_WINDOW}. Uploads used to
+     * wait for each write, as they still do with a window of 1.
+     */
+    public final IntValue uploadWindow;
+    /** Number of files of a fileset which may be uploaded concurrently. */
+    public final IntValue parallelUploads;
+
     public final BoolValue encryptedConnection;
     public final BoolValue autoClose;
 
@@ -294,6 +304,9 @@ public class ImportConfig {
 
         readersPath = new StrValue("readersPath", this);
         checksumAlgorithm = new StrValue("checksumAlgorithm", this);
+        uploadWindow = new IntValue("uploadWindow", this,
+                UploadFileTransfer.DEFAULT_WINDOW);
+        parallelUploads = new IntValue("parallelUploads", this, 1);
     }
 
     public String getBioFormatsVersion() {
@@ -27,6 +27,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import loci.common.Location;
 import loci.formats.FormatException;
@@ -83,6 +90,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import Ice.Current;
 
@@ -145,6 +153,19 @@ public class ImportLibrary implements IObservable
      */
     private final String category;
 
+    /**
+     * Number of files of a fileset which may be uploaded concurrently when
+     * {@link #transfer} is an {@link UploadFileTransfer}.
+     */
+    private volatile int parallelUploads = 1;
+
+    /**
+     * Threads which upload the files of every fileset imported by this
+     * library, created on the first concurrent upload. Idle threads exit so
+     * that an unused library holds none.
+     */
+    private ThreadPoolExecutor uploadPool;
+
     static {
         final Set<ChecksumType> availableTypes = checksumProviderFactory.getAvailableTypes();
         final ImmutableList.Builder<ChecksumAlgorithm> builder = ImmutableList.builder();
@@ -228,13 +249,16 @@ public class ImportLibrary implements IObservable
 
     public boolean addObserver(IObserver object)
     {
-        return observers.add(object);
+        synchronized (observers) {
+            return observers.add(object);
+        }
     }
 
     public boolean deleteObserver(IObserver object)
     {
-        return observers.remove(object);
-
+        synchronized (observers) {
+            return observers.remove(object);
+        }
     }
 
     /* (non-Javadoc)
@@ -242,11 +266,44 @@ public class ImportLibrary implements IObservable
      */
     public void notifyObservers(ImportEvent event)
     {
-        for (IObserver observer : observers) {
-            observer.update(this, event);
+        // Serialized since concurrent uploads notify from several threads.
+        synchronized (observers) {
+            for (IObserver observer : observers) {
+                observer.update(this, event);
+            }
         }
     }
 
+    //
+    // Upload configuration
+    //
+
+    /**
+     * Sets the number of files of a fileset which may be uploaded
+     * concurrently. Only used if the {@link FileTransfer} is an
+     * {@link UploadFileTransfer}, which is safe for concurrent use.
+     * @param parallelUploads a positive number, otherwise 1 is used
+     */
+    public void setParallelUploads(int parallelUploads)
+    {
+        this.parallelUploads = Math.max(1, parallelUploads);
+    }
+
+    /**
+     * Applies the upload settings of the given configuration, i.e.
+     * {@link ImportConfig#uploadWindow} and
+     * {@link ImportConfig#parallelUploads}.
+     * @param config the configuration
+     */
+    public void configureUploads(ImportConfig config)
+    {
+        if (transfer instanceof UploadFileTransfer) {
+            ((UploadFileTransfer) transfer).setWindow(
+                    config.uploadWindow.get());
+        }
+        setParallelUploads(config.parallelUploads.get());
+    }
+
 
     // ~ Actions
     // =========================================================================
@@ -259,6 +316,7 @@ public class ImportLibrary implements IObservable
      */
     public boolean importCandidates(ImportConfig config, ImportCandidates candidates)
     {
+        configureUploads(config);
         List<ImportContainer> containers = candidates.getContainers();
         if (containers != null) {
             int numDone = 0;
@@ -391,26 +449,126 @@ public class ImportLibrary implements IObservable
     public List<String> uploadFilesToRepository(
             final String[] srcFiles, final ImportProcessPrx proc)
     {
-        final byte[] buf = new byte[store.getDefaultBlockSize()];
         final int fileTotal = srcFiles.length;
         final List<String> checksums = new ArrayList<String>(fileTotal);
         // TODO Fix with proper code instead of 10000L
         final TimeEstimator estimator = new ProportionalTimeEstimatorImpl(10000L);
 
         log.debug("Used files created:");
-        for (int i = 0; i < fileTotal; i++) {
-            try {
+        try {
+            uploadFiles(proc, srcFiles, estimator, checksums);
+        } catch (ServerError e) {
+            log.error("Server error uploading file.", e);
+        } catch (IOException e) {
+            log.error("I/O error uploading file.", e);
+        }
+        return checksums;
+    }
+
+    /**
+     * Uploads all the given files, concurrently if
+     * {@link #setParallelUploads(int)} permits it, adding their checksums to
+     * the given list in the order of the files. If an upload fails, the
+     * checksums of the files before it are still added.
+     * @param proc the server import process to use for the upload
+     * @param srcFiles the files to upload
+     * @param estimator estimator for the whole fileset, only used for
+     * sequential uploads
+     * @param checksums the list to add the client-side hashes to
+     * @throws ServerError if an upload failed on the server
+     * @throws IOException if a file could not be read
+     */
+    private void uploadFiles(final ImportProcessPrx proc,
+            final String[] srcFiles, TimeEstimator estimator,
+            List<String> checksums) throws ServerError, IOException
+    {
+        final int threads = Math.min(parallelUploads, srcFiles.length);
+        if (threads <= 1 || !(transfer instanceof UploadFileTransfer)) {
+            final byte[] buf = new byte[store.getDefaultBlockSize()];
+            for (int i = 0; i < srcFiles.length; i++) {
                 checksums.add(uploadFile(proc, srcFiles, i,
                         checksumProviderFactory, estimator, buf));
-            } catch (ServerError e) {
-                log.error("Server error uploading file.", e);
-                break;
-            } catch (IOException e) {
-                log.error("I/O error uploading file.", e);
-                break;
+            }
+            return;
+        }
+
+        final ExecutorService uploads = getUploadPool();
+        final List<Future<String>> futures =
+                new ArrayList<Future<String>>(srcFiles.length);
+        try {
+            for (int i = 0; i < srcFiles.length; i++) {
+                final int index = i;
+                futures.add(uploads.submit(new Callable<String>() {
+                    public String call() throws ServerError, IOException {
+                        // The estimator and buffer are not thread-safe, so
+                        // each file has its own.
+                        final File file = new File(
+                                Location.getMappedId(srcFiles[index]));
+                        return uploadFile(proc, srcFiles, index,
+                                checksumProviderFactory,
+                                new ProportionalTimeEstimatorImpl(file.length()),
+                                new byte[store.getDefaultBlockSize()]);
+                    }
+                }));
+            }
+            for (Future<String> future : futures) {
+                checksums.add(await(future));
+            }
+        } finally {
+            // Stops the remaining uploads if one of them failed.
+            for (Future<String> future : futures) {
+                future.cancel(true);
             }
         }
-        return checksums;
+    }
+
+    /**
+     * Returns the upload threads, sized to the current
+     * {@link #setParallelUploads(int)}.
+     */
+    private synchronized ExecutorService getUploadPool()
+    {
+        final int threads = parallelUploads;
+        if (uploadPool == null) {
+            uploadPool = new ThreadPoolExecutor(threads, threads,
+                    60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("Upload-%d").build());
+            uploadPool.allowCoreThreadTimeOut(true);
+        } else if (threads > uploadPool.getMaximumPoolSize()) {
+            uploadPool.setMaximumPoolSize(threads);
+            uploadPool.setCorePoolSize(threads);
+        } else if (threads < uploadPool.getMaximumPoolSize()) {
+            uploadPool.setCorePoolSize(threads);
+            uploadPool.setMaximumPoolSize(threads);
+        }
+        return uploadPool;
+    }
+
+    /**
+     * Waits for a concurrent upload, rethrowing its exception.
+     */
+    private String await(Future<String> future)
+            throws ServerError, IOException
+    {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted during upload", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof ServerError) {
+                throw (ServerError) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
     }
 
     public String uploadFile(final ImportProcessPrx proc,
@@ -500,7 +658,6 @@ public class ImportLibrary implements IObservable
         final ImportProcessPrx proc = createImport(container);
         final String[] srcFiles = container.getUsedFiles();
         final List<String> checksums = new ArrayList<String>();
-        final byte[] buf = new byte[store.getDefaultBlockSize()];
         final TimeEstimator estimator = new ProportionalTimeEstimatorImpl(
                 container.getUsedFilesTotalSize());
         Map<Integer, String> failingChecksums = new HashMap<Integer, String>();
@@ -508,10 +665,7 @@ public class ImportLibrary implements IObservable
         notifyObservers(new ImportEvent.FILESET_UPLOAD_START(
                 null, index, srcFiles.length, null, null, null));
 
-        for (int i = 0; i < srcFiles.length; i++) {
-            checksums.add(uploadFile(proc, srcFiles, i, checksumProviderFactory,
-                    estimator, buf));
-        }
+        uploadFiles(proc, srcFiles, estimator, checksums);
 
         try {
             handle = proc.verifyUpload(checksums);
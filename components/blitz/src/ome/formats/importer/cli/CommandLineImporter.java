@@ -440,6 +440,11 @@ public class CommandLineImporter {
             + "    --no-upgrade-check\t\tDisable upgrade check for each import\n"
             + "  e.g. $ bin/omero import -- --no-upgrade-check foo.tiff\n"
             + "       $ ./importer-cli --no-upgrade-check bar.tiff\n\n"
+            + "    --upload-window=ARG     \tNumber of writes each file upload keeps in flight (default: 4)\n"
+            + "                            \tFormerly each write was awaited, as with --upload-window=1\n\n"
+            + "    --parallel-upload=ARG   \tNumber of files of a fileset uploaded concurrently (default: 1)\n\n"
+            + "  e.g. $ bin/omero import -- --upload-window=16 --parallel-upload=4 foo.tiff\n"
+            + "       $ ./importer-cli --parallel-upload=4 some_directory/\n\n"
             + "\n"
             + "  Feedback:\n"
             + "  ---------\n\n"
@@ -567,6 +572,10 @@ public class CommandLineImporter {
                 new LongOpt("no-stats-info", LongOpt.NO_ARGUMENT, null, 23);
         LongOpt noUpgradeCheck =
                 new LongOpt("no-upgrade-check", LongOpt.NO_ARGUMENT, null, 24);
+        LongOpt uploadWindow =
+                new LongOpt("upload-window", LongOpt.REQUIRED_ARGUMENT, null, 25);
+        LongOpt parallelUpload =
+                new LongOpt("parallel-upload", LongOpt.REQUIRED_ARGUMENT, null, 26);
 
         // DEPRECATED OPTIONS
         LongOpt plateName = new LongOpt(
@@ -593,6 +602,7 @@ public class CommandLineImporter {
                                 closeCompleted, waitCompleted, autoClose,
                                 exclude, target, noStatsInfo,
                                 noUpgradeCheck, qaBaseURL,
+                                uploadWindow, parallelUpload,
                                 plateName, plateDescription,
                                 noThumbnailsDeprecated,
                                 checksumAlgorithmDeprecated,
@@ -735,6 +745,18 @@ public class CommandLineImporter {
                 config.checkUpgrade.set(false);
                 break;
             }
+            case 25: {
+                String arg = g.getOptarg();
+                log.info("Setting upload window to {}", arg);
+                config.uploadWindow.set(Integer.parseInt(arg));
+                break;
+            }
+            case 26: {
+                String arg = g.getOptarg();
+                log.info("Setting parallel uploads to {}", arg);
+                config.parallelUploads.set(Integer.parseInt(arg));
+                break;
+            }
             // ADVANCED END ---------------------------------------------------
             // DEPRECATED OPTIONS
             case 90: {
@@ -22,6 +22,9 @@ package ome.formats.importer.transfers;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 
 import ome.util.checksum.ChecksumProvider;
@@ -35,19 +38,53 @@ import org.apache.commons.lang.ArrayUtils;
  * files using the API. This is done by reading from
  * {@link TransferState#getFile()} into {@link TransferState#getBuffer()}
  * and then {@link RawFileStorePrx#write(byte[], long, int) writing} to the
- * server. <em>Not thread safe</em>
+ * server.
+ *
+ * Up to {@link #getWindow()} writes are kept in flight via
+ * {@link RawFileStorePrx#begin_write(byte[], long, int)}, so that reading
+ * and checksumming the next blocks overlaps with the round-trips of the
+ * previous ones. A window of 1 restores the blocking behavior. Each
+ * {@link #transfer(TransferState)} call uses its own buffers besides
+ * {@link TransferState#getBuffer()}, so that files with separate states may
+ * be transferred concurrently.
  *
  * @since 5.0
  */
 public class UploadFileTransfer extends AbstractFileTransfer {
 
+    /**
+     * Default number of writes which may be in flight at once.
+     */
+    public static final int DEFAULT_WINDOW = 4;
+
+    private volatile int window = DEFAULT_WINDOW;
+
+    /**
+     * @return the number of writes which may be in flight at once
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Sets the number of writes which may be in flight at once. Each of them
+     * holds a buffer of the size of {@link TransferState#getBuffer()}.
+     * @param window a positive number, otherwise 1 is used
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(1, window);
+    }
+
     public String transfer(TransferState state) throws IOException, ServerError {
 
         final RawFileStorePrx rawFileStore = start(state);
         final File file = state.getFile();
         final byte[] buf = state.getBuffer();
         final ChecksumProvider cp = state.getChecksumProvider();
-        
+        final int window = this.window;
+        final Deque<PendingWrite> pending = new ArrayDeque<PendingWrite>(window);
+        int buffers = 1;
+
         FileInputStream stream = null;
 
         try {
@@ -62,24 +99,40 @@ public class UploadFileTransfer extends AbstractFileTransfer {
             state.stop();
             state.uploadBytes(offset);
     
+            byte[] next = buf;
             while (true) {
                 state.start();
-                rlen = stream.read(buf);
+                if (next == null) {
+                    if (buffers < window) {
+                        next = new byte[buf.length];
+                        buffers++;
+                    } else {
+                        // Window full: wait for the oldest write and reuse
+                        // its buffer.
+                        next = complete(rawFileStore, pending.poll(), state);
+                    }
+                }
+                rlen = stream.read(next);
                 if (rlen == -1) {
                     break;
                 }
-                cp.putBytes(buf, 0, rlen);
+                cp.putBytes(next, 0, rlen);
                 final byte[] bufferToWrite;
-                if (rlen < buf.length) {
-                    bufferToWrite = new byte[rlen];
-                    System.arraycopy(buf, 0, bufferToWrite, 0, rlen);
+                if (rlen < next.length) {
+                    bufferToWrite = Arrays.copyOf(next, rlen);
                 } else {
-                    bufferToWrite = buf;
+                    bufferToWrite = next;
                 }
-                rawFileStore.write(bufferToWrite, offset, rlen);
+                pending.add(new PendingWrite(
+                        rawFileStore.begin_write(bufferToWrite, offset, rlen),
+                        next, offset + rlen));
+                next = null;
                 offset += rlen;
                 state.stop(rlen);
-                state.uploadBytes(offset);
+            }
+
+            while (!pending.isEmpty()) {
+                complete(rawFileStore, pending.poll(), state);
             }
 
             return finish(state, offset);
@@ -88,6 +141,37 @@ public class UploadFileTransfer extends AbstractFileTransfer {
         }
     }
 
+    /**
+     * Waits for a write to be acknowledged by the server, rethrowing any
+     * exception it raised, and reports its progress.
+     * @return the buffer of the write, free for reuse
+     */
+    private byte[] complete(RawFileStorePrx rawFileStore, PendingWrite write,
+            TransferState state) throws ServerError {
+        rawFileStore.end_write(write.result);
+        state.uploadBytes(write.end);
+        return write.buffer;
+    }
+
+    /**
+     * A write which was begun but not yet completed.
+     */
+    private static class PendingWrite {
+
+        final Ice.AsyncResult result;
+
+        final byte[] buffer;
+
+        /** Offset following the written block. */
+        final long end;
+
+        PendingWrite(Ice.AsyncResult result, byte[] buffer, long end) {
+            this.result = result;
+            this.buffer = buffer;
+            this.end = end;
+        }
+    }
+
     /**
      * Since the {@link RawFileStorePrx} instances are cleaned up after each
      * transfer, there's no need to cleanup per {@link File}.
@@ -24,6 +24,11 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
@@ -32,6 +37,7 @@ import loci.formats.MissingLibraryException;
 import loci.formats.UnknownFormatException;
 import loci.formats.UnsupportedCompressionException;
 import loci.formats.in.MIASReader;
+import loci.formats.meta.IMinMaxStore;
 import ome.formats.OMEROMetadataStoreClient;
 import ome.formats.OverlayMetadataStore;
 import ome.formats.importer.ImportConfig;
@@ -78,6 +84,7 @@ import org.slf4j.MDC;
 
 import ch.qos.logback.classic.ClassicConstants;
 
+
 /**
  * Wrapper around {@link FilesetJobLink} instances which need to be handled
  * on the server-side. This will primarily provide the step-location required
@@ -163,6 +170,20 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
 
     private final String token;
 
+    /**
+     * Number of series whose pixel data is parsed concurrently by
+     * {@link #pixelData(PixelDataJob)}, each by a reader of its own.
+     */
+    private int parseThreads = 1;
+
+    /** Threads on which the series are parsed, shared by all imports. */
+    private ExecutorService parsers;
+
+    /** Memoizer settings of the additional readers. */
+    private long memoizerWait = -1;
+
+    private File memoizerDirectory = null;
+
 
     /**
      * Set by ManagedImportProcessI when verifyUpload has been called.
@@ -186,6 +207,19 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         this.resources = resources;
     }
 
+    /**
+     * Late injection of the number of series to parse concurrently on the
+     * given threads. Each thread opens the file with an {@link OMEROWrapper}
+     * of its own, using the given memoizer settings.
+     */
+    public void setParseThreads(ExecutorService parsers, int parseThreads,
+            long memoizerWait, File memoizerDirectory) {
+        this.parsers = parsers;
+        this.parseThreads = Math.max(1, parseThreads);
+        this.memoizerWait = memoizerWait;
+        this.memoizerDirectory = memoizerDirectory;
+    }
+
     //
     // IRequest methods
     //
@@ -634,14 +668,25 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         {
             // Parse the binary data to generate min/max values
             int seriesCount = reader.getSeriesCount();
-            for (int series = 0; series < seriesCount; series++) {
-                ImportSize size = new ImportSize(fileName,
-                        pixList.get(series), reader.getDimensionOrder());
-                Pixels pixels = pixList.get(series);
-                MessageDigest md = parseData(fileName, series, size);
-                if (md != null) {
-                   final String s = Hex.encodeHexString(md.digest());
-                   pixels.setSha1(store.toRType(s));
+            int threads = Math.min(parseThreads, seriesCount);
+            if (threads > 1) {
+                final String[] sha1s = parseDataConcurrently(threads);
+                for (int series = 0; series < seriesCount; series++) {
+                    if (sha1s[series] != null) {
+                        pixList.get(series).setSha1(
+                                store.toRType(sha1s[series]));
+                    }
+                }
+            } else {
+                for (int series = 0; series < seriesCount; series++) {
+                    ImportSize size = new ImportSize(fileName,
+                            pixList.get(series), reader.getDimensionOrder());
+                    Pixels pixels = pixList.get(series);
+                    MessageDigest md = parseData(fileName, series, size);
+                    if (md != null) {
+                       final String s = Hex.encodeHexString(md.digest());
+                       pixels.setSha1(store.toRType(s));
+                    }
                 }
             }
         }
@@ -738,6 +783,103 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
             String fileName, int series,
             ImportSize size)
         throws FormatException, IOException, ServerError
+    {
+        final byte[][] buf = new byte[][] { arrayBuf };
+        try {
+            return parseData(reader, fileName, series, size, buf);
+        } finally {
+            arrayBuf = buf[0];
+        }
+    }
+
+    /**
+     * Parses the series of the file concurrently, each thread with its own
+     * reader and digests. The readers report min/max values to
+     * {@link #store} while holding its lock.
+     *
+     * @param threads the number of threads and readers
+     * @return The hex encoded SHA1 digest of each series, null for series
+     * with planes too large to be parsed.
+     */
+    private String[] parseDataConcurrently(int threads) throws Throwable
+    {
+        final int seriesCount = pixList.size();
+        final String[] sha1s = new String[seriesCount];
+        final AtomicInteger next = new AtomicInteger();
+        // Read once on this thread for all the readers of the same file.
+        final boolean minMaxSet = reader.isMinMaxSet();
+        final IMinMaxStore minMaxStore = new IMinMaxStore() {
+            public void setChannelGlobalMinMax(int channel, double minimum,
+                    double maximum, int series) {
+                synchronized (store) {
+                    store.setChannelGlobalMinMax(channel, minimum, maximum,
+                            series);
+                }
+            }
+        };
+
+        final List<Future<Object>> futures =
+                new ArrayList<Future<Object>>(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                futures.add(parsers.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        final OMEROWrapper worker = new OMEROWrapper(
+                                new ImportConfig(), memoizerWait,
+                                memoizerDirectory);
+                        try {
+                            worker.setMinMaxStore(minMaxStore);
+                            file.bfSetId(worker);
+                            // Already checked on the primary reader.
+                            worker.minMaxSet = minMaxSet;
+                            final byte[][] buf = new byte[][] {
+                                    new byte[arrayBuf.length] };
+                            int series;
+                            while ((series = next.getAndIncrement())
+                                    < seriesCount) {
+                                worker.setSeries(series);
+                                ImportSize size = new ImportSize(fileName,
+                                        pixList.get(series),
+                                        worker.getDimensionOrder());
+                                MessageDigest md = parseData(worker,
+                                        fileName, series, size, buf);
+                                if (md != null) {
+                                    sha1s[series] =
+                                        Hex.encodeHexString(md.digest());
+                                }
+                            }
+                        } finally {
+                            worker.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+            }
+        } finally {
+            // Stops the remaining readers if a series failed.
+            for (Future<Object> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return sha1s;
+    }
+
+    /**
+     * Parses one series with the given reader. Min/max values are
+     * calculated by the reader from the same tiles that are digested.
+     *
+     * @param buf holder of the tile buffer, which may be replaced
+     */
+    private MessageDigest parseData(OMEROWrapper reader,
+            String fileName, int series, ImportSize size, byte[][] buf)
+        throws FormatException, IOException
     {
         reader.setSeries(series);
         int maxPlaneSize = sizes.getMaxPlaneWidth() * sizes.getMaxPlaneHeight();
@@ -759,8 +901,8 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         for (int t = 0; t < size.sizeT; t++) {
             for (int c = 0; c < size.sizeC; c++) {
                 for (int z = 0; z < size.sizeZ; z++) {
-                    parseDataByPlane(size, z, c, t,
-                            bytesPerPixel, fileName, md);
+                    parseDataByPlane(reader, size, z, c, t,
+                            bytesPerPixel, fileName, md, buf);
                     notifyObservers(new ImportEvent.IMPORT_STEP(
                             planeNo, series, reader.getSeriesCount()));
                     planeNo++;
@@ -781,17 +923,19 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
      * @param bytesPerPixel Number of bytes per pixel.
      * @param fileName Name of the file.
      * @param md Current Pixels set message digest.
+     * @param buf Holder of the tile buffer, which may be replaced.
      * @throws FormatException If there is an error reading Pixel data via
      * Bio-Formats.
      * @throws IOException If there is an I/O error reading Pixel data via
      * Bio-Formats.
      */
-    private void parseDataByPlane(
+    private void parseDataByPlane(OMEROWrapper reader,
             ImportSize size, int z, int c, int t,
             int bytesPerPixel, String fileName,
-            MessageDigest md)
+            MessageDigest md, byte[][] buf)
         throws FormatException, IOException
     {
+        byte[] arrayBuf = buf[0];
         int tileHeight = reader.getOptimalTileHeight();
         int tileWidth = reader.getOptimalTileWidth();
         int planeNumber, x, y, w, h;
@@ -839,6 +983,7 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
                 }
             }
         }
+        buf[0] = arrayBuf;
     }
 
     /**
@@ -901,7 +1046,10 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         return pixelsIds;
     }
 
-    private void notifyObservers(Object...args) {
+    /**
+     * Synchronized as the series parsers notify their steps concurrently.
+     */
+    private synchronized void notifyObservers(Object...args) {
         // TEMPORARY REPLACEMENT. FIXME
     }
 
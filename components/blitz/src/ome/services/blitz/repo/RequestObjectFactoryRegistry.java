@@ -19,6 +19,10 @@ package ome.services.blitz.repo;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
@@ -35,6 +39,8 @@ import ome.formats.importer.OMEROWrapper;
 
 import omero.util.Resources;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 
 /**
  * Requests which are handled by the repository servants.
@@ -56,6 +62,14 @@ public class RequestObjectFactoryRegistry extends
 
     private/* final */OmeroContext ctx;
 
+    private int parseThreads = 1;
+
+    /**
+     * Threads shared by all imports to parse their series concurrently,
+     * created when the first request is.
+     */
+    private ThreadPoolExecutor parsers;
+
     public RequestObjectFactoryRegistry(Registry reg, TileSizes sizes,
             RepositoryDao repositoryDao, Ring ring,
             PixelsService pixels) {
@@ -72,6 +86,35 @@ public class RequestObjectFactoryRegistry extends
         this.resources = resources;
     }
 
+    /**
+     * Sets the number of series of an import which are parsed concurrently
+     * after the metadata import, each by a reader of its own.
+     */
+    public void setParseThreads(int parseThreads) {
+        this.parseThreads = parseThreads;
+    }
+
+    /**
+     * Stops the threads parsing the series of the imports.
+     */
+    public synchronized void destroy() {
+        if (parsers != null) {
+            parsers.shutdownNow();
+        }
+    }
+
+    private synchronized ExecutorService getParsers() {
+        if (parsers == null) {
+            final int threads = Math.max(1, parseThreads);
+            parsers = new ThreadPoolExecutor(threads, threads,
+                    60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("ImportParser-%d").build());
+            parsers.allowCoreThreadTimeOut(true);
+        }
+        return parsers;
+    }
+
     public void setApplicationContext(ApplicationContext ctx)
             throws BeansException {
         this.ctx = (OmeroContext) ctx;
@@ -90,6 +133,9 @@ public class RequestObjectFactoryRegistry extends
                                 pixels.getMemoizerDirectory()),
                         ring.uuid);
                 mir.setResources(resources);
+                mir.setParseThreads(getParsers(), parseThreads,
+                        pixels.getMemoizerWait(),
+                        pixels.getMemoizerDirectory());
                 return mir;
             }
 
@@ -13,12 +13,22 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ome.conditions.ApiUsageException;
+import ome.conditions.ResourceError;
 import ome.io.nio.PixelBuffer;
 import ome.model.IObject;
 import ome.model.core.Pixels;
@@ -47,6 +57,8 @@ import org.slf4j.LoggerFactory;
 import org.hibernate.Query;
 import org.hibernate.Session;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * Strategy for handling the conversion between {@link Shape shapes} and
  * database-specific geometries.
@@ -68,6 +80,16 @@ public class GeomTool {
 
     protected final String uuid;
 
+    /** Number of planes whose statistics are read at the same time. */
+    private static final int STATS_THREADS =
+            Runtime.getRuntime().availableProcessors();
+
+    /** Largest number of pixels read with one {@link PixelBuffer#getTile}. */
+    private static final int MAX_TILE_PIXELS = 4 * 1024 * 1024;
+
+    /** Created on the first call to {@link #getStats(List)}. */
+    private ExecutorService statsPool;
+
     public GeomTool(PixelData data, SqlAction sql,
             SessionFactory factory) {
         this(data, sql, factory, null, null);
@@ -230,6 +252,17 @@ public class GeomTool {
         return sp;
     }
 
+    /**
+     * Calculates the statistics of the given shapes. The shapes are loaded
+     * in one query and rasterized into spans. Each plane needed by any of
+     * the shapes is then read once, as the tile covering all the shapes on
+     * it, and the values under all those shapes are accumulated in the same
+     * pass. Planes are read in parallel, each worker with its own
+     * {@link PixelBuffer}.
+     *
+     * @param shapeIds The shapes to calculate the statistics of.
+     * @return See above.
+     */
     public RoiStats getStats(List<Long> shapeIds) {
 
         if (shapeIds == null) {
@@ -239,20 +272,26 @@ public class GeomTool {
         final Session session = factory.getSession();
         final RoiStats rs = new RoiStats();
         rs.perShape = new ShapeStats[shapeIds.size()];
+        if (shapeIds.isEmpty()) {
+            return rs; // EARLY EXIT
+        }
+
+        final Map<Long, ome.model.roi.Shape> shapes = loadShapes(shapeIds,
+                session);
+
+        // One accumulator slot per shape and channel.
+        final int[] offsets = new int[shapeIds.size() + 1];
+        // The planes to read, per pixels set.
+        final Map<Long, Map<Long, Plane>> planes =
+                new LinkedHashMap<Long, Map<Long, Plane>>();
 
         for (int i = 0; i < shapeIds.size(); i++) {
 
             final long shapeId = shapeIds.get(i);
-
-            final ome.model.roi.Shape shape = (ome.model.roi.Shape) session
-                    .createQuery(
-                            "select s from Shape s "
-                                    + "left outer join fetch s.channels selected " // optional
-                                    + "join fetch s.roi r join fetch r.image i "
-                                    + "join fetch i.pixels p join fetch p.channels c "
-                                    + "join fetch c.logicalChannel lc "
-                                    + "where s.id = :id").setParameter("id",
-                            shapeId).uniqueResult();
+            final ome.model.roi.Shape shape = shapes.get(shapeId);
+            if (shape == null) {
+                throw new ApiUsageException("No such shape: " + shapeId);
+            }
             final SmartShape smartShape = (SmartShape) new ShapeMapper()
                     .map(shape);
 
@@ -264,9 +303,6 @@ public class GeomTool {
             final long imgId = img.getId();
             final long pixId = pix.getId();
 
-            final int maxZ = pix.getSizeZ();
-            final int maxT = pix.getSizeT();
-
             // We only take the values for the first Shape. If this call is
             // being made with different shapes, then the user will know as
             // much.
@@ -286,72 +322,217 @@ public class GeomTool {
             }
             final ShapeStats stats = makeStats(pix, shape);
             stats.shapeId = shape.getId();
+            rs.perShape[i] = stats;
 
             final int ch = stats.channelIds.length;
-            final double[] sumOfSquares = new double[ch];
+            offsets[i + 1] = offsets[i] + ch;
+
+            final ShapeRaster raster = ShapeRaster.of(smartShape);
+            final int[] bounds = raster.bounds();
+            if (bounds == null) {
+                continue; // No points
+            }
+            if (bounds[0] < 0 || bounds[1] < 0
+                    || bounds[0] + bounds[2] > pix.getSizeX()
+                    || bounds[1] + bounds[3] > pix.getSizeY()) {
+                throw new ApiUsageException("Shape " + shapeId
+                        + " extends beyond the image");
+            }
 
             final Integer theZ = shape.getTheZ(); // May be null
             final Integer theT = shape.getTheT(); // May be null
+            final Integer theC = shape.getTheC(); // May be null
 
+            final int maxZ = pix.getSizeZ();
+            final int maxT = pix.getSizeT();
             final int startZ = (theZ == null) ? 0 : theZ.intValue();
             final int startT = (theT == null) ? 0 : theT.intValue();
-
             final int endZ = (theZ == null) ? (maxZ - 1) : theZ.intValue();
             final int endT = (theT == null) ? (maxT - 1) : theT.intValue();
 
-            final PixelBuffer buf = data.getBuffer(pixId);
-            try {
-                SmartShape.PointCallback cb = new SmartShape.PointCallback() {
+            Map<Long, Plane> pixPlanes = planes.get(pixId);
+            if (pixPlanes == null) {
+                pixPlanes = new LinkedHashMap<Long, Plane>();
+                planes.put(pixId, pixPlanes);
+            }
+            for (int w = 0; w < ch; w++) {
+                final int c = (theC == null) ? w : theC.intValue();
+                for (int z = startZ; z <= endZ; z++) {
+                    for (int t = startT; t <= endT; t++) {
+                        final long key = ((long) t * pix.sizeOfChannels() + c)
+                                * maxZ + z;
+                        Plane plane = pixPlanes.get(key);
+                        if (plane == null) {
+                            plane = new Plane(z, c, t);
+                            pixPlanes.put(key, plane);
+                        }
+                        plane.add(raster, offsets[i] + w, bounds);
+                    }
+                }
+            }
+        }
+
+        final Accumulator total = new Accumulator(offsets[shapeIds.size()]);
+        for (Map.Entry<Long, Map<Long, Plane>> entry : planes.entrySet()) {
+            accumulate(entry.getKey(),
+                    new ArrayList<Plane>(entry.getValue().values()), total);
+        }
 
-                    public void handle(int x, int y) {
+        for (int i = 0; i < shapeIds.size(); i++) {
+            final ShapeStats stats = rs.perShape[i];
+            for (int w = 0; w < stats.channelIds.length; w++) {
+                final int slot = offsets[i] + w;
+                stats.pointsCount[w] = total.count[slot];
+                stats.min[w] = Math.min(stats.min[w], total.min[slot]);
+                stats.max[w] = Math.max(stats.max[w], total.max[slot]);
+                stats.sum[w] = total.sum[slot];
 
-                        for (int w = 0; w < ch; w++) {
+                stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
+                if (stats.pointsCount[w] > 1) {
+                    double sigmaSquare = (total.sumOfSquares[slot]
+                            - stats.sum[w] * stats.sum[w]
+                            / stats.pointsCount[w])
+                            / (stats.pointsCount[w] - 1);
+                    if (sigmaSquare > 0) {
+                        stats.stdDev[w] = Math.sqrt(sigmaSquare);
+                    }
+                }
+            }
+        }
 
-                            for (int z = startZ; z <= endZ; z++) {
-                                for (int t = startT; t <= endT; t++) {
+        return rs;
 
-                                    // WHAT TO DO ABOUT THE CHANNELS IN AGGREGATION?
-                                    stats.pointsCount[w]++;
-                                    double value = data.get(buf, x, y, z, w, t);
-                                    stats.min[w] = Math.min(value, stats.min[w]);
-                                    stats.max[w] = Math.max(value, stats.max[w]);
-                                    stats.sum[w] += value;
-                                    sumOfSquares[w] += value * value;
+    }
 
-                                }
-                            }
+    /**
+     * Loads the given shapes along with their channels, image and pixels.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<Long, ome.model.roi.Shape> loadShapes(List<Long> shapeIds,
+            Session session) {
+        final List<ome.model.roi.Shape> list = session
+                .createQuery(
+                        "select distinct s from Shape s "
+                                + "left outer join fetch s.channels selected " // optional
+                                + "join fetch s.roi r join fetch r.image i "
+                                + "join fetch i.pixels p join fetch p.channels c "
+                                + "join fetch c.logicalChannel lc "
+                                + "where s.id in (:ids)")
+                .setParameterList("ids", new HashSet<Long>(shapeIds)).list();
+        final Map<Long, ome.model.roi.Shape> shapes =
+                new HashMap<Long, ome.model.roi.Shape>();
+        for (ome.model.roi.Shape shape : list) {
+            shapes.put(shape.getId(), shape);
+        }
+        return shapes;
+    }
 
-                        }
+    /**
+     * Accumulates the values under the shapes of each plane of a pixels set.
+     * The planes are shared between workers which each read from their own
+     * {@link PixelBuffer}, opened on the calling thread since this needs the
+     * current session.
+     */
+    private void accumulate(final long pixId, final List<Plane> planes,
+            final Accumulator total) {
+        final int threads = Math.min(planes.size(), STATS_THREADS);
+        final List<PixelBuffer> bufs = new ArrayList<PixelBuffer>(threads);
+        try {
+            for (int i = 0; i < threads; i++) {
+                bufs.add(data.getBuffer(pixId));
+            }
+            final AtomicInteger next = new AtomicInteger();
+            if (threads == 1) {
+                total.merge(accumulate(bufs.get(0), planes, next,
+                        total.size()));
+                return;
+            }
+            final List<Future<Accumulator>> futures =
+                    new ArrayList<Future<Accumulator>>(threads);
+            for (final PixelBuffer buf : bufs) {
+                futures.add(statsPool().submit(new Callable<Accumulator>() {
+                    public Accumulator call() {
+                        return accumulate(buf, planes, next, total.size());
                     }
-                };
-
-                smartShape.areaPoints(cb);
-            } finally {
+                }));
+            }
+            for (Future<Accumulator> future : futures) {
+                try {
+                    total.merge(future.get());
+                } catch (InterruptedException e) {
+                    throw new ResourceError("Interrupted: " + e);
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new ResourceError("Failed to read pixels: "
+                            + cause);
+                }
+            }
+        } finally {
+            for (PixelBuffer buf : bufs) {
                 try {
                     buf.close();
                 } catch (IOException e) {
                     log.error("Error closing " + buf, e);
                 }
             }
+        }
+    }
 
-            for (int w = 0; w < ch; w++) {
-
-                stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
-                if (stats.pointsCount[w] > 1) {
-                    double sigmaSquare = (sumOfSquares[w] - stats.sum[w]
-                            * stats.sum[w] / stats.pointsCount[w])
-                            / (stats.pointsCount[w] - 1);
-                    if (sigmaSquare > 0) {
-                        stats.stdDev[w] = Math.sqrt(sigmaSquare);
+    /**
+     * Reads the planes not yet taken by another worker and accumulates the
+     * values under their shapes. Planes larger than {@link #MAX_TILE_PIXELS}
+     * are read as several bands of rows.
+     */
+    private Accumulator accumulate(PixelBuffer buf, List<Plane> planes,
+            AtomicInteger next, int size) {
+        final Accumulator acc = new Accumulator(size);
+        int index;
+        while ((index = next.getAndIncrement()) < planes.size()) {
+            final Plane plane = planes.get(index);
+            final int w = plane.maxX - plane.minX;
+            final int band = Math.max(1, Math.min(plane.maxY - plane.minY,
+                    MAX_TILE_PIXELS / w));
+            for (int y0 = plane.minY; y0 < plane.maxY; y0 += band) {
+                final int h = Math.min(band, plane.maxY - y0);
+                ome.util.PixelData pd = null;
+                try {
+                    pd = buf.getTile(plane.z, plane.c, plane.t, plane.minX,
+                            y0, w, h);
+                    for (int k = 0; k < plane.rasters.size(); k++) {
+                        final ShapeRaster raster = plane.rasters.get(k);
+                        final int slot = plane.slots.get(k);
+                        for (int s = raster.firstSpan(y0); s < raster.size()
+                                && raster.row(s) < y0 + h; s++) {
+                            final int offset = (raster.row(s) - y0) * w
+                                    - plane.minX;
+                            for (int x = raster.start(s); x < raster.end(s);
+                                    x++) {
+                                acc.add(slot, pd.getPixelValue(offset + x));
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new ResourceError("IOException: " + e);
+                } finally {
+                    if (pd != null) {
+                        pd.dispose();
                     }
                 }
             }
-
-            rs.perShape[i] = stats;
         }
+        return acc;
+    }
 
-        return rs;
-
+    private synchronized ExecutorService statsPool() {
+        if (statsPool == null) {
+            statsPool = Executors.newFixedThreadPool(STATS_THREADS,
+                    new ThreadFactoryBuilder().setDaemon(true)
+                            .setNameFormat("RoiStats-%d").build());
+        }
+        return statsPool;
     }
 
     /**
@@ -430,6 +611,84 @@ public class GeomTool {
         return ss;
     }
 
+    /**
+     * A plane to read and the shapes on it.
+     */
+    private static class Plane {
+
+        final int z, c, t;
+
+        final List<ShapeRaster> rasters = new ArrayList<ShapeRaster>();
+
+        /** The accumulator slot of each raster. */
+        final List<Integer> slots = new ArrayList<Integer>();
+
+        /** The box covering all the rasters. */
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE,
+                maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+
+        Plane(int z, int c, int t) {
+            this.z = z;
+            this.c = c;
+            this.t = t;
+        }
+
+        void add(ShapeRaster raster, int slot, int[] bounds) {
+            rasters.add(raster);
+            slots.add(slot);
+            minX = Math.min(minX, bounds[0]);
+            minY = Math.min(minY, bounds[1]);
+            maxX = Math.max(maxX, bounds[0] + bounds[2]);
+            maxY = Math.max(maxY, bounds[1] + bounds[3]);
+        }
+    }
+
+    /**
+     * Running statistics, one slot per shape and channel.
+     */
+    private static class Accumulator {
+
+        final long[] count;
+
+        final double[] min, max, sum, sumOfSquares;
+
+        Accumulator(int size) {
+            count = new long[size];
+            min = new double[size];
+            max = new double[size];
+            sum = new double[size];
+            sumOfSquares = new double[size];
+            Arrays.fill(min, Double.MAX_VALUE);
+            Arrays.fill(max, -Double.MAX_VALUE);
+        }
+
+        int size() {
+            return count.length;
+        }
+
+        void add(int slot, double value) {
+            count[slot]++;
+            if (value < min[slot]) {
+                min[slot] = value;
+            }
+            if (value > max[slot]) {
+                max[slot] = value;
+            }
+            sum[slot] += value;
+            sumOfSquares[slot] += value * value;
+        }
+
+        void merge(Accumulator other) {
+            for (int i = 0; i < count.length; i++) {
+                count[i] += other.count[i];
+                min[i] = Math.min(min[i], other.min[i]);
+                max[i] = Math.max(max[i], other.max[i]);
+                sum[i] += other.sum[i];
+                sumOfSquares[i] += other.sumOfSquares[i];
+            }
+        }
+    }
+
     private static class ShapeMapper extends IceMapper {
 
         boolean called = false;
@@ -0,0 +1,139 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi;
+
+import java.util.Arrays;
+
+import omero.model.SmartShape;
+
+/**
+ * The points of a {@link SmartShape} as runs of consecutive points along
+ * each row, ordered by row then by column, so that the pixel values under
+ * a shape can be read from a tile without a lookup per point. A point
+ * passed more than once by {@link SmartShape#areaPoints(SmartShape.PointCallback)}
+ * is kept as often.
+ *
+ * @since 5.1
+ */
+public class ShapeRaster {
+
+    private final int[] rows;
+
+    private final int[] starts;
+
+    private final int[] ends;
+
+    private final long points;
+
+    private ShapeRaster(int[] rows, int[] starts, int[] ends, long points) {
+        this.rows = rows;
+        this.starts = starts;
+        this.ends = ends;
+        this.points = points;
+    }
+
+    /**
+     * Collects the points of the shape into spans.
+     */
+    public static ShapeRaster of(SmartShape shape) {
+        final long[][] packed = new long[][] { new long[64] };
+        final int[] size = new int[1];
+        shape.areaPoints(new SmartShape.PointCallback() {
+            public void handle(int x, int y) {
+                if (size[0] == packed[0].length) {
+                    packed[0] = Arrays.copyOf(packed[0], size[0] * 2);
+                }
+                // Orders by row then column, also for negative values.
+                packed[0][size[0]++] = ((long) y << 32)
+                        | ((x & 0xffffffffL) ^ 0x80000000L);
+            }
+        });
+        final long[] p = packed[0];
+        final int n = size[0];
+        Arrays.sort(p, 0, n);
+
+        int[] rows = new int[Math.max(1, n)];
+        int[] starts = new int[rows.length];
+        int[] ends = new int[rows.length];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int y = (int) (p[i] >> 32);
+            int x = (int) ((p[i] & 0xffffffffL) ^ 0x80000000L);
+            if (count > 0 && rows[count - 1] == y && ends[count - 1] == x) {
+                ends[count - 1]++;
+            } else {
+                rows[count] = y;
+                starts[count] = x;
+                ends[count] = x + 1;
+                count++;
+            }
+        }
+        return new ShapeRaster(Arrays.copyOf(rows, count),
+                Arrays.copyOf(starts, count), Arrays.copyOf(ends, count), n);
+    }
+
+    /** The number of spans. */
+    public int size() {
+        return rows.length;
+    }
+
+    /** The number of points in all spans. */
+    public long points() {
+        return points;
+    }
+
+    /** The row of the given span. */
+    public int row(int span) {
+        return rows[span];
+    }
+
+    /** The first column of the given span. */
+    public int start(int span) {
+        return starts[span];
+    }
+
+    /** The column after the last one of the given span. */
+    public int end(int span) {
+        return ends[span];
+    }
+
+    /**
+     * The index of the first span on or after the given row.
+     */
+    public int firstSpan(int row) {
+        int low = 0;
+        int high = rows.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (rows[mid] < row) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The bounding box of the spans as <code>{x, y, width, height}</code>,
+     * or null if there are none.
+     */
+    public int[] bounds() {
+        if (rows.length == 0) {
+            return null;
+        }
+        int minX = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        for (int i = 0; i < rows.length; i++) {
+            minX = Math.min(minX, starts[i]);
+            maxX = Math.max(maxX, ends[i]);
+        }
+        int minY = rows[0];
+        int maxY = rows[rows.length - 1] + 1;
+        return new int[] { minX, minY, maxX - minX, maxY - minY };
+    }
+
+}
@@ -0,0 +1,357 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.throttling;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import ome.conditions.TryAgain;
+import ome.security.basic.CurrentDetails;
+import ome.system.OmeroContext;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Histogram;
+import ome.system.metrics.Metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Bounded set of worker threads which runs the {@link Task}s of a group of
+ * services, so that the calls to one group cannot starve those to another.
+ * Queued tasks are kept per session and the next task to run is taken from
+ * the session which has used the least worker time, as in start-time fair
+ * queuing. Calls to the same stateful servant are run one at a time and in
+ * the order they arrived. Tasks beyond the capacity of the bulkhead or of a
+ * session are rejected with {@link TryAgain}.
+ *
+ * @see FairThrottlingStrategy
+ * @since 5.1
+ */
+public class Bulkhead {
+
+    private final static Logger log = LoggerFactory.getLogger(Bulkhead.class);
+
+    private final String name;
+
+    private final String[] services;
+
+    private final int threads;
+
+    private final int capacity;
+
+    private final int sessionCapacity;
+
+    /** Queued and running tasks by session uuid. */
+    private final Map<String, Flow> flows = new HashMap<String, Flow>();
+
+    /** Stateful servants with a running task. */
+    private final Set<Ice.Identity> busy = new HashSet<Ice.Identity>();
+
+    /** Worker time of the last session a task was taken from. */
+    private long clock = 0;
+
+    private int queued = 0;
+
+    private int running = 0;
+
+    private boolean done = false;
+
+    private OmeroContext ctx;
+
+    private CurrentDetails cd;
+
+    private long backOff;
+
+    private ExecutorService pool;
+
+    private Counter depth;
+
+    private Counter rejected;
+
+    private Histogram waits;
+
+    /**
+     * @param name
+     *            Name of the bulkhead, used for its threads and metrics.
+     * @param services
+     *            Comma-separated suffixes of the servant names, e.g.
+     *            "omero.api.RawPixelsStore", whose calls run here. May be
+     *            empty for the bulkhead which runs all other calls.
+     * @param threads
+     *            Number of calls run at the same time.
+     * @param capacity
+     *            Number of calls which may be waiting.
+     * @param sessionCapacity
+     *            Number of calls of a single session which may be waiting.
+     */
+    public Bulkhead(String name, String services, int threads, int capacity,
+            int sessionCapacity) {
+        Assert.hasText(name, "Null name");
+        Assert.isTrue(threads > 0, "No threads");
+        this.name = name;
+        this.services = services == null ? new String[0] : services.trim()
+                .split("\\s*,\\s*");
+        this.threads = threads;
+        this.capacity = capacity;
+        this.sessionCapacity = sessionCapacity;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Whether calls to the servant of the given {@link Ice.Current} run here.
+     */
+    public boolean serves(Ice.Current current) {
+        if (current == null || current.id == null || current.id.name == null) {
+            return false;
+        }
+        for (String service : services) {
+            if (service.length() > 0 && current.id.name.endsWith(service)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the worker pool, whose threads are only started by the first
+     * calls, and the metrics of this bulkhead.
+     *
+     * @param backOff
+     *            Milliseconds clients are asked to wait before retrying a
+     *            rejected call.
+     */
+    public synchronized void start(OmeroContext ctx, CurrentDetails cd,
+            Metrics metrics, long backOff) {
+        this.ctx = ctx;
+        this.cd = cd;
+        this.backOff = backOff;
+        this.depth = metrics.counter(this, name + ".queued");
+        this.rejected = metrics.counter(this, name + ".rejected");
+        this.waits = metrics.histogram(this, name + ".wait");
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(threads,
+                    new ThreadFactoryBuilder().setDaemon(true)
+                            .setNameFormat("Throttling-" + name + "-%d")
+                            .build());
+        }
+    }
+
+    /**
+     * Queues a task, or passes {@link TryAgain} to its callback if the
+     * bulkhead or the session has too many waiting calls.
+     *
+     * @param servant
+     *            Identity of a stateful servant whose calls must not
+     *            overlap, or null.
+     */
+    public void submit(Task task, Ice.Current current, Ice.Identity servant) {
+        final String session = current == null || current.id == null ? ""
+                : current.id.category;
+        boolean cancelled = false;
+        boolean full = false;
+        synchronized (this) {
+            Flow flow = flows.get(session);
+            if (done) {
+                cancelled = true;
+            } else if (queued >= capacity
+                    || (flow != null && flow.entries.size() >= sessionCapacity)) {
+                full = true;
+            } else {
+                if (flow == null) {
+                    flow = new Flow(clock);
+                    flows.put(session, flow);
+                }
+                flow.entries.add(new Entry(session, task, current, servant));
+                queued++;
+                depth.inc();
+                dispatch();
+            }
+        }
+        if (cancelled) {
+            task.exception(new Queue.CancelledException(), ctx);
+        } else if (full) {
+            rejected.inc();
+            log.warn(String.format("Rejecting call from session %s: "
+                    + "%s queue is full", session, name));
+            task.exception(new TryAgain(name + " queue is full", backOff),
+                    ctx);
+        }
+    }
+
+    /**
+     * Stops the workers and cancels the waiting tasks.
+     */
+    public void destroy() {
+        List<Entry> cancelled = new ArrayList<Entry>();
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            for (Flow flow : flows.values()) {
+                cancelled.addAll(flow.entries);
+                flow.entries.clear();
+            }
+        }
+        for (Entry entry : cancelled) {
+            entry.task.exception(new Queue.CancelledException(), ctx);
+        }
+        if (pool != null) {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while stopping " + name);
+            }
+        }
+    }
+
+    /**
+     * Hands waiting tasks to idle workers. Must hold the lock.
+     */
+    private void dispatch() {
+        while (!done && running < threads) {
+            final Entry entry = next();
+            if (entry == null) {
+                break;
+            }
+            running++;
+            if (entry.servant != null) {
+                busy.add(entry.servant);
+            }
+            pool.execute(new Runnable() {
+                public void run() {
+                    Bulkhead.this.run(entry);
+                }
+            });
+        }
+    }
+
+    /**
+     * Takes the first runnable task of the session with the least worker
+     * time. Must hold the lock.
+     */
+    private Entry next() {
+        Flow best = null;
+        Entry bestEntry = null;
+        for (Flow flow : flows.values()) {
+            if (best != null && flow.time >= best.time) {
+                continue;
+            }
+            Entry entry = flow.runnable();
+            if (entry != null) {
+                best = flow;
+                bestEntry = entry;
+            }
+        }
+        if (best != null) {
+            best.entries.remove(bestEntry);
+            best.running++;
+            queued--;
+            depth.dec();
+            clock = Math.max(clock, best.time);
+        }
+        return bestEntry;
+    }
+
+    private void run(Entry entry) {
+        long start = System.nanoTime();
+        waits.update((int) TimeUnit.NANOSECONDS.toMillis(start - entry.queued));
+        if (entry.current != null) {
+            cd.setContext(entry.current.ctx);
+        }
+        try {
+            entry.task.run(ctx);
+        } catch (Exception e) {
+            log.error("Exception during " + name + " call", e);
+        } finally {
+            cd.setContext(null);
+            finished(entry, System.nanoTime() - start);
+        }
+    }
+
+    private synchronized void finished(Entry entry, long elapsed) {
+        running--;
+        if (entry.servant != null) {
+            busy.remove(entry.servant);
+        }
+        Flow flow = flows.get(entry.session);
+        flow.running--;
+        flow.time += elapsed;
+        if (flow.running == 0 && flow.entries.isEmpty()) {
+            flows.remove(entry.session);
+        }
+        dispatch();
+    }
+
+    /**
+     * Waiting tasks of one session.
+     */
+    private class Flow {
+
+        final LinkedList<Entry> entries = new LinkedList<Entry>();
+
+        /** Worker time used, in nanoseconds, since the bulkhead started. */
+        long time;
+
+        int running = 0;
+
+        Flow(long time) {
+            this.time = time;
+        }
+
+        /**
+         * The first task whose servant has no running task, if any.
+         */
+        Entry runnable() {
+            Iterator<Entry> it = entries.iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.servant == null || !busy.contains(entry.servant)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class Entry {
+
+        final String session;
+
+        final Task task;
+
+        final Ice.Current current;
+
+        final Ice.Identity servant;
+
+        final long queued = System.nanoTime();
+
+        Entry(String session, Task task, Ice.Current current,
+                Ice.Identity servant) {
+            this.session = session;
+            this.task = task;
+            this.current = current;
+            this.servant = servant;
+        }
+    }
+
+}
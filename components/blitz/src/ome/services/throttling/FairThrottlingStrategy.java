@@ -0,0 +1,205 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.throttling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import ome.api.ServiceInterface;
+import ome.api.StatefulServiceInterface;
+import ome.conditions.InternalException;
+import ome.security.basic.CurrentDetails;
+import ome.services.blitz.util.IceMethodInvoker;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import omero.util.IceMapper;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.util.Assert;
+
+import Ice.Current;
+
+/**
+ * Throttling implementation which runs each invocation on the worker threads
+ * of a {@link Bulkhead} chosen by the name of the called servant, so that
+ * batch calls, e.g. to RawPixelsStore, cannot starve interactive ones, e.g.
+ * to RenderingEngine. Within a bulkhead, sessions are served fairly and
+ * calls beyond its capacity are rejected with {@link ome.conditions.TryAgain}
+ * rather than queued without bound.
+ * <p>
+ * The strategy is always defined but only used when it is the one named by
+ * <code>omero.throttling.strategy</code>. Otherwise it neither starts its
+ * worker threads nor handles the stats messages, which the selected strategy
+ * already does for the calling thread.
+ * </p>
+ *
+ * @since 5.1
+ */
+public class FairThrottlingStrategy extends AbstractThrottlingStrategy
+        implements BeanNameAware {
+
+    private final CurrentDetails cd;
+
+    private final List<Bulkhead> bulkheads;
+
+    private final Bulkhead fallback;
+
+    private Metrics metrics = new NullMetrics();
+
+    private long backOff = 1000L;
+
+    private String beanName;
+
+    private String strategy;
+
+    /**
+     * @param bulkheads
+     *            Checked in order for the first one serving a call.
+     * @param fallback
+     *            Runs the calls which no other bulkhead serves.
+     */
+    public FairThrottlingStrategy(CurrentDetails cd, List<Bulkhead> bulkheads,
+            Bulkhead fallback) {
+        Assert.notNull(fallback, "Null fallback");
+        this.cd = cd;
+        this.bulkheads = bulkheads == null ? new ArrayList<Bulkhead>()
+                : new ArrayList<Bulkhead>(bulkheads);
+        this.fallback = fallback;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Milliseconds a client is asked to wait before retrying a rejected call.
+     */
+    public void setBackOff(long backOff) {
+        this.backOff = backOff;
+    }
+
+    public void setBeanName(String beanName) {
+        this.beanName = beanName;
+    }
+
+    /**
+     * Name of the bean selected to run the blitz method invocations, i.e.
+     * the value of <code>omero.throttling.strategy</code>.
+     */
+    public void setStrategy(String strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Whether this is the strategy selected in the configuration.
+     */
+    public boolean isSelected() {
+        return strategy == null || strategy.equals(beanName);
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext)
+            throws BeansException {
+        super.setApplicationContext(applicationContext);
+        if (!isSelected()) {
+            log.debug(beanName + " not selected; not starting bulkheads");
+            return;
+        }
+        for (Bulkhead bulkhead : bulkheads) {
+            bulkhead.start(ctx, cd, metrics, backOff);
+        }
+        fallback.start(ctx, cd, metrics, backOff);
+    }
+
+    /**
+     * Handles the stats messages only if this strategy is selected, since
+     * the calling thread must not be blocked twice.
+     */
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (isSelected()) {
+            super.onApplicationEvent(event);
+        }
+    }
+
+    public void destroy() {
+        for (Bulkhead bulkhead : bulkheads) {
+            bulkhead.destroy();
+        }
+        fallback.destroy();
+    }
+
+    public void callInvokerOnRawArgs(ServiceInterface service,
+            IceMethodInvoker invoker, Object __cb, Ice.Current __current,
+            Object... args) {
+        IceMapper mapper = new IceMapper();
+        Callback cb = new Callback(service, invoker, mapper, __cb, __current,
+                args);
+        submit(cb, __current, service);
+    }
+
+    public void callInvokerWithMappedArgs(ServiceInterface service,
+            IceMethodInvoker invoker, IceMapper mapper, Object __cb,
+            Current __current, Object... args) {
+        Callback cb = new Callback(service, invoker, mapper, __cb, __current,
+                args);
+        submit(cb, __current, service);
+    }
+
+    public <R> void safeRunnableCall(Current __current, Object __cb,
+            boolean isVoid, Callable<R> callable) {
+        Callback2<R> cb = new Callback2<R>(__current, __cb, isVoid, callable);
+        submit(cb, __current, servant(__current));
+    }
+
+    public void runnableCall(Current __current, Task runnable) {
+        submit(runnable, __current, servant(__current));
+    }
+
+    /**
+     * Passes the task to the bulkhead serving its servant. Calls to a
+     * stateful service keep their order.
+     */
+    private void submit(Task task, Ice.Current current,
+            ServiceInterface service) {
+        Ice.Identity servant = null;
+        if (service instanceof StatefulServiceInterface) {
+            servant = servant(current);
+        }
+        submit(task, current, servant);
+    }
+
+    private void submit(Task task, Ice.Current current, Ice.Identity servant) {
+        if (!isSelected()) {
+            throw new InternalException(beanName
+                    + " is not the selected omero.throttling.strategy");
+        }
+        bulkhead(current).submit(task, current, servant);
+    }
+
+    /**
+     * Identity of the servant called. Calls which are not made through a
+     * {@link ServiceInterface} may be made to a stateful servant, e.g.
+     * RawFileStore, so they are kept in order per servant.
+     */
+    private static Ice.Identity servant(Ice.Current current) {
+        return current == null ? null : current.id;
+    }
+
+    private Bulkhead bulkhead(Ice.Current current) {
+        for (Bulkhead bulkhead : bulkheads) {
+            if (bulkhead.serves(current)) {
+                return bulkhead;
+            }
+        }
+        return fallback;
+    }
+
+}
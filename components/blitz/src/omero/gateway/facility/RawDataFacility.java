@@ -28,6 +28,7 @@ import omero.gateway.SecurityContext;
 import omero.gateway.exception.DataSourceException;
 import omero.gateway.rnd.DataSink;
 import omero.gateway.rnd.Plane2D;
+import omero.gateway.rnd.RawDataStream;
 import omero.gateway.model.PixelsData;
 
 import com.google.common.cache.Cache;
@@ -191,6 +192,98 @@ public class RawDataFacility extends Facility {
         return data;
     }
 
+    /**
+     * Opens a stream over the planes of the pixels set, keeping
+     * {@link RawDataStream#DEFAULT_IN_FLIGHT} requests in flight over
+     * {@link RawDataStream#DEFAULT_STORES} pixels stores. The stream must be
+     * closed once done with.
+     *
+     * @param ctx
+     *            The security context.
+     * @param pixels
+     *            The {@link PixelsData} object to fetch the data from.
+     * @param z
+     *            The z-sections to read, or <code>null</code> for all.
+     * @param t
+     *            The timepoints to read, or <code>null</code> for all.
+     * @param c
+     *            The channels to read, or <code>null</code> for all.
+     * @return See above.
+     * @throws DataSourceException
+     *             If the pixels stores cannot be created.
+     */
+    public RawDataStream getPlanes(SecurityContext ctx, PixelsData pixels,
+            int[] z, int[] t, int[] c) throws DataSourceException {
+        return getTiles(ctx, pixels, z, t, c, 0, 0,
+                RawDataStream.DEFAULT_STORES, RawDataStream.DEFAULT_IN_FLIGHT);
+    }
+
+    /**
+     * Opens a stream over the tiles of the pixels set, keeping
+     * {@link RawDataStream#DEFAULT_IN_FLIGHT} requests in flight over
+     * {@link RawDataStream#DEFAULT_STORES} pixels stores. The stream must be
+     * closed once done with.
+     *
+     * @param ctx
+     *            The security context.
+     * @param pixels
+     *            The {@link PixelsData} object to fetch the data from.
+     * @param z
+     *            The z-sections to read, or <code>null</code> for all.
+     * @param t
+     *            The timepoints to read, or <code>null</code> for all.
+     * @param c
+     *            The channels to read, or <code>null</code> for all.
+     * @param tileWidth
+     *            The width of the tiles, the tiles of the last column may be
+     *            narrower.
+     * @param tileHeight
+     *            The height of the tiles, the tiles of the last row may be
+     *            shorter.
+     * @return See above.
+     * @throws DataSourceException
+     *             If the pixels stores cannot be created.
+     */
+    public RawDataStream getTiles(SecurityContext ctx, PixelsData pixels,
+            int[] z, int[] t, int[] c, int tileWidth, int tileHeight)
+            throws DataSourceException {
+        return getTiles(ctx, pixels, z, t, c, tileWidth, tileHeight,
+                RawDataStream.DEFAULT_STORES, RawDataStream.DEFAULT_IN_FLIGHT);
+    }
+
+    /**
+     * Opens a stream over the tiles of the pixels set. The stream must be
+     * closed once done with.
+     *
+     * @param ctx
+     *            The security context.
+     * @param pixels
+     *            The {@link PixelsData} object to fetch the data from.
+     * @param z
+     *            The z-sections to read, or <code>null</code> for all.
+     * @param t
+     *            The timepoints to read, or <code>null</code> for all.
+     * @param c
+     *            The channels to read, or <code>null</code> for all.
+     * @param tileWidth
+     *            The width of the tiles, or <code>0</code> for whole planes.
+     * @param tileHeight
+     *            The height of the tiles, or <code>0</code> for whole planes.
+     * @param stores
+     *            The number of pixels stores to spread the requests over.
+     * @param inFlight
+     *            The number of requests to keep in flight.
+     * @return See above.
+     * @throws DataSourceException
+     *             If the pixels stores cannot be created.
+     */
+    public RawDataStream getTiles(SecurityContext ctx, PixelsData pixels,
+            int[] z, int[] t, int[] c, int tileWidth, int tileHeight,
+            int stores, int inFlight) throws DataSourceException {
+        return new RawDataStream(gateway, ctx, pixels, z, t, c, tileWidth,
+                tileHeight, stores, inFlight);
+    }
+
     /**
      * Retrieves a data sink corresponding the pixels.
      *
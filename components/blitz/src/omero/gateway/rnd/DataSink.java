@@ -168,7 +168,7 @@ public class DataSink
      * @param v The pixels Type.
      * @return See above.
      */
-    private int getBytesPerPixels(String v)
+    static int getBytesPerPixels(String v)
     {
         if (INT_8.equals(v) || UINT_8.equals(v)) return 1;
         if (INT_16.equals(v) || UINT_16.equals(v)) return 2;
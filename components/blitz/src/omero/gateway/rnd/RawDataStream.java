@@ -0,0 +1,404 @@
+/*
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2015 University of Dundee. All rights reserved.
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+package omero.gateway.rnd;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import omero.api.RawPixelsStorePrx;
+import omero.gateway.Gateway;
+import omero.gateway.SecurityContext;
+import omero.gateway.exception.DataSourceException;
+import omero.gateway.model.PixelsData;
+import omero.util.ReadOnlyByteArray;
+
+/**
+ * Reads a range of planes or tiles of a pixels set in order, keeping
+ * several requests in flight and spreading them over several
+ * {@link RawPixelsStorePrx} instances, so that iterating over a large
+ * dataset is not bound by the latency of each call.
+ * <p>
+ * The tiles are returned in the order T, C, Z, then rows and columns of
+ * tiles. Instances are not thread-safe and must be closed once done with,
+ * which releases the pixels stores.
+ * </p>
+ *
+ * @since 5.1
+ */
+public class RawDataStream implements AutoCloseable
+{
+
+    /** The default number of pixels stores the requests are spread over. */
+    public static final int DEFAULT_STORES = 2;
+
+    /** The default number of requests kept in flight. */
+    public static final int DEFAULT_IN_FLIGHT = 8;
+
+    /** Reference to the gateway. */
+    private final Gateway gw;
+
+    /** The security context. */
+    private final SecurityContext ctx;
+
+    /** The pixels set. */
+    private final PixelsData source;
+
+    /** The number of bytes per pixel. */
+    private final int bytesPerPixel;
+
+    /** Strategy used to transform the raw data. */
+    private final BytesConverter strategy;
+
+    /** The stores the requests are spread over. */
+    private final RawPixelsStorePrx[] stores;
+
+    /** The number of requests kept in flight. */
+    private final int inFlight;
+
+    /** The tiles to read, each as <code>{z, c, t, x, y, w, h}</code>. */
+    private final List<int[]> tiles = new ArrayList<int[]>();
+
+    /** The requests in flight, in the order of {@link #tiles}. */
+    private final Deque<Request> requests = new ArrayDeque<Request>();
+
+    /** The index of the next tile to request. */
+    private int next = 0;
+
+    /** Whether the stores have been released. */
+    private boolean closed = false;
+
+    /**
+     * Creates a new instance and the pixels stores it reads from.
+     *
+     * @param gw Reference to the {@link Gateway}. Mustn't be <code>null</code>.
+     * @param ctx The security context.
+     * @param source The pixels set. Mustn't be <code>null</code>.
+     * @param z The z-sections to read, or <code>null</code> for all.
+     * @param t The timepoints to read, or <code>null</code> for all.
+     * @param c The channels to read, or <code>null</code> for all.
+     * @param tileWidth The width of the tiles, or <code>0</code> to read
+     *                  whole planes.
+     * @param tileHeight The height of the tiles, or <code>0</code> to read
+     *                   whole planes.
+     * @param stores The number of pixels stores to spread the requests over.
+     * @param inFlight The number of requests to keep in flight.
+     * @throws DataSourceException If the pixels stores cannot be created.
+     */
+    public RawDataStream(Gateway gw, SecurityContext ctx, PixelsData source,
+            int[] z, int[] t, int[] c, int tileWidth, int tileHeight,
+            int stores, int inFlight)
+            throws DataSourceException
+    {
+        if (source == null)
+            throw new NullPointerException("No pixels.");
+        if (gw == null)
+            throw new NullPointerException("No Gateway.");
+        if (stores < 1 || inFlight < 1)
+            throw new IllegalArgumentException(
+                    "At least one store and one request in flight needed.");
+        this.gw = gw;
+        this.ctx = ctx;
+        this.source = source;
+        String type = source.getPixelType();
+        bytesPerPixel = DataSink.getBytesPerPixels(type);
+        strategy = BytesConverter.getConverter(type);
+        this.inFlight = inFlight;
+
+        int sizeX = source.getSizeX();
+        int sizeY = source.getSizeY();
+        int w = tileWidth <= 0 ? sizeX : Math.min(tileWidth, sizeX);
+        int h = tileHeight <= 0 ? sizeY : Math.min(tileHeight, sizeY);
+        int[] zs = indexes(z, source.getSizeZ(), "z");
+        int[] ts = indexes(t, source.getSizeT(), "t");
+        int[] cs = indexes(c, source.getSizeC(), "c");
+        for (int ti : ts) {
+            for (int ci : cs) {
+                for (int zi : zs) {
+                    for (int y = 0; y < sizeY; y += h) {
+                        for (int x = 0; x < sizeX; x += w) {
+                            tiles.add(new int[] {zi, ci, ti, x, y,
+                                    Math.min(w, sizeX - x),
+                                    Math.min(h, sizeY - y)});
+                        }
+                    }
+                }
+            }
+        }
+
+        this.stores = new RawPixelsStorePrx[Math.min(stores,
+                Math.max(1, tiles.size()))];
+        try {
+            for (int i = 0; i < this.stores.length; i++) {
+                this.stores[i] = gw.createPixelsStore(ctx);
+                this.stores[i].setPixelsId(source.getId(), false);
+            }
+        } catch (Exception e) {
+            close();
+            throw new DataSourceException("Cannot initialize the stores", e);
+        }
+    }
+
+    /**
+     * Returns the given indexes after checking their range, or all the
+     * indexes in <code>[0, size)</code> if <code>null</code>.
+     */
+    private static int[] indexes(int[] values, int size, String name)
+    {
+        if (values == null) {
+            values = new int[size];
+            for (int i = 0; i < size; i++)
+                values[i] = i;
+            return values;
+        }
+        for (int v : values) {
+            if (v < 0 || size <= v)
+                throw new IllegalArgumentException(
+                        name+" out of range [0, "+size+"): "+v+".");
+        }
+        return values;
+    }
+
+    /**
+     * Returns the number of tiles this stream reads in total.
+     *
+     * @return See above.
+     */
+    public int size() { return tiles.size(); }
+
+    /**
+     * Returns <code>true</code> if there are tiles left to read,
+     * <code>false</code> otherwise.
+     *
+     * @return See above.
+     */
+    public boolean hasNext()
+    {
+        return !closed && (next < tiles.size() || !requests.isEmpty());
+    }
+
+    /**
+     * Returns the next tile, waiting for it if its request has not completed
+     * yet, and sends further requests to keep the configured number in
+     * flight.
+     *
+     * @return See above.
+     * @throws DataSourceException If an error occurs while retrieving the
+     *                             tile data from the pixels source.
+     */
+    public Tile next() throws DataSourceException
+    {
+        if (closed)
+            throw new IllegalStateException("Stream closed.");
+        if (!hasNext())
+            throw new NoSuchElementException();
+        send();
+        Request request = requests.poll();
+        int[] p = request.tile;
+        byte[] data;
+        try {
+            if (request.plane)
+                data = request.store.end_getPlane(request.result);
+            else data = request.store.end_getTile(request.result);
+        } catch (Exception e) {
+            throw new DataSourceException("Cannot retrieve the tile "
+                    + describe(p), e);
+        }
+        send();
+        return new Tile(p, data, bytesPerPixel, strategy);
+    }
+
+    /**
+     * Sends requests until the configured number is in flight.
+     */
+    private void send() throws DataSourceException
+    {
+        while (requests.size() < inFlight && next < tiles.size()) {
+            int[] p = tiles.get(next);
+            RawPixelsStorePrx store = stores[next % stores.length];
+            boolean plane = p[3] == 0 && p[4] == 0 &&
+                    p[5] == source.getSizeX() && p[6] == source.getSizeY();
+            Ice.AsyncResult result;
+            try {
+                if (plane)
+                    result = store.begin_getPlane(p[0], p[1], p[2]);
+                else result = store.begin_getTile(p[0], p[1], p[2], p[3], p[4],
+                        p[5], p[6]);
+            } catch (Exception e) {
+                throw new DataSourceException("Cannot request the tile "
+                        + describe(p), e);
+            }
+            requests.add(new Request(p, store, result, plane));
+            next++;
+        }
+    }
+
+    /**
+     * Describes the given tile, in the order it is stored in.
+     *
+     * @param p The tile, as <code>{z, c, t, x, y, w, h}</code>.
+     * @return See above.
+     */
+    static String describe(int[] p)
+    {
+        return "(z=" + p[0] + ", c=" + p[1] + ", t=" + p[2] + ", x=" + p[3]
+                + ", y=" + p[4] + ", w=" + p[5] + ", h=" + p[6] + ")";
+    }
+
+    /**
+     * Closes the pixels stores. Blocks until the requests still in flight
+     * have completed, so that no call is pending on a store when it is
+     * closed. Their data and errors are discarded.
+     */
+    public void close()
+    {
+        if (closed)
+            return;
+        closed = true;
+        for (Request request : requests) {
+            try {
+                if (request.plane)
+                    request.store.end_getPlane(request.result);
+                else request.store.end_getTile(request.result);
+            } catch (Exception e) {
+                // Ignored, the tile is not wanted anymore.
+            }
+        }
+        requests.clear();
+        for (RawPixelsStorePrx store : stores) {
+            if (store != null)
+                gw.closeService(ctx, store);
+        }
+    }
+
+    /** A request in flight. */
+    private static class Request
+    {
+        final int[] tile;
+
+        final RawPixelsStorePrx store;
+
+        final Ice.AsyncResult result;
+
+        final boolean plane;
+
+        Request(int[] tile, RawPixelsStorePrx store, Ice.AsyncResult result,
+                boolean plane)
+        {
+            this.tile = tile;
+            this.store = store;
+            this.result = result;
+            this.plane = plane;
+        }
+    }
+
+    /**
+     * A tile read by a {@link RawDataStream}. The pixel values can be
+     * converted into an array supplied by the caller, so that the same
+     * array can be reused for all the tiles of a stream.
+     */
+    public static class Tile
+    {
+
+        private final int[] position;
+
+        private final byte[] data;
+
+        private final int bytesPerPixel;
+
+        private final BytesConverter strategy;
+
+        Tile(int[] position, byte[] data, int bytesPerPixel,
+                BytesConverter strategy)
+        {
+            this.position = position;
+            this.data = data;
+            this.bytesPerPixel = bytesPerPixel;
+            this.strategy = strategy;
+        }
+
+        /** @return The z-section of the tile. */
+        public int getZ() { return position[0]; }
+
+        /** @return The channel of the tile. */
+        public int getC() { return position[1]; }
+
+        /** @return The timepoint of the tile. */
+        public int getT() { return position[2]; }
+
+        /** @return The x coordinate of the tile. */
+        public int getX() { return position[3]; }
+
+        /** @return The y coordinate of the tile. */
+        public int getY() { return position[4]; }
+
+        /** @return The width of the tile. */
+        public int getWidth() { return position[5]; }
+
+        /** @return The height of the tile. */
+        public int getHeight() { return position[6]; }
+
+        /**
+         * Returns a read-only view of the raw, big-endian pixel data,
+         * without copying it.
+         *
+         * @return See above.
+         */
+        public ByteBuffer getData()
+        {
+            return ByteBuffer.wrap(data).asReadOnlyBuffer();
+        }
+
+        /**
+         * Converts the pixel values, row by row, into the given array.
+         *
+         * @param values The array to fill. A new one is created if
+         *               <code>null</code> or too small.
+         * @return The filled array.
+         */
+        public double[] getPixels(double[] values)
+        {
+            int n = getWidth() * getHeight();
+            if (values == null || values.length < n)
+                values = new double[n];
+            ReadOnlyByteArray array = new ReadOnlyByteArray(data, 0,
+                    data.length);
+            for (int i = 0; i < n; i++)
+                values[i] = strategy.pack(array, i * bytesPerPixel,
+                        bytesPerPixel);
+            return values;
+        }
+
+        /**
+         * Returns the tile as a {@link Plane2D}.
+         *
+         * @return See above.
+         */
+        public Plane2D toPlane2D()
+        {
+            return new Plane2D(new ReadOnlyByteArray(data, 0, data.length),
+                    getWidth(), getHeight(), bytesPerPixel, strategy);
+        }
+    }
+}
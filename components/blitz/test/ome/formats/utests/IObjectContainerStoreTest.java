@@ -2,16 +2,20 @@ package ome.formats.utests;
 
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import ome.util.LSID;
 import ome.formats.Index;
 import ome.formats.OMEROMetadataStoreClient;
 import ome.formats.model.BlitzInstanceProvider;
+import ome.xml.model.primitives.NonNegativeInteger;
 import ome.xml.model.primitives.PositiveInteger;
+import omero.metadatastore.IObjectContainer;
 import omero.model.Image;
 import omero.model.ObjectiveSettings;
 import omero.model.Pixels;
+import omero.model.PlaneInfo;
 import omero.api.ServiceFactoryPrx;
 import junit.framework.TestCase;
 
@@ -96,6 +100,47 @@ public class IObjectContainerStoreTest extends TestCase
 				Pixels.class, IMAGE_INDEX + 1));
 	}
 
+	@Test
+	public void testCachedContainersByIndexPrefix()
+	{
+		store.setPlaneTheZ(new NonNegativeInteger(0), IMAGE_INDEX, 0);
+		store.setPlaneTheZ(new NonNegativeInteger(1), IMAGE_INDEX, 1);
+		store.setPlaneTheZ(new NonNegativeInteger(0), IMAGE_INDEX + 1, 0);
+		assertEquals(3, store.countCachedContainers(PlaneInfo.class));
+		assertEquals(2, store.countCachedContainers(
+				PlaneInfo.class, IMAGE_INDEX));
+		assertEquals(1, store.countCachedContainers(
+				PlaneInfo.class, IMAGE_INDEX, 1));
+		assertEquals(0, store.countCachedContainers(
+				PlaneInfo.class, IMAGE_INDEX + 2));
+		// Longer than the LSIDs, only their indexes are compared
+		assertEquals(1, store.countCachedContainers(
+				Pixels.class, IMAGE_INDEX, 5));
+
+		store.removeIObjectContainer(
+				new LSID(PlaneInfo.class, IMAGE_INDEX, 1));
+		assertEquals(1, store.countCachedContainers(
+				PlaneInfo.class, IMAGE_INDEX));
+		assertEquals(2, store.getIObjectContainers(PlaneInfo.class).size());
+	}
+
+	@Test
+	public void testGetIObjectContainersInIndexOrder()
+	{
+		for (int i = 20; i > 1; i--)
+		{
+			store.setImageName(String.valueOf(i), i);
+		}
+		List<IObjectContainer> containers =
+			store.getIObjectContainers(Image.class);
+		assertEquals(21, containers.size());
+		for (int i = 0; i < containers.size(); i++)
+		{
+			assertEquals(new LSID(Image.class, i).toString(),
+					containers.get(i).LSID);
+		}
+	}
+
 	@Test
 	public void testHasReference()
 	{
@@ -0,0 +1,257 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.formats.utests;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import ome.formats.importer.transfers.TransferState;
+import ome.formats.importer.transfers.UploadFileTransfer;
+import ome.formats.importer.util.ProportionalTimeEstimatorImpl;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+import omero.ServerError;
+import omero.api.RawFileStorePrx;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link UploadFileTransfer} writes the blocks of a file in order
+ * whatever its window of writes in flight, and that a failed write fails the
+ * transfer.
+ */
+@Test(groups = "unit")
+public class UploadFileTransferTest {
+
+    private static final int BLOCK_SIZE = 16;
+
+    /** Ten full blocks and a partial one. */
+    private static final int BLOCKS = 11;
+
+    File file;
+
+    byte[] content;
+
+    Store store;
+
+    @BeforeMethod
+    public void createFile() throws IOException {
+        content = new byte[BLOCK_SIZE * (BLOCKS - 1) + 5];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31 + 7);
+        }
+        file = File.createTempFile("upload", ".bin");
+        FileUtils.writeByteArrayToFile(file, content);
+        store = new Store();
+    }
+
+    @AfterMethod
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @DataProvider(name = "windows")
+    public Object[][] windows() {
+        return new Object[][] { { 1 }, { 2 }, { 4 }, { BLOCKS + 5 } };
+    }
+
+    @Test(dataProvider = "windows")
+    public void testBlocksAreWrittenInOrder(int window) throws Exception {
+        State state = new State();
+        String checksum = transfer(window, state);
+
+        Assert.assertEquals(store.written, content);
+        Assert.assertEquals(store.begun, BLOCKS);
+        Assert.assertTrue(store.inFlight.isEmpty());
+        Assert.assertEquals(store.maxInFlight, Math.min(window, BLOCKS));
+        Assert.assertTrue(store.closed);
+
+        // progress is reported in order, up to the whole file
+        Assert.assertEquals(state.uploaded.get(0), Long.valueOf(0));
+        for (int i = 1; i < state.uploaded.size(); i++) {
+            Assert.assertTrue(state.uploaded.get(i) > state.uploaded.get(i - 1),
+                    state.uploaded.toString());
+        }
+        Assert.assertEquals(state.completed, content.length);
+        Assert.assertEquals(checksum, new ChecksumProviderFactoryImpl()
+                .getProvider(ChecksumType.SHA1).putBytes(content)
+                .checksumAsString());
+    }
+
+    @Test(dataProvider = "windows")
+    public void testFailedWriteFailsTransfer(int window) throws Exception {
+        store.failingWrite = 3;
+        State state = new State();
+        try {
+            transfer(window, state);
+            Assert.fail("the transfer should have failed");
+        } catch (ServerError e) {
+            Assert.assertSame(e, store.failure);
+        }
+        Assert.assertTrue(store.closed);
+        Assert.assertEquals(state.completed, -1);
+        // the blocks before the failed one were written
+        Assert.assertEquals(Arrays.copyOf(store.written, 3 * BLOCK_SIZE),
+                Arrays.copyOf(content, 3 * BLOCK_SIZE));
+        Assert.assertTrue(store.begun <= 3 + window, "begun " + store.begun);
+    }
+
+    public void testEmptyFile() throws Exception {
+        content = new byte[0];
+        FileUtils.writeByteArrayToFile(file, content);
+        store = new Store();
+        State state = new State();
+        transfer(UploadFileTransfer.DEFAULT_WINDOW, state);
+        Assert.assertEquals(store.begun, 0);
+        Assert.assertTrue(store.touched);
+        Assert.assertEquals(state.completed, 0);
+    }
+
+    public void testWindowIsAtLeastOne() {
+        UploadFileTransfer transfer = new UploadFileTransfer();
+        Assert.assertEquals(transfer.getWindow(),
+                UploadFileTransfer.DEFAULT_WINDOW);
+        transfer.setWindow(0);
+        Assert.assertEquals(transfer.getWindow(), 1);
+    }
+
+    // ======================================================
+
+    private String transfer(int window, State state) throws Exception {
+        UploadFileTransfer transfer = new UploadFileTransfer();
+        transfer.setWindow(window);
+        return transfer.transfer(state);
+    }
+
+    /**
+     * Records the writes to a {@link RawFileStorePrx}. A write is applied
+     * only when it is ended, from the buffer it was begun with, so that a
+     * buffer reused too early corrupts {@link #written}. As with Ice, each
+     * write is ended at most once, in the order they were begun.
+     */
+    private class Store implements InvocationHandler {
+
+        final byte[] written = new byte[content.length];
+
+        final Deque<Object[]> inFlight = new ArrayDeque<Object[]>();
+
+        long nextOffset = 0;
+
+        int begun = 0;
+
+        int ended = 0;
+
+        int maxInFlight = 0;
+
+        /** The index of the write to fail, if not negative. */
+        int failingWrite = -1;
+
+        ServerError failure;
+
+        boolean touched;
+
+        boolean closed;
+
+        final RawFileStorePrx proxy = (RawFileStorePrx) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { RawFileStorePrx.class }, this);
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if ("write".equals(name)) {
+                Assert.assertEquals(args[2], 0, "only the touch blocks");
+                touched = true;
+            } else if ("begin_write".equals(name)) {
+                byte[] buffer = (byte[]) args[0];
+                long offset = (Long) args[1];
+                int length = (Integer) args[2];
+                Assert.assertTrue(touched);
+                Assert.assertEquals(offset, nextOffset);
+                nextOffset += length;
+                inFlight.add(new Object[] { buffer, offset, length });
+                maxInFlight = Math.max(maxInFlight, inFlight.size());
+                begun++;
+            } else if ("end_write".equals(name)) {
+                Object[] write = inFlight.poll();
+                Assert.assertNotNull(write, "ended more writes than begun");
+                if (ended++ == failingWrite) {
+                    failure = new ServerError(null, null, "write failed");
+                    throw failure;
+                }
+                System.arraycopy(write[0], 0, written,
+                        (int) (long) (Long) write[1], (Integer) write[2]);
+            } else if ("close".equals(name)) {
+                closed = true;
+            } else {
+                throw new UnsupportedOperationException(name);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Transfers {@link #file} to {@link #store} without an import process,
+     * recording the progress reported.
+     */
+    private class State extends TransferState {
+
+        final List<Long> uploaded = new ArrayList<Long>();
+
+        long completed = -1;
+
+        String checksum;
+
+        State() throws IOException, ServerError {
+            super(file, 0, 1, null, null,
+                    new ProportionalTimeEstimatorImpl(file.length()),
+                    new ChecksumProviderFactoryImpl()
+                            .getProvider(ChecksumType.SHA1),
+                    new byte[BLOCK_SIZE]);
+        }
+
+        @Override
+        public RawFileStorePrx getUploader(String mode) {
+            return store.proxy;
+        }
+
+        @Override
+        public void save() {
+            checksum = getChecksumProvider().checksumAsString();
+        }
+
+        @Override
+        public String getChecksum() {
+            return checksum;
+        }
+
+        @Override
+        public void uploadStarted() {
+        }
+
+        @Override
+        public void uploadBytes(long offset) {
+            uploaded.add(offset);
+        }
+
+        @Override
+        public void uploadComplete(long offset) {
+            completed = offset;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.blitz.test.utests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ome.security.basic.CurrentDetails;
+import ome.conditions.InternalException;
+import ome.services.throttling.Bulkhead;
+import ome.services.throttling.FairThrottlingStrategy;
+import ome.services.throttling.Task;
+import ome.system.OmeroContext;
+import ome.system.metrics.NullMetrics;
+import omero.api.AMD_IQuery_findAllByQuery;
+import omero.model.IObject;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class BulkheadTest {
+
+    Bulkhead bulkhead;
+
+    FairThrottlingStrategy strategy;
+
+    final List<String> order = Collections
+            .synchronizedList(new ArrayList<String>());
+
+    @AfterMethod
+    public void destroy() {
+        if (bulkhead != null) {
+            bulkhead.destroy();
+        }
+        if (strategy != null) {
+            strategy.destroy();
+        }
+    }
+
+    void start(int threads, int capacity, int sessionCapacity) {
+        bulkhead = new Bulkhead("test", "omero.api.RawPixelsStore", threads,
+                capacity, sessionCapacity);
+        bulkhead.start(null, new CurrentDetails(), new NullMetrics(), 500L);
+    }
+
+    static Ice.Current current(String session, String name) {
+        Ice.Current current = new Ice.Current();
+        current.id = new Ice.Identity(name, session);
+        return current;
+    }
+
+    public void testServesByServantName() {
+        start(1, 1, 1);
+        Assert.assertTrue(bulkhead.serves(
+                current("s", "c1omero.api.RawPixelsStore")));
+        Assert.assertFalse(bulkhead.serves(
+                current("s", "c1omero.api.IQuery")));
+        Assert.assertFalse(bulkhead.serves(null));
+    }
+
+    public void testFullQueueRejectsWithTryAgain() throws Exception {
+        start(1, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        Call running = new Call("running", release);
+        Call queued = new Call("queued", null);
+        Call rejected = new Call("rejected", null);
+        bulkhead.submit(running, current("a", "x"), null);
+        running.started.await(5, TimeUnit.SECONDS);
+        bulkhead.submit(queued, current("b", "x"), null);
+        bulkhead.submit(rejected, current("c", "x"), null);
+        Assert.assertTrue(rejected.done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(rejected.amd.exception instanceof omero.TryAgain);
+        Assert.assertEquals(((omero.TryAgain) rejected.amd.exception).backOff,
+                500L);
+        release.countDown();
+        Assert.assertTrue(queued.done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(queued.amd.response);
+    }
+
+    public void testSessionsAreServedFairly() throws Exception {
+        start(1, 10, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        Call first = new Call("a0", release);
+        bulkhead.submit(first, current("a", "x"), null);
+        first.started.await(5, TimeUnit.SECONDS);
+        List<Call> calls = new ArrayList<Call>();
+        for (String name : new String[] { "a1", "a2", "a3" }) {
+            calls.add(new Call(name, null));
+            bulkhead.submit(calls.get(calls.size() - 1), current("a", "x"),
+                    null);
+        }
+        calls.add(new Call("b1", null));
+        bulkhead.submit(calls.get(calls.size() - 1), current("b", "x"), null);
+        release.countDown();
+        for (Call call : calls) {
+            Assert.assertTrue(call.done.await(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(order.get(0), "a0");
+        Assert.assertEquals(order.get(1), "b1");
+        Assert.assertEquals(order.subList(2, 5),
+                Arrays.asList("a1", "a2", "a3"));
+    }
+
+    public void testStatefulServantCallsDoNotOverlap() throws Exception {
+        start(2, 10, 10);
+        Ice.Current current = current("a", "uuidomero.api.RawPixelsStore");
+        CountDownLatch release = new CountDownLatch(1);
+        Call first = new Call("first", release);
+        Call second = new Call("second", null);
+        bulkhead.submit(first, current, current.id);
+        bulkhead.submit(second, current, current.id);
+        first.started.await(5, TimeUnit.SECONDS);
+        Assert.assertFalse(second.started.await(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        Assert.assertTrue(second.done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(order, Arrays.asList("first", "second"));
+    }
+
+    void strategy(String selected) {
+        bulkhead = new Bulkhead("test", "", 2, 10, 10);
+        strategy = new FairThrottlingStrategy(new CurrentDetails(), null,
+                bulkhead);
+        strategy.setBeanName("fairThrottlingStrategy");
+        strategy.setStrategy(selected);
+        strategy.setApplicationContext(null);
+    }
+
+    public void testRunnableCallsToAServantDoNotOverlap() throws Exception {
+        strategy("fairThrottlingStrategy");
+        Ice.Current current = current("a", "uuidomero.api.RawFileStore");
+        CountDownLatch release = new CountDownLatch(1);
+        Call first = new Call("first", release);
+        Call second = new Call("second", null);
+        strategy.runnableCall(current, first);
+        strategy.runnableCall(current, second);
+        first.started.await(5, TimeUnit.SECONDS);
+        Assert.assertFalse(second.started.await(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        Assert.assertTrue(second.done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(order, Arrays.asList("first", "second"));
+    }
+
+    public void testRunnableCallsToOtherServantsOverlap() throws Exception {
+        strategy("fairThrottlingStrategy");
+        CountDownLatch release = new CountDownLatch(1);
+        Call first = new Call("first", release);
+        Call second = new Call("second", null);
+        strategy.runnableCall(current("a", "uuid1omero.api.RawFileStore"),
+                first);
+        strategy.runnableCall(current("a", "uuid2omero.api.RawFileStore"),
+                second);
+        Assert.assertTrue(second.done.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        Assert.assertTrue(first.done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expectedExceptions = InternalException.class)
+    public void testUnselectedStrategyRunsNoCalls() {
+        strategy("inThreadThrottlingStrategy");
+        Assert.assertFalse(strategy.isSelected());
+        strategy.runnableCall(current("a", "x"), new Call("call", null));
+    }
+
+    class Call extends Task {
+
+        final String name;
+
+        final CountDownLatch release;
+
+        final CountDownLatch started = new CountDownLatch(1);
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        final Amd amd;
+
+        Call(String name, CountDownLatch release) {
+            this(name, release, new Amd());
+        }
+
+        private Call(String name, CountDownLatch release, Amd amd) {
+            super(amd, null, false);
+            this.name = name;
+            this.release = release;
+            this.amd = amd;
+            amd.call = this;
+        }
+
+        public void run(OmeroContext ctx) {
+            order.add(name);
+            started.countDown();
+            try {
+                if (release != null) {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                // ok
+            }
+            response(null, ctx);
+        }
+    }
+
+    static class Amd implements AMD_IQuery_findAllByQuery {
+
+        Call call;
+
+        volatile boolean response = false;
+
+        volatile Exception exception;
+
+        public void ice_response(List<IObject> __ret) {
+            response = true;
+            call.done.countDown();
+        }
+
+        public void ice_exception(Exception ex) {
+            exception = ex;
+            call.done.countDown();
+        }
+    }
+}
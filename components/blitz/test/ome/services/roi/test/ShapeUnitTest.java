@@ -9,7 +9,9 @@ package ome.services.roi.test;
 
 import junit.framework.TestCase;
 import ome.services.roi.GeomTool;
+import ome.services.roi.ShapeRaster;
 import omero.model.SmartLineI;
+import omero.model.SmartShape;
 import omero.model.SmartShape.Util;
 
 import org.testng.annotations.Test;
@@ -51,4 +53,44 @@ public class ShapeUnitTest extends TestCase {
         l.setY2(null);
         assertFalse(Util.checkNonNull(l.asPoints()));
     }
+
+    @Test
+    public void testRasterOfRectangle() throws Exception {
+        SmartShape r = (SmartShape) geomTool.rect(2, 3, 4, 5);
+        ShapeRaster raster = ShapeRaster.of(r);
+        assertEquals(5, raster.size());
+        assertEquals(20, raster.points());
+        for (int i = 0; i < raster.size(); i++) {
+            assertEquals(3 + i, raster.row(i));
+            assertEquals(2, raster.start(i));
+            assertEquals(6, raster.end(i));
+        }
+        int[] bounds = raster.bounds();
+        assertEquals(2, bounds[0]);
+        assertEquals(3, bounds[1]);
+        assertEquals(4, bounds[2]);
+        assertEquals(5, bounds[3]);
+        assertEquals(2, raster.firstSpan(5));
+    }
+
+    @Test
+    public void testRasterMatchesAreaPoints() throws Exception {
+        SmartShape e = (SmartShape) geomTool.ellipse(10, 10, 6, 4);
+        final long[] count = new long[1];
+        e.areaPoints(new SmartShape.PointCallback() {
+            public void handle(int x, int y) {
+                count[0]++;
+            }
+        });
+        ShapeRaster raster = ShapeRaster.of(e);
+        long points = 0;
+        for (int i = 0; i < raster.size(); i++) {
+            points += raster.end(i) - raster.start(i);
+            if (i > 0) {
+                assertTrue(raster.row(i - 1) <= raster.row(i));
+            }
+        }
+        assertEquals(count[0], raster.points());
+        assertEquals(count[0], points);
+    }
 }
@@ -0,0 +1,358 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omero.gateway.rnd;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import omero.ServerError;
+import omero.api.RawPixelsStorePrx;
+import omero.api.StatefulServiceInterfacePrx;
+import omero.gateway.Gateway;
+import omero.gateway.SecurityContext;
+import omero.gateway.exception.DataSourceException;
+import omero.gateway.model.PixelsData;
+import omero.log.NullLogger;
+import omero.model.PixelsI;
+import omero.model.PixelsTypeI;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that a {@link RawDataStream} reads its tiles in order, spreads its
+ * requests over its stores with no more than the configured number in
+ * flight, and releases its stores once closed.
+ */
+@Test(groups = "unit")
+public class RawDataStreamTest {
+
+    private static final int SIZE_X = 5;
+
+    private static final int SIZE_Y = 4;
+
+    private static final int SIZE_Z = 3;
+
+    private static final int SIZE_C = 2;
+
+    private static final int SIZE_T = 3;
+
+    private static final int PLANES = SIZE_Z * SIZE_C * SIZE_T;
+
+    PixelsData pixels;
+
+    FakeGateway gw;
+
+    @BeforeMethod
+    public void createPixels() {
+        PixelsI p = new PixelsI(1L, true);
+        PixelsTypeI type = new PixelsTypeI();
+        type.setValue(omero.rtypes.rstring(PixelsData.UINT16_TYPE));
+        p.setPixelsType(type);
+        pixels = new PixelsData(p);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(SIZE_Z);
+        pixels.setSizeC(SIZE_C);
+        pixels.setSizeT(SIZE_T);
+        gw = new FakeGateway();
+    }
+
+    public void testPlanesAreReadInOrder() throws Exception {
+        RawDataStream stream = new RawDataStream(gw, null, pixels, null, null,
+                null, 0, 0, 2, 4);
+        Assert.assertEquals(stream.size(), PLANES);
+        List<int[]> read = new ArrayList<int[]>();
+        while (stream.hasNext()) {
+            RawDataStream.Tile tile = stream.next();
+            assertTile(tile, tile.getZ(), tile.getC(), tile.getT(), 0, 0,
+                    SIZE_X, SIZE_Y);
+            read.add(new int[] {tile.getZ(), tile.getC(), tile.getT()});
+        }
+        stream.close();
+
+        int i = 0;
+        for (int t = 0; t < SIZE_T; t++)
+            for (int c = 0; c < SIZE_C; c++)
+                for (int z = 0; z < SIZE_Z; z++)
+                    Assert.assertEquals(read.get(i++), new int[] {z, c, t});
+        Assert.assertEquals(gw.planes, PLANES);
+        Assert.assertEquals(gw.tiles, 0);
+        Assert.assertEquals(gw.maxInFlight, 4);
+        assertStoresUsedAndClosed(2, PLANES);
+    }
+
+    public void testTilesAreReadInOrder() throws Exception {
+        int[] z = {2, 0};
+        int[] t = {1};
+        int[] c = {1};
+        RawDataStream stream = new RawDataStream(gw, null, pixels, z, t, c,
+                2, 3, 3, 2);
+        // tiles of 2 by 3 pixels, narrower and shorter at the edges
+        int[][] tiles = {{0, 0, 2, 3}, {2, 0, 2, 3}, {4, 0, 1, 3},
+                {0, 3, 2, 1}, {2, 3, 2, 1}, {4, 3, 1, 1}};
+        Assert.assertEquals(stream.size(), z.length * tiles.length);
+        for (int zi : z) {
+            for (int[] p : tiles) {
+                Assert.assertTrue(stream.hasNext());
+                assertTile(stream.next(), zi, 1, 1, p[0], p[1], p[2], p[3]);
+            }
+        }
+        Assert.assertFalse(stream.hasNext());
+        stream.close();
+
+        Assert.assertEquals(gw.planes, 0);
+        Assert.assertEquals(gw.tiles, z.length * tiles.length);
+        Assert.assertEquals(gw.maxInFlight, 2);
+        assertStoresUsedAndClosed(3, z.length * tiles.length);
+    }
+
+    public void testTileAsLargeAsPlaneIsReadAsPlane() throws Exception {
+        RawDataStream stream = new RawDataStream(gw, null, pixels, new int[1],
+                new int[1], new int[1], SIZE_X + 1, SIZE_Y, 1, 1);
+        assertTile(stream.next(), 0, 0, 0, 0, 0, SIZE_X, SIZE_Y);
+        stream.close();
+        Assert.assertEquals(gw.planes, 1);
+        Assert.assertEquals(gw.tiles, 0);
+    }
+
+    public void testNoMoreStoresThanTiles() throws Exception {
+        RawDataStream stream = new RawDataStream(gw, null, pixels, new int[1],
+                new int[1], new int[1], 0, 0, 4, 8);
+        Assert.assertEquals(gw.stores.size(), 1);
+        stream.next();
+        stream.close();
+        assertStoresUsedAndClosed(1, 1);
+    }
+
+    public void testFailureDescribesTile() throws Exception {
+        gw.failing = new int[] {1, 0, 2};
+        RawDataStream stream = new RawDataStream(gw, null, pixels, null, null,
+                null, 0, 0, 2, 3);
+        int read = 0;
+        try {
+            while (stream.hasNext()) {
+                stream.next();
+                read++;
+            }
+            Assert.fail("the failing plane was read");
+        } catch (DataSourceException e) {
+            Assert.assertTrue(e.getMessage().endsWith(
+                    "(z=1, c=0, t=2, x=0, y=0, w=" + SIZE_X + ", h=" + SIZE_Y
+                    + ")"), e.getMessage());
+            Assert.assertTrue(e.getCause() instanceof ServerError);
+        }
+        Assert.assertEquals(read, 2 * SIZE_Z * SIZE_C + 1);
+        stream.close();
+        Assert.assertEquals(gw.closed.size(), 2);
+    }
+
+    public void testCloseEndsRequestsInFlight() throws Exception {
+        RawDataStream stream = new RawDataStream(gw, null, pixels, null, null,
+                null, 0, 0, 2, 5);
+        stream.next();
+        Assert.assertEquals(gw.inFlight(), 5);
+        stream.close();
+        Assert.assertEquals(gw.inFlight(), 0);
+        Assert.assertEquals(gw.planes, 6);
+        Assert.assertEquals(gw.closed.size(), 2);
+        Assert.assertFalse(stream.hasNext());
+        try {
+            stream.next();
+            Assert.fail("read from a closed stream");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        stream.close();
+        Assert.assertEquals(gw.closed.size(), 2);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testIndexOutOfRange() throws Exception {
+        new RawDataStream(gw, null, pixels, null, new int[] {SIZE_T}, null,
+                0, 0, 1, 1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNoRequestInFlight() throws Exception {
+        new RawDataStream(gw, null, pixels, null, null, null, 0, 0, 1, 0);
+    }
+
+    public void testDescribeInStorageOrder() {
+        Assert.assertEquals(RawDataStream.describe(
+                new int[] {1, 2, 3, 4, 5, 6, 7}),
+                "(z=1, c=2, t=3, x=4, y=5, w=6, h=7)");
+    }
+
+    // ======================================================
+
+    /**
+     * The value of the pixel at the given position, unique within the
+     * pixels set.
+     */
+    private static int value(int z, int c, int t, int x, int y) {
+        return (((t * SIZE_C + c) * SIZE_Z + z) * SIZE_Y + y) * SIZE_X + x;
+    }
+
+    private void assertTile(RawDataStream.Tile tile, int z, int c, int t,
+            int x, int y, int w, int h) {
+        Assert.assertEquals(new int[] {tile.getZ(), tile.getC(), tile.getT(),
+                tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight()},
+                new int[] {z, c, t, x, y, w, h});
+        double[] values = tile.getPixels(null);
+        Assert.assertEquals(values.length, w * h);
+        for (int j = 0; j < h; j++)
+            for (int i = 0; i < w; i++)
+                Assert.assertEquals(values[j * w + i],
+                        (double) value(z, c, t, x + i, y + j));
+    }
+
+    /**
+     * Asserts that the expected number of stores was created, that the
+     * requests were spread over them in turn and that they were all closed.
+     */
+    private void assertStoresUsedAndClosed(int stores, int requests) {
+        Assert.assertEquals(gw.stores.size(), stores);
+        for (int i = 0; i < stores; i++) {
+            Store store = gw.stores.get(i);
+            Assert.assertEquals(store.requests,
+                    requests / stores + (i < requests % stores ? 1 : 0));
+            Assert.assertTrue(store.pending.isEmpty());
+        }
+        Assert.assertEquals(gw.closed, gw.stores);
+    }
+
+    /**
+     * Creates {@link Store}s in place of the pixels stores of a server.
+     */
+    private class FakeGateway extends Gateway {
+
+        final List<Store> stores = new ArrayList<Store>();
+
+        final List<Store> closed = new ArrayList<Store>();
+
+        int planes, tiles, maxInFlight;
+
+        /** The plane whose reads fail, as <code>{z, c, t}</code>. */
+        int[] failing;
+
+        FakeGateway() {
+            super(new NullLogger());
+        }
+
+        int inFlight() {
+            int n = 0;
+            for (Store store : stores)
+                n += store.pending.size();
+            return n;
+        }
+
+        @Override
+        public RawPixelsStorePrx createPixelsStore(SecurityContext ctx) {
+            Store store = new Store(this);
+            stores.add(store);
+            return store.proxy;
+        }
+
+        @Override
+        public void closeService(SecurityContext ctx,
+                StatefulServiceInterfacePrx svc) {
+            for (Store store : stores) {
+                if (store.proxy == svc)
+                    closed.add(store);
+            }
+        }
+    }
+
+    /**
+     * Records the reads from a {@link RawPixelsStorePrx}, which are ended in
+     * the order they were begun, as with Ice.
+     */
+    private static class Store implements InvocationHandler {
+
+        final FakeGateway gw;
+
+        /**
+         * The reads in flight, as <code>{z, c, t, x, y, w, h}</code>, with
+         * whether each is of a whole plane.
+         */
+        final Deque<Object[]> pending = new ArrayDeque<Object[]>();
+
+        int requests;
+
+        final RawPixelsStorePrx proxy = (RawPixelsStorePrx)
+                Proxy.newProxyInstance(getClass().getClassLoader(),
+                        new Class[] {RawPixelsStorePrx.class}, this);
+
+        Store(FakeGateway gw) {
+            this.gw = gw;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if ("setPixelsId".equals(name)) {
+                Assert.assertEquals(args[0], 1L);
+            } else if ("begin_getPlane".equals(name)) {
+                begin(new int[] {(Integer) args[0], (Integer) args[1],
+                        (Integer) args[2], 0, 0, SIZE_X, SIZE_Y}, true);
+                gw.planes++;
+            } else if ("begin_getTile".equals(name)) {
+                int[] p = new int[7];
+                for (int i = 0; i < p.length; i++)
+                    p[i] = (Integer) args[i];
+                begin(p, false);
+                gw.tiles++;
+            } else if ("end_getPlane".equals(name)
+                    || "end_getTile".equals(name)) {
+                Object[] read = pending.poll();
+                Assert.assertNotNull(read, "ended more reads than begun");
+                Assert.assertEquals(read[1], "end_getPlane".equals(name));
+                return end((int[]) read[0]);
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("toString".equals(name)) {
+                return "Store@" + System.identityHashCode(proxy);
+            } else {
+                throw new UnsupportedOperationException(name);
+            }
+            return null;
+        }
+
+        private void begin(int[] p, boolean plane) {
+            pending.add(new Object[] {p, plane});
+            requests++;
+            gw.maxInFlight = Math.max(gw.maxInFlight, gw.inFlight());
+        }
+
+        /**
+         * Returns the big-endian values of the given tile, or fails if it is
+         * in the failing plane.
+         */
+        private byte[] end(int[] p) throws ServerError {
+            if (gw.failing != null && gw.failing[0] == p[0]
+                    && gw.failing[1] == p[1] && gw.failing[2] == p[2])
+                throw new ServerError(null, null, "read failed");
+            int w = p[5], h = p[6];
+            byte[] data = new byte[2 * w * h];
+            for (int j = 0; j < h; j++) {
+                for (int i = 0; i < w; i++) {
+                    int v = value(p[0], p[1], p[2], p[3] + i, p[4] + j);
+                    data[2 * (j * w + i)] = (byte) (v >> 8);
+                    data[2 * (j * w + i) + 1] = (byte) v;
+                }
+            }
+            return data;
+        }
+    }
+}
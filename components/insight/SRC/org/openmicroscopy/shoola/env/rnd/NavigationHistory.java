@@ -196,7 +196,8 @@ class NavigationHistory
         
         //Check if pd is the current move.  If so, return as we haven't moved
         //at all from the previous point.
-        if (pd.equals(curMove())) return;  //curMove can be null, but pd is not.
+        PlaneDef cur = curMove();
+        if (cur != null && cur.z == z && cur.t == t) return;
         
         //Now make a copy to avoid caller changing entry after we added.
         pd = new PlaneDef();
@@ -273,7 +274,7 @@ class NavigationHistory
             pd = new PlaneDef();
             pd.slice = omero.romio.XY.value;
             pd.t = (int) p.x2;
-            pd.y = (int) p.x1;
+            pd.z = (int) p.x1;
             
             //Even though dir.getPoint is monotonic, we could be getting a pd
             //equal to the previous one b/c of the above casts to int.  However,
@@ -34,6 +34,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import omero.LockTimeout;
 import omero.api.RenderingEnginePrx;
@@ -46,10 +50,10 @@ import omero.model.QuantumDef;
 import omero.model.RenderingModel;
 import omero.model.enums.UnitsLength;
 import omero.romio.PlaneDef;
+import omero.romio.RegionDef;
 
 import org.openmicroscopy.shoola.env.LookupNames;
 
-import omero.gateway.cache.CacheService;
 
 import org.openmicroscopy.shoola.env.config.Registry;
 import org.openmicroscopy.shoola.env.data.ConnectionExceptionHandler;
@@ -106,6 +110,9 @@ class RenderingControlProxy
 	/** The maximum number of retry.*/
 	private static final int MAX_RETRY = 2;
 	
+	/** The number of moves kept to guess the navigation direction. */
+	private static final int HISTORY_SIZE = 10;
+	
     /** List of supported families. */
     private List families;
     
@@ -118,8 +125,32 @@ class RenderingControlProxy
     /** Reference to service to render pixels set. */
     private RenderingEnginePrx servant;
 
-    /** The id of the cache associated to this proxy. */
-    private int cacheID;
+    /** The cache of the rendered XY planes, created on first use. */
+    private XYCache xyCache;
+    
+    /** The moves along the z-sections and timepoints. */
+    private NavigationHistory history;
+    
+    /** Identifies how the cached planes are rendered. */
+    private String cacheKey;
+    
+    /** 
+     * Incremented each time the cache is cleared so that the planes being
+     * prefetched with out of date settings are dropped.
+     */
+    private int cacheVersion;
+    
+    /** Guards the cache, the history and the prefetch tasks. */
+    private final Object cacheLock = new Object();
+    
+    /** The maximum number of planes to prefetch. */
+    private int maxPrefetch;
+    
+    /** Renders the prefetched planes, created on first use. */
+    private ExecutorService prefetcher;
+    
+    /** The prefetch tasks not completed yet. */
+    private final List<Future<?>> prefetching = new ArrayList<Future<?>>();
     
     /** The channel metadata. */
     private ChannelData[] metadata;
@@ -252,99 +283,229 @@ class RenderingControlProxy
 		return sw.toString();
 	}
 
+    /**
+     * Returns a key identifying how the specified plane is rendered, its
+     * z-section and timepoint aside, so that only planes rendered the same
+     * way are kept in the cache.
+     *
+     * @param pd The plane definition.
+     * @return See above.
+     */
+    private String cacheKey(PlaneDef pd)
+    {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(pd.slice);
+        buffer.append("/"+pd.x+"/"+pd.y+"/"+pd.stride+"/"+compression);
+        if (pd.region != null) {
+            buffer.append("/"+pd.region.x+"/"+pd.region.y);
+            buffer.append("/"+pd.region.width+"/"+pd.region.height);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Returns <code>true</code> if the specified plane can be cached,
+     * <code>false</code> otherwise. Only the XY planes of images which are
+     * not tiled are cached.
+     *
+     * @param pd The plane definition.
+     * @return See above.
+     */
+    private boolean isCacheable(PlaneDef pd)
+    {
+        return cacheSize > 0 && pd.slice == omero.romio.XY.value &&
+                pd.getClass() == PlaneDef.class && !isBigImage();
+    }
+
     /**
      * Retrieves from the cache the buffered image representing the specified
-     * plane definition. Note that only the images corresponding to an XY-plane
-     * are cached.
+     * plane definition and records the move. Note that only the images
+     * corresponding to an XY-plane are cached.
      * 
      * @param pd The specified {@link PlaneDef plane definition}.
-     * @return The corresponding bufferedImage.
+     * @return The corresponding bufferedImage or <code>null</code>.
      */
-    private Object getFromCache(PlaneDef pd)
+    private BufferedImage getFromCache(PlaneDef pd)
     {
-        // We only cache XY images.
-    	if (pd.slice == omero.romio.XY.value && cacheID >= 0) {
-    		int index = pd.z+getPixelsDimensionsZ()*pd.t;
-    		return context.getCacheService().getElement(cacheID, index);
-    	}
-        return null;
+        synchronized (cacheLock) {
+            if (xyCache == null || !cacheKey(pd).equals(cacheKey)) return null;
+            history.addMove(pd);
+            return (BufferedImage) xyCache.extract(pd);
+        }
     }
     
     /**
-     * Caches the specified image if it corresponds to an XYPlane.
+     * Caches the specified image and records the move.
      * 
      * @param pd The plane definition.
-     * @param object The buffered image to cache or the bytes array.
+     * @param img The rendered image.
      */
-    private void cache(PlaneDef pd, Object object)
+    private void cache(PlaneDef pd, BufferedImage img)
     {
-    	if (isBigImage()) return;
-        if (pd.slice == omero.romio.XY.value) {
-            //We only cache XY images.
-            //if (xyCache != null) xyCache.add(pd, object);
-        	if (cacheID >= 0) {
-        		int index = pd.z+getPixelsDimensionsZ()*pd.t;
-        		//context.getCacheService().addElement(cacheID,
-        			//	Integer.valueOf(index), object);
-        	}
+        if (img == null) return;
+        synchronized (cacheLock) {
+            String key = cacheKey(pd);
+            if (xyCache == null || !key.equals(cacheKey)) {
+                //The size of the planes depends on the key e.g. the region.
+                clearCache();
+                if (history == null)
+                    history = new NavigationHistory(HISTORY_SIZE,
+                            getPixelsDimensionsZ(), getPixelsDimensionsT());
+                imageSize = Math.max(1, 4*img.getWidth()*img.getHeight());
+                xyCache = new XYCache(cacheSize, imageSize, history);
+            }
+            cacheKey = key;
+            history.addMove(pd);
+            xyCache.add(pd, img);
         }
     }
     
+    /**
+     * Clears the cache and drops the planes being prefetched.
+     * Must hold the {@link #cacheLock}.
+     */
+    private void clearCache()
+    {
+        cacheVersion++;
+        cancelPrefetch();
+        if (xyCache != null) xyCache.clear();
+    }
+
+    /**
+     * Drops the planes waiting to be prefetched.
+     * Must hold the {@link #cacheLock}.
+     */
+    private void cancelPrefetch()
+    {
+        Iterator<Future<?>> i = prefetching.iterator();
+        while (i.hasNext())
+            i.next().cancel(false);
+        prefetching.clear();
+    }
+
     /** Clears the cache. */
     private void invalidateCache()
     {
-    	if (isBigImage()) return;
-    	if (cacheID >= 0) context.getCacheService().clearCache(cacheID);
+        synchronized (cacheLock) {
+            clearCache();
+        }
     }
     
     /** Clears the cache and releases memory. */
     private void eraseCache()
     {
-    	if (isBigImage()) return;
-    	invalidateCache();
-    	if (cacheID >=0)
-    		context.getCacheService().removeCache(cacheID);
+        synchronized (cacheLock) {
+            clearCache();
+            xyCache = null;
+            history = null;
+            cacheKey = null;
+        }
     }
-    
+
     /**
-     * Initializes the cache for the specified plane.
-     * 
-     * @param pDef The plane of reference.
+     * Renders in the background the planes likely to be requested after the
+     * specified one, following the current direction of navigation along
+     * the z-sections or timepoints.
+     *
+     * @param pd The plane which has just been requested.
      */
-    private void initializeCache(PlaneDef pDef)
+    private void prefetch(PlaneDef pd)
     {
-    	if (isBigImage()) return;
-    	//if (xyCache != null) return;
-    	if (cacheID >= 0) return;
-    	/*
-    	if (pDef.getSlice() == PlaneDef.XY && xyCache == null) {
-    		//    		Okay, let's see if we can activate the xyCache.
-            //In order to 
-            //do that, the dimensions of the pixels array and the 
-            //xyImgSize have to be available. 
-            //This happens if at least one XY plane has been rendered.
-            //Note that doing remote calls upfront to eagerly 
-            //instantiate the xyCache is in most cases a total waste:
-            //the client is  likely to call getPixelsDims() before an
-            //image is ever  rendered and until an XY plane is 
-            //not requested it's pointless to have a cache.
-            xyCache = CachingService.createXYCache(pixs.getId(), length,
-            				getPixelsDimensionsZ(), getPixelsDimensionsT());
-    	}
-    	*/
-    	if (pDef.slice == omero.romio.XY.value) {
-    		try {
-    			cacheID = context.getCacheService().createCache(
-    					CacheService.IN_MEMORY, cacheSize/imageSize);
-			} catch (Exception e) {
-				//log the error for example if the cache manager could not
-				//be initialized.
-				LogMessage msg = new LogMessage();
-				msg.print("Initialize cache");
-				msg.print(e);
-				context.getLogger().error(this, msg);
-			}
-    	}
+        if (maxPrefetch <= 0) return;
+        final RenderingEnginePrx re = servant;
+        final boolean compressed = isCompressed();
+        final int version;
+        PlaneDef[] moves;
+        synchronized (cacheLock) {
+            if (xyCache == null || shutDown) return;
+            //Planes not rendered yet are not wanted anymore.
+            cancelPrefetch();
+            //Keep room in the cache for the plane just requested.
+            int n = Math.min(maxPrefetch, xyCache.getMaxEntries()-1);
+            moves = history.guessNextMoves(n);
+            version = cacheVersion;
+            if (moves.length == 0) return;
+            if (prefetcher == null) {
+                prefetcher = Executors.newSingleThreadExecutor(
+                        new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Prefetch-"+pixs.getId()
+                                .getValue());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+            for (int k = 0; k < moves.length; k++) {
+                final PlaneDef next = copy(pd, moves[k].z, moves[k].t);
+                if (xyCache.contains(next)) continue;
+                prefetching.add(prefetcher.submit(new Runnable() {
+                    public void run() {
+                        prefetch(re, next, compressed, version);
+                    }
+                }));
+            }
+        }
+    }
+
+    /**
+     * Renders the specified plane and caches it unless the cache has been
+     * cleared in the meantime, in which case the settings used to render it
+     * may be out of date.
+     *
+     * @param re The rendering engine.
+     * @param pd The plane to render.
+     * @param compressed Pass <code>true</code> to render a compressed image.
+     * @param version The version of the cache the plane is for.
+     */
+    private void prefetch(RenderingEnginePrx re, PlaneDef pd,
+            boolean compressed, int version)
+    {
+        synchronized (cacheLock) {
+            if (version != cacheVersion || xyCache == null ||
+                    xyCache.contains(pd)) return;
+        }
+        try {
+            BufferedImage img;
+            if (compressed) {
+                img = WriterImage.bytesToImage(re.renderCompressed(pd));
+            } else {
+                Point p = getSize(pd);
+                img = Factory.createImage(re.renderAsPackedInt(pd), 32, p.x,
+                        p.y);
+            }
+            if (img == null) return;
+            synchronized (cacheLock) {
+                if (version == cacheVersion && xyCache != null)
+                    xyCache.add(pd, img);
+            }
+        } catch (Throwable e) {
+            log("Cannot prefetch plane z="+pd.z+" t="+pd.t+": "+e);
+        }
+    }
+
+    /**
+     * Returns a copy of the specified plane definition for the given
+     * z-section and timepoint.
+     *
+     * @param pd The plane definition to copy.
+     * @param z The z-section.
+     * @param t The timepoint.
+     * @return See above.
+     */
+    private PlaneDef copy(PlaneDef pd, int z, int t)
+    {
+        PlaneDef copy = new PlaneDef();
+        copy.slice = pd.slice;
+        copy.x = pd.x;
+        copy.y = pd.y;
+        copy.z = z;
+        copy.t = t;
+        copy.stride = pd.stride;
+        if (pd.region != null)
+            copy.region = new RegionDef(pd.region.x, pd.region.y,
+                    pd.region.width, pd.region.height);
+        return copy;
     }
   
     /**
@@ -534,11 +695,8 @@ class RenderingControlProxy
 	private BufferedImage renderCompressedBI(PlaneDef pDef)
 		throws RenderingServiceException, DSOutOfServiceException
 	{
-		//Need to adjust the cache.
-		//Object array = getFromCache(pDef);
 		try {
 			byte[] values = servant.renderCompressed(pDef);
-			imageSize = values.length;
 			return WriterImage.bytesToImage(values);
 		} catch (Throwable e) {
 			if (e instanceof LockTimeout && retry < MAX_RETRY) { //retry
@@ -563,16 +721,11 @@ class RenderingControlProxy
 	private BufferedImage renderUncompressed(PlaneDef pDef)
 		throws RenderingServiceException, DSOutOfServiceException
 	{
-		//See if the requested image is in cache.
-        BufferedImage img = (BufferedImage) getFromCache(pDef);
-        //if (img != null) return img;
+        BufferedImage img = null;
         try {
         	int[] buf = servant.renderAsPackedInt(pDef);
             Point p = getSize(pDef);
-            imageSize = 3*buf.length;
-            initializeCache(pDef);
             img = Factory.createImage(buf, 32, p.x, p.y);
-            cache(pDef, img);
 		} catch (Throwable e) {
 			if (e instanceof LockTimeout && retry < MAX_RETRY) { //retry
 				retry++;
@@ -718,8 +871,10 @@ class RenderingControlProxy
         selectedResolutionLevel = -1;
         lastAction = System.currentTimeMillis();
         shutDown = false;
-        this.cacheSize = cacheSize;
         this.context = context;
+        this.cacheSize = budget(cacheSize);
+        Integer n = (Integer) context.lookup(LookupNames.RE_MAX_PRE_FETCH);
+        maxPrefetch = n == null ? 0 : n.intValue();
         servant = re;
         pixs = pixels;
         families = null;
@@ -727,7 +882,6 @@ class RenderingControlProxy
         try {
         	families = servant.getAvailableFamilies();
             models = servant.getAvailableModels();
-            cacheID = -1;
             imageSize = 1;
             this.compression = compression;
             metadata = new ChannelData[m.size()];
@@ -850,6 +1004,10 @@ class RenderingControlProxy
     	throws RenderingServiceException, DSOutOfServiceException
     {
     	if (servant == null) return;
+    	//The queued planes would be rendered by the previous servant.
+    	synchronized (cacheLock) {
+    		cancelPrefetch();
+    	}
     	this.servant = servant;
     	shutDown = false;
     	lastAction = System.currentTimeMillis();
@@ -909,8 +1067,11 @@ class RenderingControlProxy
     {
     	if (shutDown) return shutDown;
     	try {
-    		if (!keepCache && cacheID >= 0)
-    			context.getCacheService().removeCache(cacheID);
+    		if (!keepCache) eraseCache();
+    		synchronized (cacheLock) {
+    			if (prefetcher != null) prefetcher.shutdownNow();
+    			prefetcher = null;
+    		}
     		Iterator<RenderingControl> j = slaves.iterator();
 			while (j.hasNext())
 				((RenderingControlProxy) j.next()).shutDown();
@@ -931,9 +1092,28 @@ class RenderingControlProxy
 	 */
 	void setCacheSize(int size)
 	{
-		if (imageSize == 0) imageSize = 1;
-		if (cacheID >= 0)
-			context.getCacheService().setCacheEntries(cacheID, size/imageSize);
+		synchronized (cacheLock) {
+			cacheSize = budget(size);
+			clearCache();
+			if (xyCache != null) xyCache.resetCacheSize(cacheSize);
+		}
+	}
+	
+	/**
+	 * Returns the size of the cache, bounded by the number of Mb allocated
+	 * to the rendering engine. The cache is disabled if no memory is
+	 * allocated.
+	 * 
+	 * @param size The size, in bytes, available.
+	 * @return See above.
+	 */
+	private int budget(int size)
+	{
+		Integer mb = (Integer) context.lookup(LookupNames.RE_CACHE_SZ);
+		if (mb == null) return Math.max(0, size);
+		if (mb.intValue() <= 0) return 0;
+		long max = mb.longValue()*1024*1024;
+		return (int) Math.max(0, Math.min(size, max));
 	}
 	
     /** 
@@ -1606,6 +1786,15 @@ class RenderingControlProxy
     {
     	if (pDef == null) 
              throw new IllegalArgumentException("Plane def cannot be null.");
+    	boolean cacheable = value == compression && isCacheable(pDef);
+    	if (cacheable) {
+    		BufferedImage img = getFromCache(pDef);
+    		if (img != null) {
+    			lastAction = System.currentTimeMillis();
+    			prefetch(pDef);
+    			return img;
+    		}
+    	}
     	try {
     	    context.getImageService().isAlive(ctx);
 			servant.ice_ping();
@@ -1621,6 +1810,10 @@ class RenderingControlProxy
         if (isCompressed()) img = renderCompressedBI(pDef);
         else img = renderUncompressed(pDef);
         if (value != compression) setCompression(compression);
+        if (cacheable && img != null) {
+        	cache(pDef, img);
+        	prefetch(pDef);
+        }
         return img;
     }
     
@@ -314,6 +314,13 @@ public class XYCache
  * ==============================================================
  */ 
     
+    /**
+     * Returns the maximum number of entries allowed in the cache.
+     * 
+     * @return See above.
+     */
+    int getMaxEntries() { return max_entries; }
+    
     /**
      * Returns the cache.
      * 
@@ -0,0 +1,154 @@
+/*
+ * org.openmicroscopy.shoola.env.rnd.TestNavigationHistory
+ *
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2015 University of Dundee. All rights reserved.
+ *
+ *
+ * 	This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+
+package org.openmicroscopy.shoola.env.rnd;
+
+
+//Java imports
+
+//Third-party libraries
+import junit.framework.TestCase;
+
+//Application-internal dependencies
+import omero.romio.PlaneDef;
+
+/**
+ * Unit test for {@link NavigationHistory}.
+ * Verifies that moves are recorded once and that the next moves are guessed
+ * along the z-sections and timepoints.
+ *
+ * @since 5.1
+ */
+public class TestNavigationHistory
+    extends TestCase
+{
+
+    private static final int    SIZE_Z = 10;  //Passed to target.
+    private static final int    SIZE_T = 5;  //Passed to target.
+
+    private NavigationHistory   target;  //Object under test.
+
+
+    private static PlaneDef plane(int z, int t)
+    {
+        PlaneDef pd = new PlaneDef();
+        pd.slice = omero.romio.XY.value;
+        pd.z = z;
+        pd.t = t;
+        return pd;
+    }
+
+    public void setUp()
+    {
+        target = new NavigationHistory(4, SIZE_Z, SIZE_T);
+    }
+
+    public void testAddMoveIgnoresSamePlane()
+    {
+        target.addMove(plane(1, 2));
+        target.addMove(plane(1, 2));
+        assertEquals("Same z and t should be recorded once.",
+                1, target.getHistory().size());
+    }
+
+    public void testAddMoveComparesZAndT()
+    {
+        target.addMove(plane(1, 2));
+        target.addMove(plane(2, 2));
+        target.addMove(plane(2, 3));
+        assertEquals("Different z or t should be recorded.",
+                3, target.getHistory().size());
+        PlaneDef last = (PlaneDef) target.getHistory().get(2);
+        assertEquals(2, last.z);
+        assertEquals(3, last.t);
+    }
+
+    public void testAddMoveCopiesPlane()
+    {
+        PlaneDef pd = plane(1, 2);
+        target.addMove(pd);
+        pd.z = 3;
+        PlaneDef recorded = (PlaneDef) target.getHistory().get(0);
+        assertNotSame(pd, recorded);
+        assertEquals(1, recorded.z);
+    }
+
+    public void testAddMoveDropsOldestEntry()
+    {
+        for (int z = 0; z < 6; z++)
+            target.addMove(plane(z, 0));
+        assertEquals(4, target.getHistory().size());
+        assertEquals(2, ((PlaneDef) target.getHistory().get(0)).z);
+    }
+
+    public void testGuessNextMovesNeedsTwoMoves()
+    {
+        assertEquals(0, target.guessNextMoves(2).length);
+        target.addMove(plane(1, 0));
+        assertEquals(0, target.guessNextMoves(2).length);
+    }
+
+    public void testGuessNextMovesAlongZ()
+    {
+        target.addMove(plane(1, 2));
+        target.addMove(plane(2, 2));
+        PlaneDef[] moves = target.guessNextMoves(3);
+        assertEquals(3, moves.length);
+        for (int k = 0; k < moves.length; k++) {
+            assertEquals(omero.romio.XY.value, moves[k].slice);
+            assertEquals(3+k, moves[k].z);
+            assertEquals(2, moves[k].t);
+        }
+    }
+
+    public void testGuessNextMovesBackwardsAlongZ()
+    {
+        target.addMove(plane(3, 0));
+        target.addMove(plane(2, 0));
+        PlaneDef[] moves = target.guessNextMoves(5);
+        assertEquals("Stops at the first z-section.", 2, moves.length);
+        assertEquals(1, moves[0].z);
+        assertEquals(0, moves[1].z);
+    }
+
+    public void testGuessNextMovesAlongT()
+    {
+        target.addMove(plane(4, 1));
+        target.addMove(plane(4, 2));
+        PlaneDef[] moves = target.guessNextMoves(5);
+        assertEquals("Stops at the last timepoint.", 2, moves.length);
+        for (int k = 0; k < moves.length; k++) {
+            assertEquals(4, moves[k].z);
+            assertEquals(3+k, moves[k].t);
+        }
+    }
+
+    public void testGuessNextMovesNone()
+    {
+        target.addMove(plane(1, 0));
+        target.addMove(plane(2, 0));
+        assertEquals(0, target.guessNextMoves(0).length);
+        assertEquals(0, target.guessNextMoves(-1).length);
+    }
+
+}
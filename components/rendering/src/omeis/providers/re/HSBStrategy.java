@@ -13,8 +13,6 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
@@ -43,8 +41,9 @@ import omeis.providers.re.quantum.QuantumStrategy;
  * rendering context.
  * <p>
  * This strategy renders the in "regions", dividing the planar data up based
- * on {@link #maxTasks} and assigning each task to its own thread. This should
- * result in parallel rendering on multi-processor machines.
+ * on {@link #maxTasks} and submitting each task to the {@link RenderingExecutor}
+ * shared by all renderers. This should result in parallel rendering on
+ * multi-processor machines without creating threads for each request.
  * </p>
  * <p>
  * Thread-safety relies on the fact that the rendering context is not going to
@@ -198,6 +197,37 @@ class HSBStrategy extends RenderingStrategy {
         return strats;
     }
 
+    /**
+     * Retrieves the fused lookup table for each active channel. Overlays and
+     * channels whose strategy is not backed by a lookup table have a
+     * <code>null</code> entry.
+     * 
+     * @param colors The color of each active channel and overlay.
+     * @return See above.
+     * @throws QuantizationException If a value cannot be quantized.
+     */
+    private List<PackedColorLUT> getColorLUTs(List<int[]> colors)
+        throws QuantizationException {
+        ChannelBinding[] channelBindings = renderer.getChannelBindings();
+        QuantumManager qManager = renderer.getQuantumManager();
+        boolean isAlphaless =
+            renderer.getOptimizations().isAlphalessRendering();
+        List<PackedColorLUT> luts = new ArrayList<PackedColorLUT>();
+
+        int i = 0;
+        for (int w = 0; w < channelBindings.length; w++) {
+            if (channelBindings[w].getActive()) {
+                luts.add(qManager.getColorLUTFor(w, colors.get(i),
+                        isAlphaless, sizeX1 * sizeX2));
+                i++;
+            }
+        }
+        for (; i < colors.size(); i++) {
+            luts.add(null);
+        }
+        return luts;
+    }
+
     /**
      * Creates a set of rendering tasks for the image based on the calling
      * buffer type.
@@ -208,7 +238,8 @@ class HSBStrategy extends RenderingStrategy {
      *            The buffer to render into.
      * @return An array containing the tasks.
      */
-    private RenderingTask[] makeRenderingTasks(PlaneDef def, RGBBuffer buf) {
+    private RenderingTask[] makeRenderingTasks(PlaneDef def, RGBBuffer buf)
+        throws QuantizationException {
         List<RenderHSBRegionTask> tasks = new ArrayList<RenderHSBRegionTask>();
 
         // Get all objects we need to create the tasks.
@@ -217,6 +248,11 @@ class HSBStrategy extends RenderingStrategy {
         List<Plane2D> wData = getWavelengthData(def);
         List<int[]> colors = getColors();
         List<QuantumStrategy> strategies = getStrategies();
+        // The fused tables are only used when rendering into packed integers.
+        List<PackedColorLUT> luts = null;
+        if (buf instanceof RGBIntBuffer || buf instanceof RGBAIntBuffer) {
+            luts = getColorLUTs(colors);
+        }
         // Create a number of rendering tasks.
         int taskCount = numTasks(sizeX2);
         int delta = sizeX2/taskCount;
@@ -227,8 +263,8 @@ class HSBStrategy extends RenderingStrategy {
         for (int i = 0; i < taskCount; i++) {
             x2Start = i*delta;
             x2End = (i+1)*delta;
-            tasks.add(new RenderHSBRegionTask(buf, wData, strategies, cc,
-            		colors, renderer.getOptimizations(),
+            tasks.add(new RenderHSBRegionTask(buf, wData, strategies, luts,
+            		cc, colors, renderer.getOptimizations(),
             		x1Start, x1End, x2Start, x2End));
         }
 
@@ -313,7 +349,7 @@ class HSBStrategy extends RenderingStrategy {
         performanceStats.startRendering();
         int n = tasks.length;
         Future[] rndTskFutures = new Future[n]; // [0] unused.
-        ExecutorService processor = Executors.newCachedThreadPool();
+        RenderingExecutor processor = renderer.getRenderingExecutor();
 
         while (0 < --n) {
             rndTskFutures[n] = processor.submit(tasks[n]);
@@ -336,9 +372,6 @@ class HSBStrategy extends RenderingStrategy {
             }
         }
 
-        // Shutdown the task processor
-        processor.shutdown();
-
         // End the performance metrics for this rendering event.
         performanceStats.endRendering();
     }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package omeis.providers.re;
+
+import omeis.providers.re.quantum.QuantizationException;
+import omeis.providers.re.quantum.Quantization_8_16_bit;
+
+/**
+ * Lookup table mapping the raw pixel values of a channel directly to their
+ * contribution to a packed <i>RGB</i> pixel, i.e. fusing the quantization, the
+ * channel color and the alpha pre-multiplication. Contributions are packed as
+ * <code>0x00RRGGBB</code>.
+ * <p>
+ * A table is only valid for the strategy it was built from, at the version of
+ * that strategy it was built for, and for a given channel color. The
+ * {@link QuantumManager} uses {@link #isValidFor} to decide when to rebuild
+ * it.
+ * </p>
+ *
+ * @since 5.1
+ */
+final class PackedColorLUT {
+
+    /** The strategy the table was built from. */
+    private final Quantization_8_16_bit strategy;
+
+    /** The version of the strategy the table was built for. */
+    private final int version;
+
+    /** The color components the table was built for. */
+    private final int red, green, blue, alpha;
+
+    /** Whether the alpha component was ignored when building the table. */
+    private final boolean alphaless;
+
+    /** The lowest raw value covered by the table. */
+    private final int min;
+
+    /** The highest raw value covered by the table. */
+    private final int max;
+
+    /** The packed contributions, indexed by raw value minus {@link #min}. */
+    private final int[] table;
+
+    /**
+     * Creates a new table.
+     *
+     * @param strategy The strategy used to quantize the raw values.
+     * @param color The color components of the channel.
+     * @param alphaless Pass <code>true</code> if alpha pre-multiplication is
+     *                  disabled, <code>false</code> otherwise.
+     * @throws QuantizationException If a value cannot be quantized.
+     */
+    PackedColorLUT(Quantization_8_16_bit strategy, int[] color,
+            boolean alphaless) throws QuantizationException {
+        this.strategy = strategy;
+        this.version = strategy.getVersion();
+        this.red = color[ColorsFactory.RED_INDEX];
+        this.green = color[ColorsFactory.GREEN_INDEX];
+        this.blue = color[ColorsFactory.BLUE_INDEX];
+        this.alpha = color[ColorsFactory.ALPHA_INDEX];
+        this.alphaless = alphaless;
+        this.min = strategy.getLutMin();
+        this.max = strategy.getLutMax();
+        int size = max - min + 1;
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = min + i;
+        }
+        table = new int[size];
+        strategy.quantize(values, table, size);
+        for (int i = 0; i < size; i++) {
+            table[i] = contribution(table[i]);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the table can still be used for the
+     * specified strategy, color and alpha setting.
+     *
+     * @param strategy The strategy of the channel.
+     * @param color The color components of the channel.
+     * @param alphaless The alpha setting of the renderer.
+     * @return See above.
+     */
+    boolean isValidFor(Quantization_8_16_bit strategy, int[] color,
+            boolean alphaless) {
+        return this.strategy == strategy
+            && version == strategy.getVersion()
+            && red == color[ColorsFactory.RED_INDEX]
+            && green == color[ColorsFactory.GREEN_INDEX]
+            && blue == color[ColorsFactory.BLUE_INDEX]
+            && alpha == color[ColorsFactory.ALPHA_INDEX]
+            && this.alphaless == alphaless;
+    }
+
+    /**
+     * Returns the packed contribution of the raw value <code>x</code>.
+     * Values outside the bounds of the table are quantized on the fly.
+     *
+     * @param x The raw pixel value.
+     * @return See above.
+     * @throws QuantizationException If the value cannot be quantized.
+     */
+    int get(int x) throws QuantizationException {
+        if (x < min || x > max) {
+            return contribution(strategy.quantize(x));
+        }
+        return table[x - min];
+    }
+
+    /**
+     * Returns the packed contributions of the first <code>length</code> raw
+     * values of <code>values</code>.
+     *
+     * @param values The raw pixel values.
+     * @param packed The array to fill with the contributions.
+     * @param length The number of values to look up.
+     * @throws QuantizationException If a value cannot be quantized.
+     */
+    void get(int[] values, int[] packed, int length)
+        throws QuantizationException {
+        int[] t = table;
+        int lMin = min;
+        int lMax = max;
+        int x;
+        for (int i = 0; i < length; i++) {
+            x = values[i];
+            if (x < lMin || x > lMax) {
+                packed[i] = contribution(strategy.quantize(x));
+            } else {
+                packed[i] = t[x - lMin];
+            }
+        }
+    }
+
+    /**
+     * Computes the packed contribution of a quantized value, using the same
+     * arithmetic as the per-pixel rendering path.
+     *
+     * @param discreteValue The quantized value.
+     * @return See above.
+     */
+    private int contribution(int discreteValue) {
+        double redRatio = red > 0 ? red / 255.0 : 0.0;
+        double greenRatio = green > 0 ? green / 255.0 : 0.0;
+        double blueRatio = blue > 0 ? blue / 255.0 : 0.0;
+        int r = (int) (redRatio * discreteValue);
+        int g = (int) (greenRatio * discreteValue);
+        int b = (int) (blueRatio * discreteValue);
+        if (!alphaless) {
+            float a = (float) alpha / 255;
+            r *= a;
+            g *= a;
+            b *= a;
+        }
+        return r << 16 | g << 8 | b;
+    }
+
+}
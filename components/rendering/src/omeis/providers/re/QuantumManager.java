@@ -17,6 +17,8 @@ import ome.model.display.QuantumDef;
 import ome.model.stats.StatsInfo;
 
 import omeis.providers.re.metadata.StatsFactory;
+import omeis.providers.re.quantum.QuantizationException;
+import omeis.providers.re.quantum.Quantization_8_16_bit;
 import omeis.providers.re.quantum.QuantumFactory;
 import omeis.providers.re.quantum.QuantumStrategy;
 
@@ -44,6 +46,12 @@ class QuantumManager {
     /** A quantum factory instance for looking up enumerations. */
     private final QuantumFactory factory;
 
+    /**
+     * Contains the fused lookup table built for each wavelength, if any.
+     * Indexed as {@link #wavesStg}.
+     */
+    private final PackedColorLUT[] colorLUTs;
+
     /**
      * Creates a new instance.
      * 
@@ -54,6 +62,7 @@ class QuantumManager {
         this.factory = factory;
         this.metadata = metadata;
         wavesStg = new QuantumStrategy[metadata.getSizeC().intValue()];
+        colorLUTs = new PackedColorLUT[wavesStg.length];
     }
 
     /**
@@ -107,6 +116,7 @@ class QuantumManager {
             stg.setWindow(waves[w].getInputStart(), waves[w].getInputEnd());
 
             wavesStg[w] = stg;
+            colorLUTs[w] = null;
             w++;
         }
     }
@@ -122,4 +132,44 @@ class QuantumManager {
         return wavesStg[w];
     }
 
+    /**
+     * Returns the lookup table mapping the raw values of the specified
+     * wavelength directly to their packed <i>RGB</i> contribution. The table
+     * is cached and only rebuilt when the window, the mapping or the color
+     * of the wavelength has changed since it was last built. No table is
+     * built for renders with fewer pixels than the table has entries since
+     * quantizing those pixels directly is cheaper.
+     * 
+     * @param w
+     *            The wavelength index in the <i>OME</i> 5D-pixels file.
+     * @param color
+     *            The color components of the wavelength.
+     * @param alphaless
+     *            Pass <code>true</code> if alpha pre-multiplication is
+     *            disabled, <code>false</code> otherwise.
+     * @param pixelCount
+     *            The number of pixels about to be rendered.
+     * @return The table or <code>null</code> if the strategy of the
+     *         wavelength is not backed by a lookup table or the render is
+     *         too small.
+     * @throws QuantizationException
+     *             If a value cannot be quantized.
+     */
+    synchronized PackedColorLUT getColorLUTFor(int w, int[] color,
+            boolean alphaless, int pixelCount) throws QuantizationException {
+        if (!(wavesStg[w] instanceof Quantization_8_16_bit)) {
+            return null;
+        }
+        Quantization_8_16_bit stg = (Quantization_8_16_bit) wavesStg[w];
+        PackedColorLUT lut = colorLUTs[w];
+        if (lut == null || !lut.isValidFor(stg, color, alphaless)) {
+            if (stg.getLutMax() - stg.getLutMin() >= pixelCount) {
+                return null;
+            }
+            lut = new PackedColorLUT(stg, color, alphaless);
+            colorLUTs[w] = lut;
+        }
+        return lut;
+    }
+
 }
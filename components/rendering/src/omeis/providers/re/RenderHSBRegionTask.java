@@ -12,8 +12,6 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import ome.util.PixelData;
-
 import omeis.providers.re.codomain.CodomainChain;
 import omeis.providers.re.data.Plane2D;
 import omeis.providers.re.quantum.BinaryMaskQuantizer;
@@ -45,6 +43,12 @@ class RenderHSBRegionTask implements RenderingTask {
     /** How to quantize a pixel intensity value. */
     private List<QuantumStrategy> strategies;
 
+    /**
+     * The fused lookup table of each wavelength, <code>null</code> when not
+     * rendering into packed integers.
+     */
+    private List<PackedColorLUT> luts;
+
     /** The spatial transformations to apply to the quantized data. */
     private CodomainChain cc;
 
@@ -69,6 +73,15 @@ class RenderHSBRegionTask implements RenderingTask {
     /** The optimizations that the renderer has turned on for us. */
     private Optimizations optimizations;
 
+    /** Raw values of the row being rendered, for integral pixels types. */
+    private int[] rawRow;
+
+    /** Raw values of the row being rendered, for other pixels types. */
+    private double[] rawDoubleRow;
+
+    /** Quantized values of the row being rendered. */
+    private int[] discreteRow;
+
     /**
      * Creates a new instance to render a wavelength.
      * 
@@ -78,6 +91,9 @@ class RenderHSBRegionTask implements RenderingTask {
      *            The wavelength data.
      * @param strategies
      *            The quantum strategy for each wavelength.
+     * @param luts
+     *            The fused lookup table for each wavelength or
+     *            <code>null</code>.
      * @param cc
      *            The spatial transformations to apply to the quantized data.
      * @param colors
@@ -93,12 +109,13 @@ class RenderHSBRegionTask implements RenderingTask {
      *            The <i>X2</i>-axis start
      */
     RenderHSBRegionTask(RGBBuffer dataBuffer, List<Plane2D> wData,
-            List<QuantumStrategy> strategies, CodomainChain cc,
-            List<int[]> colors, Optimizations optimizations,
+            List<QuantumStrategy> strategies, List<PackedColorLUT> luts,
+            CodomainChain cc, List<int[]> colors, Optimizations optimizations,
             int x1Start, int x1End, int x2Start, int x2End) {
         this.dataBuffer = dataBuffer;
         this.wData = wData;
         this.strategies = strategies;
+        this.luts = luts;
         this.cc = cc;
         this.colors = colors;
         this.optimizations = optimizations;
@@ -127,6 +144,83 @@ class RenderHSBRegionTask implements RenderingTask {
         return null;
     }
 
+    /**
+     * Reads the row <code>x2</code> of the region from <code>plane</code>
+     * and quantizes it in bulk. The row is read into a primitive array typed
+     * after the pixels type and the arrays are reused across rows so that no
+     * allocation nor virtual call happens per pixel.
+     * 
+     * @param plane The plane to read.
+     * @param qs The strategy used to quantize the plane.
+     * @param x2 The row to read.
+     * @return The quantized values of the row, indexed from <i>x1Start</i>.
+     * @throws QuantizationException
+     *             if there is an error during pixel value quantization.
+     */
+    private int[] quantizeRow(Plane2D plane, QuantumStrategy qs, int x2)
+        throws QuantizationException {
+        int length = x1End - x1Start;
+        if (discreteRow == null) {
+            discreteRow = new int[length];
+        }
+        if (plane.isIntegral()) {
+            if (rawRow == null) {
+                rawRow = new int[length];
+            }
+            plane.getRow(x2, x1Start, length, rawRow);
+            qs.quantize(rawRow, discreteRow, length);
+        } else {
+            if (rawDoubleRow == null) {
+                rawDoubleRow = new double[length];
+            }
+            plane.getRow(x2, x1Start, length, rawDoubleRow);
+            qs.quantize(rawDoubleRow, discreteRow, length);
+        }
+        return discreteRow;
+    }
+
+    /**
+     * Reads the row <code>x2</code> of the region from <code>plane</code>
+     * and maps it through the fused lookup table of the wavelength.
+     * 
+     * @param plane The plane to read, of an integral pixels type.
+     * @param lut The fused lookup table of the wavelength.
+     * @param x2 The row to read.
+     * @return The packed <code>0x00RRGGBB</code> contributions of the row,
+     *         indexed from <i>x1Start</i>.
+     * @throws QuantizationException
+     *             if there is an error during pixel value quantization.
+     */
+    private int[] lookupRow(Plane2D plane, PackedColorLUT lut, int x2)
+        throws QuantizationException {
+        int length = x1End - x1Start;
+        if (discreteRow == null) {
+            discreteRow = new int[length];
+        }
+        if (rawRow == null) {
+            rawRow = new int[length];
+        }
+        plane.getRow(x2, x1Start, length, rawRow);
+        lut.get(rawRow, discreteRow, length);
+        return discreteRow;
+    }
+
+    /**
+     * Returns the fused lookup table to use for the wavelength at
+     * <code>index</code> or <code>null</code> if it has to be rendered
+     * through its quantum strategy.
+     * 
+     * @param plane The plane of the wavelength.
+     * @param index The index of the wavelength in the rendering lists.
+     * @return See above.
+     */
+    private PackedColorLUT getColorLUT(Plane2D plane, int index) {
+        if (luts == null || !plane.isIntegral()) {
+            return null;
+        }
+        return luts.get(index);
+    }
+
     /**
      * Renders into a banded byte buffer.
      * 
@@ -153,10 +247,10 @@ class RenderHSBRegionTask implements RenderingTask {
             float alpha = new Float(
             		color[ColorsFactory.ALPHA_INDEX]).floatValue() / 65025;// 255*255
             for (int x2 = x2Start; x2 < x2End; ++x2) {
-                for (int x1 = x1Start; x1 < x1End; ++x1) {
-                    pix = width * x2 + x1;
-                    discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
-                    discreteValue = cc.transform(discreteValue);
+                int[] discrete = quantizeRow(plane, qs, x2);
+                pix = width * x2 + x1Start;
+                for (int x1 = 0; x1 < width; ++x1, ++pix) {
+                    discreteValue = cc.transform(discrete[x1]);
 
                     // Pre-multiply the alpha component and add the existing
                     // colour value to the new colour value.
@@ -216,9 +310,6 @@ class RenderHSBRegionTask implements RenderingTask {
             		color[ColorsFactory.GREEN_INDEX] / 255.0 : 0.0;
             blueRatio = color[ColorsFactory.BLUE_INDEX] > 0 ? 
             		color[ColorsFactory.BLUE_INDEX] / 255.0 : 0.0;
-            boolean isXYPlanar = plane.isXYPlanar();
-            PixelData data = plane.getData();
-            int bytesPerPixel = data.bytesPerPixel();
 
             // Get our color offset if we've got the primary color optimization
             // enabled.
@@ -227,32 +318,60 @@ class RenderHSBRegionTask implements RenderingTask {
             
             float alpha = new Integer(
             		color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
+            PackedColorLUT lut = getColorLUT(plane, i);
+            if (lut != null && !isMask) {
+                // The quantization, colour and alpha are all folded into
+                // the table, we only need to add each packed contribution
+                // to the existing colour component values.
+                for (int x2 = x2Start; x2 < x2End; ++x2) {
+                    int[] packed = lookupRow(plane, lut, x2);
+                    pix = width * x2 + x1Start;
+                    for (int x1 = 0; x1 < width; ++x1, ++pix) {
+                        int value = packed[x1];
+                        rValue = ((buf[pix] & 0x00FF0000) >> 16)
+                            + (value >> 16);
+                        gValue = ((buf[pix] & 0x0000FF00) >> 8)
+                            + ((value >> 8) & 0xFF);
+                        bValue = (buf[pix] & 0x000000FF) + (value & 0xFF);
+                        if (rValue > 255) {
+                            rValue = 255;
+                        }
+                        if (gValue > 255) {
+                            gValue = 255;
+                        }
+                        if (bValue > 255) {
+                            bValue = 255;
+                        }
+                        buf[pix] = 0xFF000000 | rValue << 16 | gValue << 8
+                            | bValue;
+                    }
+                }
+                i++;
+                continue;
+            }
             for (int x2 = x2Start; x2 < x2End; ++x2) {
-                for (int x1 = x1Start; x1 < x1End; ++x1) {
-                    pix = width * x2 + x1;
-                    if (isXYPlanar)
-                    	discreteValue = 
-                    		qs.quantize(
-                    			data.getPixelValueDirect(pix * bytesPerPixel));
-                    else
-                    	discreteValue = 
-                    		qs.quantize(plane.getPixelValue(x1, x2));
-                    
+                int[] discrete = quantizeRow(plane, qs, x2);
+                pix = width * x2 + x1Start;
+
+                // Primary colour optimization is in effect, we don't need
+                // to do any of the sillyness below just shift the value
+                // into the correct colour component slot and move on to
+                // the next row.
+                if (colorOffset != 24)
+                {
+                    for (int x1 = 0; x1 < width; ++x1, ++pix) {
+                        buf[pix] |= 0xFF000000 | discrete[x1] << colorOffset;
+                    }
+                    continue;
+                }
+
+                for (int x1 = 0; x1 < width; ++x1, ++pix) {
+                    discreteValue = discrete[x1];
+
                     // Right now we have no transforms being used so it's safe to
                     // comment this out for the time being.
                     //discreteValue = cc.transform(discreteValue);
 
-                    // Primary colour optimization is in effect, we don't need
-                    // to do any of the sillyness below just shift the value
-                    // into the correct colour component slot and move on to
-                    // the next pixel value.
-                    if (colorOffset != 24)
-                    {
-                    	buf[pix] |= 0xFF000000;  // Alpha.
-                    	buf[pix] |= discreteValue << colorOffset;
-                    	continue;
-                    }
-
                     newRValue = (int) (redRatio * discreteValue);
                     newGValue = (int) (greenRatio * discreteValue);
                     newBValue = (int) (blueRatio * discreteValue);
@@ -337,9 +456,6 @@ class RenderHSBRegionTask implements RenderingTask {
             		color[ColorsFactory.GREEN_INDEX] / 255.0 : 0.0;
             blueRatio = color[ColorsFactory.BLUE_INDEX] > 0 ? 
             		color[ColorsFactory.BLUE_INDEX] / 255.0 : 0.0;
-            boolean isXYPlanar = plane.isXYPlanar();
-            PixelData data = plane.getData();
-            int bytesPerPixel = data.bytesPerPixel();
 
             // Get our color offset if we've got the primary color optimization
             // enabled.
@@ -347,31 +463,60 @@ class RenderHSBRegionTask implements RenderingTask {
             	colorOffset = getColorOffsetAsRGBA(color);
 
             float alpha = new Integer(color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
+            PackedColorLUT lut = getColorLUT(plane, i);
+            if (lut != null) {
+                // The quantization, colour and alpha are all folded into
+                // the table, we only need to add each packed contribution
+                // to the existing colour component values.
+                for (int x2 = x2Start; x2 < x2End; ++x2) {
+                    int[] packed = lookupRow(plane, lut, x2);
+                    pix = width * x2 + x1Start;
+                    for (int x1 = 0; x1 < width; ++x1, ++pix) {
+                        int value = packed[x1];
+                        rValue = ((buf[pix] & 0xFF000000) >> 24)
+                            + (value >> 16);
+                        gValue = ((buf[pix] & 0x00FF0000) >> 16)
+                            + ((value >> 8) & 0xFF);
+                        bValue = ((buf[pix] & 0x0000FF00) >> 8)
+                            + (value & 0xFF);
+                        if (rValue > 255) {
+                            rValue = 255;
+                        }
+                        if (gValue > 255) {
+                            gValue = 255;
+                        }
+                        if (bValue > 255) {
+                            bValue = 255;
+                        }
+                        buf[pix] = 0x000000FF | rValue << 24 | gValue << 16
+                            | bValue << 8;
+                    }
+                }
+                i++;
+                continue;
+            }
             for (int x2 = x2Start; x2 < x2End; ++x2) {
-                for (int x1 = x1Start; x1 < x1End; ++x1) {
-                    pix = width * x2 + x1;
-                    if (isXYPlanar)
-                    	discreteValue = 
-                    		qs.quantize(
-                    			data.getPixelValueDirect(pix * bytesPerPixel));
-                    else
-                    	discreteValue = 
-                    		qs.quantize(plane.getPixelValue(x1, x2));
+                int[] discrete = quantizeRow(plane, qs, x2);
+                pix = width * x2 + x1Start;
+
+                // Primary colour optimization is in effect, we don't need
+                // to do any of the sillyness below just shift the value
+                // into the correct colour component slot and move on to
+                // the next row.
+                if (colorOffset != 32)
+                {
+                    for (int x1 = 0; x1 < width; ++x1, ++pix) {
+                        buf[pix] |= 0x000000FF | discrete[x1] << colorOffset;
+                    }
+                    continue;
+                }
+
+                for (int x1 = 0; x1 < width; ++x1, ++pix) {
+                    discreteValue = discrete[x1];
                     // Right now we have no transforms being used so it's safe to
                     // comment this out for the time being.
                     //discreteValue = cc.transform(discreteValue);
 
-                    // Primary colour optimization is in effect, we don't need
-                    // to do any of the sillyness below just shift the value
-                    // into the correct colour component slot and move on to
-                    // the next pixel value.
-                    if (colorOffset != 32)
-                    {
-                    	buf[pix] |= 0x000000FF;  // Alpha.
-                    	buf[pix] |= discreteValue << colorOffset;
-                    	continue;
-                    }
-
                     newRValue = (int) (redRatio * discreteValue);
                     newGValue = (int) (greenRatio * discreteValue);
                     newBValue = (int) (blueRatio * discreteValue);
@@ -136,6 +136,9 @@ public class Renderer {
     /** Map of overlays we've currently been told to render. */
     private Map<byte[], Integer> overlays;
 
+    /** The pool the rendering tasks are submitted to. */
+    private final RenderingExecutor renderingExecutor;
+
     /**
      * Returns a copy of a list of channel bindings with one element removed;
      * the so called "other" channel bindings for the image.
@@ -330,6 +333,53 @@ public class Renderer {
     public Renderer(QuantumFactory quantumFactory,
     		List<RenderingModel> renderingModels, Pixels pixelsObj,
             RenderingDef renderingDefObj, PixelBuffer bufferObj) {
+        this(quantumFactory, renderingModels, pixelsObj, renderingDefObj,
+                bufferObj, RenderingExecutor.getDefault());
+    }
+
+    /**
+     * Creates a new instance to render the specified pixels set, submitting
+     * its tasks to the given pool or, if none, to the process-wide default.
+     * 
+     * @param quantumFactory a populated quantum factory.
+     * @param renderingModels an enumerated list of all rendering models.
+     * @param pixelsObj Pixels object.
+     * @param renderingDefObj Rendering definition object.
+     * @param bufferObj PixelBuffer object.
+     * @param renderingExecutor The shared pool the rendering tasks are
+     * submitted to or <code>null</code> to use
+     * {@link RenderingExecutor#getDefault()}.
+     * @return See above.
+     * @throws NullPointerException If <code>null</code> parameters are passed.
+     */
+    public static Renderer newInstance(QuantumFactory quantumFactory,
+            List<RenderingModel> renderingModels, Pixels pixelsObj,
+            RenderingDef renderingDefObj, PixelBuffer bufferObj,
+            RenderingExecutor renderingExecutor) {
+        if (renderingExecutor == null) {
+            renderingExecutor = RenderingExecutor.getDefault();
+        }
+        return new Renderer(quantumFactory, renderingModels, pixelsObj,
+                renderingDefObj, bufferObj, renderingExecutor);
+    }
+
+    /**
+     * Creates a new instance to render the specified pixels set and get this
+     * new instance ready for rendering.
+     * 
+     * @param quantumFactory a populated quantum factory.
+     * @param renderingModels an enumerated list of all rendering models.
+     * @param pixelsObj Pixels object.
+     * @param renderingDefObj Rendering definition object.
+     * @param bufferObj PixelBuffer object.
+     * @param renderingExecutor The shared pool the rendering tasks are
+     * submitted to.
+     * @throws NullPointerException If <code>null</code> parameters are passed.
+     */
+    public Renderer(QuantumFactory quantumFactory,
+    		List<RenderingModel> renderingModels, Pixels pixelsObj,
+            RenderingDef renderingDefObj, PixelBuffer bufferObj,
+            RenderingExecutor renderingExecutor) {
         metadata = pixelsObj;
         rndDef = renderingDefObj;
         buffer = bufferObj;
@@ -340,7 +390,11 @@ public class Renderer {
             throw new NullPointerException("Expecting not null rndDef");
         } else if (buffer == null) {
             throw new NullPointerException("Expecting not null buffer");
+        } else if (renderingExecutor == null) {
+            throw new NullPointerException(
+                    "Expecting not null renderingExecutor");
         }
+        this.renderingExecutor = renderingExecutor;
 
    
         // Create and configure the quantum strategies.
@@ -654,6 +708,15 @@ public class Renderer {
         return stats;
     }
 
+    /**
+     * Returns the shared pool the rendering strategy submits its tasks to.
+     * 
+     * @return See above.
+     */
+    public RenderingExecutor getRenderingExecutor() {
+        return renderingExecutor;
+    }
+
    
 
     //
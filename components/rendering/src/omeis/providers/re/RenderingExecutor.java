@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package omeis.providers.re;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Bounded pool of worker threads shared by all {@link Renderer} instances.
+ * The {@link HSBStrategy} splits each plane into regions and submits all but
+ * one of them here, rendering the last one in the calling thread. Since the
+ * number of workers is fixed, the total rendering parallelism of the server
+ * is capped regardless of how many rendering engines and thumbnail services
+ * are active at the same time.
+ * <p>
+ * The number of queued regions is exposed as the <code>queueDepth</code>
+ * counter, the time a region waits for a worker as the <code>waitTimes</code>
+ * timer and the time spent rendering it as the <code>taskTimes</code> timer.
+ * </p>
+ *
+ * @since 5.1
+ */
+public class RenderingExecutor {
+
+    /** The logger for this particular class */
+    private static Logger log = LoggerFactory.getLogger(RenderingExecutor.class);
+
+    /** Process-wide instance used when none has been explicitly configured. */
+    private static RenderingExecutor defaultInstance;
+
+    /** The pool all the rendering tasks are submitted to. */
+    private final ThreadPoolExecutor executor;
+
+    /** The number of worker threads. */
+    private final int threads;
+
+    /** Number of tasks waiting for a worker. */
+    private final Counter queueDepth;
+
+    /** Time spent by each task waiting for a worker. */
+    private final Timer waitTimes;
+
+    /** Time spent by each task rendering. */
+    private final Timer taskTimes;
+
+    /**
+     * Returns the process-wide executor sized to the number of processors,
+     * creating it on first use. Used by {@link Renderer} instances which have
+     * not been given an executor explicitly.
+     *
+     * @return See above.
+     */
+    public static synchronized RenderingExecutor getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new RenderingExecutor(0, new NullMetrics());
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param threads The number of worker threads. A value of <code>0</code>
+     *                or lower uses the number of available processors.
+     * @param metrics The metrics the queue depth and task latencies are
+     *                reported to.
+     */
+    public RenderingExecutor(int threads, Metrics metrics) {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        this.threads = threads;
+        this.queueDepth = metrics.counter(this, "queueDepth");
+        this.waitTimes = metrics.timer(this, "waitTimes");
+        this.taskTimes = metrics.timer(this, "taskTimes");
+        this.executor = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("RenderingExecutor-%d").build());
+        log.info("Rendering executor started with " + threads + " threads");
+    }
+
+    /**
+     * Returns the number of worker threads.
+     *
+     * @return See above.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the number of tasks currently waiting for a worker.
+     *
+     * @return See above.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Submits a rendering task to the pool.
+     *
+     * @param task The task to execute.
+     * @return A future for the result of the task.
+     * @throws RejectedExecutionException If the pool has been stopped.
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        RenderingTask<T> future = new RenderingTask<T>(task);
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            future.cancel(false);
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Stops the worker threads. Tasks which have already been submitted are
+     * still executed.
+     */
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * Task which is counted in {@link #queueDepth} from its submission until
+     * it either starts or is cancelled, whichever comes first.
+     */
+    private final class RenderingTask<T> extends FutureTask<T> {
+
+        /** Time spent waiting for a worker. */
+        private final Timer.Context waiting;
+
+        /** Whether the task is still counted as queued. */
+        private final AtomicBoolean queued = new AtomicBoolean(true);
+
+        RenderingTask(Callable<T> task) {
+            super(task);
+            waiting = waitTimes.time();
+            queueDepth.inc();
+        }
+
+        @Override
+        public void run() {
+            dequeue();
+            if (isDone()) {
+                return;
+            }
+            Timer.Context running = taskTimes.time();
+            try {
+                super.run();
+            } finally {
+                running.stop();
+            }
+        }
+
+        @Override
+        protected void done() {
+            // Also called if cancelled or rejected before it started.
+            dequeue();
+        }
+
+        private void dequeue() {
+            if (queued.compareAndSet(true, false)) {
+                waiting.stop();
+                queueDepth.dec();
+            }
+        }
+    }
+
+}
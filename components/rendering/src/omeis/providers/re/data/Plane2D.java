@@ -7,6 +7,8 @@
 
 package omeis.providers.re.data;
 
+import java.nio.ByteBuffer;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -160,6 +162,128 @@ public class Plane2D {
     	return data.getPixelValue(offset);
     }
 
+    /**
+     * Returns <code>true</code> if the values of this plane can be read
+     * without loss into an <code>int</code> array via
+     * {@link #getRow(int, int, int, int[])}, i.e. if the pixels type is
+     * <code>bit</code> or has at most 16 bits per pixel.
+     * 
+     * @return See above.
+     */
+    public boolean isIntegral()
+    {
+    	switch (data.javaType())
+    	{
+    		case PixelData.BIT:
+    		case PixelData.BYTE:
+    		case PixelData.SHORT:
+    			return true;
+    		default:
+    			return false;
+    	}
+    }
+
+    /**
+     * Copies the intensity values of <code>length</code> pixels of the row
+     * <code>x2</code>, starting at <code>x1Start</code>, into
+     * <code>row</code>. Only valid if {@link #isIntegral()} returns
+     * <code>true</code>. For <i>XY</i> planes the values are read with a
+     * loop specialized for the pixels type rather than one type dispatch per
+     * pixel.
+     * 
+     * @param x2 The row to read.
+     * @param x1Start The first pixel of the row to read.
+     * @param length The number of pixels to read.
+     * @param row The array to fill, at least <code>length</code> long.
+     */
+    public void getRow(int x2, int x1Start, int length, int[] row)
+    {
+    	if (slice != PlaneDef.XY)
+    	{
+    		for (int i = 0; i < length; i++)
+    		{
+    			row[i] = (int) getPixelValue(x1Start + i, x2);
+    		}
+    		return;
+    	}
+    	ByteBuffer buf = data.getData();
+    	int offset = sizeX * x2 + x1Start;
+    	boolean isSigned = data.isSigned();
+    	switch (data.javaType())
+    	{
+    		case PixelData.BIT:
+    			for (int i = 0; i < length; i++, offset++)
+    			{
+    				row[i] = buf.get(offset / 8) >> (7 - (offset % 8)) & 1;
+    			}
+    			break;
+    		case PixelData.BYTE:
+    			if (isSigned)
+    			{
+    				for (int i = 0; i < length; i++)
+    				{
+    					row[i] = buf.get(offset + i);
+    				}
+    			}
+    			else
+    			{
+    				for (int i = 0; i < length; i++)
+    				{
+    					row[i] = buf.get(offset + i) & 0xFF;
+    				}
+    			}
+    			break;
+    		case PixelData.SHORT:
+    			offset *= 2;
+    			if (isSigned)
+    			{
+    				for (int i = 0; i < length; i++, offset += 2)
+    				{
+    					row[i] = buf.getShort(offset);
+    				}
+    			}
+    			else
+    			{
+    				for (int i = 0; i < length; i++, offset += 2)
+    				{
+    					row[i] = buf.getShort(offset) & 0xFFFF;
+    				}
+    			}
+    			break;
+    		default:
+    			throw new IllegalStateException(
+    					"Pixels type cannot be read as integers.");
+    	}
+    }
+
+    /**
+     * Copies the intensity values of <code>length</code> pixels of the row
+     * <code>x2</code>, starting at <code>x1Start</code>, into
+     * <code>row</code>.
+     * 
+     * @param x2 The row to read.
+     * @param x1Start The first pixel of the row to read.
+     * @param length The number of pixels to read.
+     * @param row The array to fill, at least <code>length</code> long.
+     */
+    public void getRow(int x2, int x1Start, int length, double[] row)
+    {
+    	if (slice != PlaneDef.XY)
+    	{
+    		for (int i = 0; i < length; i++)
+    		{
+    			row[i] = getPixelValue(x1Start + i, x2);
+    		}
+    		return;
+    	}
+    	int bpp = data.bytesPerPixel();
+    	int offset = bpp * (sizeX * x2 + x1Start);
+    	for (int i = 0; i < length; i++, offset += bpp)
+    	{
+    		row[i] = data.getPixelValueDirect(offset);
+    	}
+    }
+
     /**
      * Returns <code>true</code> if the plane is an <code>XY-plane</code>,
      * <code>false</code> otherwise.
@@ -315,4 +315,46 @@ public class Quantization_8_16_bit extends QuantumStrategy {
         return i & 0xFF;
     }
 
+    /**
+     * Returns the lowest pixel value covered by the lookup table.
+     * 
+     * @return See above.
+     */
+    public int getLutMin() {
+        return lutMin;
+    }
+
+    /**
+     * Returns the highest pixel value covered by the lookup table.
+     * 
+     * @return See above.
+     */
+    public int getLutMax() {
+        return lutMax;
+    }
+
+    /**
+     * Implemented as specified by superclass. Values within the bounds of the
+     * lookup table are mapped directly, the others go through
+     * {@link #quantize(double)}.
+     * 
+     * @see QuantumStrategy#quantize(int[], int[], int)
+     */
+    @Override
+    public void quantize(int[] values, int[] discrete, int length)
+        throws QuantizationException {
+        byte[] lut = LUT;
+        int lMin = lutMin;
+        int lMax = lutMax;
+        int x;
+        for (int i = 0; i < length; i++) {
+            x = values[i];
+            if (x < lMin || x > lMax) {
+                discrete[i] = quantize(x);
+            } else {
+                discrete[i] = lut[x - lMin] & 0xFF;
+            }
+        }
+    }
+
 }
@@ -57,6 +57,12 @@ public abstract class QuantumStrategy {
     /** The maximum size of the cache.*/
     static final long MAX_SIZE = 1000;
     
+    /**
+     * Incremented each time the extent, window or mapping changes, so that
+     * tables derived from this strategy know when to be rebuilt.
+     */
+    private int version;
+
     /** The minimum value for the pixels type. */
     private double pixelsTypeMin;
     
@@ -272,6 +278,7 @@ public abstract class QuantumStrategy {
         this.windowStart = globalMin;
         this.windowEnd = globalMax;
         initPixelsRange(true);
+        version++;
     }
 
     /**
@@ -293,6 +300,7 @@ public abstract class QuantumStrategy {
         if (end > pixelsTypeMax) end = pixelsTypeMax;
         windowStart = start;
         windowEnd = end;
+        version++;
         onWindowChange();
     }
 
@@ -312,6 +320,7 @@ public abstract class QuantumStrategy {
         this.family = family;
         curveCoefficient = k;
         this.noiseReduction = noiseReduction;
+        version++;
     }
 
     /**
@@ -338,6 +347,7 @@ public abstract class QuantumStrategy {
      */
     public void setMap(QuantumMap qMap) {
         valueMapper = qMap;
+        version++;
     }
 
     /**
@@ -431,6 +441,14 @@ public abstract class QuantumStrategy {
      */
     public double getWindowEnd() { return windowEnd; }
 
+    /**
+     * Returns a number which changes each time the extent, the input window
+     * or the mapping of this strategy is modified.
+     * 
+     * @return See above.
+     */
+    public int getVersion() { return version; }
+
     /**
      * Notifies when the input interval has changed or the mapping strategy has
      * changed.
@@ -451,4 +469,48 @@ public abstract class QuantumStrategy {
      */
     public abstract int quantize(double value) throws QuantizationException;
 
+    /**
+     * Maps the first <code>length</code> values of <code>values</code> to the
+     * codomain interval, writing the results into <code>discrete</code>.
+     * Subclasses backed by a lookup table override this method so that a
+     * whole row is quantized without a virtual call per pixel.
+     * 
+     * @param values
+     *            The pixel intensity values.
+     * @param discrete
+     *            The array to fill with the quantized values.
+     * @param length
+     *            The number of values to quantize.
+     * @throws QuantizationException
+     *             If one of the values cannot be quantized.
+     */
+    public void quantize(int[] values, int[] discrete, int length)
+        throws QuantizationException
+    {
+        for (int i = 0; i < length; i++) {
+            discrete[i] = quantize(values[i]);
+        }
+    }
+
+    /**
+     * Maps the first <code>length</code> values of <code>values</code> to the
+     * codomain interval, writing the results into <code>discrete</code>.
+     * 
+     * @param values
+     *            The pixel intensity values.
+     * @param discrete
+     *            The array to fill with the quantized values.
+     * @param length
+     *            The number of values to quantize.
+     * @throws QuantizationException
+     *             If one of the values cannot be quantized.
+     */
+    public void quantize(double[] values, int[] discrete, int length)
+        throws QuantizationException
+    {
+        for (int i = 0; i < length; i++) {
+            discrete[i] = quantize(values[i]);
+        }
+    }
+
 }
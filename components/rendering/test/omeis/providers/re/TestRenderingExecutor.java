@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package omeis.providers.re;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ome.system.metrics.Counter;
+import ome.system.metrics.Histogram;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test cases for {@link omeis.providers.re.RenderingExecutor}.
+ */
+@Test
+public class TestRenderingExecutor {
+
+    private RenderingExecutor executor;
+
+    @BeforeMethod
+    public void setUp() {
+        executor = new RenderingExecutor(2, new NullMetrics());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.destroy();
+    }
+
+    public void testDefaultSizeIsNumberOfProcessors() {
+        RenderingExecutor sized = new RenderingExecutor(0, new NullMetrics());
+        try {
+            Assert.assertEquals(sized.getThreads(),
+                    Runtime.getRuntime().availableProcessors());
+        } finally {
+            sized.destroy();
+        }
+    }
+
+    public void testDefaultIsShared() {
+        Assert.assertSame(RenderingExecutor.getDefault(),
+                RenderingExecutor.getDefault());
+    }
+
+    public void testThreadsAreBounded() throws Exception {
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(executor.submit(new Callable<String>() {
+                public String call() {
+                    return Thread.currentThread().getName();
+                }
+            }));
+        }
+        Set<String> names = new HashSet<String>();
+        for (Future<String> future : futures) {
+            names.add(future.get());
+        }
+        Assert.assertTrue(names.size() <= 2);
+        Assert.assertEquals(executor.getQueueDepth(), 0);
+    }
+
+    public void testCancelledTasksLeaveTheQueue() throws Exception {
+        CountingMetrics metrics = new CountingMetrics();
+        RenderingExecutor single = new RenderingExecutor(1, metrics);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<Object> running = single.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    started.countDown();
+                    release.await();
+                    return null;
+                }
+            });
+            started.await();
+            Future<Object> queued = single.submit(new Callable<Object>() {
+                public Object call() {
+                    return null;
+                }
+            });
+            Assert.assertEquals(metrics.queueDepth.get(), 1);
+            queued.cancel(false);
+            Assert.assertEquals(metrics.queueDepth.get(), 0);
+            release.countDown();
+            running.get();
+        } finally {
+            release.countDown();
+            single.destroy();
+        }
+        try {
+            single.submit(new Callable<Object>() {
+                public Object call() {
+                    return null;
+                }
+            });
+            Assert.fail("Expected the task to be rejected.");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        Assert.assertEquals(metrics.queueDepth.get(), 0);
+    }
+
+    /**
+     * Counts the queue depth, all the other metrics are ignored.
+     */
+    private static class CountingMetrics implements Metrics {
+
+        final AtomicLong queueDepth = new AtomicLong();
+
+        final Metrics ignored = new NullMetrics();
+
+        public Counter counter(Object obj, String name) {
+            return new Counter() {
+                public void inc() {
+                    queueDepth.incrementAndGet();
+                }
+
+                public void dec() {
+                    queueDepth.decrementAndGet();
+                }
+
+                public long getCount() {
+                    return queueDepth.get();
+                }
+            };
+        }
+
+        public Timer timer(Object obj, String name) {
+            return ignored.timer(obj, name);
+        }
+
+        public Histogram histogram(Object obj, String name) {
+            return ignored.histogram(obj, name);
+        }
+    }
+
+}
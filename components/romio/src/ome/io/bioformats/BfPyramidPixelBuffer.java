@@ -8,6 +8,7 @@ package ome.io.bioformats;
 import java.awt.Dimension;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
@@ -15,6 +16,9 @@ import java.nio.ByteOrder;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
 
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
@@ -123,6 +127,34 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
 
     public static final String PYR_LOCK_EXT = ".pyr_lock";
 
+    /** Maximum number of pooled readers, all kept open while idle. */
+    private static final int MAX_READERS =
+        Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Delegates which are not in use, each with its own reader over the
+     * pyramid file. Pixel data reads borrow one of these rather than using
+     * {@link #delegate} so that concurrent reads are not serialized on a
+     * single {@link TiffReader}.
+     */
+    private final BlockingQueue<BfPixelBuffer> idleReaders =
+        new ArrayBlockingQueue<BfPixelBuffer>(MAX_READERS);
+
+    /**
+     * Permits to borrow a pooled reader, so that no more than
+     * {@link #MAX_READERS} are ever open at once.
+     */
+    private final Semaphore readers = new Semaphore(MAX_READERS, true);
+
+    /**
+     * Resolution level last set on {@link #delegate}, applied to the pooled
+     * readers when they are borrowed. <code>-1</code> until set.
+     */
+    private volatile int resolutionLevel = -1;
+
+    /** Set once this instance has been closed. */
+    private volatile boolean closed;
+
     /**
      * We may want a constructor that takes the id of an imported file
      * or that takes a File object?
@@ -489,6 +521,115 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         return delegate;
     }
 
+    /**
+     * Borrows a delegate from the pool of readers, creating a new one if none
+     * is idle. Once {@link #MAX_READERS} are in use, waits for one to be
+     * given back via {@link #returnReader(BfPixelBuffer)}, which must always
+     * be called.
+     * @return A delegate set to the current resolution level.
+     * @throws IOException If a new reader cannot be created or the thread is
+     * interrupted while waiting.
+     */
+    private BfPixelBuffer borrowReader() throws IOException
+    {
+        synchronized (this)
+        {
+            // Closes the writer and initializes the reader if required.
+            delegate();
+        }
+        try
+        {
+            readers.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while waiting for a pyramid reader.");
+        }
+        BfPixelBuffer pooled = idleReaders.poll();
+        boolean borrowed = false;
+        try
+        {
+            if (pooled == null)
+            {
+                try
+                {
+                    pooled = new BfPixelBuffer(readerFile.getAbsolutePath(),
+                            new OmeroPixelsPyramidReader());
+                }
+                catch (FormatException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+            int level = resolutionLevel;
+            if (level >= 0)
+            {
+                pooled.setResolutionLevel(level);
+            }
+            borrowed = true;
+            return pooled;
+        }
+        finally
+        {
+            if (!borrowed)
+            {
+                if (pooled != null)
+                {
+                    closeReader(pooled);
+                }
+                readers.release();
+            }
+        }
+    }
+
+    /**
+     * Gives a delegate back to the pool of readers, closing it if the pool is
+     * full or this instance has been closed.
+     * @param pooled The delegate borrowed via {@link #borrowReader()}.
+     */
+    private void returnReader(BfPixelBuffer pooled)
+    {
+        if (!idleReaders.offer(pooled))
+        {
+            closeReader(pooled);
+        }
+        readers.release();
+        if (closed)
+        {
+            closeIdleReaders();
+        }
+    }
+
+    /**
+     * Closes all the idle pooled readers.
+     */
+    private void closeIdleReaders()
+    {
+        BfPixelBuffer pooled;
+        while ((pooled = idleReaders.poll()) != null)
+        {
+            closeReader(pooled);
+        }
+    }
+
+    /**
+     * Closes a pooled reader, logging any error.
+     * @param pooled The reader to close.
+     */
+    private void closeReader(BfPixelBuffer pooled)
+    {
+        try
+        {
+            pooled.close();
+        }
+        catch (Exception e)
+        {
+            log.warn("Failed to close pooled reader", e);
+        }
+    }
+
     /* (non-Javadoc)
      * @see ome.io.bioformats.BfPixelBuffer#setTile(byte[], java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
@@ -645,6 +786,8 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      */
     public synchronized void close() throws IOException
     {
+        closed = true;
+        closeIdleReaders();
         try
         {
             if (delegate != null)
@@ -683,29 +826,45 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getCol(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getCol(Integer x, Integer z, Integer c,
+    public PixelData getCol(Integer x, Integer z, Integer c,
                                          Integer t)
             throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data = delegate().getCol(x, z, c, t);
-        data.setOrder(byteOrder);
-        return data;
+        BfPixelBuffer pooled = borrowReader();
+        try
+        {
+            PixelData data = pooled.getCol(x, z, c, t);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            returnReader(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getColDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getColDirect(Integer x, Integer z, Integer c,
+    public byte[] getColDirect(Integer x, Integer z, Integer c,
             Integer t, byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getColDirect(x, z, c, t, buffer);
+        BfPixelBuffer pooled = borrowReader();
+        try
+        {
+            return pooled.getColDirect(x, z, c, t, buffer);
+        }
+        finally
+        {
+            returnReader(pooled);
+        }
     }
 
     /* (non-Javadoc)
@@ -765,28 +924,44 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlane(java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getPlane(Integer z, Integer c, Integer t)
+    public PixelData getPlane(Integer z, Integer c, Integer t)
             throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data = delegate().getPlane(z, c, t);
-        data.setOrder(byteOrder);
-        return data;
+        BfPixelBuffer pooled = borrowReader();
+        try
+        {
+            PixelData data = pooled.getPlane(z, c, t);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            returnReader(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getPlaneDirect(Integer z, Integer c, Integer t,
+    public byte[] getPlaneDirect(Integer z, Integer c, Integer t,
                                               byte[] buffer)
             throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getPlaneDirect(z, c, t, buffer);
+        BfPixelBuffer pooled = borrowReader();
+        try
+        {
+            return pooled.getPlaneDirect(z, c, t, buffer);
+        }
+        finally
+        {
+            returnReader(pooled);
+        }
     }
 
     /* (non-Javadoc)
@@ -804,7 +979,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneRegion(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getPlaneRegion(Integer x, Integer y,
+    public PixelData getPlaneRegion(Integer x, Integer y,
             Integer width, Integer height, Integer z, Integer c, Integer t,
             Integer stride)
             throws IOException, DimensionsOutOfBoundsException
@@ -812,23 +987,39 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data =
-            delegate().getPlaneRegion(x, y, width, height, z, c, t, stride);
-        data.setOrder(byteOrder);
-        return data;
+        BfPixelBuffer pooled = borrowReader();
+        try
+        {
+            PixelData data =
+                pooled.getPlaneRegion(x, y, width, height, z, c, t, stride);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            returnReader(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneRegionDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getPlaneRegionDirect(Integer z, Integer c,
+    public byte[] getPlaneRegionDirect(Integer z, Integer c,
             Integer t, Integer count, Integer offset, byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return getPlaneRegionDirect(z, c, t, count, offset, buffer);
+        BfPixelBuffer pooled = borrowReader();
+        try
+        {
+            return pooled.getPlaneRegionDirect(z, c, t, count, offset, buffer);
+        }
+        finally
+        {
+            returnReader(pooled);
+        }
     }
 
     /* (non-Javadoc)
@@ -859,29 +1050,45 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRow(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getRow(Integer y, Integer z, Integer c,
+    public PixelData getRow(Integer y, Integer z, Integer c,
                                          Integer t)
             throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data = delegate().getRow(y, z, c, t);
-        data.setOrder(byteOrder);
-        return data;
+        BfPixelBuffer pooled = borrowReader();
+        try
+        {
+            PixelData data = pooled.getRow(y, z, c, t);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            returnReader(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRowDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getRowDirect(Integer y, Integer z, Integer c,
+    public byte[] getRowDirect(Integer y, Integer z, Integer c,
             Integer t, byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getRowDirect(y, z, c, t, buffer);
+        BfPixelBuffer pooled = borrowReader();
+        try
+        {
+            return pooled.getRowDirect(y, z, c, t, buffer);
+        }
+        finally
+        {
+            returnReader(pooled);
+        }
     }
 
     /* (non-Javadoc)
@@ -1003,22 +1210,30 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTile(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getTile(Integer z, Integer c, Integer t,
+    public PixelData getTile(Integer z, Integer c, Integer t,
             Integer x, Integer y, Integer w, Integer h) throws IOException
     {
         checkTileParameters(x, y, w, h);
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data = delegate().getTile(z, c, t, x, y, w, h);
-        data.setOrder(byteOrder);
-        return data;
+        BfPixelBuffer pooled = borrowReader();
+        try
+        {
+            PixelData data = pooled.getTile(z, c, t, x, y, w, h);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            returnReader(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTileDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getTileDirect(Integer z, Integer c, Integer t,
+    public byte[] getTileDirect(Integer z, Integer c, Integer t,
             Integer x, Integer y, Integer w, Integer h, byte[] buffer)
         throws IOException
     {
@@ -1026,7 +1241,15 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getTileDirect(z, c, t, x, y, w, h, buffer);
+        BfPixelBuffer pooled = borrowReader();
+        try
+        {
+            return pooled.getTileDirect(z, c, t, x, y, w, h, buffer);
+        }
+        finally
+        {
+            returnReader(pooled);
+        }
     }
 
     /* (non-Javadoc)
@@ -1238,5 +1461,6 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
             throw new ApiUsageException("In write mode!");
         }
         delegate().setResolutionLevel(resolutionLevel);
+        this.resolutionLevel = resolutionLevel;
     }
 }
@@ -0,0 +1,506 @@
+/*
+ * ome.io.nio.MappedSegmentCache
+ *
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+import ome.util.PixelData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide cache of read-only memory mapped segments of ROMIO pixels
+ * files, keyed by file path, offset and size. Repeated reads of the same
+ * plane, e.g. when scrubbing through Z or T, then reuse an existing mapping
+ * instead of opening, mapping and closing the file again.
+ * <p>
+ * Each segment is reference counted by the {@link PixelData} instances
+ * handed out for it. Segments which are not in use are evicted in least
+ * recently used order to keep the mapped segments within the configured
+ * budget. Segments which remain in use, including those dropped from the
+ * cache but not yet released, count against the budget too: once it is used
+ * up no further segments are cached, so that pixel data which is never
+ * disposed of cannot make the mappings grow without limit. A segment whose
+ * pixel data has all been disposed of is unmapped once dropped from the
+ * cache; pixel data which is garbage collected without being disposed of
+ * releases its segment, which is then left to the garbage collector, as with
+ * uncached mappings. A segment is also dropped if the file has been modified
+ * since it was mapped.
+ * </p>
+ * @since 5.1
+ */
+public class MappedSegmentCache
+{
+    /** The logger for this class. */
+    private static final Logger log =
+        LoggerFactory.getLogger(MappedSegmentCache.class);
+
+    /** Maximum total size of the cached segments in bytes. */
+    private final long maxBytes;
+
+    /** Segments in least recently used order. Guarded by <code>this</code>. */
+    private final LinkedHashMap<Key, Segment> segments =
+        new LinkedHashMap<Key, Segment>(16, 0.75f, true);
+
+    /** Total size of the cached segments. Guarded by <code>this</code>. */
+    private long totalBytes;
+
+    /**
+     * Total size of the segments dropped from the cache but still in use.
+     * Guarded by <code>this</code>.
+     */
+    private long pinnedBytes;
+
+    /**
+     * The pixel data handed out and not disposed of yet. Guarded by
+     * <code>this</code>.
+     */
+    private final Set<Handle> handles = new HashSet<Handle>();
+
+    /** The pixel data garbage collected without being disposed of. */
+    private final ReferenceQueue<PixelData> collected =
+        new ReferenceQueue<PixelData>();
+
+    /**
+     * Whether the budget was found used up by the segments in use. Guarded
+     * by <code>this</code>.
+     */
+    private boolean full;
+
+    /**
+     * Constructor.
+     * @param maxBytes Maximum total size of the cached segments in bytes.
+     * A value of <code>0</code> or lower disables caching.
+     */
+    public MappedSegmentCache(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+        log.info("Mapped segment cache of " + maxBytes + " bytes");
+    }
+
+    /**
+     * Returns the pixel data of a segment of a pixels file, mapping it if it
+     * is not cached yet. The returned {@link PixelData} must be disposed of
+     * once it is no longer used so that the segment can be released.
+     * @param path The path of the pixels file.
+     * @param pixelsType The pixels type of the returned pixel data.
+     * @param offset The offset of the segment in the file.
+     * @param size The size of the segment.
+     * @return See above or <code>null</code> if the segment is too large to
+     * be cached or the segments in use leave no room for it.
+     * @throws IOException If the segment cannot be mapped.
+     */
+    public PixelData getSegment(String path, String pixelsType, long offset,
+                                int size) throws IOException
+    {
+        if (size > maxBytes)
+        {
+            return null;
+        }
+        final Key key = new Key(path, offset, size);
+        final long lastModified = new File(path).lastModified();
+        Segment segment = acquire(key, lastModified);
+        if (segment == null)
+        {
+            if (!reserve(size))
+            {
+                return null;
+            }
+            segment = add(key, lastModified, map(key));
+        }
+        return handOut(segment, pixelsType);
+    }
+
+    /**
+     * Drops all the segments of a given pixels file, e.g. when it is
+     * deleted.
+     * @param path The path of the pixels file.
+     */
+    public synchronized void invalidate(String path)
+    {
+        Iterator<Segment> i = segments.values().iterator();
+        while (i.hasNext())
+        {
+            Segment segment = i.next();
+            if (segment.key.path.equals(path))
+            {
+                i.remove();
+                evict(segment);
+            }
+        }
+    }
+
+    /**
+     * Drops all the segments.
+     */
+    public synchronized void clear()
+    {
+        for (Segment segment : segments.values())
+        {
+            evict(segment);
+        }
+        segments.clear();
+    }
+
+    /**
+     * Returns the total size of the cached segments.
+     * @return See above.
+     */
+    public synchronized long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    /**
+     * Returns the total size of the segments dropped from the cache but
+     * still in use, which also counts against the budget.
+     * @return See above.
+     */
+    public synchronized long getPinnedBytes()
+    {
+        expunge();
+        return pinnedBytes;
+    }
+
+    /**
+     * Looks up a cached segment and increments its reference count.
+     * @param key The key of the segment.
+     * @param lastModified The current modification time of the file.
+     * @return See above or <code>null</code> if it is not cached or stale.
+     */
+    private synchronized Segment acquire(Key key, long lastModified)
+    {
+        expunge();
+        Segment segment = segments.get(key);
+        if (segment == null)
+        {
+            return null;
+        }
+        if (segment.lastModified != lastModified)
+        {
+            segments.remove(key);
+            evict(segment);
+            return null;
+        }
+        segment.references++;
+        return segment;
+    }
+
+    /**
+     * Evicts the least recently used segments which are not in use until
+     * there is room for a new segment within the budget.
+     * @param size The size of the new segment.
+     * @return <code>true</code> if there is room for the segment,
+     * <code>false</code> if the segments in use leave none.
+     */
+    private synchronized boolean reserve(int size)
+    {
+        evictUnused(size, null);
+        if (totalBytes + pinnedBytes + size <= maxBytes)
+        {
+            full = false;
+            return true;
+        }
+        if (!full)
+        {
+            full = true;
+            log.warn("Mapped segment cache full: " + totalBytes
+                    + " bytes cached and " + pinnedBytes + " bytes dropped "
+                    + "but still in use, out of " + maxBytes + ". Segments "
+                    + "are mapped uncached until pixel data is disposed of.");
+        }
+        return false;
+    }
+
+    /**
+     * Evicts the least recently used segments which are not in use until
+     * the given number of bytes fits within the budget.
+     * @param size The number of bytes to make room for.
+     * @param keep A segment not to evict, may be <code>null</code>.
+     */
+    private void evictUnused(long size, Segment keep)
+    {
+        Iterator<Segment> i = segments.values().iterator();
+        while (totalBytes + pinnedBytes + size > maxBytes && i.hasNext())
+        {
+            Segment eldest = i.next();
+            if (eldest != keep && eldest.references == 0)
+            {
+                i.remove();
+                evict(eldest);
+            }
+        }
+    }
+
+    /**
+     * Adds a newly mapped segment, unless another thread mapped the same one
+     * in the meantime, and evicts the least recently used segments which are
+     * not in use if over budget.
+     * @param key The key of the segment.
+     * @param lastModified The modification time of the file.
+     * @param buffer The mapping.
+     * @return The cached segment, with its reference count incremented.
+     */
+    private synchronized Segment add(Key key, long lastModified,
+                                     MappedByteBuffer buffer)
+    {
+        Segment segment = segments.get(key);
+        if (segment != null && segment.lastModified == lastModified)
+        {
+            unmap(buffer);
+        }
+        else
+        {
+            if (segment != null)
+            {
+                evict(segment);
+            }
+            segment = new Segment(key, lastModified, buffer);
+            segments.put(key, segment);
+            totalBytes += key.size;
+        }
+        segment.references++;
+        evictUnused(0, segment);
+        return segment;
+    }
+
+    /**
+     * Returns a new pixel data of an acquired segment, which releases it
+     * when disposed of.
+     * @param segment The segment.
+     * @param pixelsType The pixels type of the pixel data.
+     * @return See above.
+     */
+    private synchronized PixelData handOut(Segment segment, String pixelsType)
+    {
+        SegmentData data = new SegmentData(pixelsType, segment);
+        handles.add(data.handle);
+        return data;
+    }
+
+    /**
+     * Releases the segment of a pixel data which has been disposed of,
+     * unmapping it if it has been evicted and is no longer used.
+     * @param handle The handle of the pixel data.
+     */
+    private synchronized void release(Handle handle)
+    {
+        if (!handles.remove(handle))
+        {
+            return;
+        }
+        handle.clear();
+        Segment segment = handle.segment;
+        segment.references--;
+        if (segment.evicted && segment.references == 0)
+        {
+            pinnedBytes -= segment.key.size;
+            if (!segment.leaked)
+            {
+                unmap(segment.buffer);
+            }
+        }
+    }
+
+    /**
+     * Releases the segments of the pixel data garbage collected without
+     * being disposed of. Their mappings may still be referenced by buffers
+     * obtained from the pixel data, so they are left to the garbage
+     * collector rather than unmapped.
+     */
+    private void expunge()
+    {
+        int count = 0;
+        Handle handle;
+        while ((handle = (Handle) collected.poll()) != null)
+        {
+            if (handles.contains(handle))
+            {
+                handle.segment.leaked = true;
+                release(handle);
+                count++;
+            }
+        }
+        if (count > 0)
+        {
+            log.warn(count + " mapped segment pixel data not disposed of");
+        }
+    }
+
+    /**
+     * Marks a segment which has been removed from the cache as evicted,
+     * unmapping it straight away if it is not used or counting it as pinned
+     * until it is released.
+     * @param segment The segment to evict.
+     */
+    private void evict(Segment segment)
+    {
+        if (segment.evicted)
+        {
+            return;
+        }
+        segment.evicted = true;
+        totalBytes -= segment.key.size;
+        if (segment.references > 0)
+        {
+            pinnedBytes += segment.key.size;
+        }
+        else if (!segment.leaked)
+        {
+            unmap(segment.buffer);
+        }
+    }
+
+    /**
+     * Maps a segment read-only. The file is closed straight away, which does
+     * not affect the mapping.
+     * @param key The key of the segment.
+     * @return See above.
+     * @throws IOException If the file cannot be mapped.
+     */
+    private MappedByteBuffer map(Key key) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(key.path, "r");
+        try
+        {
+            return file.getChannel().map(
+                    MapMode.READ_ONLY, key.offset, key.size);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /**
+     * Unmaps a segment using the same mechanism as
+     * {@link PixelData#dispose()}.
+     * @param buffer The mapping.
+     */
+    private static void unmap(ByteBuffer buffer)
+    {
+        new PixelData("uint8", buffer).dispose();
+    }
+
+    /**
+     * Identifies a segment of a pixels file.
+     */
+    private static final class Key
+    {
+        final String path;
+
+        final long offset;
+
+        final int size;
+
+        Key(String path, long offset, int size)
+        {
+            this.path = path;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) o;
+            return offset == other.offset && size == other.size
+                && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (path.hashCode() * 31 + (int) (offset ^ (offset >>> 32)))
+                * 31 + size;
+        }
+    }
+
+    /**
+     * Pixel data of a segment, which releases it once disposed of.
+     */
+    private final class SegmentData extends PixelData
+    {
+        final Handle handle;
+
+        SegmentData(String pixelsType, Segment segment)
+        {
+            super(pixelsType, segment.buffer.duplicate());
+            handle = new Handle(this, segment, collected);
+        }
+
+        @Override
+        public void dispose()
+        {
+            release(handle);
+        }
+    }
+
+    /**
+     * Tracks a pixel data handed out, to release its segment if it is
+     * garbage collected without being disposed of.
+     */
+    private static final class Handle extends WeakReference<PixelData>
+    {
+        final Segment segment;
+
+        Handle(PixelData data, Segment segment,
+               ReferenceQueue<PixelData> queue)
+        {
+            super(data, queue);
+            this.segment = segment;
+        }
+    }
+
+    /**
+     * A cached mapping with its reference count.
+     */
+    private static final class Segment
+    {
+        final Key key;
+
+        final long lastModified;
+
+        final MappedByteBuffer buffer;
+
+        /** Number of pixel data instances not disposed of yet. */
+        int references;
+
+        /** Set once the segment has been removed from the cache. */
+        boolean evicted;
+
+        /**
+         * Set once pixel data of the segment has been garbage collected
+         * without being disposed of, after which it is never unmapped.
+         */
+        boolean leaked;
+
+        Segment(Key key, long lastModified, MappedByteBuffer buffer)
+        {
+            this.key = key;
+            this.lastModified = lastModified;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * ome.io.nio.PipelinedTileLoop
+ *
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import ome.util.PixelData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pipelined variant of
+ * {@link Utils#forEachTile(TileLoopIteration, PixelBuffer, int, int)}.
+ * Tiles are read by workers running on a shared pool, each one using its own
+ * source pixel buffer since the underlying readers are not thread safe, and
+ * are then handed to a single {@link TileConsumer} in exactly the order of
+ * the sequential loop. This allows writers which have to be fed sequentially,
+ * such as the pixels pyramid TIFF writer, to overlap with the decoding of
+ * the source data.
+ * <p>
+ * At most <code>window</code> tiles are read ahead of the consumer, which
+ * bounds the memory used by the pipeline. If a read or the consumer fails,
+ * the remaining tiles are skipped and the error is rethrown by
+ * {@link #run(TileConsumer)}.
+ * </p>
+ * <p>
+ * Workers never hold a thread of the pool while waiting for the consumer:
+ * one whose loop has no room left in its window returns and is submitted
+ * again once the consumer frees a slot. Workers also return to the back of
+ * the queue of the pool every {@link #TILES_PER_TURN} tiles, so that loops
+ * sharing a pool all make progress, whatever the number of their sources.
+ * </p>
+ * @since 5.1
+ */
+public class PipelinedTileLoop
+{
+    /** The logger for this class. */
+    private static final Logger log =
+        LoggerFactory.getLogger(PipelinedTileLoop.class);
+
+    /**
+     * Consumer of the tiles read by the pipeline, always called from the
+     * thread which invoked {@link PipelinedTileLoop#run(TileConsumer)}.
+     */
+    public interface TileConsumer
+    {
+        /**
+         * Consumes a single tile. The tile is disposed of once this method
+         * returns.
+         * @param tile The pixel data of the tile.
+         * @param z Z section counter of the loop.
+         * @param c Channel counter of the loop.
+         * @param t Timepoint counter of the loop.
+         * @param x X offset within the plane.
+         * @param y Y offset within the plane.
+         * @param tileWidth Width of the tile.
+         * @param tileHeight Height of the tile.
+         * @param tileCount Counter of the tile since the beginning of the
+         * loop.
+         * @throws IOException If the tile cannot be consumed.
+         */
+        void consume(PixelData tile, int z, int c, int t, int x, int y,
+                     int tileWidth, int tileHeight, int tileCount)
+            throws IOException;
+    }
+
+    /** Number of tiles a worker reads before letting other tasks run. */
+    public static final int TILES_PER_TURN = 8;
+
+    /** The pool the workers run on. */
+    private final ExecutorService executor;
+
+    /** One source pixel buffer per worker. */
+    private final List<? extends PixelBuffer> sources;
+
+    /** Maximum tile width and height. */
+    private final int tileWidth, tileHeight;
+
+    /** Dimensions of the source pixel buffers. */
+    private final int sizeX, sizeY, sizeZ, sizeC;
+
+    /** Number of tiles per row and per column of a plane. */
+    private final int tilesX, tilesY;
+
+    /** Total number of tiles. */
+    private final int totalTiles;
+
+    /** Tiles read but not consumed yet, indexed by tile count modulo size. */
+    private final PixelData[] window;
+
+    /**
+     * Number of tiles which may still be read ahead of the consumer.
+     * Guarded by <code>this</code>.
+     */
+    private int available;
+
+    /** Next tile to be read by a worker. Guarded by <code>this</code>. */
+    private int next;
+
+    /**
+     * Workers waiting for the consumer to free a slot of the window.
+     * Guarded by <code>this</code>.
+     */
+    private final Deque<Worker> idle = new ArrayDeque<Worker>();
+
+    /** First error raised by a worker. Guarded by <code>this</code>. */
+    private Throwable failure;
+
+    /** Set once the consumer has stopped. Guarded by <code>this</code>. */
+    private boolean stopped;
+
+    /** Number of workers reading tiles. Guarded by <code>this</code>. */
+    private int active;
+
+    /**
+     * Constructor.
+     * @param executor The pool the workers run on. It may be shared with
+     * other loops, in which case fewer workers than sources may be reading
+     * tiles at the same time.
+     * @param sources One pixel buffer per worker, all backed by the
+     * same pixel data.
+     * @param tileWidth <b>Maximum</b> width of the tiles.
+     * @param tileHeight <b>Maximum</b> height of the tiles.
+     * @param window Maximum number of tiles read ahead of the consumer.
+     */
+    public PipelinedTileLoop(ExecutorService executor,
+                             List<? extends PixelBuffer> sources,
+                             int tileWidth, int tileHeight, int window)
+    {
+        if (sources.isEmpty())
+        {
+            throw new IllegalArgumentException("No source pixel buffer.");
+        }
+        PixelBuffer source = sources.get(0);
+        this.executor = executor;
+        this.sources = sources;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        sizeX = source.getSizeX();
+        sizeY = source.getSizeY();
+        sizeZ = source.getSizeZ();
+        sizeC = source.getSizeC();
+        tilesX = (sizeX + tileWidth - 1) / tileWidth;
+        tilesY = (sizeY + tileHeight - 1) / tileHeight;
+        totalTiles = tilesX * tilesY * sizeZ * sizeC * source.getSizeT();
+        this.window = new PixelData[Math.max(window, 1)];
+        available = this.window.length;
+    }
+
+    /**
+     * Returns the total number of tiles the loop iterates over.
+     * @return See above.
+     */
+    public int getTotalTiles()
+    {
+        return totalTiles;
+    }
+
+    /**
+     * Reads every tile and hands it to the consumer, in the order of
+     * {@link Utils#forEachTile(TileLoopIteration, PixelBuffer, int, int)}.
+     * @param consumer The consumer of the tiles.
+     * @return The total number of tiles iterated over.
+     * @throws IOException If a tile cannot be read or consumed.
+     */
+    public int run(TileConsumer consumer) throws IOException
+    {
+        try
+        {
+            for (PixelBuffer source : sources)
+            {
+                submit(new Worker(source));
+            }
+            int[] position = new int[7];
+            for (int tileCount = 0; tileCount < totalTiles; tileCount++)
+            {
+                PixelData tile = take(tileCount);
+                try
+                {
+                    position(tileCount, position);
+                    consumer.consume(tile, position[0], position[1],
+                            position[2], position[3], position[4],
+                            position[5], position[6], tileCount);
+                }
+                finally
+                {
+                    tile.dispose();
+                }
+                release();
+            }
+            return totalTiles;
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                stopped = true;
+                idle.clear();
+            }
+            awaitWorkers();
+            for (int i = 0; i < window.length; i++)
+            {
+                if (window[i] != null)
+                {
+                    window[i].dispose();
+                    window[i] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the position of a tile in the order of the sequential loop.
+     * @param tileCount Counter of the tile since the beginning of the loop.
+     * @param position Filled with the z, c, t, x, y, width and height of
+     * the tile.
+     */
+    private void position(int tileCount, int[] position)
+    {
+        int tilesPerPlane = tilesX * tilesY;
+        int plane = tileCount / tilesPerPlane;
+        int tile = tileCount % tilesPerPlane;
+        int x = (tile % tilesX) * tileWidth;
+        int y = (tile / tilesX) * tileHeight;
+        position[0] = plane % sizeZ;
+        position[1] = (plane / sizeZ) % sizeC;
+        position[2] = plane / (sizeZ * sizeC);
+        position[3] = x;
+        position[4] = y;
+        position[5] = Math.min(tileWidth, sizeX - x);
+        position[6] = Math.min(tileHeight, sizeY - y);
+    }
+
+    /**
+     * Waits for a tile to be read and removes it from the window.
+     * @param tileCount Counter of the tile.
+     * @return See above.
+     * @throws IOException If a worker failed before the tile was read.
+     */
+    private synchronized PixelData take(int tileCount) throws IOException
+    {
+        int slot = tileCount % window.length;
+        while (window[slot] == null)
+        {
+            if (failure != null)
+            {
+                if (failure instanceof IOException)
+                {
+                    throw (IOException) failure;
+                }
+                if (failure instanceof RuntimeException)
+                {
+                    throw (RuntimeException) failure;
+                }
+                throw new RuntimeException(failure);
+            }
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted while waiting for tile " + tileCount);
+            }
+        }
+        PixelData tile = window[slot];
+        window[slot] = null;
+        return tile;
+    }
+
+    /**
+     * Adds a tile which has been read to the window.
+     * @param tileCount Counter of the tile.
+     * @param tile The tile.
+     */
+    private synchronized void put(int tileCount, PixelData tile)
+    {
+        if (stopped)
+        {
+            tile.dispose();
+            return;
+        }
+        window[tileCount % window.length] = tile;
+        notifyAll();
+    }
+
+    /**
+     * Frees the slot of a consumed tile and resumes a worker which was
+     * waiting for it, if any.
+     */
+    private void release()
+    {
+        Worker worker;
+        synchronized (this)
+        {
+            available++;
+            worker = idle.poll();
+        }
+        if (worker != null)
+        {
+            submit(worker);
+        }
+    }
+
+    /**
+     * Submits a worker to the pool, failing the loop if it is refused.
+     * @param worker The worker.
+     */
+    private void submit(Worker worker)
+    {
+        try
+        {
+            executor.submit(worker);
+        }
+        catch (RejectedExecutionException e)
+        {
+            fail(e);
+        }
+    }
+
+    /**
+     * Claims the next tile to read.
+     * @param worker The worker claiming the tile, which is parked if the
+     * window is full until {@link #release()} submits it again.
+     * @return The counter of the tile or <code>-1</code> if the worker
+     * should return.
+     */
+    private synchronized int claim(Worker worker)
+    {
+        if (stopped || failure != null || next >= totalTiles)
+        {
+            return -1;
+        }
+        if (available == 0)
+        {
+            idle.add(worker);
+            return -1;
+        }
+        available--;
+        return next++;
+    }
+
+    /**
+     * Records the first error raised by a worker and wakes up the consumer.
+     * @param t The error.
+     */
+    private synchronized void fail(Throwable t)
+    {
+        if (failure == null)
+        {
+            failure = t;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Registers a worker which is about to read tiles.
+     * @return <code>false</code> if the loop has already stopped, in which
+     * case the worker must not read any tile.
+     */
+    private synchronized boolean enter()
+    {
+        if (stopped)
+        {
+            return false;
+        }
+        active++;
+        return true;
+    }
+
+    /**
+     * Unregisters a worker which has stopped reading tiles.
+     */
+    private synchronized void exit()
+    {
+        active--;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the workers to finish their current read so that the source
+     * pixel buffers can safely be closed by the caller. Workers which are
+     * still queued in the pool will not read any tile.
+     */
+    private synchronized void awaitWorkers()
+    {
+        boolean interrupted = false;
+        long period = TimeUnit.MINUTES.toMillis(1);
+        long deadline = System.currentTimeMillis() + period;
+        while (active > 0)
+        {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+            {
+                log.warn("Still waiting for tile readers to finish.");
+                deadline += period;
+                continue;
+            }
+            try
+            {
+                wait(remaining);
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads tiles from its own source pixel buffer, for at most
+     * {@link #TILES_PER_TURN} tiles per turn, until all the tiles have been
+     * claimed or the loop has stopped.
+     */
+    private class Worker implements Runnable
+    {
+        private final PixelBuffer source;
+
+        Worker(PixelBuffer source)
+        {
+            this.source = source;
+        }
+
+        public void run()
+        {
+            if (!enter())
+            {
+                return;
+            }
+            boolean again = false;
+            int[] position = new int[7];
+            try
+            {
+                for (int i = 0; i < TILES_PER_TURN; i++)
+                {
+                    int tileCount = claim(this);
+                    if (tileCount < 0)
+                    {
+                        return;
+                    }
+                    position(tileCount, position);
+                    PixelData tile = source.getTile(position[0], position[1],
+                            position[2], position[3], position[4],
+                            position[5], position[6]);
+                    put(tileCount, tile);
+                }
+                again = true;
+            }
+            catch (Throwable t)
+            {
+                log.error("Error reading tile.", t);
+                fail(t);
+            }
+            finally
+            {
+                exit();
+            }
+            if (again)
+            {
+                submit(this);
+            }
+        }
+    }
+}
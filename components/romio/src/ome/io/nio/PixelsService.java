@@ -12,8 +12,11 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import loci.formats.ChannelFiller;
 import loci.formats.ChannelSeparator;
@@ -45,6 +48,8 @@ import org.springframework.beans.FatalBeanException;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * @author <br>
  *         Chris Allan&nbsp;&nbsp;&nbsp;&nbsp; <a
@@ -68,6 +73,12 @@ public class PixelsService extends AbstractFileSystemService
 	/** Null plane size constant. */
 	public static final int NULL_PLANE_SIZE = 64;
 
+	/** Default number of threads reading the source tiles of a pyramid. */
+	public static final int TILE_THREADS = 2;
+
+	/** Number of tiles each tile reader may read ahead of the writer. */
+	private static final int TILES_PER_READER = 4;
+
 	/** Default of 100 ms for {@link #memoizerWait} */
 	public static final long MEMOIZER_WAIT = 100;
 
@@ -93,6 +104,18 @@ public class PixelsService extends AbstractFileSystemService
 	private Timer tileTimes;
 
 	private Timer minmaxTimes;
+
+	/** Number of threads reading the source tiles of a pyramid. */
+	private int tileThreads = TILE_THREADS;
+
+	/** The pool shared by the tile readers of all pyramids, created on use. */
+	private ExecutorService tileReaders;
+
+	/** Cache of mapped planes shared by the read-only ROMIO buffers. */
+	private MappedSegmentCache segmentCache;
+
+	/** Calculator of the tree digests of the ROMIO pixels files. */
+	private PlaneDigests planeDigests;
 	
 	private IQuery iQuery;
 
@@ -188,6 +211,80 @@ public class PixelsService extends AbstractFileSystemService
         this.minmaxTimes = metrics.timer(this, "minmaxTimes");
     }
 
+    /**
+     * Sets the number of threads reading the source tiles in parallel while
+     * pyramids are written. The threads are shared by all the pyramids and
+     * each pyramid opens one reader per thread.
+     * @param tileThreads The number of threads. A value of <code>0</code> or
+     * lower uses {@link #TILE_THREADS}.
+     */
+    public void setTileThreads(int tileThreads) {
+        this.tileThreads = tileThreads > 0 ? tileThreads : TILE_THREADS;
+    }
+
+    /**
+     * Returns the pool shared by the tile readers, creating it on first use.
+     * @return See above.
+     */
+    private synchronized ExecutorService getTileReaders() {
+        if (tileReaders == null) {
+            tileReaders = Executors.newFixedThreadPool(tileThreads,
+                    new ThreadFactoryBuilder().setDaemon(true)
+                            .setNameFormat("PyramidTileReader-%d").build());
+        }
+        return tileReaders;
+    }
+
+    /**
+     * Stops the tile reader threads.
+     */
+    public synchronized void destroy() {
+        if (tileReaders != null) {
+            tileReaders.shutdownNow();
+            tileReaders = null;
+        }
+    }
+
+    /**
+     * Sets the cache through which read-only ROMIO pixel buffers map their
+     * planes.
+     * @param segmentCache The cache or <code>null</code> to disable caching.
+     */
+    public void setMappedSegmentCache(MappedSegmentCache segmentCache) {
+        this.segmentCache = segmentCache;
+    }
+
+    /**
+     * Sets the calculator of the tree digests of ROMIO pixels files.
+     * @param planeDigests The calculator or <code>null</code> to disable
+     * {@link #calculateTreeDigest(Pixels)}.
+     */
+    public void setPlaneDigests(PlaneDigests planeDigests) {
+        this.planeDigests = planeDigests;
+    }
+
+    /**
+     * Calculates the tree digest of the ROMIO pixels file of a pixels set,
+     * only reading the planes which have been modified since it was last
+     * calculated. See {@link PlaneDigests}.
+     * @param pixels Pixels set to calculate the digest of.
+     * @return See above or <code>null</code> if no calculator is configured
+     * or the pixels set has no ROMIO pixels file.
+     * @throws IOException If the pixels file cannot be read.
+     */
+    public byte[] calculateTreeDigest(Pixels pixels) throws IOException {
+        String path = getPixelsPath(pixels.getId());
+        if (planeDigests == null || !new File(path).exists()) {
+            return null;
+        }
+        RomioPixelBuffer pixbuf = new RomioPixelBuffer(path, pixels);
+        try {
+            return planeDigests.calculate(pixbuf);
+        } finally {
+            pixbuf.close();
+        }
+    }
+
     public long getMemoizerWait() {
         return memoizerWait;
     }
@@ -334,114 +431,134 @@ public class PixelsService extends AbstractFileSystemService
             final BfPyramidPixelBuffer pixelsPyramid, final File pixelsFile,
             final String pixelsFilePath, final String originalFilePath) {
 
-        final PixelBuffer source;
+        // One source per tile reader since neither the ROMIO nor the
+        // Bio-Formats pixel buffers can be read from concurrently.
+        final List<PixelBuffer> sources = new ArrayList<PixelBuffer>();
+        final List<MinMaxCalculator> calculators =
+            new ArrayList<MinMaxCalculator>();
         final Dimension tileSize;
         final PixelsPyramidMinMaxStore minMaxStore;
 
-        if (pixelsFile.exists())
-        {
-            minMaxStore = null;
-            source = createRomioPixelBuffer(pixelsFilePath, pixels, false);
-            // FIXME: This should be configuration or service driven
-            // FIXME: Also implemented in RenderingBean.getTileSize()
-            tileSize = new Dimension(Math.min(pixels.getSizeX(), sizes.getTileWidth()),
-                                     Math.min(pixels.getSizeY(), sizes.getTileHeight()));
-        }
-        else
+        try
         {
-            minMaxStore = new PixelsPyramidMinMaxStore(pixels.getSizeC());
-            int series = getSeries(pixels);
-            BfPixelBuffer bfPixelBuffer = createMinMaxBfPixelBuffer(
-                    originalFilePath, series, minMaxStore);
-            pixelsPyramid.setByteOrder(
-                    bfPixelBuffer.isLittleEndian()? ByteOrder.LITTLE_ENDIAN
-                            : ByteOrder.BIG_ENDIAN);
-            source = bfPixelBuffer;
-            // If the tile sizes we've been given are completely ridiculous
-            // then reset them to WIDTHxHEIGHT. Currently these conditions are:
-            //  * TileWidth == ImageWidth
-            //  * TileHeight == ImageHeight
-            //  * Smallest tile dimension divided by the largest resolution
-            //    level factor is < 1.
-            // -- Chris Allan (ome:#5224).
-            final Dimension sourceTileSize = source.getTileSize();
-            final double tileWidth = sourceTileSize.getWidth();
-            final double tileHeight = sourceTileSize.getHeight();
-            final boolean tileDimensionTooSmall;
-            double factor = Math.pow(2, 5);
-            if (((tileWidth / factor) < 1.0)
-                || ((tileHeight / factor) < 1.0))
-            {
-                tileDimensionTooSmall = true;
-            }
-            else
-            {
-                tileDimensionTooSmall = false;
-            }
-            if (tileWidth == source.getSizeX()
-                || tileHeight == source.getSizeY()
-                || tileDimensionTooSmall)
+            if (pixelsFile.exists())
             {
+                minMaxStore = null;
+                for (int i = 0; i < tileThreads; i++)
+                {
+                    sources.add(createRomioPixelBuffer(
+                            pixelsFilePath, pixels, false));
+                }
+                // FIXME: This should be configuration or service driven
+                // FIXME: Also implemented in RenderingBean.getTileSize()
                 tileSize = new Dimension(Math.min(pixels.getSizeX(), sizes.getTileWidth()),
                                          Math.min(pixels.getSizeY(), sizes.getTileHeight()));
             }
             else
             {
-                tileSize = sourceTileSize;
+                minMaxStore = new PixelsPyramidMinMaxStore(pixels.getSizeC());
+                int series = getSeries(pixels);
+                // Each reader only sees part of the tiles, so the min/max
+                // values are merged into the store once all have been read.
+                for (int i = 0; i < tileThreads; i++)
+                {
+                    MinMaxCalculator calculator =
+                        new MinMaxCalculator(createBfReader());
+                    calculators.add(calculator);
+                    sources.add(createMinMaxBfPixelBuffer(
+                            originalFilePath, series, calculator));
+                }
+                final BfPixelBuffer source = (BfPixelBuffer) sources.get(0);
+                pixelsPyramid.setByteOrder(
+                        source.isLittleEndian()? ByteOrder.LITTLE_ENDIAN
+                                : ByteOrder.BIG_ENDIAN);
+                // If the tile sizes we've been given are completely ridiculous
+                // then reset them to WIDTHxHEIGHT. Currently these conditions are:
+                //  * TileWidth == ImageWidth
+                //  * TileHeight == ImageHeight
+                //  * Smallest tile dimension divided by the largest resolution
+                //    level factor is < 1.
+                // -- Chris Allan (ome:#5224).
+                final Dimension sourceTileSize = source.getTileSize();
+                final double tileWidth = sourceTileSize.getWidth();
+                final double tileHeight = sourceTileSize.getHeight();
+                final boolean tileDimensionTooSmall;
+                double factor = Math.pow(2, 5);
+                if (((tileWidth / factor) < 1.0)
+                    || ((tileHeight / factor) < 1.0))
+                {
+                    tileDimensionTooSmall = true;
+                }
+                else
+                {
+                    tileDimensionTooSmall = false;
+                }
+                if (tileWidth == source.getSizeX()
+                    || tileHeight == source.getSizeY()
+                    || tileDimensionTooSmall)
+                {
+                    tileSize = new Dimension(Math.min(pixels.getSizeX(), sizes.getTileWidth()),
+                                             Math.min(pixels.getSizeY(), sizes.getTileHeight()));
+                }
+                else
+                {
+                    tileSize = sourceTileSize;
+                }
             }
-        }
-        log.info("Destination pyramid tile size: " + tileSize);
-
-        try
-        {
-            final double totalTiles =
-                source.getSizeZ() * source.getSizeC() * source.getSizeT() *
-                (Math.ceil(source.getSizeX() / tileSize.getWidth())) *
-                (Math.ceil(source.getSizeY() / tileSize.getHeight()));
-            final int tenPercent = Math.max((int) totalTiles / 10, 1);
-            Utils.forEachTile(new TileLoopIteration() {
-                public void run(int z, int c, int t, int x, int y, int w,
-                            int h, int tileCount)
+            log.info("Destination pyramid tile size: " + tileSize);
+
+            final PipelinedTileLoop loop = new PipelinedTileLoop(
+                    getTileReaders(), sources,
+                    (int) tileSize.getWidth(), (int) tileSize.getHeight(),
+                    sources.size() * TILES_PER_READER);
+            final int totalTiles = loop.getTotalTiles();
+            final int tenPercent = Math.max(totalTiles / 10, 1);
+            try
             {
-                if (log.isInfoEnabled()
-                    && tileCount % tenPercent == 0)
+                loop.run(new PipelinedTileLoop.TileConsumer() {
+                    public void consume(PixelData tile, int z, int c, int t,
+                            int x, int y, int w, int h, int tileCount)
+                        throws IOException
+                    {
+                        if (log.isInfoEnabled()
+                            && tileCount % tenPercent == 0)
+                        {
+                            log.info(String.format(
+                                "Pyramid creation for Pixels:%d %d/%d (%d%%).",
+                                pixels.getId(), tileCount + 1, totalTiles,
+                                (int) ((double) tileCount / totalTiles * 100)));
+                        }
+                        Timer.Context ctx = tileTimes == null ? null : tileTimes.time();
+                        try {
+                            pixelsPyramid.setTile(
+                                tile.getData().array(), z, c, t, x, y, w, h);
+                        } finally {
+                            if (ctx != null) {
+                                ctx.stop();
+                            }
+                        }
+                    }
+                });
+                if (minMaxStore != null)
                 {
-                    log.info(String.format(
-                            "Pyramid creation for Pixels:%d %d/%d (%d%%).",
-                            pixels.getId(), tileCount + 1, (int) totalTiles,
-                            (int) (tileCount / totalTiles * 100)));
+                    mergeMinMax(calculators, minMaxStore);
                 }
+            }
+            catch (IOException e1)
+            {
+                log.error("FAIL -- Error during tile population", e1);
                 try
                 {
-                    Timer.Context ctx = tileTimes == null ? null : tileTimes.time();
-                    try {
-                        PixelData tile = source.getTile(z, c, t, x, y, w, h);
-                        pixelsPyramid.setTile(
-                            tile.getData().array(), z, c, t, x, y, w, h);
-                        tile.dispose();
-                    } finally {
-                        if (ctx != null) {
-                            ctx.stop();
-                        }
-                    }
+                    pixelsPyramidFile.delete();
+                    FileUtils.touch(pixelsPyramidFile); // ticket:5189
                 }
-                catch (IOException e1)
+                catch (Exception e2)
                 {
-                    log.error("FAIL -- Error during tile population", e1);
-                    try
-                    {
-                        pixelsPyramidFile.delete();
-                        FileUtils.touch(pixelsPyramidFile); // ticket:5189
-                    }
-                    catch (Exception e2)
-                    {
-                        log.warn("Error clearing empty or incomplete pixel " +
-                                 "buffer.", e2);
-                    }
-                    return;
+                    log.warn("Error clearing empty or incomplete pixel " +
+                             "buffer.", e2);
                 }
+                return minMaxStore;
             }
-            }, source, (int) tileSize.getWidth(), (int) tileSize.getHeight());
 
             log.info("SUCCESS -- Pyramid created for pixels id:" + pixels.getId());
 
@@ -449,7 +566,7 @@ public class PixelsService extends AbstractFileSystemService
 
         finally
         {
-            if (source != null)
+            for (PixelBuffer source : sources)
             {
                 try
                 {
@@ -464,6 +581,48 @@ public class PixelsService extends AbstractFileSystemService
         return minMaxStore;
     }
 
+    /**
+     * Merges the channel min/max values seen by each of the tile readers
+     * into the store used to create the {@link StatsInfo}.
+     * @param calculators The min/max calculators of the tile readers.
+     * @param minMaxStore The store to populate.
+     * @throws IOException If the min/max values cannot be retrieved.
+     */
+    private void mergeMinMax(List<MinMaxCalculator> calculators,
+            PixelsPyramidMinMaxStore minMaxStore) throws IOException
+    {
+        try
+        {
+            for (int c = 0; c < minMaxStore.sizeC; c++)
+            {
+                Double min = null;
+                Double max = null;
+                for (MinMaxCalculator calculator : calculators)
+                {
+                    Double knownMin = calculator.getChannelKnownMinimum(c);
+                    Double knownMax = calculator.getChannelKnownMaximum(c);
+                    if (knownMin != null && (min == null || knownMin < min))
+                    {
+                        min = knownMin;
+                    }
+                    if (knownMax != null && (max == null || knownMax > max))
+                    {
+                        max = knownMax;
+                    }
+                }
+                if (min != null && max != null)
+                {
+                    minMaxStore.setChannelGlobalMinMax(c, min, max,
+                            calculators.get(0).getSeries());
+                }
+            }
+        }
+        catch (FormatException e)
+        {
+            throw new IOException("Error retrieving min/max values.", e);
+        }
+    }
+
     /**
      * Returns a pixel buffer for a given set of pixels. Either a proprietary
      * ROMIO pixel buffer or a specific pixel buffer implementation.
@@ -741,12 +900,25 @@ public class PixelsService extends AbstractFileSystemService
     protected BfPixelBuffer createMinMaxBfPixelBuffer(final String filePath,
                                                       final int series,
                                                       final IMinMaxStore store)
+    {
+        MinMaxCalculator calculator = new MinMaxCalculator(createBfReader());
+        calculator.setMinMaxStore(store);
+        return createMinMaxBfPixelBuffer(filePath, series, calculator);
+    }
+
+    /**
+     * Helper method to properly log any exceptions raised by Bio-Formats
+     * when reading through an existing min/max calculator.
+     * @param filePath Non-null.
+     * @param series series to use
+     * @param calculator Min/max calculator wrapping the reader stack.
+     */
+    protected BfPixelBuffer createMinMaxBfPixelBuffer(final String filePath,
+                                                      final int series,
+                                                      final MinMaxCalculator calculator)
     {
         try
         {
-            IFormatReader reader = createBfReader();
-            MinMaxCalculator calculator = new MinMaxCalculator(reader);
-            calculator.setMinMaxStore(store);
             BfPixelBuffer pixelBuffer = new BfPixelBuffer(filePath, calculator);
             pixelBuffer.setSeries(series);
             log.info(String.format("Creating BfPixelBuffer: %s Series: %d",
@@ -855,7 +1027,12 @@ public class PixelsService extends AbstractFileSystemService
      */
     protected PixelBuffer createRomioPixelBuffer(String pixelsFilePath,
         Pixels pixels, boolean allowModification) {
-        return new RomioPixelBuffer(pixelsFilePath, pixels, allowModification);
+        RomioPixelBuffer pixelBuffer =
+            new RomioPixelBuffer(pixelsFilePath, pixels, allowModification);
+        if (!allowModification) {
+            pixelBuffer.setMappedSegmentCache(segmentCache);
+        }
+        return pixelBuffer;
     }
 
     /**
@@ -874,6 +1051,10 @@ public class PixelsService extends AbstractFileSystemService
 			Long id = iter.next();
 
 			String pixelPath = getPixelsPath(id);
+			if (segmentCache != null) {
+				segmentCache.invalidate(pixelPath);
+			}
+			PlaneDigests.delete(pixelPath);
 			file = new File(pixelPath);
 			fileName = file.getName();
 			if (file.exists()) {
@@ -0,0 +1,558 @@
+/*
+ * ome.io.nio.PlaneDigests
+ *
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.util.checksum.ChecksumProvider;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Tree digest of a ROMIO pixels file. A digest is calculated for each plane,
+ * in parallel and straight from the file through direct buffers, and the
+ * root digest is then calculated over the plane digests in file order.
+ * <p>
+ * The plane digests are persisted next to the pixels file, with the
+ * {@link #SUFFIX} suffix, each with its state: valid, stale, or being
+ * calculated. A calculation claims the planes it reads and only saves their
+ * digests as valid if they are still claimed once read. Planes written
+ * through a {@link RomioPixelBuffer} are marked as stale in the file as soon
+ * as they are written, which also drops any claim, so that only those have
+ * to be read again by the next calculation. The file is locked while it is
+ * read or updated, so that writers and calculations in different processes,
+ * e.g. Blitz and PixelData, see each other's changes.
+ * </p>
+ * <p>
+ * The root digest is <b>not</b> the same as
+ * {@link PixelBuffer#calculateMessageDigest()}, which remains the SHA-1 of
+ * the whole pixel data stored in <code>Pixels.sha1</code>.
+ * </p>
+ * @since 5.1
+ */
+public class PlaneDigests
+{
+    /** The logger for this class. */
+    private static final Logger log =
+        LoggerFactory.getLogger(PlaneDigests.class);
+
+    /** Suffix of the file the plane digests are persisted to. */
+    public static final String SUFFIX = "_digests";
+
+    /** Identifies a plane digests file. */
+    private static final int MAGIC = 0x4f504448;
+
+    /**
+     * State of a plane whose persisted digest is valid. The state of a plane
+     * being calculated is the positive token of the calculation.
+     */
+    private static final int VALID = -1;
+
+    /** State of a plane written since its digest was calculated. */
+    private static final int STALE = 0;
+
+    /** Maximum number of bytes read from the pixels file at once. */
+    private static final int CHUNK_SIZE = RomioPixelBuffer.MAXIMUM_BUFFER_SIZE;
+
+    /**
+     * Serializes the access to the plane digests files within this process,
+     * as file locks are held on behalf of the whole process.
+     */
+    private static final Object LOCK = new Object();
+
+    /** Provides the checksum implementation. */
+    private final ChecksumProviderFactory factory;
+
+    /** The type of the plane and root digests. */
+    private final ChecksumType type;
+
+    /** Number of planes read in parallel. */
+    private final int threads;
+
+    /** Length of the plane digests. */
+    private final int length;
+
+    /** The workers shared by all the calculations. */
+    private final ExecutorService workers;
+
+    /**
+     * Constructor.
+     * @param factory Provides the checksum implementation.
+     * @param type The type of the plane and root digests.
+     * @param threads Number of planes read in parallel, by all the
+     * calculations together. A value of <code>0</code> or lower uses the
+     * number of available processors.
+     */
+    public PlaneDigests(ChecksumProviderFactory factory, ChecksumType type,
+                        int threads)
+    {
+        this.factory = factory;
+        this.type = type;
+        this.threads = threads > 0 ?
+                threads : Runtime.getRuntime().availableProcessors();
+        length = factory.getProvider(type).checksumAsBytes().length;
+        workers = Executors.newFixedThreadPool(this.threads,
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("PlaneDigests-%d").build());
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void destroy()
+    {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Calculates the root digest of a pixel buffer, only reading the planes
+     * which have no valid persisted digest, and persists the plane digests.
+     * @param buffer The pixel buffer.
+     * @return See above.
+     * @throws IOException If the pixels file cannot be read.
+     */
+    public byte[] calculate(RomioPixelBuffer buffer) throws IOException
+    {
+        String path = buffer.getPath();
+        int planeCount = getPlaneCount(buffer);
+        File store = new File(path + SUFFIX);
+        int token = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+        byte[][] digests = new byte[planeCount][];
+        boolean claimed = claim(store, digests, token);
+        int missing = 0;
+        for (byte[] digest : digests)
+        {
+            if (digest == null)
+            {
+                missing++;
+            }
+        }
+        if (missing > 0)
+        {
+            log.info("Calculating " + missing + " of " + planeCount
+                    + " plane digests of " + path);
+            calculatePlanes(path, buffer.getPlaneSize(), digests);
+            if (claimed)
+            {
+                save(store, digests, token);
+            }
+        }
+        ChecksumProvider root = factory.getProvider(type);
+        for (byte[] digest : digests)
+        {
+            root.putBytes(digest);
+        }
+        return root.checksumAsBytes();
+    }
+
+    /**
+     * Marks planes of a pixels file as stale in its persisted digests, if
+     * any. Called for each write, the file being checked every time as it
+     * may be created by another process at any time.
+     * @param path The path of the pixels file.
+     * @param from The index of the first written plane.
+     * @param to The index after the last written plane.
+     */
+    public static void invalidate(String path, int from, int to)
+    {
+        File store = new File(path + SUFFIX);
+        if (!store.exists())
+        {
+            return;
+        }
+        synchronized (LOCK)
+        {
+            try
+            {
+                RandomAccessFile file = new RandomAccessFile(store, "rw");
+                try
+                {
+                    file.getChannel().lock();
+                    Header header = Header.read(file);
+                    for (int i = from; i < to && i < header.planeCount; i++)
+                    {
+                        file.seek(header.record(i));
+                        if (file.readInt() != STALE)
+                        {
+                            file.seek(header.record(i));
+                            file.writeInt(STALE);
+                        }
+                    }
+                }
+                finally
+                {
+                    file.close();
+                }
+            }
+            catch (IOException e)
+            {
+                log.warn("Dropping plane digests " + store, e);
+                store.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the persisted digests of a pixels file.
+     * @param path The path of the pixels file.
+     */
+    public static void delete(String path)
+    {
+        synchronized (LOCK)
+        {
+            new File(path + SUFFIX).delete();
+        }
+    }
+
+    private static int getPlaneCount(RomioPixelBuffer buffer)
+    {
+        return buffer.getSizeZ() * buffer.getSizeC() * buffer.getSizeT();
+    }
+
+    private static ByteBuffer allocateChunk(long planeSize)
+    {
+        return ByteBuffer.allocateDirect(
+                (int) Math.max(1, Math.min(planeSize, CHUNK_SIZE)));
+    }
+
+    /**
+     * Calculates the missing plane digests with a pool of workers sharing a
+     * read-only channel, which supports concurrent positional reads.
+     * @param path The path of the pixels file.
+     * @param planeSize The size of a plane in bytes.
+     * @param digests The plane digests, <code>null</code> where missing.
+     * @throws IOException If the pixels file cannot be read.
+     */
+    private void calculatePlanes(String path, final long planeSize,
+                                 final byte[][] digests) throws IOException
+    {
+        final RandomAccessFile file = new RandomAccessFile(path, "r");
+        final AtomicInteger next = new AtomicInteger();
+        int workerCount = Math.min(threads, digests.length);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        try
+        {
+            for (int i = 0; i < workerCount; i++)
+            {
+                futures.add(workers.submit(new Callable<Void>() {
+                    public Void call() throws IOException
+                    {
+                        ByteBuffer chunk = allocateChunk(planeSize);
+                        byte[] array = new byte[chunk.capacity()];
+                        int plane;
+                        while ((plane = next.getAndIncrement())
+                                < digests.length)
+                        {
+                            if (digests[plane] == null)
+                            {
+                                digests[plane] = digestPlane(
+                                        file.getChannel(), plane * planeSize,
+                                        planeSize, chunk, array);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted calculating plane digests.");
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        finally
+        {
+            // Stops the remaining workers if the calculation failed.
+            for (Future<Void> future : futures)
+            {
+                future.cancel(true);
+            }
+            file.close();
+        }
+    }
+
+    /**
+     * Calculates the digest of a single plane. Bytes beyond the end of the
+     * file, i.e. planes which have never been written, are digested as zeros.
+     * @param channel The channel of the pixels file.
+     * @param offset The offset of the plane.
+     * @param planeSize The size of the plane.
+     * @param chunk Direct buffer the plane is read through.
+     * @param array Array of the same capacity as <code>chunk</code>.
+     * @return See above.
+     * @throws IOException If the pixels file cannot be read.
+     */
+    private byte[] digestPlane(FileChannel channel, long offset,
+                               long planeSize, ByteBuffer chunk, byte[] array)
+        throws IOException
+    {
+        ChecksumProvider provider = factory.getProvider(type);
+        long position = offset;
+        long end = offset + planeSize;
+        while (position < end)
+        {
+            chunk.clear();
+            chunk.limit((int) Math.min(chunk.capacity(), end - position));
+            int length;
+            if (channel.read(chunk, position) < 0)
+            {
+                length = chunk.limit();
+                Arrays.fill(array, 0, length, (byte) 0);
+            }
+            else
+            {
+                chunk.flip();
+                length = chunk.remaining();
+                chunk.get(array, 0, length);
+            }
+            provider.putBytes(array, 0, length);
+            position += length;
+        }
+        return provider.checksumAsBytes();
+    }
+
+    /**
+     * Loads the valid persisted plane digests and claims the other planes
+     * for a calculation, creating the plane digests file if it does not
+     * exist or was not calculated with the same type or for the same number
+     * of planes.
+     * @param store The plane digests file.
+     * @param digests Filled with the valid plane digests.
+     * @param token The token of the calculation.
+     * @return <code>true</code> if the planes have been claimed,
+     * <code>false</code> if the file cannot be used.
+     */
+    private boolean claim(File store, byte[][] digests, int token)
+    {
+        synchronized (LOCK)
+        {
+            try
+            {
+                RandomAccessFile file = new RandomAccessFile(store, "rw");
+                try
+                {
+                    file.getChannel().lock();
+                    Header header = null;
+                    if (file.length() > 0)
+                    {
+                        header = Header.read(file);
+                        if (!type.name().equals(header.type)
+                            || header.planeCount != digests.length
+                            || header.length != length)
+                        {
+                            log.info("Replacing plane digests " + store);
+                            header = null;
+                        }
+                    }
+                    if (header == null)
+                    {
+                        create(file, digests.length, token);
+                        return true;
+                    }
+                    byte[] digest = new byte[length];
+                    for (int i = 0; i < digests.length; i++)
+                    {
+                        file.seek(header.record(i));
+                        if (file.readInt() == VALID)
+                        {
+                            file.readFully(digest);
+                            digests[i] = digest.clone();
+                        }
+                        else
+                        {
+                            file.seek(header.record(i));
+                            file.writeInt(token);
+                        }
+                    }
+                    return true;
+                }
+                finally
+                {
+                    file.close();
+                }
+            }
+            catch (IOException e)
+            {
+                // The digests are only an optimization, the root digest is
+                // still calculated.
+                log.warn("Ignoring plane digests " + store, e);
+                Arrays.fill(digests, null);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Writes a new plane digests file with all its planes claimed. The magic
+     * number is written last so that an incomplete file is not used.
+     * @param file The plane digests file, locked.
+     * @param planeCount The number of planes.
+     * @param token The token of the calculation.
+     * @throws IOException If the file cannot be written.
+     */
+    private void create(RandomAccessFile file, int planeCount, int token)
+        throws IOException
+    {
+        file.setLength(0);
+        file.writeInt(0);
+        file.writeUTF(type.name());
+        file.writeInt(planeCount);
+        file.writeInt(length);
+        byte[] empty = new byte[length];
+        for (int i = 0; i < planeCount; i++)
+        {
+            file.writeInt(token);
+            file.write(empty);
+        }
+        file.seek(0);
+        file.writeInt(MAGIC);
+    }
+
+    /**
+     * Persists the digests of the planes still claimed by a calculation as
+     * valid. Planes written or claimed by another calculation since keep
+     * their state.
+     * @param store The plane digests file.
+     * @param digests The plane digests.
+     * @param token The token of the calculation.
+     */
+    private void save(File store, byte[][] digests, int token)
+    {
+        synchronized (LOCK)
+        {
+            if (!store.exists())
+            {
+                return; // Deleted with its pixels file.
+            }
+            try
+            {
+                RandomAccessFile file = new RandomAccessFile(store, "rw");
+                try
+                {
+                    file.getChannel().lock();
+                    Header header = Header.read(file);
+                    if (header.planeCount != digests.length
+                        || header.length != length)
+                    {
+                        return; // Replaced by another calculation.
+                    }
+                    for (int i = 0; i < digests.length; i++)
+                    {
+                        file.seek(header.record(i));
+                        if (file.readInt() == token)
+                        {
+                            file.write(digests[i]);
+                            file.seek(header.record(i));
+                            file.writeInt(VALID);
+                        }
+                    }
+                }
+                finally
+                {
+                    file.close();
+                }
+            }
+            catch (IOException e)
+            {
+                // The digests are only an optimization, the root digest is
+                // still returned.
+                log.warn("Could not persist plane digests " + store, e);
+            }
+        }
+    }
+
+    /**
+     * The header of a plane digests file, followed by a record of the state
+     * and digest of each plane.
+     */
+    private static final class Header
+    {
+        final String type;
+
+        final int planeCount;
+
+        final int length;
+
+        /** The offset of the first record. */
+        final long start;
+
+        private Header(String type, int planeCount, int length, long start)
+        {
+            this.type = type;
+            this.planeCount = planeCount;
+            this.length = length;
+            this.start = start;
+        }
+
+        /**
+         * Reads the header of a plane digests file.
+         * @param file The file.
+         * @return See above.
+         * @throws IOException If the file is not a complete plane digests
+         * file.
+         */
+        static Header read(RandomAccessFile file) throws IOException
+        {
+            file.seek(0);
+            if (file.readInt() != MAGIC)
+            {
+                throw new IOException("Not a plane digests file.");
+            }
+            Header header = new Header(file.readUTF(), file.readInt(),
+                    file.readInt(), 0);
+            header = new Header(header.type, header.planeCount,
+                    header.length, file.getFilePointer());
+            if (file.length() < header.record(header.planeCount))
+            {
+                throw new IOException("Truncated plane digests file.");
+            }
+            return header;
+        }
+
+        /**
+         * Returns the offset of the record of a plane.
+         * @param plane The index of the plane.
+         * @return See above.
+         */
+        long record(int plane)
+        {
+            return start + plane * (4L + length);
+        }
+    }
+}
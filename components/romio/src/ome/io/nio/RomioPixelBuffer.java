@@ -8,6 +8,7 @@
 package ome.io.nio;
 
 import java.awt.Dimension;
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
@@ -80,6 +81,9 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
      */
     private final boolean permitModification;
 
+    /** Cache of mapped planes, or <code>null</code> if planes are not cached. */
+    private MappedSegmentCache segmentCache;
+
     /**
      * Creates a new instance. {@link #permitModification} defaults to false.
      * 
@@ -106,6 +110,17 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
         this.permitModification = permitModification;
     }
 
+    /**
+     * Sets the cache planes are mapped through. Should only be used for
+     * read-only buffers.
+     *
+     * @param segmentCache The cache or <code>null</code> to map each plane
+     * on every read.
+     */
+    public void setMappedSegmentCache(MappedSegmentCache segmentCache) {
+        this.segmentCache = segmentCache;
+    }
+
     private void throwIfReadOnly() {
         if (!permitModification) {
             throw new ApiUsageException("Write-method not permitted.");
@@ -489,7 +504,14 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
         log.info("Retrieving plane: " + z + "x" + c + "x" + t);
         Long offset = getPlaneOffset(z, c, t);
         Integer size = safeLongToInteger(getPlaneSize());
-        PixelData region = getRegion(size, offset);
+        PixelData region = null;
+        if (segmentCache != null) {
+            region = segmentCache.getSegment(getPath(),
+                    pixels.getPixelsType().getValue(), offset, size);
+        }
+        if (region == null) {
+            region = getRegion(size, offset);
+        }
 
         byte[] nullPlane = PixelsService.nullPlane;
 
@@ -514,44 +536,87 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     	if (stride == null || stride < 0) stride = 0;
     	checkBounds(x, y, z, c, t);
     	checkBounds(x+width-1, y+height-1, null, null, null);
-    	
-    	PixelData plane = getPlane(z, c, t);
-    	Integer size;
-    	ByteBuffer buf;
-    	PixelData region = null;
-    	int offset;
-    	
+
+    	// Only the rows spanned by the region are read, straight from the
+    	// file rather than through a mapping of the whole plane.
+    	FileChannel fileChannel = getFileChannel();
+    	long planeOffset = getPlaneOffset(z, c, t);
+    	if (isNullPlane(fileChannel, planeOffset)) {
+    		return null; // Non-filled plane, as with getPlane()
+    	}
+    	int byteWidth = getByteWidth();
+    	long rowSize = (long) getSizeX() * byteWidth;
+    	long regionOffset = planeOffset + (long) x * byteWidth;
+    	int span = width * byteWidth;
+    	String type = pixels.getPixelsType().getValue();
+
     	if (stride == 0) {
-    		size =  width*height*getByteWidth();
-            buf = ByteBuffer.wrap(new byte[size]);
-            region = new PixelData(pixels.getPixelsType().getValue(), buf);
-            for (int i = 0; i < height; i++) {
-            	for (int j = 0; j < width; j++) {
-            		offset = (i+y)*getSizeX()+x+j;
-            		region.setPixelValue(i*width+j, plane.getPixelValue(offset));
-            	}
-            }
-            plane.dispose();
-            return region;
+    		byte[] region = new byte[height * span];
+    		ByteBuffer buf = ByteBuffer.wrap(region);
+    		for (int i = 0; i < height; i++) {
+    			buf.limit((i + 1) * span);
+    			buf.position(i * span);
+    			readFully(fileChannel, buf, regionOffset + (y + i) * rowSize);
+    		}
+    		return new PixelData(type, ByteBuffer.wrap(region));
     	}
     	stride++;
     	int w = width/stride;
-    	size = width*height*getByteWidth()/(stride*stride);
-        buf = ByteBuffer.wrap(new byte[size]);
-        region = new PixelData(pixels.getPixelsType().getValue(), buf);
+    	byte[] region = new byte[width*height*byteWidth/(stride*stride)];
+    	ByteBuffer row = ByteBuffer.wrap(new byte[span]);
+    	byte[] rowBytes = row.array();
     	int k = 0;
     	int l = 0;
     	for (int i = 0; i < height; i = i+stride) {
+    		row.clear();
+    		readFully(fileChannel, row, regionOffset + (y + i) * rowSize);
     		l = 0;
-        	for (int j = 0; j < width; j = j+stride) {
-        		offset = (i+y)*getSizeX()+x+j;
-        		region.setPixelValue(k*w+l, plane.getPixelValue(offset));
-        		l++;
-        	}
-        	k++;
-        }
-        plane.dispose();
-        return region;
+    		for (int j = 0; j < width; j = j+stride) {
+    			System.arraycopy(rowBytes, j * byteWidth,
+    					region, (k*w+l) * byteWidth, byteWidth);
+    			l++;
+    		}
+    		k++;
+    	}
+    	return new PixelData(type, ByteBuffer.wrap(region));
+    }
+
+    /**
+     * Checks whether a plane has not been filled yet, i.e. still starts with
+     * {@link PixelsService#nullPlane}.
+     * @param fileChannel The channel to read from.
+     * @param planeOffset The offset of the plane in the file.
+     * @return <code>true</code> if the plane has not been filled,
+     * <code>false</code> otherwise.
+     * @throws IOException If the start of the plane cannot be read.
+     */
+    private boolean isNullPlane(FileChannel fileChannel, long planeOffset)
+            throws IOException {
+    	if (getPlaneSize() < PixelsService.NULL_PLANE_SIZE) {
+    		return false;
+    	}
+    	ByteBuffer start = ByteBuffer.allocate(PixelsService.NULL_PLANE_SIZE);
+    	readFully(fileChannel, start, planeOffset);
+    	return Arrays.equals(start.array(), PixelsService.nullPlane);
+    }
+
+    /**
+     * Fills the remaining bytes of a buffer from a given file position,
+     * without changing the position of the channel.
+     * @param fileChannel The channel to read from.
+     * @param buffer The buffer to fill.
+     * @param position The file position to start reading at.
+     * @throws IOException If the end of the file is reached first.
+     */
+    private static void readFully(FileChannel fileChannel, ByteBuffer buffer,
+            long position) throws IOException {
+    	while (buffer.hasRemaining()) {
+    		int read = fileChannel.read(buffer, position);
+    		if (read < 0) {
+    			throw new EOFException("Unexpected end of file at " + position);
+    		}
+    		position += read;
+    	}
     }
     
     /**
@@ -649,6 +714,11 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
          * there happens to be an error.
          */
         fileChannel.write(buffer, offset);
+        long planeSize = getPlaneSize();
+        if (size > 0 && planeSize > 0) {
+            PlaneDigests.invalidate(getPath(), (int) (offset / planeSize),
+                    (int) ((offset + size - 1) / planeSize) + 1);
+        }
     }
 
     /**
@@ -0,0 +1,213 @@
+/*
+ * ome.io.nio.ThumbnailCache
+ *
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory cache of compressed thumbnails used by {@link ThumbnailService},
+ * so that the thumbnails of frequently viewed images are served without
+ * reading them from the binary repository again.
+ * <p>
+ * Entries are keyed by thumbnail ID and only returned if the version of the
+ * thumbnail metadata matches the one they were cached with. Since the version
+ * is incremented whenever the rendering settings have changed since the
+ * thumbnail was created, stale entries are simply missed. Writing or removing
+ * a thumbnail file also drops its entry. Entries are evicted in least
+ * recently used order once their total size exceeds the configured budget.
+ * </p>
+ * <p>
+ * Hits and misses are exposed as the <code>hits</code> and
+ * <code>misses</code> counters.
+ * </p>
+ * @since 5.1
+ */
+public class ThumbnailCache
+{
+    /** The logger for this class. */
+    private static final Logger log =
+        LoggerFactory.getLogger(ThumbnailCache.class);
+
+    /** Maximum total size of the cached thumbnails in bytes. */
+    private final long maxBytes;
+
+    /** Entries in least recently used order. Guarded by <code>this</code>. */
+    private final LinkedHashMap<Long, Entry> entries =
+        new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+
+    /** Total size of the cached thumbnails. Guarded by <code>this</code>. */
+    private long totalBytes;
+
+    /**
+     * Incremented on each invalidation so that a thumbnail read from disk
+     * while it was being rewritten is not cached. Guarded by
+     * <code>this</code>.
+     */
+    private long generation;
+
+    /** Number of thumbnails served from the cache. */
+    private Counter hits;
+
+    /** Number of thumbnails which had to be read from disk. */
+    private Counter misses;
+
+    /**
+     * Constructor.
+     * @param maxBytes Maximum total size of the cached thumbnails in bytes.
+     * A value of <code>0</code> or lower disables caching.
+     */
+    public ThumbnailCache(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+        setMetrics(new NullMetrics());
+        log.info("Thumbnail cache of " + maxBytes + " bytes");
+    }
+
+    public void setMetrics(Metrics metrics)
+    {
+        this.hits = metrics.counter(this, "hits");
+        this.misses = metrics.counter(this, "misses");
+    }
+
+    /**
+     * Returns a copy of a cached thumbnail.
+     * @param id The ID of the thumbnail.
+     * @param version The current version of the thumbnail metadata.
+     * @return See above or <code>null</code> if the thumbnail is not cached
+     * or was cached for another version.
+     */
+    public byte[] get(long id, Integer version)
+    {
+        byte[] data = null;
+        synchronized (this)
+        {
+            Entry entry = entries.get(id);
+            if (entry != null && equals(entry.version, version))
+            {
+                data = entry.data;
+            }
+        }
+        if (data == null)
+        {
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        return data.clone();
+    }
+
+    /**
+     * Returns the current generation, to be passed to
+     * {@link #put(long, Integer, byte[], long)} once the thumbnail has been
+     * read.
+     * @return See above.
+     */
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Caches a copy of a thumbnail read from disk, unless it is too large or
+     * a thumbnail has been invalidated since the read started.
+     * @param id The ID of the thumbnail.
+     * @param version The version of the thumbnail metadata.
+     * @param data The thumbnail.
+     * @param generation The value of {@link #getGeneration()} before the
+     * thumbnail was read.
+     */
+    public void put(long id, Integer version, byte[] data, long generation)
+    {
+        if (data.length > maxBytes)
+        {
+            return;
+        }
+        Entry entry = new Entry(version, data.clone());
+        synchronized (this)
+        {
+            if (generation != this.generation)
+            {
+                return;
+            }
+            Entry previous = entries.put(id, entry);
+            if (previous != null)
+            {
+                totalBytes -= previous.data.length;
+            }
+            totalBytes += data.length;
+            Iterator<Entry> i = entries.values().iterator();
+            while (totalBytes > maxBytes && i.hasNext())
+            {
+                totalBytes -= i.next().data.length;
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops a thumbnail, e.g. when it is rewritten or deleted.
+     * @param id The ID of the thumbnail.
+     */
+    public synchronized void invalidate(long id)
+    {
+        generation++;
+        Entry entry = entries.remove(id);
+        if (entry != null)
+        {
+            totalBytes -= entry.data.length;
+        }
+    }
+
+    /**
+     * Drops all the thumbnails.
+     */
+    public synchronized void clear()
+    {
+        generation++;
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    /**
+     * Returns the total size of the cached thumbnails.
+     * @return See above.
+     */
+    public synchronized long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    private static boolean equals(Integer a, Integer b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * A cached thumbnail with the version it was read for.
+     */
+    private static final class Entry
+    {
+        final Integer version;
+
+        final byte[] data;
+
+        Entry(Integer version, byte[] data)
+        {
+            this.version = version;
+            this.data = data;
+        }
+    }
+}
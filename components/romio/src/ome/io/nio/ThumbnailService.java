@@ -29,6 +29,9 @@ public class ThumbnailService extends AbstractFileSystemService {
     private transient static Logger log = LoggerFactory
             .getLogger(ThumbnailService.class);
 
+    /* In-memory cache of the thumbnails read from disk, if any. */
+    private ThumbnailCache cache;
+
     /**
      * Constructor
      * @param path
@@ -37,6 +40,26 @@ public class ThumbnailService extends AbstractFileSystemService {
         super(path);
     }
 
+    /**
+     * Sets the in-memory cache thumbnails are served from before falling
+     * back to reading them from disk.
+     * @param cache The cache or <code>null</code> to read every thumbnail
+     * from disk.
+     */
+    public void setCache(ThumbnailCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Drops a thumbnail from the in-memory cache, if any.
+     * @param id The ID of the thumbnail.
+     */
+    private void invalidate(long id) {
+        if (cache != null) {
+            cache.invalidate(id);
+        }
+    }
+
     /**
      * Creates thumbnail on disk using byte array
      *
@@ -50,8 +73,12 @@ public class ThumbnailService extends AbstractFileSystemService {
         createSubpath(path);
 
         FileOutputStream stream = new FileOutputStream(path);
-        stream.write(buf);
-        stream.close();
+        try {
+            stream.write(buf);
+        } finally {
+            stream.close();
+            invalidate(thumbnail.getId());
+        }
     }
 
     /**
@@ -72,8 +99,19 @@ public class ThumbnailService extends AbstractFileSystemService {
      * @throws IOException
      */
     public byte[] getThumbnail(Thumbnail thumbnail) throws IOException {
-        byte[] buf = new byte[(int) getThumbnailLength(thumbnail)];
-        return getThumbnail(thumbnail, buf);
+        if (cache == null) {
+            byte[] buf = new byte[(int) getThumbnailLength(thumbnail)];
+            return getThumbnail(thumbnail, buf);
+        }
+        byte[] buf = cache.get(thumbnail.getId(), thumbnail.getVersion());
+        if (buf == null) {
+            long generation = cache.getGeneration();
+            buf = new byte[(int) getThumbnailLength(thumbnail)];
+            getThumbnail(thumbnail, buf);
+            cache.put(thumbnail.getId(), thumbnail.getVersion(), buf,
+                    generation);
+        }
+        return buf;
     }
 
     /**
@@ -105,9 +143,21 @@ public class ThumbnailService extends AbstractFileSystemService {
      */
     public FileOutputStream getThumbnailOutputStream(Thumbnail thumbnail)
             throws IOException {
-        String path = getThumbnailPath(thumbnail.getId());
+        final long id = thumbnail.getId();
+        String path = getThumbnailPath(id);
         createSubpath(path);
-        return new FileOutputStream(path);
+        invalidate(id);
+        return new FileOutputStream(path) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // Drop anything read while the file was being written.
+                    invalidate(id);
+                }
+            }
+        };
     }
 
     /**
@@ -136,6 +186,7 @@ public class ThumbnailService extends AbstractFileSystemService {
 
         for (Long id : thumbnailIds)
         {
+            invalidate(id);
             String thumbnailPath = getThumbnailPath(id);
             file = new File(thumbnailPath);
             if (file.exists())
@@ -0,0 +1,142 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.*;
+
+import ome.io.nio.MappedSegmentCache;
+import ome.util.PixelData;
+
+public class MappedSegmentCacheUnitTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    private File file;
+
+    private String path;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        file = File.createTempFile("MappedSegmentCacheUnitTest", ".bin");
+        byte[] data = new byte[SEGMENT_SIZE * 4];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i / SEGMENT_SIZE);
+        }
+        FileUtils.writeByteArrayToFile(file, data);
+        path = file.getAbsolutePath();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        file.delete();
+    }
+
+    private PixelData get(MappedSegmentCache cache, int segment)
+        throws IOException {
+        return cache.getSegment(path, "uint8",
+                (long) segment * SEGMENT_SIZE, SEGMENT_SIZE);
+    }
+
+    @Test
+    public void testSegmentIsMappedOnce() throws IOException {
+        MappedSegmentCache cache = new MappedSegmentCache(SEGMENT_SIZE * 4);
+        PixelData first = get(cache, 1);
+        PixelData second = get(cache, 1);
+        assertEquals(SEGMENT_SIZE, cache.getTotalBytes());
+        assertEquals(1, first.getData().get(0));
+        assertEquals(1, second.getData().get(SEGMENT_SIZE - 1));
+        first.dispose();
+        second.dispose();
+        cache.clear();
+        assertEquals(0, cache.getTotalBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSegmentIsEvicted() throws IOException {
+        MappedSegmentCache cache = new MappedSegmentCache(SEGMENT_SIZE * 2);
+        for (int segment = 0; segment < 4; segment++) {
+            PixelData data = get(cache, segment);
+            assertEquals(segment, data.getData().get(0));
+            data.dispose();
+        }
+        assertEquals(SEGMENT_SIZE * 2, cache.getTotalBytes());
+        cache.clear();
+    }
+
+    @Test
+    public void testSegmentInUseIsNotEvicted() throws IOException {
+        MappedSegmentCache cache = new MappedSegmentCache(SEGMENT_SIZE);
+        PixelData inUse = get(cache, 2);
+        assertNull(get(cache, 3));
+        assertEquals(SEGMENT_SIZE, cache.getTotalBytes());
+        assertEquals(2, inUse.getData().get(SEGMENT_SIZE / 2));
+        inUse.dispose();
+        inUse.dispose();
+        PixelData data = get(cache, 3);
+        assertEquals(3, data.getData().get(0));
+        data.dispose();
+        assertEquals(SEGMENT_SIZE, cache.getTotalBytes());
+        cache.clear();
+    }
+
+    @Test
+    public void testEvictedSegmentInUseCountsAgainstBudget()
+        throws IOException {
+        MappedSegmentCache cache = new MappedSegmentCache(SEGMENT_SIZE * 2);
+        PixelData inUse = get(cache, 2);
+        cache.invalidate(path);
+        assertEquals(0, cache.getTotalBytes());
+        assertEquals(SEGMENT_SIZE, cache.getPinnedBytes());
+        assertEquals(2, inUse.getData().get(SEGMENT_SIZE / 2));
+        PixelData other = get(cache, 0);
+        assertNull(get(cache, 1));
+        inUse.dispose();
+        assertEquals(0, cache.getPinnedBytes());
+        PixelData data = get(cache, 1);
+        assertEquals(1, data.getData().get(0));
+        data.dispose();
+        other.dispose();
+        cache.clear();
+    }
+
+    @Test
+    public void testUndisposedSegmentIsReleasedWhenCollected()
+        throws Exception {
+        MappedSegmentCache cache = new MappedSegmentCache(SEGMENT_SIZE);
+        assertNotNull(get(cache, 2));
+        PixelData data = null;
+        for (int i = 0; i < 100 && data == null; i++) {
+            System.gc();
+            Thread.sleep(10);
+            data = get(cache, 3);
+        }
+        assertNotNull(data);
+        assertEquals(3, data.getData().get(0));
+        data.dispose();
+        cache.clear();
+        assertEquals(0, cache.getPinnedBytes());
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        MappedSegmentCache cache = new MappedSegmentCache(SEGMENT_SIZE * 4);
+        get(cache, 0).dispose();
+        get(cache, 1).dispose();
+        cache.invalidate(path);
+        assertEquals(0, cache.getTotalBytes());
+    }
+
+    @Test
+    public void testDisabledCache() throws IOException {
+        MappedSegmentCache cache = new MappedSegmentCache(0);
+        assertNull(get(cache, 0));
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.*;
+
+import ome.io.nio.PipelinedTileLoop;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.io.nio.TileLoopIteration;
+import ome.io.nio.Utils;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+public class PipelinedTileLoopUnitTest {
+
+    private static final String ROOT =
+        PathUtil.getInstance().getTemporaryDataFilePath();
+
+    private static final int TILE_SIZE = 128;
+
+    private List<PixelBuffer> sources;
+
+    private ExecutorService executor;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        Pixels pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(300);
+        pixels.setSizeY(200);
+        pixels.setSizeZ(2);
+        pixels.setSizeC(3);
+        pixels.setSizeT(2);
+        PixelsType type = new PixelsType();
+        type.setValue("uint8");
+        pixels.setPixelsType(type);
+
+        PixelsService service = new PixelsService(ROOT);
+        PixelBuffer pixelBuffer = service.createPixelBuffer(pixels);
+        byte[] plane = new byte[300 * 200];
+        for (int t = 0; t < 2; t++) {
+            for (int c = 0; c < 3; c++) {
+                for (int z = 0; z < 2; z++) {
+                    for (int i = 0; i < plane.length; i++) {
+                        plane[i] = value(z, c, t, i % 300, i / 300);
+                    }
+                    pixelBuffer.setPlane(plane, z, c, t);
+                }
+            }
+        }
+        pixelBuffer.close();
+
+        sources = new ArrayList<PixelBuffer>();
+        for (int i = 0; i < 3; i++) {
+            sources.add(service.getPixelBuffer(pixels, false));
+        }
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        for (PixelBuffer source : sources) {
+            source.close();
+        }
+        FileUtils.deleteDirectory(new File(ROOT));
+    }
+
+    private static byte value(int z, int c, int t, int x, int y) {
+        return (byte) (x + 3 * y + 5 * z + 7 * c + 11 * t);
+    }
+
+    @Test
+    public void testTilesAreConsumedInLoopOrder() throws IOException {
+        assertLoopOrder(executor);
+    }
+
+    @Test
+    public void testFewerThreadsThanSources() throws IOException {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            assertLoopOrder(single);
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    private void assertLoopOrder(ExecutorService executor)
+            throws IOException {
+        final List<String> expected = new ArrayList<String>();
+        Utils.forEachTile(new TileLoopIteration() {
+            public void run(int z, int c, int t, int x, int y, int w, int h,
+                            int tileCount) {
+                expected.add(String.format("%d %d %d %d %d %d %d %d",
+                        z, c, t, x, y, w, h, tileCount));
+            }
+        }, sources.get(0), TILE_SIZE, TILE_SIZE);
+
+        final List<String> actual = new ArrayList<String>();
+        PipelinedTileLoop loop =
+            new PipelinedTileLoop(executor, sources, TILE_SIZE, TILE_SIZE, 5);
+        int tiles = loop.run(new PipelinedTileLoop.TileConsumer() {
+            public void consume(PixelData tile, int z, int c, int t, int x,
+                                int y, int w, int h, int tileCount) {
+                actual.add(String.format("%d %d %d %d %d %d %d %d",
+                        z, c, t, x, y, w, h, tileCount));
+                ByteBuffer data = tile.getData();
+                assertEquals(w * h, data.capacity());
+                for (int i = 0; i < w * h; i++) {
+                    assertEquals(value(z, c, t, x + i % w, y + i / w),
+                                 data.get(i));
+                }
+            }
+        });
+        assertEquals(expected.size(), tiles);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testConsumerFailureStopsTheLoop() {
+        final int[] consumed = new int[1];
+        PipelinedTileLoop loop =
+            new PipelinedTileLoop(executor, sources, TILE_SIZE, TILE_SIZE, 2);
+        try {
+            loop.run(new PipelinedTileLoop.TileConsumer() {
+                public void consume(PixelData tile, int z, int c, int t,
+                                    int x, int y, int w, int h, int tileCount)
+                    throws IOException {
+                    consumed[0]++;
+                    if (tileCount == 3) {
+                        throw new IOException("Expected");
+                    }
+                }
+            });
+            fail("Expected an IOException.");
+        } catch (IOException e) {
+            assertEquals("Expected", e.getMessage());
+        }
+        assertEquals(4, consumed[0]);
+    }
+
+    @Test
+    public void testLoopsSharingAThreadBothProgress() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        ExecutorService consumers = Executors.newSingleThreadExecutor();
+        final CountDownLatch otherConsumed = new CountDownLatch(1);
+        try {
+            final PipelinedTileLoop other = new PipelinedTileLoop(single,
+                    sources.subList(1, 2), TILE_SIZE, TILE_SIZE, 2);
+            Future<Integer> otherTiles = consumers.submit(
+                    new Callable<Integer>() {
+                public Integer call() throws IOException {
+                    return other.run(new PipelinedTileLoop.TileConsumer() {
+                        public void consume(PixelData tile, int z, int c,
+                                int t, int x, int y, int w, int h,
+                                int tileCount) {
+                            otherConsumed.countDown();
+                        }
+                    });
+                }
+            });
+            PipelinedTileLoop loop = new PipelinedTileLoop(single,
+                    sources.subList(0, 1), TILE_SIZE, TILE_SIZE, 2);
+            final boolean[] progressed = new boolean[1];
+            int tiles = loop.run(new PipelinedTileLoop.TileConsumer() {
+                public void consume(PixelData tile, int z, int c, int t,
+                                    int x, int y, int w, int h, int tileCount)
+                    throws IOException {
+                    if (tileCount == 0) {
+                        // The worker of this loop must not hold the thread
+                        try {
+                            progressed[0] = otherConsumed.await(
+                                    10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            throw new IOException(e.getMessage());
+                        }
+                    }
+                }
+            });
+            assertTrue(progressed[0]);
+            assertEquals(loop.getTotalTiles(), tiles);
+            assertEquals(Integer.valueOf(tiles),
+                    otherTiles.get(10, TimeUnit.SECONDS));
+        } finally {
+            otherConsumed.countDown();
+            single.shutdownNow();
+            consumers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.*;
+
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.io.nio.PlaneDigests;
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.checksum.ChecksumProvider;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+
+public class PlaneDigestsUnitTest {
+
+    private static final String ROOT =
+        PathUtil.getInstance().getTemporaryDataFilePath();
+
+    private static final int SIZE_X = 64;
+
+    private static final int SIZE_Y = 32;
+
+    private static final int SIZE_Z = 3;
+
+    private static final int SIZE_T = 2;
+
+    private PixelsService service;
+
+    private Pixels pixels;
+
+    private byte[][] planes;
+
+    private PlaneDigests digests;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(SIZE_Z);
+        pixels.setSizeC(1);
+        pixels.setSizeT(SIZE_T);
+        PixelsType type = new PixelsType();
+        type.setValue("uint8");
+        pixels.setPixelsType(type);
+
+        service = new PixelsService(ROOT);
+        planes = new byte[SIZE_Z * SIZE_T][SIZE_X * SIZE_Y];
+        PixelBuffer pixelBuffer = service.createPixelBuffer(pixels);
+        for (int t = 0; t < SIZE_T; t++) {
+            for (int z = 0; z < SIZE_Z; z++) {
+                byte[] plane = planes[t * SIZE_Z + z];
+                for (int i = 0; i < plane.length; i++) {
+                    plane[i] = (byte) (i + 13 * z + 29 * t);
+                }
+                pixelBuffer.setPlane(plane, z, 0, t);
+            }
+        }
+        pixelBuffer.close();
+        digests = new PlaneDigests(
+                new ChecksumProviderFactoryImpl(), ChecksumType.SHA1, 3);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        digests.destroy();
+        FileUtils.deleteDirectory(new File(ROOT));
+    }
+
+    private byte[] expectedRoot() throws Exception {
+        MessageDigest root = MessageDigest.getInstance("SHA-1");
+        for (byte[] plane : planes) {
+            root.update(MessageDigest.getInstance("SHA-1").digest(plane));
+        }
+        return root.digest();
+    }
+
+    private RomioPixelBuffer open(boolean write) {
+        return new RomioPixelBuffer(
+                service.getPixelsPath(pixels.getId()), pixels, write);
+    }
+
+    private byte[] calculate() throws IOException {
+        RomioPixelBuffer buffer = open(false);
+        try {
+            return digests.calculate(buffer);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testRootDigestOfPlaneDigests() throws Exception {
+        assertTrue(Arrays.equals(expectedRoot(), calculate()));
+        assertTrue(new File(service.getPixelsPath(pixels.getId())
+                + PlaneDigests.SUFFIX).exists());
+        // Second calculation from the persisted plane digests
+        assertTrue(Arrays.equals(expectedRoot(), calculate()));
+    }
+
+    @Test
+    public void testModifiedPlaneIsRecalculated() throws Exception {
+        calculate();
+        RomioPixelBuffer buffer = open(true);
+        byte[] plane = planes[SIZE_Z + 1];
+        Arrays.fill(plane, (byte) 7);
+        buffer.setPlane(plane, 1, 0, 1);
+        buffer.close();
+        assertTrue(Arrays.equals(expectedRoot(), calculate()));
+    }
+
+    @Test
+    public void testPlaneIsStaleBeforeTheWriterCloses() throws Exception {
+        calculate();
+        RomioPixelBuffer writer = open(true);
+        try {
+            byte[] plane = planes[2];
+            Arrays.fill(plane, (byte) 5);
+            writer.setPlane(plane, 2, 0, 0);
+            assertTrue(Arrays.equals(expectedRoot(), calculate()));
+            // Writing the same plane again after it has been recalculated
+            Arrays.fill(plane, (byte) 6);
+            writer.setPlane(plane, 2, 0, 0);
+            assertTrue(Arrays.equals(expectedRoot(), calculate()));
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testPlaneWrittenDuringCalculationIsNotSaved()
+        throws Exception {
+        final RomioPixelBuffer writer = open(true);
+        final byte[] plane = planes[0];
+        Arrays.fill(plane, (byte) 3);
+        final ChecksumProviderFactory impl = new ChecksumProviderFactoryImpl();
+        final int[] calls = new int[1];
+        // Writes the first plane once its digest has been calculated, the
+        // first provider being used for the length of the digests.
+        ChecksumProviderFactory factory = new ChecksumProviderFactory() {
+            public ChecksumProvider getProvider(ChecksumType type) {
+                if (++calls[0] == 3) {
+                    try {
+                        writer.setPlane(plane, 0, 0, 0);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return impl.getProvider(type);
+            }
+
+            public Set<ChecksumType> getAvailableTypes() {
+                return impl.getAvailableTypes();
+            }
+        };
+        try {
+            RomioPixelBuffer buffer = open(false);
+            PlaneDigests single = new PlaneDigests(factory, ChecksumType.SHA1,
+                    1);
+            try {
+                single.calculate(buffer);
+            } finally {
+                single.destroy();
+                buffer.close();
+            }
+            assertTrue(Arrays.equals(expectedRoot(), calculate()));
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testPlaneWrittenAfterDigestsCreatedElsewhere()
+        throws Exception {
+        calculate();
+        File store = new File(service.getPixelsPath(pixels.getId())
+                + PlaneDigests.SUFFIX);
+        File copy = new File(store.getPath() + ".copy");
+        FileUtils.copyFile(store, copy);
+        assertTrue(store.delete());
+        RomioPixelBuffer writer = open(true);
+        try {
+            byte[] plane = planes[1];
+            Arrays.fill(plane, (byte) 9);
+            writer.setPlane(plane, 1, 0, 0);
+            // Digests saved meanwhile by another process
+            FileUtils.copyFile(copy, store);
+            Arrays.fill(plane, (byte) 11);
+            writer.setPlane(plane, 1, 0, 0);
+            assertTrue(Arrays.equals(expectedRoot(), calculate()));
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.*;
+
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+/**
+ * Tests the retrieval of plane regions from ROMIO pixel buffers against the
+ * values of the whole plane.
+ */
+public class PlaneRegionUnitTest {
+
+    private static final String ROOT =
+        PathUtil.getInstance().getTemporaryDataFilePath();
+
+    private static final int SIZE_X = 67;
+
+    private static final int SIZE_Y = 45;
+
+    private PixelBuffer pixelBuffer;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        Pixels pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(2);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        PixelsType type = new PixelsType();
+        type.setValue("uint16");
+        pixels.setPixelsType(type);
+
+        PixelsService service = new PixelsService(ROOT);
+        pixelBuffer = service.createPixelBuffer(pixels);
+        byte[] plane = new byte[SIZE_X * SIZE_Y * 2];
+        for (int z = 0; z < 2; z++) {
+            for (int i = 0; i < plane.length; i++) {
+                plane[i] = (byte) (i * 7 + z);
+            }
+            pixelBuffer.setPlane(plane, z, 0, 0);
+        }
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        pixelBuffer.close();
+        FileUtils.deleteDirectory(new File(ROOT));
+    }
+
+    private void assertRegion(int x, int y, int width, int height, int z,
+                              int stride) throws IOException {
+        PixelData plane = pixelBuffer.getPlane(z, 0, 0);
+        PixelData region = pixelBuffer.getPlaneRegion(
+                x, y, width, height, z, 0, 0, stride);
+        int step = stride + 1;
+        int w = width / step;
+        for (int i = 0, k = 0; i < height; i += step, k++) {
+            for (int j = 0, l = 0; j < width; j += step, l++) {
+                assertEquals(
+                        plane.getPixelValue((y + i) * SIZE_X + x + j),
+                        region.getPixelValue(k * w + l));
+            }
+        }
+        plane.dispose();
+    }
+
+    @Test
+    public void testWholePlane() throws IOException {
+        assertRegion(0, 0, SIZE_X, SIZE_Y, 1, 0);
+    }
+
+    @Test
+    public void testRegion() throws IOException {
+        assertRegion(5, 3, 20, 11, 0, 0);
+    }
+
+    @Test
+    public void testRegionAtBottomRightCorner() throws IOException {
+        assertRegion(SIZE_X - 9, SIZE_Y - 4, 9, 4, 1, 0);
+    }
+
+    @Test
+    public void testStridedRegion() throws IOException {
+        assertRegion(4, 2, 24, 16, 1, 1);
+        assertRegion(0, 0, 60, 45, 0, 2);
+    }
+}
@@ -12,6 +12,10 @@ import static org.testng.Assert.fail;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import ome.io.bioformats.BfPyramidPixelBuffer;
 import ome.io.nio.TileLoopIteration;
@@ -137,4 +141,35 @@ public class PyramidPixelBufferUnitTest extends AbstractPyramidPixelBufferUnitTe
         assertEquals(tileCount, 192);
     }
 
+    @Test(dependsOnMethods={"testPyramidWriteTiles"}, enabled=true)
+    public void testPyramidConcurrentReadTiles() throws Exception {
+        pixelBuffer.setResolutionLevel(pixelBuffer.getResolutionLevels() - 2);
+        final List<int[]> tiles = new ArrayList<int[]>();
+        Utils.forEachTile(new TileLoopIteration() {
+            public void run(int z, int c, int t, int x, int y, int tileWidth,
+                            int tileHeight, int tileCount) {
+                tiles.add(new int[] { z, c, t, x, y, tileWidth, tileHeight });
+            }
+        }, pixelBuffer, tileWidth, tileHeight);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> sizes = new ArrayList<Future<Integer>>();
+            for (final int[] tile : tiles) {
+                sizes.add(pool.submit(new Callable<Integer>() {
+                    public Integer call() throws IOException {
+                        return pixelBuffer.getTile(tile[0], tile[1], tile[2],
+                                tile[3], tile[4], tile[5], tile[6]).size();
+                    }
+                }));
+            }
+            for (int i = 0; i < tiles.size(); i++) {
+                int[] tile = tiles.get(i);
+                assertEquals(sizes.get(i).get().intValue(), tile[5] * tile[6]);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(tiles.size(), 192);
+    }
+
 }
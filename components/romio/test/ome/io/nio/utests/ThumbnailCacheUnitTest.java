@@ -0,0 +1,75 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import org.testng.annotations.*;
+
+import ome.io.nio.ThumbnailCache;
+
+public class ThumbnailCacheUnitTest {
+
+    private static byte[] thumbnail(int size, int value) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) value;
+        }
+        return data;
+    }
+
+    @Test
+    public void testHitReturnsCopy() {
+        ThumbnailCache cache = new ThumbnailCache(1024);
+        cache.put(1L, 0, thumbnail(16, 1), cache.getGeneration());
+        byte[] first = cache.get(1L, 0);
+        assertEquals(16, first.length);
+        assertEquals(1, first[0]);
+        first[0] = 2;
+        assertEquals(1, cache.get(1L, 0)[0]);
+        assertEquals(16, cache.getTotalBytes());
+    }
+
+    @Test
+    public void testOtherVersionMisses() {
+        ThumbnailCache cache = new ThumbnailCache(1024);
+        cache.put(1L, 0, thumbnail(16, 1), cache.getGeneration());
+        assertNull(cache.get(1L, 1));
+        assertNull(cache.get(1L, null));
+        cache.put(1L, 1, thumbnail(8, 2), cache.getGeneration());
+        assertEquals(2, cache.get(1L, 1)[0]);
+        assertEquals(8, cache.getTotalBytes());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        ThumbnailCache cache = new ThumbnailCache(32);
+        cache.put(1L, 0, thumbnail(16, 1), cache.getGeneration());
+        cache.put(2L, 0, thumbnail(16, 2), cache.getGeneration());
+        assertNotNull(cache.get(1L, 0));
+        cache.put(3L, 0, thumbnail(16, 3), cache.getGeneration());
+        assertNotNull(cache.get(1L, 0));
+        assertNull(cache.get(2L, 0));
+        assertNotNull(cache.get(3L, 0));
+        assertEquals(32, cache.getTotalBytes());
+    }
+
+    @Test
+    public void testInvalidateDuringReadIsNotCached() {
+        ThumbnailCache cache = new ThumbnailCache(1024);
+        long generation = cache.getGeneration();
+        cache.invalidate(1L);
+        cache.put(1L, 0, thumbnail(16, 1), generation);
+        assertNull(cache.get(1L, 0));
+        assertEquals(0, cache.getTotalBytes());
+    }
+
+    @Test
+    public void testDisabledCache() {
+        ThumbnailCache cache = new ThumbnailCache(0);
+        cache.put(1L, 0, thumbnail(16, 1), cache.getGeneration());
+        assertNull(cache.get(1L, 0));
+    }
+}
@@ -8,6 +8,7 @@
 package ome.logic;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
@@ -414,9 +415,11 @@ public class AdminImpl extends AbstractLevel2Service implements LocalAdmin,
         }
 
 
+        final List<Long> experimenterIds = new ArrayList<Long>();
         for (Map<String, Object> dnId: dnIds) {
             String dn = (String) dnId.get("dn");
             Long id = (Long) dnId.get("experimenter_id");
+            experimenterIds.add(id);
             try {
                 Experimenter e = userProxy(id);
                 ldapUtil.synchronizeLdapUser(e.getOmeName());
@@ -427,7 +430,8 @@ public class AdminImpl extends AbstractLevel2Service implements LocalAdmin,
                 log.error("synchronizeLdapUser:" + dnId, e);
             }
         }
-        context.publishEvent(new UserGroupUpdateEvent(this));
+        // Only the memberships of these users may have changed.
+        context.publishEvent(new UserGroupUpdateEvent(this, experimenterIds));
     }
 
     @RolesAllowed("user")
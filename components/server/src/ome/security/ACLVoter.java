@@ -12,6 +12,7 @@ package ome.security;
 // Third-party libraries
 
 // Application-internal dependencies
+import java.util.Map;
 import java.util.Set;
 
 import ome.conditions.SecurityViolation;
@@ -189,4 +190,15 @@ public interface ACLVoter {
      * @param obj a model object
      */
     void postProcess(IObject obj);
+
+    /**
+     * As {@link #postProcess(IObject)} for one of many objects of the same
+     * return value. The {@link ACLVoter} may keep what it computed for an
+     * object in the given map and reuse it for later objects which are
+     * equivalent for the checks, rather than repeating them for each object.
+     * @param obj a model object
+     * @param batch a map passed unchanged for all the objects of a single
+     * return value, and not otherwise used by the caller
+     */
+    void postProcess(IObject obj, Map<Object, Object> batch);
 }
@@ -5,6 +5,7 @@
 
 package ome.security;
 
+import java.util.Map;
 import java.util.Set;
 
 import ome.api.IShare;
@@ -103,4 +104,8 @@ public class CompositeACLVoter implements ACLVoter {
     public void postProcess(IObject object) {
         choose().postProcess(object);
     }
+
+    public void postProcess(IObject object, Map<Object, Object> batch) {
+        choose().postProcess(object, batch);
+    }
 }
@@ -11,6 +11,7 @@ import static ome.model.internal.Permissions.Role.GROUP;
 import static ome.model.internal.Permissions.Role.USER;
 import static ome.model.internal.Permissions.Role.WORLD;
 
+import java.util.Map;
 import java.util.Set;
 
 import ome.conditions.GroupSecurityViolation;
@@ -394,6 +395,10 @@ public class BasicACLVoter implements ACLVoter {
     }
 
     public void postProcess(IObject object) {
+        postProcess(object, null);
+    }
+
+    public void postProcess(IObject object, Map<Object, Object> batch) {
         if (object.isLoaded()) {
             Details details = object.getDetails();
             // Sets context values.s
@@ -402,21 +407,106 @@ public class BasicACLVoter implements ACLVoter {
 
             final BasicEventContext c = currentUser.current();
             final Permissions p = details.getPermissions();
-            final int allow = allowUpdateOrDelete(c, object, details,
-                // This order must match the ordered of restrictions[]
-                // expected by p.copyRestrictions
-                Scope.LINK, Scope.EDIT, Scope.DELETE, Scope.ANNOTATE);
+            final PostProcessKey key = batch == null ? null
+                    : postProcessKey(object, details);
+            final PostProcessed done = key == null ? null
+                    : (PostProcessed) batch.get(key);
+            final int allow;
+            final Set<String> restrictions;
+            if (done != null) {
+                allow = done.allow;
+                restrictions = done.restrictions != null ? done.restrictions
+                        : restrictions(object);
+            } else {
+                allow = allowUpdateOrDelete(c, object, details,
+                    // This order must match the ordered of restrictions[]
+                    // expected by p.copyRestrictions
+                    Scope.LINK, Scope.EDIT, Scope.DELETE, Scope.ANNOTATE);
+                restrictions = restrictions(object);
+                if (key != null) {
+                    // Policies may look into each instance of their types
+                    batch.put(key, new PostProcessed(allow,
+                            policyService.isRestrictable(object.getClass()) ?
+                                    null : restrictions));
+                }
+            }
 
             // #9635 - This is not the most efficient solution
             // But since it's unclear why Permission objects
             // are currently being shared, the safest solution
             // is to always produce a copy.
             Permissions copy = new Permissions(p);
-            copy.copyRestrictions(allow, restrictions(object));
+            copy.copyRestrictions(allow, restrictions);
             details.setPermissions(copy); // #9635
         }
     }
 
+    /**
+     * Returns the key under which the outcome of
+     * {@link #allowUpdateOrDelete(BasicEventContext, IObject, Details, Scope...)}
+     * for the given object can be shared with other objects of the same
+     * class, owner and group, or null if it must be computed for this object
+     * alone.
+     */
+    private PostProcessKey postProcessKey(IObject object, Details details) {
+        if (details.getOwner() == null || details.getGroup() == null
+                || tokenHolder.hasPrivilegedToken(object)) {
+            return null;
+        }
+        return new PostProcessKey(object.getClass(),
+                details.getOwner().getId(), details.getGroup().getId());
+    }
+
+    private static final class PostProcessKey {
+
+        private final Class<?> type;
+
+        private final Long owner;
+
+        private final Long group;
+
+        PostProcessKey(Class<?> type, Long owner, Long group) {
+            this.type = type;
+            this.owner = owner;
+            this.group = group;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PostProcessKey)) {
+                return false;
+            }
+            PostProcessKey other = (PostProcessKey) obj;
+            return type == other.type && equal(owner, other.owner)
+                    && equal(group, other.group);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = type.hashCode();
+            result = 31 * result + (owner == null ? 0 : owner.hashCode());
+            result = 31 * result + (group == null ? 0 : group.hashCode());
+            return result;
+        }
+
+        private static boolean equal(Long a, Long b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private static final class PostProcessed {
+
+        final int allow;
+
+        /** Null if the restrictions must be listed for each object. */
+        final Set<String> restrictions;
+
+        PostProcessed(int allow, Set<String> restrictions) {
+            this.allow = allow;
+            this.restrictions = restrictions;
+        }
+    }
+
     /**
      * Check if the given object is owned by the given user.
      * @param iObject a model object
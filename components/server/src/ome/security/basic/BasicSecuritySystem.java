@@ -9,7 +9,9 @@ package ome.security.basic;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import ome.api.local.LocalAdmin;
 import ome.api.local.LocalQuery;
@@ -485,14 +487,19 @@ public class BasicSecuritySystem implements SecuritySystem,
         if (!logs.isEmpty()) {
 
             boolean foundAdminType = false;
+            boolean foundGroupType = false;
+            final Set<Long> experimenterIds = new HashSet<Long>();
             final Multimap<String, EventLog> map = ArrayListMultimap.create();
 
             for (EventLog el : getLogs()) {
                 String t = el.getEntityType();
-                if (Experimenter.class.getName().equals(t)
-                        || ExperimenterGroup.class.getName().equals(t)
+                if (Experimenter.class.getName().equals(t)) {
+                    foundAdminType = true;
+                    experimenterIds.add(el.getEntityId());
+                } else if (ExperimenterGroup.class.getName().equals(t)
                         || GroupExperimenterMap.class.getName().equals(t)) {
                     foundAdminType = true;
+                    foundGroupType = true;
                 }
                 map.put(t, el);
             }
@@ -501,8 +508,12 @@ public class BasicSecuritySystem implements SecuritySystem,
                 log.error("No context found for publishing");
             } else {
                 // publish message if administrative type is modified
-                if (foundAdminType) {
+                if (foundGroupType) {
                     this.ctx.publishEvent(new UserGroupUpdateEvent(this));
+                } else if (foundAdminType) {
+                    // Only these users' own sessions can be affected.
+                    this.ctx.publishEvent(new UserGroupUpdateEvent(this,
+                            experimenterIds));
                 }
                 this.ctx.publishEvent(new EventLogsMessage(this, map));
             }
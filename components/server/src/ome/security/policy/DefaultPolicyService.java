@@ -105,6 +105,11 @@ public class DefaultPolicyService
         return rv;
     }
 
+    @Override
+    public boolean isRestrictable(Class<? extends IObject> type) {
+        return type != null && types.contains(Utils.trueClass(type));
+    }
+
     /**
      * Limit the objects to which {@link Policy} instances are applied. This
      * reduces the overhead of creating a {@link HashSet} for every object in
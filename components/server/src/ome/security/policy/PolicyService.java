@@ -85,4 +85,15 @@ public interface PolicyService {
      */
     Set<String> listActiveRestrictions(IObject obj);
 
+    /**
+     * Checks whether any configured {@link Policy} applies to instances of
+     * the given class. If not, {@link #listActiveRestrictions(IObject)} is
+     * empty for all of them.
+     *
+     * @param type
+     *            a model class, possibly a Hibernate proxy class.
+     * @return true if restrictions may be active for instances of the class.
+     */
+    boolean isRestrictable(Class<? extends IObject> type);
+
 }
@@ -7,6 +7,7 @@
 
 package ome.security.sharing;
 
+import java.util.Map;
 import java.util.Set;
 
 import ome.api.IShare;
@@ -134,6 +135,11 @@ public class SharingACLVoter implements ACLVoter {
         }
     }
 
+    @Override
+    public void postProcess(IObject object, Map<Object, Object> batch) {
+        postProcess(object);
+    }
+
     // Helpers
     // =========================================================================
     protected void throwDisabled(String action) {
@@ -42,6 +42,7 @@ import ome.io.nio.OriginalFilesService;
 import ome.model.core.OriginalFile;
 import ome.security.policy.BinaryAccessPolicy;
 import ome.util.ShallowCopy;
+import ome.util.checksum.ChecksumProvider;
 import ome.util.checksum.ChecksumProviderFactory;
 import ome.util.checksum.ChecksumType;
 
@@ -112,6 +113,25 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
     /** the checksum provider factory singleton **/
     private transient ChecksumProviderFactory checksumProviderFactory;
 
+    /** the checksum type of {@link #file}, null if it has no hasher */
+    private transient ChecksumType hashType;
+
+    /**
+     * hashes the bytes of sequential writes from an empty file as they
+     * arrive, so that {@link #save()} need not re-read the file. Null until
+     * the first write or once {@link #hashFallback} is set.
+     */
+    private transient ChecksumProvider writeHasher;
+
+    /** the number of bytes from the start of the file in {@link #writeHasher} */
+    private transient long hashedLength;
+
+    /**
+     * set once a write was out of order or overlapping, or the file was
+     * truncated, so that {@link #save()} must re-read the file to hash it
+     */
+    private transient boolean hashFallback;
+
     /** is file service checking for disk overflow */
     private transient boolean diskSpaceChecking;
 
@@ -230,13 +250,21 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
             }
 
             try {
+                File f = new File(path);
                 if (file.getHasher() != null) {
                     final ChecksumType checksumType = checksumAlgorithms.get(file.getHasher().getValue());
-                    file.setHash(this.checksumProviderFactory
-                            .getProvider(checksumType).putFile(path).checksumAsString());
+                    if (writeHasher != null && checksumType == hashType
+                            && hashedLength == f.length()) {
+                        file.setHash(writeHasher.checksumAsString());
+                    } else {
+                        file.setHash(this.checksumProviderFactory
+                                .getProvider(checksumType).putFile(path).checksumAsString());
+                    }
                 }
+                // A provider cannot be used once its checksum is taken.
+                writeHasher = null;
+                hashFallback = true;
 
-                File f = new File(path);
                 long size = f.length();
                 file.setSize(size);
                 file.setMtime(new java.sql.Timestamp(f.lastModified()));
@@ -343,6 +371,11 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
 
             modified = false;
             file = iQuery.get(OriginalFile.class, fileId);
+            hashType = file.getHasher() == null ? null
+                    : checksumAlgorithms.get(file.getHasher().getValue());
+            writeHasher = null;
+            hashedLength = 0;
+            hashFallback = false;
 
             String mode = "r";
             try {
@@ -433,6 +466,10 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
         try {
             if (length < buffer.size()) {
                 buffer.truncate(length);
+                synchronized (this) {
+                    writeHasher = null;
+                    hashFallback = true;
+                }
                 modified();
                 return true;
             }
@@ -473,10 +510,13 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
         }
 
         try {
+            final long start = position;
+            final boolean fromEmpty = isHashStarting() && buffer.size() == 0;
             do {
                 position += buffer.write(nioBuffer, position);
             } while (nioBuffer.hasRemaining());
             // Write was successful, update state.
+            hashWrite(buf, start, length, fromEmpty);
             modified();
         } catch (NonWritableChannelException nwce) {
             throw new SecurityViolation("File not writeable!");
@@ -488,6 +528,37 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
         }
     }
 
+    private synchronized boolean isHashStarting() {
+        return writeHasher == null && !hashFallback;
+    }
+
+    /**
+     * Adds the bytes of a successful write to {@link #writeHasher} if it
+     * directly follows the bytes hashed so far, otherwise falls back to
+     * hashing the whole file on {@link #save()}.
+     * @param fromEmpty if the file was empty before the write
+     */
+    private synchronized void hashWrite(byte[] buf, long position,
+            int length, boolean fromEmpty) {
+        if (hashFallback) {
+            return;
+        }
+        if (writeHasher == null) {
+            if (!fromEmpty || position != 0 || hashType == null) {
+                hashFallback = true;
+                return;
+            }
+            writeHasher = checksumProviderFactory.getProvider(hashType);
+        }
+        if (position != hashedLength) {
+            writeHasher = null;
+            hashFallback = true;
+            return;
+        }
+        writeHasher.putBytes(buf, 0, length);
+        hashedLength += length;
+    }
+
     /**
      * getter disk overflow checking
      * @return See above.
@@ -49,6 +49,7 @@ import ome.util.ImageUtil;
 import ome.util.ShallowCopy;
 import omeis.providers.re.RGBBuffer;
 import omeis.providers.re.Renderer;
+import omeis.providers.re.RenderingExecutor;
 import omeis.providers.re.RenderingEngine;
 import omeis.providers.re.codomain.CodomainMapContext;
 import omeis.providers.re.data.PlaneDef;
@@ -129,6 +130,9 @@ public class RenderingBean implements RenderingEngine, Serializable {
     /** Reference to the service used to retrieve the pixels data. */
     private transient PixelsService pixDataSrv;
 
+    /** Reference to the pool shared by all the renderers. */
+    private transient RenderingExecutor renderingExecutor;
+
     /**
      * read-write lock to prevent READ-calls during WRITE operations.
      *
@@ -180,6 +184,16 @@ public class RenderingBean implements RenderingEngine, Serializable {
         this.compressionSrv = compress;
     }
 
+    /**
+     * Rendering executor Bean injector.
+     *
+     * @param renderingExecutor
+     *              The pool shared by all the renderers.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor) {
+        this.renderingExecutor = renderingExecutor;
+    }
+
     @RolesAllowed("user")
     public long getRenderingDefId() {
         if (rendDefObj == null || rendDefObj.getId() == null) {
@@ -403,8 +417,8 @@ public class RenderingBean implements RenderingEngine, Serializable {
             QuantumFactory quantumFactory = new QuantumFactory(families);
             // Loading last to try to ensure that the buffer will get closed.
             PixelBuffer buffer = getPixelBuffer();
-            renderer = new Renderer(quantumFactory, renderingModels, pixelsObj,
-                    rendDefObj, buffer);
+            renderer = Renderer.newInstance(quantumFactory, renderingModels,
+                    pixelsObj, rendDefObj, buffer, renderingExecutor);
         } finally {
             rwl.writeLock().unlock();
         }
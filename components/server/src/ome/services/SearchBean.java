@@ -66,6 +66,14 @@ public class SearchBean extends AbstractStatefulBean implements Search {
 
     private/* final */transient Integer maxClauseCount;
 
+    private/* final */transient boolean aclFilter = false;
+
+    /**
+     * Full text search whose further pages of hits are loaded once the
+     * current results are used up.
+     */
+    private FullText paged = null;
+
     public SearchBean(Executor executor, Class<? extends Analyzer> analyzer) {
         this.executor = executor;
         this.analyzer = analyzer;
@@ -105,6 +113,14 @@ public class SearchBean extends AbstractStatefulBean implements Search {
         this.maxClauseCount = maxClauseCount;
     }
 
+    /**
+     * Injector used by Spring.
+     * @see FullText#setAclFilter(boolean)
+     */
+    public void setAclFilter(boolean aclFilter) {
+        this.aclFilter = aclFilter;
+    }
+
     // Lifecycle methods
     // ===================================================
 
@@ -148,10 +164,11 @@ public class SearchBean extends AbstractStatefulBean implements Search {
     @Transactional
     @RolesAllowed("user")
     public void byFullText(String query) {
-        SearchAction byFullText;
+        FullText byFullText;
         synchronized (values) {
             byFullText = new FullText(values, query, analyzer);
         }
+        byFullText.setAclFilter(aclFilter);
         actions.add(byFullText);
 
     }
@@ -160,11 +177,12 @@ public class SearchBean extends AbstractStatefulBean implements Search {
     @RolesAllowed("user")
     public void byLuceneQueryBuilder(String fields, String from,
             String to, String dateType, String query) {
-        SearchAction byFullText;
+        FullText byFullText;
         synchronized (values) {
             byFullText = new FullText(values, fields, from,
                     to, dateType, query, analyzer);
         }
+        byFullText.setAclFilter(aclFilter);
         actions.add(byFullText);
     }
     
@@ -182,11 +200,12 @@ public class SearchBean extends AbstractStatefulBean implements Search {
     @Transactional
     @RolesAllowed("user")
     public void bySomeMustNone(String[] some, String[] must, String[] none) {
-        SearchAction bySomeMustNone;
+        SomeMustNone bySomeMustNone;
         synchronized (values) {
             bySomeMustNone = new SomeMustNone(values, some, must, none,
                     analyzer);
         }
+        bySomeMustNone.setAclFilter(aclFilter);
         actions.add(bySomeMustNone);
     }
 
@@ -255,23 +274,50 @@ public class SearchBean extends AbstractStatefulBean implements Search {
     @RolesAllowed("user")
     public boolean hasNext() {
 
-        while (results.size() > 0) {
-            List<IObject> first = results.get(0);
-            if (first == null || first.size() < 1) {
-                results.remove(0);
-            } else {
-                return true;
+        // Loops rather than recursing, since many pages or actions in a row
+        // may return no results.
+        while (true) {
+            while (results.size() > 0) {
+                List<IObject> first = results.get(0);
+                if (first == null || first.size() < 1) {
+                    results.remove(0);
+                } else {
+                    return true;
+                }
             }
-        }
 
-        // There are no current results, we now need to execute an action
-        if (actions.size() == 0) {
-            return false;
+            // There are no current results, we now need to load the next
+            // page of a full text search or execute an action
+            if (paged != null) {
+                paged.nextPage();
+                results.add(page(paged));
+                continue;
+            }
+            if (actions.size() == 0) {
+                return false;
+            }
+            SearchAction action = actions.popFirst();
+            if (action instanceof FullText) {
+                FullText fullText = (FullText) action;
+                fullText.page(0, values.batchSize);
+                results.add(page(fullText));
+                continue;
+            }
+            List<IObject> list = (List<IObject>) executor.execute(null,
+                    action);
+            results.add(list);
         }
-        SearchAction action = actions.popFirst();
-        List<IObject> list = (List<IObject>) executor.execute(null, action);
-        results.add(list);
-        return hasNext(); // recursive call
+    }
+
+    /**
+     * Loads the current page of a full text search, so that only as many
+     * objects as are returned in one batch are loaded at a time, and keeps
+     * the search for the next call if more hits remain.
+     */
+    private List<IObject> page(FullText fullText) {
+        List<IObject> list = (List<IObject>) executor.execute(null, fullText);
+        paged = fullText.hasMorePages() ? fullText : null;
+        return list;
     }
 
     @Transactional
@@ -308,7 +354,9 @@ public class SearchBean extends AbstractStatefulBean implements Search {
 
         // Now we're guaranteed to have an element
         List<T> rv = new ArrayList<T>();
-        while (hasNext() && rv.size() < values.batchSize) {
+        // Checks the size first so that the next page is only loaded once
+        // this batch needs it.
+        while (rv.size() < values.batchSize && hasNext()) {
             List<IObject> current = results.get(0);
             if (current.size() > 0) {
                 rv.add((T) pop(current));
@@ -355,13 +403,14 @@ public class SearchBean extends AbstractStatefulBean implements Search {
     @Transactional
     @RolesAllowed("user")
     public int activeQueries() {
-        return actions.size();
+        return actions.size() + (paged == null ? 0 : 1);
     }
 
     @Transactional
     @RolesAllowed("user")
     public void clearQueries() {
         actions.clear();
+        paged = null;
     }
 
     //
@@ -16,9 +16,15 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import ome.annotations.RolesAllowed;
@@ -39,7 +45,10 @@ import ome.io.nio.PixelBuffer;
 import ome.io.nio.PixelsService;
 import ome.io.nio.ThumbnailService;
 import ome.logic.AbstractLevel2Service;
+import ome.model.core.Channel;
 import ome.model.core.Pixels;
+import ome.model.display.ChannelBinding;
+import ome.model.display.CodomainMapContext;
 import ome.model.display.RenderingDef;
 import ome.model.display.Thumbnail;
 import ome.model.enums.Family;
@@ -49,7 +58,9 @@ import ome.services.ThumbnailCtx.NoThumbnail;
 import ome.system.EventContext;
 import ome.system.SimpleEventContext;
 import ome.util.ImageUtil;
+import ome.util.ShallowCopy;
 import omeis.providers.re.Renderer;
+import omeis.providers.re.RenderingExecutor;
 import omeis.providers.re.data.PlaneDef;
 import omeis.providers.re.quantum.QuantizationException;
 import omeis.providers.re.quantum.QuantumFactory;
@@ -103,6 +114,12 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** The service used to retrieve the pixels data. */
     private transient PixelsService pixelDataService;
 
+    /** Reference to the pool shared by all the renderers. */
+    private transient RenderingExecutor renderingExecutor;
+
+    /** Pool the thumbnails of a set are rendered and compressed with. */
+    private transient ThumbnailExecutor thumbnailExecutor;
+
     /** The ROMIO thumbnail service. */
     private transient ThumbnailService ioService;
 
@@ -335,14 +352,86 @@ public class ThumbnailBean extends AbstractLevel2Service
         }
         pixels = iPixels.retrievePixDescription(pixels.getId());
         settings = iPixels.loadRndSettings(settings.getId());
+        renderer = newRenderer(pixels, settings);
+        dirty = false;
+    }
+
+    /**
+     * Creates a renderer for a pixels set with its own pixel buffer.
+     * @param pixels The pixels set.
+     * @param settings The rendering settings.
+     * @return See above.
+     */
+    private Renderer newRenderer(Pixels pixels, RenderingDef settings)
+    {
         List<Family> families = getFamilies();
         List<RenderingModel> renderingModels = getRenderingModels();
         QuantumFactory quantumFactory = new QuantumFactory(families);
         // Loading last to try to ensure that the buffer will get closed.
         PixelBuffer buffer = pixelDataService.getPixelBuffer(pixels, false);
-        renderer = new Renderer(quantumFactory, renderingModels, pixels,
-                settings, buffer);
-        dirty = false;
+        return Renderer.newInstance(quantumFactory, renderingModels,
+                pixels, settings, buffer, renderingExecutor);
+    }
+
+    /**
+     * Copies a pixels set with its pixels type and channels, so that the
+     * copy can be read and modified outside of the Hibernate session.
+     * @param pixels The pixels set to copy.
+     * @return See above.
+     */
+    private Pixels copyPixels(Pixels pixels)
+    {
+        ShallowCopy copier = new ShallowCopy();
+        Pixels newPixels = copier.copy(pixels);
+        newPixels.setPixelsType(copier.copy(pixels.getPixelsType()));
+        newPixels.putAt(Pixels.CHANNELS, new ArrayList<Channel>());
+        Iterator<Channel> channels = pixels.iterateChannels();
+        while (channels.hasNext())
+        {
+            Channel channel = channels.next();
+            Channel newChannel = copier.copy(channel);
+            newChannel.setLogicalChannel(
+                    copier.copy(channel.getLogicalChannel()));
+            if (channel.getStatsInfo() != null)
+            {
+                newChannel.setStatsInfo(copier.copy(channel.getStatsInfo()));
+            }
+            newPixels.addChannel(newChannel);
+        }
+        return newPixels;
+    }
+
+    /**
+     * Copies rendering settings with everything the renderer reads, so that
+     * the copy can be read outside of the Hibernate session.
+     * @param settings The rendering settings to copy.
+     * @return See above.
+     */
+    private RenderingDef copySettings(RenderingDef settings)
+    {
+        ShallowCopy copier = new ShallowCopy();
+        RenderingDef newSettings = copier.copy(settings);
+        newSettings.setModel(copier.copy(settings.getModel()));
+        newSettings.setQuantization(copier.copy(settings.getQuantization()));
+        newSettings.putAt(RenderingDef.WAVERENDERING,
+                new ArrayList<ChannelBinding>());
+        Iterator<ChannelBinding> bindings = settings.iterateWaveRendering();
+        while (bindings.hasNext())
+        {
+            ChannelBinding binding = bindings.next();
+            ChannelBinding newBinding = copier.copy(binding);
+            newBinding.setFamily(copier.copy(binding.getFamily()));
+            newSettings.addChannelBinding(newBinding);
+        }
+        newSettings.putAt(RenderingDef.SPATIALDOMAINENHANCEMENT,
+                new ArrayList<CodomainMapContext>());
+        Iterator<CodomainMapContext> contexts =
+            settings.iterateSpatialDomainEnhancement();
+        while (contexts.hasNext())
+        {
+            newSettings.addCodomainMapContext(copier.copy(contexts.next()));
+        }
+        return newSettings;
     }
 
     /* (non-Javadoc)
@@ -382,6 +471,30 @@ public class ThumbnailBean extends AbstractLevel2Service
         this.pixelDataService = pixelDataService;
     }
 
+    /**
+     * Rendering executor Bean injector.
+     *
+     * @param renderingExecutor
+     *            the pool shared by all the renderers.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor) {
+        getBeanHelper().throwIfAlreadySet(this.renderingExecutor,
+                renderingExecutor);
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    /**
+     * Thumbnail executor Bean injector.
+     *
+     * @param thumbnailExecutor
+     *            the pool the thumbnails of a set are rendered with.
+     */
+    public void setThumbnailExecutor(ThumbnailExecutor thumbnailExecutor) {
+        getBeanHelper().throwIfAlreadySet(this.thumbnailExecutor,
+                thumbnailExecutor);
+        this.thumbnailExecutor = thumbnailExecutor;
+    }
+
     /**
      * Pixels service Bean injector.
      *
@@ -461,6 +574,25 @@ public class ThumbnailBean extends AbstractLevel2Service
      */
     private void compressThumbnailToDisk(Thumbnail thumb, BufferedImage image)
     throws IOException {
+        compressThumbnailToDisk(thumb, image, inProgress);
+    }
+
+    /**
+     * Compresses a buffered image thumbnail to disk without relying on the
+     * state of the service, so that it may be called from the
+     * {@link #thumbnailExecutor} workers.
+     *
+     * @param thumb
+     *            the thumbnail metadata.
+     * @param image
+     *            the thumbnail's buffered image.
+     * @param inProgress
+     *            whether the <i>in progress</i> image should be written.
+     * @throws IOException
+     *             if there is a problem writing to disk.
+     */
+    private void compressThumbnailToDisk(Thumbnail thumb, BufferedImage image,
+            boolean inProgress) throws IOException {
 
         if (diskSpaceChecking) {
             iRepositoryInfo.sanityCheckRepository();
@@ -567,7 +699,30 @@ public class ThumbnailBean extends AbstractLevel2Service
         {
             return null;
         }
+        return createScaledImage(renderer, pixels, settings,
+                thumbnailMetadata, theZ, theT);
+    }
 
+    /**
+     * Creates a scaled buffered image without relying on the state of the
+     * service, so that it may be called from the {@link #thumbnailExecutor}
+     * workers. The sizes of the pixels set of the renderer are modified while
+     * rendering, so the workers pass copies which no other thread reads.
+     *
+     * @param renderer the renderer loaded for the pixels set.
+     * @param pixels the pixels set.
+     * @param settings the rendering settings.
+     * @param thumbnailMetadata the metadata of the thumbnail to create.
+     * @param theZ the optical section (offset across the Z-axis) requested.
+     * <pre>null</pre> signifies the rendering engine default.
+     * @param theT the timepoint (offset across the T-axis) requested.
+     * <pre>null</pre> signifies the rendering engine default.
+     * @return a scaled buffered image.
+     */
+    private BufferedImage createScaledImage(Renderer renderer, Pixels pixels,
+            RenderingDef settings, Thumbnail thumbnailMetadata,
+            Integer theZ, Integer theT)
+    {
         // Retrieve our rendered data
         if (theZ == null)
             theZ = settings.getDefaultZ();
@@ -800,6 +955,25 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** Actually does the work specified by {@link createThumbnail()}.*/
     private Thumbnail _createThumbnail() {
         StopWatch s1 = new Slf4JStopWatch("omero._createThumbnail");
+        _prepareThumbnailMetadata();
+
+        BufferedImage image = createScaledImage(null, null);
+        try {
+            compressThumbnailToDisk(thumbnailMetadata, image);
+            s1.stop();
+            return thumbnailMetadata;
+        } catch (IOException e) {
+            log.error("Thumbnail could not be compressed.", e);
+            throw new ResourceError(e.getMessage());
+        }
+    }
+
+    /**
+     * Prepares the thumbnail metadata before a thumbnail is created, bumping
+     * its version or creating new metadata for the owner of the rendering
+     * settings if they have changed since the thumbnail was last created.
+     */
+    private void _prepareThumbnailMetadata() {
         if (thumbnailMetadata == null) {
             throw new ValidationException("Missing thumbnail metadata.");
         } else if (ctx.dirtyMetadata(pixels.getId())) {
@@ -830,16 +1004,6 @@ public class ThumbnailBean extends AbstractLevel2Service
         // dirtyMetadata is left false here because we may be creating a
         // thumbnail for the first time and the Thumbnail object has just been
         // created upstream of us.
-
-        BufferedImage image = createScaledImage(null, null);
-        try {
-            compressThumbnailToDisk(thumbnailMetadata, image);
-            s1.stop();
-            return thumbnailMetadata;
-        } catch (IOException e) {
-            log.error("Thumbnail could not be compressed.", e);
-            throw new ResourceError(e.getMessage());
-        }
     }
 
     private static void _setMetadataVersion(Thumbnail tb, boolean inProgress) {
@@ -944,6 +1108,11 @@ public class ThumbnailBean extends AbstractLevel2Service
         Map<Long, byte[]> toReturn = new HashMap<Long, byte[]>();
 
         List<Thumbnail> toSave = new ArrayList<Thumbnail>();
+        // Thumbnails being rendered by the pool, in submission order. Their
+        // number is bounded so that only a few pixel buffers are open at once.
+        LinkedList<ThumbnailTask> tasks = new LinkedList<ThumbnailTask>();
+        int maxTasks = thumbnailExecutor == null ?
+                0 : thumbnailExecutor.getThreads() * 2;
         for (Long pixelsId : pixelsIds)
         {
             // Ensure that the renderer has been made dirty otherwise the
@@ -982,6 +1151,22 @@ public class ThumbnailBean extends AbstractLevel2Service
                     // that we want to use, but retrieveThumbnail likes to
                     // re-generate. For the moment, we're saving and restoring
                     // that value to prevent creating a new one.
+                    ThumbnailTask task = null;
+                    if (maxTasks > 0 && !inProgress
+                        && !ctx.isThumbnailCached(pixelsId))
+                    {
+                        task = submitThumbnailTask(pixelsId);
+                    }
+                    if (task != null)
+                    {
+                        tasks.add(task);
+                        while (tasks.size() > maxTasks)
+                        {
+                            completeThumbnailTask(
+                                    tasks.removeFirst(), toReturn, toSave);
+                        }
+                        continue;
+                    }
                     byte[] thumbnail = retrieveThumbnail(false);
                     toReturn.put(pixelsId, thumbnail);
                     if (dirtyMetadata)
@@ -1001,6 +1186,10 @@ public class ThumbnailBean extends AbstractLevel2Service
                 toReturn.put(pixelsId, null);
             }
         }
+        while (!tasks.isEmpty())
+        {
+            completeThumbnailTask(tasks.removeFirst(), toReturn, toSave);
+        }
         // We're doing the update or creation and save as a two step
         // process due to the possible unloaded Pixels. If we do not,
         // Pixels will be unloaded and we will hit
@@ -1013,6 +1202,183 @@ public class ThumbnailBean extends AbstractLevel2Service
         return toReturn;
     }
 
+    /**
+     * Prepares the creation of the thumbnail of the current pixels set and
+     * hands its rendering and compression over to the
+     * {@link #thumbnailExecutor}. The thumbnail metadata is prepared here
+     * since it requires the Hibernate session, which is bound to the calling
+     * thread. The task gets its own renderer and pixel buffer, created from
+     * copies of the pixels set and rendering settings so that the workers
+     * never read or modify the objects of the session.
+     * @param pixelsId The Pixels ID the thumbnail is created for.
+     * @return The submitted task or <code>null</code> if the pixels set is
+     * still being processed.
+     */
+    private ThumbnailTask submitThumbnailTask(Long pixelsId)
+    {
+        if (log.isDebugEnabled())
+        {
+            log.debug("Cache miss, thumbnail missing or out of date.");
+        }
+        errorIfNullPixelsAndRenderingDef();
+        Pixels pixelsCopy = copyPixels(
+                iPixels.retrievePixDescription(pixels.getId()));
+        RenderingDef settingsCopy = copySettings(
+                iPixels.loadRndSettings(settings.getId()));
+        Renderer owned;
+        try
+        {
+            owned = newRenderer(pixelsCopy, settingsCopy);
+        }
+        catch (ConcurrencyException e)
+        {
+            inProgress = true;
+            log.info("ConcurrencyException on newRenderer()");
+            return null;
+        }
+        try
+        {
+            _prepareThumbnailMetadata();
+        }
+        catch (RuntimeException e)
+        {
+            owned.close();
+            throw e;
+        }
+        return submitThumbnailTask(pixelsId, owned, pixelsCopy, settingsCopy,
+                thumbnailMetadata, dirtyMetadata);
+    }
+
+    /**
+     * Submits the creation of a thumbnail to the {@link #thumbnailExecutor}.
+     * The task takes ownership of the renderer and closes it once done. If
+     * the executor refuses the task, the renderer is closed here instead.
+     * The renderer, pixels set and rendering settings must not be used by
+     * any other thread, the task renders with a copy of the metadata.
+     * @param pixelsId The Pixels ID the thumbnail is created for.
+     * @param renderer The renderer loaded for the pixels set.
+     * @param pixels The pixels set of the renderer.
+     * @param settings The rendering settings of the renderer.
+     * @param thumbnailMetadata The metadata of the thumbnail to create.
+     * @param dirtyMetadata Whether the metadata has to be saved once the
+     * thumbnail has been created.
+     * @return The submitted task.
+     * @throws RejectedExecutionException If the executor refuses the task.
+     */
+    ThumbnailTask submitThumbnailTask(Long pixelsId, Renderer renderer,
+            Pixels pixels, RenderingDef settings, Thumbnail thumbnailMetadata,
+            boolean dirtyMetadata)
+    {
+        ThumbnailTask task = new ThumbnailTask(pixelsId, renderer, pixels,
+                settings, thumbnailMetadata, dirtyMetadata);
+        try
+        {
+            task.future = thumbnailExecutor.submit(task);
+        }
+        catch (RejectedExecutionException e)
+        {
+            if (renderer != null)
+            {
+                renderer.close();
+            }
+            throw e;
+        }
+        return task;
+    }
+
+    /**
+     * Waits for a thumbnail task to complete and records its outcome like
+     * {@link #retrieveThumbnailSet(Set)} does for the thumbnails retrieved
+     * in the calling thread.
+     * @param task The task to wait for.
+     * @param toReturn Map of Pixels ID vs. thumbnail bytes.
+     * @param toSave The thumbnail metadata to save.
+     */
+    private void completeThumbnailTask(ThumbnailTask task,
+            Map<Long, byte[]> toReturn, List<Thumbnail> toSave)
+    {
+        try
+        {
+            toReturn.put(task.pixelsId, task.future.get());
+            if (task.dirtyMetadata)
+            {
+                toSave.add(task.thumbnailMetadata);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while retrieving thumbnail in set for " +
+                    "Pixels ID " + task.pixelsId + ".");
+            toReturn.put(task.pixelsId, null);
+        }
+        catch (ExecutionException e)
+        {
+            log.warn("Retrieving thumbnail in set for " +
+                    "Pixels ID " + task.pixelsId + " failed.", e.getCause());
+            toReturn.put(task.pixelsId, null);
+        }
+    }
+
+    /**
+     * Renders, compresses to disk and reads back a single thumbnail of a set
+     * using the state captured when it was submitted, so that several of
+     * them can be created concurrently.
+     */
+    class ThumbnailTask implements Callable<byte[]>
+    {
+        final Long pixelsId;
+
+        final Renderer renderer;
+
+        final Pixels pixels;
+
+        final RenderingDef settings;
+
+        /** The metadata to save once done, only used by the caller. */
+        final Thumbnail thumbnailMetadata;
+
+        /** Copy of {@link #thumbnailMetadata} read by the worker. */
+        final Thumbnail metadata;
+
+        final boolean dirtyMetadata;
+
+        Future<byte[]> future;
+
+        ThumbnailTask(Long pixelsId, Renderer renderer, Pixels pixels,
+                RenderingDef settings, Thumbnail thumbnailMetadata,
+                boolean dirtyMetadata)
+        {
+            this.pixelsId = pixelsId;
+            this.renderer = renderer;
+            this.pixels = pixels;
+            this.settings = settings;
+            this.thumbnailMetadata = thumbnailMetadata;
+            this.metadata = new ShallowCopy().copy(thumbnailMetadata);
+            this.dirtyMetadata = dirtyMetadata;
+        }
+
+        public byte[] call() throws IOException
+        {
+            StopWatch s1 = new Slf4JStopWatch("omero._createThumbnail");
+            try
+            {
+                BufferedImage image = createScaledImage(renderer, pixels,
+                        settings, metadata, null, null);
+                compressThumbnailToDisk(metadata, image, false);
+                s1.stop();
+                return ioService.getThumbnail(metadata);
+            }
+            finally
+            {
+                if (renderer != null)
+                {
+                    renderer.close();
+                }
+            }
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -0,0 +1,35 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import ome.system.metrics.Metrics;
+import omeis.providers.re.RenderingExecutor;
+
+/**
+ * Bounded pool of worker threads used by {@link ThumbnailBean} to render and
+ * compress the thumbnails of a set in parallel. It is deliberately separate
+ * from the {@link RenderingExecutor} shared by the renderers: each thumbnail
+ * task itself submits regions to that pool and waits for them, which could
+ * exhaust it if both kinds of task had to share the same workers. The queue
+ * depth and task latencies are reported under this class name.
+ *
+ * @since 5.1
+ */
+public class ThumbnailExecutor extends RenderingExecutor {
+
+    /**
+     * Creates a new instance.
+     *
+     * @param threads The number of worker threads. A value of <code>0</code>
+     *                or lower uses the number of available processors.
+     * @param metrics The metrics the queue depth and task latencies are
+     *                reported to.
+     */
+    public ThumbnailExecutor(int threads, Metrics metrics) {
+        super(threads, metrics);
+    }
+
+}
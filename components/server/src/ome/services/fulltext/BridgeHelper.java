@@ -242,21 +242,35 @@ public abstract class BridgeHelper implements FieldBridge,
     protected Iterable<Reader> parse(final OriginalFile file,
             final OriginalFilesService files,
             final Map<String, FileParser> parsers) {
-        if (files != null && parsers != null) {
-            if (file != null && file.getMimetype() != null) {
+        if (files != null) {
+            FileParser parser = parser(file, parsers);
+            if (parser != null) {
                 String path = files.getFilesPath(file.getId());
-                String format = file.getMimetype();
-                FileParser parser = parsers.get(format);
-                if (parser != null) {
-                    return parser.parse(new File(path));
-                } else {
-                    parser = parsers.get("*");
-                    if (parser != null) {
-                        return parser.parse(new File(path));
-                    }
-                }
+                return parser.parse(new File(path));
             }
         }
         return FileParser.EMPTY;
     }
+
+    /**
+     * Chooses the {@link FileParser} for the mimetype of the given
+     * {@link OriginalFile}, falling back to the catch all parser under "*".
+     *
+     * @param file
+     *            Can be null.
+     * @param parsers
+     *            Can be null.
+     * @return null if no parser applies.
+     */
+    static FileParser parser(final OriginalFile file,
+            final Map<String, FileParser> parsers) {
+        if (parsers == null || file == null || file.getMimetype() == null) {
+            return null;
+        }
+        FileParser parser = parsers.get(file.getMimetype());
+        if (parser == null) {
+            parser = parsers.get("*");
+        }
+        return parser;
+    }
 }
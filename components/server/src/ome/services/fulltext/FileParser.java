@@ -8,9 +8,15 @@ package ome.services.fulltext;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import ome.services.messages.ParserOpenFileMessage;
 import ome.system.OmeroContext;
@@ -39,6 +45,13 @@ public class FileParser implements ApplicationContextAware {
 
     protected long maxFileSize = 10000L; // default test is 8.8KB
 
+    /**
+     * Contents of the files parsed ahead of indexing by {@link #prefetch(File)}
+     * keyed by absolute path.
+     */
+    private final ConcurrentMap<String, List<String>> prefetched =
+        new ConcurrentHashMap<String, List<String>>();
+
     public void setApplicationContext(ApplicationContext arg0)
             throws BeansException {
         context = (OmeroContext) arg0;
@@ -112,6 +125,15 @@ public class FileParser implements ApplicationContextAware {
             return EMPTY;
         }
 
+        List<String> contents = prefetched.get(file.getAbsolutePath());
+        if (contents != null) {
+            List<Reader> readers = new ArrayList<Reader>(contents.size());
+            for (String content : contents) {
+                readers.add(new StringReader(content));
+            }
+            return wrap(readers.iterator());
+        }
+
         try {
             Iterable<Reader> it = doParse(file);
             if (it == null) {
@@ -127,6 +149,55 @@ public class FileParser implements ApplicationContextAware {
 
     }
 
+    /**
+     * Parses the given {@link File} via {@link #parse(File)} and keeps its
+     * contents in memory, so that later calls to {@link #parse(File)} for the
+     * same path, e.g. from the bridges while the indexer is building the
+     * Lucene documents, return them without parsing the file again. This
+     * method is safe to call from worker threads.
+     *
+     * @param file
+     *            Can be null.
+     * @return the number of characters kept in memory.
+     */
+    public long prefetch(File file) {
+        if (file == null || prefetched.containsKey(file.getAbsolutePath())) {
+            return 0;
+        }
+        final List<String> contents = new ArrayList<String>();
+        final char[] buf = new char[8192];
+        long size = 0;
+        for (Reader reader : parse(file)) {
+            StringBuilder sb = new StringBuilder();
+            try {
+                int rv;
+                while ((rv = reader.read(buf)) != -1) {
+                    sb.append(buf, 0, rv);
+                }
+            } catch (IOException e) {
+                log.warn("Error prefetching " + file.getAbsoluteFile(), e);
+                return 0; // Parsed again lazily by the bridges
+            } finally {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    log.debug("Error closing " + reader, e);
+                }
+            }
+            contents.add(sb.toString());
+            size += sb.length();
+        }
+        prefetched.put(file.getAbsolutePath(), contents);
+        return size;
+    }
+
+    /**
+     * Releases the contents kept by {@link #prefetch(File)}.
+     */
+    public void clearPrefetched() {
+        prefetched.clear();
+    }
+
     /**
      * Template method to parse a {@link File} into manageable chunks.
      * 
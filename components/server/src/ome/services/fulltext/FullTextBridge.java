@@ -241,6 +241,10 @@ public class FullTextBridge extends BridgeHelper {
         Details details = object.getDetails();
         if (details != null) {
             Experimenter e = details.getOwner();
+            if (e != null && e.getId() != null) {
+                add(document, "details.owner.id", e.getId().toString(),
+                        storedNotAnalyzed);
+            }
             if (e != null && e.isLoaded()) {
                 String omename = e.getOmeName();
                 String firstName = e.getFirstName();
@@ -251,6 +255,10 @@ public class FullTextBridge extends BridgeHelper {
             }
 
             ExperimenterGroup g = details.getGroup();
+            if (g != null && g.getId() != null) {
+                add(document, "details.group.id", g.getId().toString(),
+                        storedNotAnalyzed);
+            }
             if (g != null && g.isLoaded()) {
                 String groupName = g.getName();
                 add(document, "details.group.name", groupName, stored);
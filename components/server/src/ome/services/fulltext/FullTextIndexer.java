@@ -19,11 +19,27 @@
 
 package ome.services.fulltext;
 
-
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ome.io.nio.OriginalFilesService;
 import ome.model.IAnnotated;
 import ome.model.IGlobal;
 import ome.model.IMutable;
 import ome.model.IObject;
+import ome.model.annotations.Annotation;
+import ome.model.annotations.FileAnnotation;
+import ome.model.core.OriginalFile;
 import ome.model.meta.EventLog;
 import ome.services.eventlogs.EventLogFailure;
 import ome.services.eventlogs.EventLogLoader;
@@ -50,11 +66,28 @@ import org.springframework.context.ApplicationContextAware;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * Simple action which can be done in an asynchronous thread in order to index
  * Hibernate entities. Attempts to index each {@link EventLog} passed from the
  * {@link EventLogLoader} multiple times on failure. Eventually
  *
+ * Each batch runs in three stages. The entities are loaded and queued for
+ * indexing within the transaction on the calling thread. Meanwhile, the
+ * {@link OriginalFile} contents which the bridges will need are parsed by
+ * {@link FileParser#prefetch(File) prefetching} them on a pool of
+ * {@link #setParserThreads(int) parser threads}. Finally, the Lucene
+ * documents of the whole batch are built and written with a single
+ * {@link FullTextSession#flushToIndexes()}, i.e. a single commit of the
+ * index writer, rather than one per {@link EventLog}. The time spent in each
+ * stage is reported next to the "batch" timer.
+ *
+ * If that combined flush fails, the actions of the pending
+ * {@link EventLog event logs} are replayed and flushed one at a time within
+ * the same run, so that an {@link EventLogFailure} is published for each
+ * log which still fails and the others are indexed.
+ *
  * @author Josh Moore, josh at glencoesoftware.com
  * @since 3.0-Beta3
  */
@@ -71,6 +104,7 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
         Class type;
         long id;
         IObject obj;
+        EventLog eventLog;
 
         abstract void go(FullTextSession session);
 
@@ -86,7 +120,6 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
         @Override
         void go(FullTextSession session) {
             session.purge(type, id);
-            session.flushToIndexes();
         }
 
         @Override
@@ -106,7 +139,6 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
         @Override
         void go(FullTextSession session) {
             session.index(obj);
-            session.flushToIndexes();
         }
 
         @Override
@@ -123,8 +155,48 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
 
     final protected Timer batchTimer;
 
+    final protected Timer loadTimer, parseTimer, indexTimer;
+
     final protected Histogram completeSlow, completeFast;
 
+    /**
+     * Parsers used to prefetch the contents of {@link OriginalFile} instances.
+     * Should be the same map as the one given to the bridges.
+     */
+    protected Map<String, FileParser> parsers;
+
+    protected OriginalFilesService files;
+
+    /**
+     * Number of threads parsing files ahead of the index stage. If 0 or less,
+     * files are parsed lazily by the bridges while the documents are built.
+     */
+    protected int parserThreads = 0;
+
+    /**
+     * Total size of the files to prefetch before the pending documents are
+     * written to the index, so that the parsed contents held in memory stay
+     * bounded. Larger files are parsed lazily by the bridges.
+     */
+    protected long maxPrefetchSize = Runtime.getRuntime().maxMemory() / 8;
+
+    /**
+     * Actions queued since the last flush.
+     */
+    final private List<Action> pending = new ArrayList<Action>();
+
+    /** Parses files ahead of the index stage, created on first use. */
+    private ExecutorService parserPool;
+
+    final private List<Future<Long>> prefetching = new ArrayList<Future<Long>>();
+
+    final private Map<FileParser, Boolean> prefetchParsers =
+            new IdentityHashMap<FileParser, Boolean>();
+
+    final private Set<Long> prefetchedFiles = new HashSet<Long>();
+
+    private long prefetchedSize;
+
     protected int reps = 5;
 
     protected long batch;
@@ -154,10 +226,45 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
         this.dryRun = dryRun;
     }
 
+    /**
+     * Spring injector. Sets the parsers used to prefetch file contents.
+     */
+    public void setFileParsers(Map<String, FileParser> parsers) {
+        this.parsers = parsers;
+    }
+
+    /**
+     * Spring injector. Sets the service used to locate file contents.
+     */
+    public void setOriginalFilesService(OriginalFilesService files) {
+        this.files = files;
+    }
+
+    /**
+     * Spring injector. Sets the number of threads which parse files ahead of
+     * the index stage. 0 disables prefetching.
+     */
+    public void setParserThreads(int threads) {
+        this.parserThreads = threads;
+    }
+
+    public void setMaxPrefetchSize(long size) {
+        this.maxPrefetchSize = size;
+    }
+
     public void setApplicationContext(ApplicationContext ctx) {
         this.context = (OmeroContext) ctx;
     }
 
+    /**
+     * Stops the parser threads.
+     */
+    public void destroy() {
+        if (parserPool != null) {
+            parserPool.shutdownNow();
+        }
+    }
+
     public FullTextIndexer(EventLogLoader ll) {
         this(ll, new NullMetrics());
     }
@@ -168,6 +275,12 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
         this.parserSession = new ParserSession();
         this.batchTimer =
                 metrics.timer(this, "batch");
+        this.loadTimer =
+                metrics.timer(this, "batchLoad");
+        this.parseTimer =
+                metrics.timer(this, "batchParse");
+        this.indexTimer =
+                metrics.timer(this, "batchIndex");
         this.completeSlow=
                 metrics.histogram(this, "percentCompleteSlow");
         this.completeFast =
@@ -262,21 +375,74 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
 
         int count = 0;
 
-        for (EventLog eventLog : loader) {
+        startPrefetching();
+        try {
+            Timer.Context load = loadTimer.time();
+            try {
+                for (EventLog eventLog : loader) {
+
+                    if (dryRun) {
+                        continue;
+                    }
 
-            if (dryRun) {
-                continue;
+                    if (eventLog != null) {
+                        handleEventLog(session, eventLog);
+                        count++;
+                    }
+                    session.flush();
+
+                    if (prefetchedSize >= maxPrefetchSize) {
+                        flushPending(session);
+                    }
+                }
+            } finally {
+                load.stop();
             }
+            flushPending(session);
+        } finally {
+            stopPrefetching();
+        }
+        return count;
+    }
 
-            if (eventLog != null) {
-                handleEventLog(session, eventLog);
-                count++;
+    /**
+     * Waits for the prefetched files and then builds and writes the documents
+     * of all pending {@link EventLog event logs} at once. On failure, the
+     * queued work has been dropped by the session, so the action of each
+     * pending log is replayed and flushed on its own.
+     */
+    protected void flushPending(FullTextSession session) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        final List<Action> actions = new ArrayList<Action>(pending);
+        pending.clear();
+        try {
+            flushToIndexes(session);
+        } catch (RuntimeException rt) {
+            log.warn(String.format("Failed to index batch of %s event logs. "
+                    + "Retrying individually.", actions.size()), rt);
+            for (Action action : actions) {
+                try {
+                    action.go(session);
+                    flushToIndexes(session);
+                } catch (Exception e) {
+                    publishFailure(action.eventLog, e);
+                }
             }
-            session.flush();
-            parserSession.closeParsedFiles();
+        }
+    }
 
+    private void flushToIndexes(FullTextSession session) {
+        awaitPrefetching();
+        Timer.Context index = indexTimer.time();
+        try {
+            session.flushToIndexes();
+        } finally {
+            index.stop();
+            parserSession.closeParsedFiles();
+            clearPrefetched();
         }
-        return count;
     }
 
     protected void handleEventLog(FullTextSession session, EventLog eventLog) {
@@ -309,22 +475,137 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
             }
 
             if (action != null) {
+                action.eventLog = eventLog;
                 try {
+                    if (action instanceof Index) {
+                        prefetch(action.obj);
+                    }
                     action.go(session);
+                    pending.add(action);
                 } catch (Exception e) {
-                    try {
-                        this.context.publishMessage(new EventLogFailure(loader, eventLog, e));
-                    } catch (RuntimeException re) {
-                        throw re;
-                    } catch (Throwable e1) {
-                        throw new RuntimeException(e1);
-                    }
+                    publishFailure(eventLog, e);
                 }
                 action.log(log);
             }
         }
     }
 
+    /**
+     * Publishes an {@link EventLogFailure} so that the loader can handle the
+     * {@link EventLog} which could not be indexed.
+     */
+    protected void publishFailure(EventLog eventLog, Throwable t) {
+        try {
+            this.context.publishMessage(new EventLogFailure(loader, eventLog, t));
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Throwable e1) {
+            throw new RuntimeException(e1);
+        }
+    }
+
+    //
+    // Parse stage
+    //
+
+    private void startPrefetching() {
+        if (parserPool == null && parserThreads > 0 && parsers != null
+                && files != null) {
+            parserPool = Executors.newFixedThreadPool(parserThreads,
+                    new ThreadFactoryBuilder().setDaemon(true)
+                            .setNameFormat("FullTextParser-%d").build());
+        }
+    }
+
+    private void stopPrefetching() {
+        for (Future<Long> future : prefetching) {
+            future.cancel(true);
+        }
+        prefetching.clear();
+        parserSession.closeParsedFiles();
+        clearPrefetched();
+    }
+
+    /**
+     * Submits the files which the bridges will parse while indexing the given
+     * object to the parser threads: the object itself if it is an
+     * {@link OriginalFile} and those of any {@link FileAnnotation}.
+     */
+    protected void prefetch(IObject obj) {
+        if (parserPool == null) {
+            return;
+        }
+        try {
+            if (obj instanceof OriginalFile) {
+                prefetch((OriginalFile) obj);
+            }
+            if (obj instanceof FileAnnotation) {
+                prefetch(((FileAnnotation) obj).getFile());
+            }
+            if (obj instanceof IAnnotated) {
+                for (Annotation annotation : ((IAnnotated) obj)
+                        .linkedAnnotationList()) {
+                    if (annotation instanceof FileAnnotation) {
+                        prefetch(((FileAnnotation) annotation).getFile());
+                    }
+                }
+            }
+        } catch (RuntimeException rt) {
+            // The bridges will parse these files lazily instead.
+            log.debug("Failed to prefetch files of " + obj, rt);
+        }
+    }
+
+    private void prefetch(OriginalFile file) {
+        // Accessing the mimetype loads the file on this thread.
+        final FileParser parser = BridgeHelper.parser(file, parsers);
+        if (parser == null || !prefetchedFiles.add(file.getId())) {
+            return;
+        }
+        final File path = new File(files.getFilesPath(file.getId()));
+        final long size = path.length();
+        if (size > parser.maxFileSize || size > maxPrefetchSize) {
+            return;
+        }
+        prefetchParsers.put(parser, Boolean.TRUE);
+        prefetchedSize += size;
+        prefetching.add(parserPool.submit(new Callable<Long>() {
+            public Long call() {
+                Timer.Context parse = parseTimer.time();
+                try {
+                    return parser.prefetch(path);
+                } finally {
+                    parse.stop();
+                }
+            }
+        }));
+    }
+
+    private void awaitPrefetching() {
+        try {
+            for (Future<Long> future : prefetching) {
+                try {
+                    future.get();
+                } catch (ExecutionException ee) {
+                    log.warn("Failed to prefetch file", ee.getCause());
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            prefetching.clear();
+        }
+    }
+
+    private void clearPrefetched() {
+        for (FileParser parser : prefetchParsers.keySet()) {
+            parser.clearPrefetched();
+        }
+        prefetchParsers.clear();
+        prefetchedFiles.clear();
+        prefetchedSize = 0;
+    }
+
     /**
      * Default implementation suggests doing more if fewer than {@link #reps}
      * runs have been made and if there are still more than
@@ -35,13 +35,13 @@ public class ParserSession implements ApplicationListener {
         openFiles = new HashSet<ParserOpenFileMessage>();
     }
 
-    public void onApplicationEvent(ApplicationEvent event) {
+    public synchronized void onApplicationEvent(ApplicationEvent event) {
         if (event instanceof ParserOpenFileMessage) {
             openFiles.add((ParserOpenFileMessage)event);
         }
     }
 
-    public void closeParsedFiles() {
+    public synchronized void closeParsedFiles() {
         for (ParserOpenFileMessage file : openFiles) {
             log.debug("Closing file: " + file);
             file.close();
@@ -19,6 +19,7 @@
 
 package ome.services.graphs;
 
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -29,6 +30,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -45,6 +47,8 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.SetMultimap;
@@ -77,6 +81,9 @@ public class GraphTraversal {
     /* all bulk operations are batched; this size should be suitable for IN (:ids) for HQL */
     private static final int BATCH_SIZE = 256;
 
+    /* the class names held by the tuples below, interned so that they may be compared by identity */
+    private static final Interner<String> CLASS_NAMES = Interners.newStrongInterner();
+
     /* the full name of the model object classes for which subclasses need not be queried */
     private static final Set<String> NO_SUBCLASS_QUERY = Collections.synchronizedSet(new HashSet<String>());
 
@@ -148,7 +155,7 @@ public class GraphTraversal {
      * @author m.t.b.carroll@dundee.ac.uk
      * @since 5.1.0
      */
-    private static final class CI {
+    static final class CI {
         final String className;
         final long id;
 
@@ -158,7 +165,7 @@ public class GraphTraversal {
          * @param id an instance ID
          */
         CI(String className, long id) {
-            this.className = className;
+            this.className = CLASS_NAMES.intern(className);
             this.id = id;
         }
 
@@ -168,9 +175,9 @@ public class GraphTraversal {
          */
         CI(IObject object) {
             if (object instanceof HibernateProxy) {
-                this.className = Hibernate.getClass(object).getName();
+                this.className = CLASS_NAMES.intern(Hibernate.getClass(object).getName());
             } else {
-                this.className = object.getClass().getName();
+                this.className = CLASS_NAMES.intern(object.getClass().getName());
             }
             this.id = object.getId();
         }
@@ -196,8 +203,9 @@ public class GraphTraversal {
                 return true;
             } else if (object instanceof CI) {
                 final CI other = (CI) object;
+                /* class names are interned */
                 return this.id == other.id &&
-                        this.className.equals(other.className);
+                        this.className == other.className;
             } else {
                 return false;
             }
@@ -205,7 +213,8 @@ public class GraphTraversal {
 
         @Override
         public int hashCode() {
-            return Objects.hashCode(getClass(), className, id);
+            /* computed without boxing as these are hashed very many times in large traversals */
+            return 31 * className.hashCode() + (int) (id ^ (id >>> 32));
         }
 
         @Override
@@ -321,7 +330,7 @@ public class GraphTraversal {
 
         @Override
         public int hashCode() {
-            return Objects.hashCode(getClass(), className, propertyName, id);
+            return 31 * (31 * className.hashCode() + propertyName.hashCode()) + (int) (id ^ (id >>> 32));
         }
 
         @Override
@@ -330,6 +339,257 @@ public class GraphTraversal {
         }
     }
 
+    /**
+     * An open-addressing hash set of primitive instance IDs, avoiding the boxed entries of a {@link HashSet}.
+     * Removed IDs leave a marker until the next resize so that removal during iteration is safe.
+     * @author m.t.b.carroll@dundee.ac.uk
+     * @since 5.1.3
+     */
+    static final class IdSet {
+        private static final byte FREE = 0;
+        private static final byte FULL = 1;
+        private static final byte REMOVED = 2;
+
+        private long[] ids = new long[8];
+        private byte[] states = new byte[8];
+        private int size = 0;
+        private int used = 0;
+
+        /**
+         * @param id an instance ID
+         * @return the slot at which the ID is stored or, if it is not stored, the first free slot at which it may be
+         */
+        private int find(long id) {
+            final int mask = ids.length - 1;
+            int slot = (int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            int removed = -1;
+            while (states[slot] != FREE) {
+                if (states[slot] == FULL) {
+                    if (ids[slot] == id) {
+                        return slot;
+                    }
+                } else if (removed < 0) {
+                    removed = slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return removed < 0 ? slot : removed;
+        }
+
+        boolean contains(long id) {
+            final int slot = find(id);
+            return states[slot] == FULL && ids[slot] == id;
+        }
+
+        boolean add(long id) {
+            int slot = find(id);
+            if (states[slot] == FULL) {
+                return false;
+            }
+            if (states[slot] == FREE) {
+                if (used + 1 > ids.length * 3 / 4) {
+                    resize();
+                    slot = find(id);
+                }
+                used++;
+            }
+            ids[slot] = id;
+            states[slot] = FULL;
+            size++;
+            return true;
+        }
+
+        boolean remove(long id) {
+            final int slot = find(id);
+            if (states[slot] == FULL && ids[slot] == id) {
+                removeAt(slot);
+                return true;
+            }
+            return false;
+        }
+
+        void removeAt(int slot) {
+            states[slot] = REMOVED;
+            size--;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int capacity() {
+            return ids.length;
+        }
+
+        boolean isFull(int slot) {
+            return states[slot] == FULL;
+        }
+
+        long idAt(int slot) {
+            return ids[slot];
+        }
+
+        /**
+         * Rehash into a table sized for the current content, dropping removal markers.
+         */
+        private void resize() {
+            final long[] oldIds = ids;
+            final byte[] oldStates = states;
+            int capacity = 8;
+            while (capacity * 3 / 4 <= size * 2) {
+                capacity <<= 1;
+            }
+            ids = new long[capacity];
+            states = new byte[capacity];
+            used = size;
+            for (int slot = 0; slot < oldIds.length; slot++) {
+                if (oldStates[slot] == FULL) {
+                    final int newSlot = find(oldIds[slot]);
+                    ids[newSlot] = oldIds[slot];
+                    states[newSlot] = FULL;
+                }
+            }
+        }
+    }
+
+    /**
+     * A set of {@link CI}s that holds a primitive {@link IdSet} per class name rather than the tuples themselves.
+     * Large traversals thus hold a few bytes per instance for each state that they track.
+     * The {@link CI}s returned by iteration are constructed as needed.
+     * Package-private, with {@link CI} and {@link IdSet}, for testing.
+     * @author m.t.b.carroll@dundee.ac.uk
+     * @since 5.1.3
+     */
+    static final class CISet extends AbstractSet<CI> {
+        private final Map<String, IdSet> idsByClass = new HashMap<String, IdSet>();
+        private int size = 0;
+
+        CISet() {
+        }
+
+        CISet(Collection<CI> objects) {
+            addAll(objects);
+        }
+
+        @Override
+        public boolean add(CI object) {
+            IdSet ids = idsByClass.get(object.className);
+            if (ids == null) {
+                ids = new IdSet();
+                idsByClass.put(object.className, ids);
+            }
+            if (ids.add(object.id)) {
+                size++;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean contains(Object object) {
+            if (object instanceof CI) {
+                final CI instance = (CI) object;
+                final IdSet ids = idsByClass.get(instance.className);
+                return ids != null && ids.contains(instance.id);
+            }
+            return false;
+        }
+
+        @Override
+        public boolean remove(Object object) {
+            if (object instanceof CI) {
+                final CI instance = (CI) object;
+                final IdSet ids = idsByClass.get(instance.className);
+                if (ids != null && ids.remove(instance.id)) {
+                    size--;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void clear() {
+            idsByClass.clear();
+            size = 0;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<CI> iterator() {
+            final Iterator<Entry<String, IdSet>> classes = idsByClass.entrySet().iterator();
+            return new Iterator<CI>() {
+                /* the class and IDs being iterated and the slot of the next ID, if any */
+                private String className = null;
+                private IdSet ids = null;
+                private int slot = -1;
+                private boolean hasNext = false;
+                /* the IDs and slot of the instance last returned, if not yet removed */
+                private IdSet lastIds = null;
+                private int lastSlot = -1;
+
+                {
+                    advance();
+                }
+
+                /**
+                 * Advance to the next stored ID, if any.
+                 */
+                private void advance() {
+                    while (true) {
+                        if (ids != null) {
+                            while (++slot < ids.capacity()) {
+                                if (ids.isFull(slot)) {
+                                    hasNext = true;
+                                    return;
+                                }
+                            }
+                        }
+                        if (!classes.hasNext()) {
+                            hasNext = false;
+                            return;
+                        }
+                        final Entry<String, IdSet> next = classes.next();
+                        className = next.getKey();
+                        ids = next.getValue();
+                        slot = -1;
+                    }
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return hasNext;
+                }
+
+                @Override
+                public CI next() {
+                    if (!hasNext) {
+                        throw new NoSuchElementException();
+                    }
+                    final CI next = new CI(className, ids.idAt(slot));
+                    lastIds = ids;
+                    lastSlot = slot;
+                    advance();
+                    return next;
+                }
+
+                @Override
+                public void remove() {
+                    if (lastIds == null) {
+                        throw new IllegalStateException();
+                    }
+                    lastIds.removeAt(lastSlot);
+                    lastIds = null;
+                    size--;
+                }
+            };
+        }
+    }
+
     /**
      * Track the progress of method calls to ensure that the sequencing makes sense.
      * @author m.t.b.carroll@dundee.ac.uk
@@ -372,16 +632,16 @@ public class GraphTraversal {
      */
     private static class Planning {
         /* process state */
-        final Set<CI> toProcess = new HashSet<CI>();
-        final Set<CI> included = new HashSet<CI>();
-        final Set<CI> deleted = new HashSet<CI>();
-        final Set<CI> outside = new HashSet<CI>();
+        final Set<CI> toProcess = new CISet();
+        final Set<CI> included = new CISet();
+        final Set<CI> deleted = new CISet();
+        final Set<CI> outside = new CISet();
         /* orphan checks */
-        final Set<CI> findIfLast = new HashSet<CI>();
+        final Set<CI> findIfLast = new CISet();
         final Map<CI, Boolean> foundIfLast = new HashMap<CI, Boolean>();
         /* links */
         final Map<CI, CI> aliases = new HashMap<CI, CI>();
-        final Set<CI> cached = new HashSet<CI>();
+        final Set<CI> cached = new CISet();
         final SetMultimap<CPI, CI> forwardLinksCached = HashMultimap.create();
         final SetMultimap<CPI, CI> backwardLinksCached = HashMultimap.create();
         final SetMultimap<CI, CI> befores = HashMultimap.create();
@@ -389,11 +649,11 @@ public class GraphTraversal {
         final Map<CI, Set<CI>> blockedBy = new HashMap<CI, Set<CI>>();
         /* permissions, unused for system users */
         final Map<CI, ome.model.internal.Details> detailsNoted = new HashMap<CI, ome.model.internal.Details>();
-        final Set<CI> mayUpdate = new HashSet<CI>();
-        final Set<CI> mayDelete = new HashSet<CI>();
-        final Set<CI> mayChmod = new HashSet<CI>();
-        final Set<CI> owns = new HashSet<CI>();
-        final Set<CI> overrides = new HashSet<CI>();
+        final Set<CI> mayUpdate = new CISet();
+        final Set<CI> mayDelete = new CISet();
+        final Set<CI> mayChmod = new CISet();
+        final Set<CI> owns = new CISet();
+        final Set<CI> overrides = new CISet();
     }
 
     /**
@@ -595,7 +855,7 @@ public class GraphTraversal {
             /* process any pending objects */
             while (!(planning.toProcess.isEmpty() && planning.findIfLast.isEmpty())) {
                 /* first process any cached objects that do not await orphan status determination */
-                final Set<CI> toProcess = new HashSet<CI>(planning.toProcess);
+                final Set<CI> toProcess = new CISet(planning.toProcess);
                 toProcess.retainAll(planning.cached);
                 toProcess.removeAll(planning.findIfLast);
                 if (!toProcess.isEmpty()) {
@@ -609,7 +869,7 @@ public class GraphTraversal {
                     continue;
                 }
                 /* if none of the above exist, then fill the cache */
-                final Set<CI> toCache = new HashSet<CI>(planning.toProcess);
+                final Set<CI> toCache = new CISet(planning.toProcess);
                 toCache.removeAll(planning.cached);
                 if (!toCache.isEmpty()) {
                     optimisticReprocess = null;
@@ -618,8 +878,8 @@ public class GraphTraversal {
                 }
                 /* try processing the findIfLast in case of any changes */
                 if (!planning.toProcess.isEmpty()) {
-                    final Set<CI> previousToProcess = new HashSet<CI>(planning.toProcess);
-                    final Set<CI> previousFindIfLast = new HashSet<CI>(planning.findIfLast);
+                    final Set<CI> previousToProcess = new CISet(planning.toProcess);
+                    final Set<CI> previousFindIfLast = new CISet(planning.findIfLast);
                     for (final CI nextObject : previousToProcess) {
                         reviewObject(nextObject, false);
                     }
@@ -629,7 +889,7 @@ public class GraphTraversal {
                             (optimisticReprocess == null ||
                              !Sets.symmetricDifference(planning.toProcess, optimisticReprocess).isEmpty()) &&
                             !Sets.symmetricDifference(previousToProcess, planning.toProcess).isEmpty()) {
-                        optimisticReprocess = new HashSet<CI>(planning.toProcess);
+                        optimisticReprocess = new CISet(planning.toProcess);
                         continue;
                     }   
                 }
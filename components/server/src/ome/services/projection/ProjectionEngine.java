@@ -0,0 +1,432 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.projection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import ome.api.IProjection;
+import ome.conditions.ResourceError;
+import ome.io.nio.DimensionsOutOfBoundsException;
+import ome.io.nio.PixelBuffer;
+import ome.util.PixelData;
+import omeis.providers.re.RenderingExecutor;
+
+/**
+ * Projects the optical sections of a stack plane by plane. Each plane is
+ * read from the {@link PixelBuffer} on its own and added, with a loop typed
+ * for its pixels type, to a primitive accumulator of the size of one plane,
+ * so that the whole stack never has to be in memory. The accumulation is
+ * split into bands of rows which are submitted to the
+ * {@link RenderingExecutor}, while the calling thread reads the next plane.
+ * <p>
+ * Integral pixels types are accumulated as <code>long</code> and floating
+ * point types as <code>double</code> values. The projected values are
+ * therefore the same as those of the former pixel by pixel projection.
+ * </p>
+ *
+ * @since 5.1
+ */
+public class ProjectionEngine
+{
+    /** The pool the bands of rows are submitted to. */
+    private final RenderingExecutor executor;
+
+    /**
+     * Creates a new instance.
+     * @param executor The pool the bands of rows are submitted to.
+     */
+    public ProjectionEngine(RenderingExecutor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Projects a stack into a plane.
+     * @param source The buffer to read the optical sections from.
+     * @param c The channel of the stack.
+     * @param t The timepoint of the stack.
+     * @param algorithm One of the algorithms declared in {@link IProjection}.
+     * @param stepping Stepping value to use while calculating the projection.
+     * @param start Optical section to start projecting from.
+     * @param end Optical section to finish projecting.
+     * @param sizeX The number of pixels per row.
+     * @param sizeY The number of rows.
+     * @param to The pixel data buffer to project into.
+     * @return The minimum and maximum of the projected pixel values.
+     * @throws IOException If there is a problem reading a plane.
+     * @throws DimensionsOutOfBoundsException If <code>c</code> or
+     * <code>t</code> is out of range.
+     */
+    public double[] project(PixelBuffer source, int c, int t, int algorithm,
+                            int stepping, int start, int end,
+                            int sizeX, int sizeY, PixelData to)
+        throws IOException, DimensionsOutOfBoundsException
+    {
+        final boolean max;
+        final int last;
+        switch (algorithm)
+        {
+            case IProjection.MAXIMUM_INTENSITY:
+            {
+                max = true;
+                last = end;
+                break;
+            }
+            case IProjection.MEAN_INTENSITY:
+            case IProjection.SUM_INTENSITY:
+            {
+                max = false;
+                last = end - 1;
+                break;
+            }
+            default:
+            {
+                throw new IllegalArgumentException(
+                        "Unknown algorithm: " + algorithm);
+            }
+        }
+
+        Accumulator acc = null;
+        int count = 0;
+        PixelData plane = start <= last? source.getPlane(start, c, t) : null;
+        try
+        {
+            for (int z = start; z <= last; z += stepping)
+            {
+                if (acc == null)
+                {
+                    acc = new Accumulator(plane.isFloat(), sizeX * sizeY);
+                }
+                List<Future<Object>> futures =
+                    accumulate(plane, acc, max, sizeX, sizeY);
+                // Read the next plane while the bands are accumulated
+                PixelData next = null;
+                try
+                {
+                    if (z + stepping <= last)
+                    {
+                        next = source.getPlane(z + stepping, c, t);
+                    }
+                }
+                finally
+                {
+                    await(futures);
+                    plane.dispose();
+                    plane = next;
+                }
+                count++;
+            }
+        }
+        finally
+        {
+            if (plane != null)
+            {
+                plane.dispose();
+            }
+        }
+        if (acc == null)
+        {
+            acc = new Accumulator(false, sizeX * sizeY);
+        }
+        boolean clamp = !max;
+        boolean mean = algorithm == IProjection.MEAN_INTENSITY;
+        return write(acc, to, count, mean, clamp, sizeX, sizeY);
+    }
+
+    /**
+     * Returns the bounds of the bands of rows a plane is split into.
+     * @param sizeX The number of pixels per row.
+     * @param sizeY The number of rows.
+     * @return The pixel offsets the bands start at, followed by the size of
+     * the plane.
+     */
+    private int[] bands(int sizeX, int sizeY)
+    {
+        int count = Math.max(1, Math.min(executor.getThreads(), sizeY));
+        int rows = Math.max(1, (sizeY + count - 1) / count);
+        count = (sizeY + rows - 1) / rows;
+        int[] bounds = new int[count + 1];
+        for (int i = 0; i < count; i++)
+        {
+            bounds[i] = i * rows * sizeX;
+        }
+        bounds[count] = sizeX * sizeY;
+        return bounds;
+    }
+
+    /**
+     * Submits the accumulation of each band of rows of a plane.
+     */
+    private List<Future<Object>> accumulate(final PixelData plane,
+            final Accumulator acc, final boolean max, int sizeX, int sizeY)
+    {
+        int[] bounds = bands(sizeX, sizeY);
+        List<Future<Object>> futures =
+            new ArrayList<Future<Object>>(bounds.length - 1);
+        for (int i = 0; i < bounds.length - 1; i++)
+        {
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+            // A view per band, since buffer positions are not thread-safe.
+            final ByteBuffer data = plane.getData().duplicate();
+            data.order(plane.getOrder());
+            data.clear();
+            futures.add(executor.submit(new Callable<Object>() {
+                public Object call()
+                {
+                    acc.add(plane, data, from, to, max);
+                    return null;
+                }
+            }));
+        }
+        return futures;
+    }
+
+    /**
+     * Writes the accumulated values to the destination buffer, in bands of
+     * rows unless the destination is a bit mask whose bytes would be shared
+     * by neighbouring bands.
+     */
+    private double[] write(final Accumulator acc, final PixelData to,
+            final int count, final boolean mean, final boolean clamp,
+            int sizeX, int sizeY)
+    {
+        int[] bounds = to.javaType() == PixelData.BIT?
+                new int[] { 0, sizeX * sizeY } : bands(sizeX, sizeY);
+        List<Future<double[]>> futures =
+            new ArrayList<Future<double[]>>(bounds.length - 1);
+        for (int i = 0; i < bounds.length - 1; i++)
+        {
+            final int from = bounds[i];
+            final int until = bounds[i + 1];
+            futures.add(executor.submit(new Callable<double[]>() {
+                public double[] call()
+                {
+                    return acc.write(to, from, until, count, mean, clamp);
+                }
+            }));
+        }
+        double[] minMax = new double[] { Double.MAX_VALUE, -Double.MAX_VALUE };
+        for (double[] band : await(futures))
+        {
+            minMax[0] = band[0] < minMax[0]? band[0] : minMax[0];
+            minMax[1] = band[1] > minMax[1]? band[1] : minMax[1];
+        }
+        return minMax;
+    }
+
+    /**
+     * Waits for all the given tasks, rethrowing the first failure.
+     */
+    private <T> List<T> await(List<Future<T>> futures)
+    {
+        List<T> results = new ArrayList<T>(futures.size());
+        RuntimeException failure = null;
+        for (Future<T> future : futures)
+        {
+            try
+            {
+                results.add(future.get());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                failure = new ResourceError("Interrupted while projecting.");
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error)
+                {
+                    throw (Error) cause;
+                }
+                failure = cause instanceof RuntimeException?
+                        (RuntimeException) cause : new RuntimeException(cause);
+            }
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * Per pixel sums or maxima of the projected planes.
+     */
+    private static class Accumulator
+    {
+        /** Values of integral pixels types. */
+        private final long[] integral;
+
+        /** Values of floating point pixels types. */
+        private final double[] floating;
+
+        Accumulator(boolean isFloat, int size)
+        {
+            integral = isFloat? null : new long[size];
+            floating = isFloat? new double[size] : null;
+        }
+
+        /**
+         * Adds the pixels of a plane in the range <code>[from, to)</code>.
+         * @param plane The plane.
+         * @param data A view of the plane's buffer for this thread.
+         */
+        void add(PixelData plane, ByteBuffer data, int from, int to,
+                 boolean max)
+        {
+            boolean signed = plane.isSigned();
+            switch (plane.javaType())
+            {
+                case PixelData.BYTE:
+                {
+                    long[] acc = integral;
+                    for (int i = from; i < to; i++)
+                    {
+                        long v = signed? data.get(i) : data.get(i) & 0xFF;
+                        if (max)
+                        {
+                            if (v > acc[i]) acc[i] = v;
+                        }
+                        else
+                        {
+                            acc[i] += v;
+                        }
+                    }
+                    break;
+                }
+                case PixelData.SHORT:
+                {
+                    long[] acc = integral;
+                    ShortBuffer s = data.asShortBuffer();
+                    for (int i = from; i < to; i++)
+                    {
+                        long v = signed? s.get(i) : s.get(i) & 0xFFFF;
+                        if (max)
+                        {
+                            if (v > acc[i]) acc[i] = v;
+                        }
+                        else
+                        {
+                            acc[i] += v;
+                        }
+                    }
+                    break;
+                }
+                case PixelData.INT:
+                {
+                    long[] acc = integral;
+                    IntBuffer b = data.asIntBuffer();
+                    for (int i = from; i < to; i++)
+                    {
+                        long v = signed? b.get(i) : b.get(i) & 0xFFFFFFFFL;
+                        if (max)
+                        {
+                            if (v > acc[i]) acc[i] = v;
+                        }
+                        else
+                        {
+                            acc[i] += v;
+                        }
+                    }
+                    break;
+                }
+                case PixelData.FLOAT:
+                {
+                    double[] acc = floating;
+                    FloatBuffer f = data.asFloatBuffer();
+                    for (int i = from; i < to; i++)
+                    {
+                        double v = f.get(i);
+                        if (max)
+                        {
+                            if (v > acc[i]) acc[i] = v;
+                        }
+                        else
+                        {
+                            acc[i] += v;
+                        }
+                    }
+                    break;
+                }
+                case PixelData.DOUBLE:
+                {
+                    double[] acc = floating;
+                    DoubleBuffer d = data.asDoubleBuffer();
+                    for (int i = from; i < to; i++)
+                    {
+                        double v = d.get(i);
+                        if (max)
+                        {
+                            if (v > acc[i]) acc[i] = v;
+                        }
+                        else
+                        {
+                            acc[i] += v;
+                        }
+                    }
+                    break;
+                }
+                default:
+                {
+                    // Bit masks, rare enough not to need a fast path.
+                    long[] acc = integral;
+                    for (int i = from; i < to; i++)
+                    {
+                        long v = (long) plane.getPixelValue(i);
+                        if (max)
+                        {
+                            if (v > acc[i]) acc[i] = v;
+                        }
+                        else
+                        {
+                            acc[i] += v;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes the projected values in the range <code>[from, to)</code>.
+         * @return The minimum and maximum of the written values.
+         */
+        double[] write(PixelData to, int from, int until, int count,
+                       boolean mean, boolean clamp)
+        {
+            double planeMaximum = to.getMaximum();
+            double minimum = Double.MAX_VALUE;
+            double maximum = -Double.MAX_VALUE;
+            for (int i = from; i < until; i++)
+            {
+                double v = integral != null? integral[i] : floating[i];
+                if (mean)
+                {
+                    v = v / count;
+                }
+                if (clamp && v > planeMaximum)
+                {
+                    v = planeMaximum;
+                }
+                to.setPixelValue(i, v);
+                minimum = v < minimum? v : minimum;
+                maximum = v > maximum? v : maximum;
+            }
+            return new double[] { minimum, maximum };
+        }
+    }
+}
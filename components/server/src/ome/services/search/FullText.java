@@ -20,8 +20,11 @@ import java.util.Map;
 
 import ome.conditions.ApiUsageException;
 import ome.model.IAnnotated;
+import ome.model.IGlobal;
 import ome.model.IObject;
 import ome.model.core.Image;
+import ome.model.internal.Details;
+import ome.system.EventContext;
 import ome.system.ServiceFactory;
 import ome.util.search.InvalidQueryException;
 import ome.util.search.LuceneQueryBuilder;
@@ -29,9 +32,15 @@ import ome.util.search.LuceneQueryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.TermQuery;
 import org.hibernate.Criteria;
 import org.hibernate.Session;
 import org.hibernate.criterion.Order;
@@ -70,6 +79,17 @@ public class FullText extends SearchAction {
 
     private final Class<? extends Analyzer> analyzer;
 
+    /** Index of the first hit of the page, if {@link #maxResults} is set. */
+    private int firstResult = 0;
+
+    /** Number of hits per page, or null to return all hits at once. */
+    private Integer maxResults = null;
+
+    /** Number of hits found by the last call to doWork. */
+    private int totalSize = -1;
+
+    private boolean aclFilter = false;
+
     /**
      * Constructs a new instance; Builds a Lucence query with the provided
      * arguments and passes it on the Lucene parser
@@ -303,6 +323,109 @@ public class FullText extends SearchAction {
                 ProjectionConstants.ID);
     }
 
+    /**
+     * Restricts the next call to {@link #doWork(Session, ServiceFactory)} to
+     * the given range of hits, in score order, so that only the objects of
+     * that page are loaded from the database. Some hits of a page may be
+     * filtered out when they are loaded.
+     *
+     * @param firstResult
+     *            Index of the first hit to return.
+     * @param maxResults
+     *            Number of hits to return.
+     */
+    public void page(int firstResult, int maxResults) {
+        if (firstResult < 0 || maxResults < 1) {
+            throw new ApiUsageException("Invalid page: " + firstResult + ", "
+                    + maxResults);
+        }
+        this.firstResult = firstResult;
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * Whether the hits after the last page returned by
+     * {@link #doWork(Session, ServiceFactory)} remain to be loaded.
+     */
+    public boolean hasMorePages() {
+        return maxResults != null && totalSize >= 0
+                && firstResult + maxResults < totalSize;
+    }
+
+    /**
+     * Moves to the page following the last one returned by
+     * {@link #doWork(Session, ServiceFactory)}.
+     */
+    public void nextPage() {
+        if (maxResults == null) {
+            throw new ApiUsageException("Not paged");
+        }
+        firstResult += maxResults;
+    }
+
+    /**
+     * Whether the group and owner restrictions are also passed to Lucene as a
+     * filter on the "details.group.id" and "details.owner.id" fields, so that
+     * hits which could not be loaded are neither counted nor paged over. Only
+     * objects indexed since these fields were added carry them.
+     */
+    public void setAclFilter(boolean aclFilter) {
+        this.aclFilter = aclFilter;
+    }
+
+    /**
+     * Builds a filter matching the documents in the groups visible in the
+     * current context and, if requested, of the given owner or group. Returns
+     * null if no restriction applies. The database query still applies the
+     * full security checks.
+     */
+    private Filter aclFilter(ServiceFactory sf) {
+        final Class<?> cls = values.onlyTypes.get(0);
+        if (!aclFilter || IGlobal.class.isAssignableFrom(cls)) {
+            return null;
+        }
+        final BooleanQuery filter = new BooleanQuery();
+
+        final EventContext ec = sf.getAdminService().getEventContext();
+        final Long groupId = ec.getCurrentGroupId();
+        BooleanQuery groups = null;
+        if (groupId != null && groupId >= 0) {
+            groups = terms("details.group.id",
+                    Collections.singletonList(groupId));
+        } else if (!ec.isCurrentUserAdmin()) {
+            groups = terms("details.group.id", ec.getMemberOfGroupsList());
+        }
+        if (groups != null) {
+            filter.add(groups, Occur.MUST);
+        }
+
+        final Details d = values.ownedBy;
+        if (d != null && d.getOwner() != null && d.getOwner().getId() != null) {
+            filter.add(terms("details.owner.id",
+                    Collections.singletonList(d.getOwner().getId())),
+                    Occur.MUST);
+        } else if (d != null && d.getGroup() != null
+                && d.getGroup().getId() != null) {
+            filter.add(terms("details.group.id",
+                    Collections.singletonList(d.getGroup().getId())),
+                    Occur.MUST);
+        }
+
+        if (filter.clauses().isEmpty()) {
+            return null;
+        }
+        return new QueryWrapperFilter(filter);
+    }
+
+    private static BooleanQuery terms(String field, List<Long> ids) {
+        final BooleanQuery query = new BooleanQuery();
+        for (Long id : ids) {
+            query.add(new TermQuery(new Term(field, id.toString())),
+                    Occur.SHOULD);
+        }
+        return query;
+    }
+
     @Transactional(readOnly = true)
     public Object doWork(Session s, ServiceFactory sf) {
 
@@ -327,28 +450,36 @@ public class FullText extends SearchAction {
         // Main query
         FullTextQuery ftQuery = session.createFullTextQuery(this.q, cls);
         initializeQuery(ftQuery);
+        final Filter filter = aclFilter(sf);
+        if (filter != null) {
+            ftQuery.setFilter(filter);
+        }
+        if (maxResults != null) {
+            // Lucene only collects the top firstResult + maxResults hits.
+            ftQuery.setFirstResult(firstResult);
+            ftQuery.setMaxResults(maxResults);
+        }
         List<?> result = ftQuery.list();
         int totalSize = ftQuery.getResultSize();
+        this.totalSize = totalSize;
 
         if (result.size() == 0) {
             // EARLY EXIT 
             return result; // of wrong type but with generics it doesn't matter
         }
 
-        final Map<Long, Integer> order = new HashMap<Long, Integer>();
-        final Map<Long, Float> scores = new HashMap<Long, Float>();
-        final Map<Long, Object[]> projections = new HashMap<Long, Object[]>();
+        // Hit index by id, the score and projections are taken from the hit
+        final Map<Long, Integer> order = new HashMap<Long, Integer>(
+                result.size() * 2);
         for (int i = 0; i < result.size(); i++) {
             Object[] parts = (Object[]) result.get(i);
-            scores.put((Long) parts[1], (Float) parts[0]);
             order.put((Long) parts[1], i);
-            projections.put((Long) parts[1], parts);
         }
 
         // TODO Could add a performance optimization here on returnUnloaded
 
-        final LinkedList<Long> ids = new LinkedList<Long>(scores.keySet());
-        final List<IObject> check975 = new ArrayList<IObject>();
+        final LinkedList<Long> ids = new LinkedList<Long>(order.keySet());
+        final List<IObject> check975 = new ArrayList<IObject>(order.size());
 
         while (ids.size() > 0) {
             final List<Long> page = new ArrayList<Long>();
@@ -369,10 +500,11 @@ public class FullText extends SearchAction {
                 throw new ApiUsageException(String.format(ticket975, object
                         .getClass(), cls));
             } else {
-                object.putAt(TOTAL_SIZE, totalSize);
-                object.putAt(ProjectionConstants.SCORE, scores.get(object
+                Object[] parts = (Object[]) result.get(order.get(object
                         .getId()));
-                object.putAt(ALL_PROJECTIONS, projections.get(object.getId()));
+                object.putAt(TOTAL_SIZE, totalSize);
+                object.putAt(ProjectionConstants.SCORE, parts[0]);
+                object.putAt(ALL_PROJECTIONS, parts);
             }
         }
 
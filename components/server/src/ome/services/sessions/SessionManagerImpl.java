@@ -9,9 +9,12 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
@@ -87,7 +90,7 @@ import com.google.common.collect.MapMaker;
  * @author Josh Moore, josh at glencoesoftware.com
  * @since 3.0-Beta3
  */
-public class SessionManagerImpl implements SessionManager, SessionCache.StaleCacheListener,
+public class SessionManagerImpl implements SessionManager, SessionCache.BulkStaleCacheListener,
         ApplicationContextAware, ApplicationListener<ApplicationEvent> {
 
     public final static String GROUP_SUDO_NS = "openmicroscopy.org/security/group-sudo";
@@ -1022,6 +1025,42 @@ public class SessionManagerImpl implements SessionManager, SessionCache.StaleCac
         return createSessionContext(list, ctx);
     }
 
+    /**
+     * Reloads many sessions within a single transaction. The sessions, their
+     * users and groups, as well as the group memberships of those users are
+     * each loaded with a single query, so that a user with several sessions
+     * is only looked up once. Sessions whose user, group or session row is
+     * not found are left out of the returned map, so that the
+     * {@link SessionCache} reloads them one at a time with
+     * {@link #reload(SessionContext)}.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, SessionContext> reloadAll(
+            final Collection<SessionContext> contexts) {
+        if (contexts.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<String, List<Object>> lists = (Map<String, List<Object>>)
+            executor.execute(asroot, new Executor.SimpleWork(
+                this, "reloadAll", contexts.size()) {
+            @Transactional(readOnly = true)
+            public Object doWork(org.hibernate.Session session,
+                    ServiceFactory sf) {
+                return executeSessionContextLookups(session, contexts);
+            }
+        });
+        final Map<String, SessionContext> rv =
+            new HashMap<String, SessionContext>();
+        for (SessionContext ctx : contexts) {
+            final String uuid = ctx.getSession().getUuid();
+            final List<Object> list = lists.get(uuid);
+            if (list != null) {
+                rv.put(uuid, createSessionContext(list, ctx));
+            }
+        }
+        return rv;
+    }
+
     // Executor methods
     // =========================================================================
 
@@ -1418,6 +1457,98 @@ public class SessionManagerImpl implements SessionManager, SessionCache.StaleCac
         }
     }
 
+    /**
+     * Set-based version of
+     * {@link #executeSessionContextLookup(ServiceFactory, Principal, Session)}
+     * returning the state for creating a new {@link SessionContext} per
+     * session uuid.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, List<Object>> executeSessionContextLookups(
+            org.hibernate.Session s, Collection<SessionContext> contexts) {
+
+        final Set<String> userNames = new HashSet<String>();
+        final Set<String> groupNames = new HashSet<String>();
+        final Set<Long> sessionIds = new HashSet<Long>();
+        for (SessionContext ctx : contexts) {
+            userNames.add(ctx.getCurrentUserName());
+            groupNames.add(ctx.getCurrentGroupName());
+            sessionIds.add(ctx.getSession().getId());
+        }
+
+        final Map<String, Experimenter> users =
+            new HashMap<String, Experimenter>();
+        for (Experimenter e : (List<Experimenter>) s.createQuery(
+                "select e from Experimenter e where e.omeName in (:names)")
+                .setParameterList("names", userNames).list()) {
+            users.put(e.getOmeName(), e);
+        }
+
+        final Map<String, ExperimenterGroup> groups =
+            new HashMap<String, ExperimenterGroup>();
+        for (ExperimenterGroup g : (List<ExperimenterGroup>) s.createQuery(
+                "select g from ExperimenterGroup g where g.name in (:names)")
+                .setParameterList("names", groupNames).list()) {
+            groups.put(g.getName(), g);
+        }
+
+        final Map<Long, List<Long>> memberOf = new HashMap<Long, List<Long>>();
+        final Map<Long, List<Long>> leaderOf = new HashMap<Long, List<Long>>();
+        final Map<Long, List<String>> userRoles =
+            new HashMap<Long, List<String>>();
+        if (!users.isEmpty()) {
+            final Set<Long> userIds = new HashSet<Long>();
+            for (Experimenter e : users.values()) {
+                userIds.add(e.getId());
+                memberOf.put(e.getId(), new ArrayList<Long>());
+                leaderOf.put(e.getId(), new ArrayList<Long>());
+                userRoles.put(e.getId(), new ArrayList<String>());
+            }
+            for (Object[] row : (List<Object[]>) s.createQuery(
+                    "select e.id, m.parent.id, m.parent.name, m.owner " +
+                    "from Experimenter e join e.groupExperimenterMap m " +
+                    "where e.id in (:ids) order by e.id, index(m)")
+                    .setParameterList("ids", userIds).list()) {
+                final Long userId = (Long) row[0];
+                memberOf.get(userId).add((Long) row[1]);
+                userRoles.get(userId).add((String) row[2]);
+                if (Boolean.TRUE.equals(row[3])) {
+                    leaderOf.get(userId).add((Long) row[1]);
+                }
+            }
+        }
+
+        final Map<Long, Session> sessions = new HashMap<Long, Session>();
+        for (Session reloaded : (List<Session>) s.createQuery(
+                "select distinct s from Session s "
+                + "left outer join fetch s.annotationLinks l "
+                + "left outer join fetch l.child a where s.id in (:ids)")
+                .setParameterList("ids", sessionIds).list()) {
+            sessions.put(reloaded.getId(), reloaded);
+        }
+
+        final Map<String, List<Object>> rv = new HashMap<String, List<Object>>();
+        for (SessionContext ctx : contexts) {
+            final Experimenter exp = users.get(ctx.getCurrentUserName());
+            final ExperimenterGroup grp = groups.get(ctx.getCurrentGroupName());
+            final Session reloaded = sessions.get(ctx.getSession().getId());
+            if (exp == null || grp == null || reloaded == null) {
+                continue;
+            }
+            List<Object> list = new ArrayList<Object>();
+            list.add(exp);
+            list.add(grp);
+            list.add(new ArrayList<Long>(memberOf.get(exp.getId())));
+            list.add(new ArrayList<Long>(leaderOf.get(exp.getId())));
+            list.add(new ArrayList<String>(userRoles.get(exp.getId())));
+            list.add(new Principal(ctx.getCurrentUserName(),
+                    ctx.getCurrentGroupName(), ctx.getCurrentEventType()));
+            list.add(reloaded);
+            rv.put(ctx.getSession().getUuid(), list);
+        }
+        return rv;
+    }
+
     private Share newShare() {
         Share share = new Share();
         share.putAt("#2733", "ALLOW");
@@ -5,6 +5,11 @@
 
 package ome.services.sessions.events;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 import ome.model.meta.Experimenter;
 import ome.model.meta.ExperimenterGroup;
 import ome.model.meta.GroupExperimenterMap;
@@ -24,8 +29,33 @@ import ome.util.messages.InternalMessage;
  */
 public class UserGroupUpdateEvent extends InternalMessage {
 
+    private final Set<Long> experimenterIds;
+
+    /**
+     * Signals a change which may concern any user, so that all sessions
+     * must be reloaded.
+     */
     public UserGroupUpdateEvent(Object source) {
         super(source);
+        this.experimenterIds = null;
+    }
+
+    /**
+     * Signals a change which concerns only the given users, so that only
+     * their sessions need to be reloaded.
+     */
+    public UserGroupUpdateEvent(Object source, Collection<Long> experimenterIds) {
+        super(source);
+        this.experimenterIds = Collections.unmodifiableSet(
+                new HashSet<Long>(experimenterIds));
+    }
+
+    /**
+     * @return the ids of the {@link Experimenter users} concerned by this
+     * change, or null if it may concern any user.
+     */
+    public Set<Long> getExperimenterIds() {
+        return experimenterIds;
     }
 
     private static final long serialVersionUID = 1L;
@@ -5,9 +5,13 @@
 package ome.services.sessions.state;
 
 import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -17,6 +21,7 @@ import net.sf.ehcache.Ehcache;
 import ome.conditions.ApiUsageException;
 import ome.conditions.RemovedSessionException;
 import ome.conditions.SessionTimeoutException;
+import ome.model.meta.Experimenter;
 import ome.model.meta.Session;
 import ome.services.messages.DestroySessionMessage;
 import ome.services.sessions.SessionCallback;
@@ -70,6 +75,30 @@ public class SessionCache implements ApplicationContextAware {
         SessionContext reload(SessionContext context);
     }
 
+    /**
+     * {@link StaleCacheListener} which can reload many sessions at once, for
+     * example with a few set-based queries rather than a transaction per
+     * session. Used by {@link SessionCache#doUpdate()} in batches of at most
+     * {@link SessionCache#RELOAD_BATCH} sessions.
+     */
+    public interface BulkStaleCacheListener extends StaleCacheListener {
+
+        /**
+         * Reloads all the given sessions. The returned map from session uuid
+         * to replacement {@link SessionContext} may map a uuid to null to show
+         * that the session should be removed. Sessions which are missing from
+         * the map, or all sessions if a runtime exception is thrown, are then
+         * passed one at a time to {@link #reload(SessionContext)}.
+         */
+        Map<String, SessionContext> reloadAll(Collection<SessionContext> contexts);
+    }
+
+    /**
+     * Maximum number of sessions passed to a single call of
+     * {@link BulkStaleCacheListener#reloadAll(Collection)}.
+     */
+    public final static int RELOAD_BATCH = 500;
+
     /**
      * Container which can be put in a single {@link AtomicReference} instance.
      * Contains all the data for a single session immutably. Therefore any
@@ -247,6 +276,26 @@ public class SessionCache implements ApplicationContextAware {
      */
     private final AtomicBoolean active = new AtomicBoolean();
 
+    /**
+     * Whether a {@link UserGroupUpdateEvent} which may concern any user has
+     * been received since the last full reload.
+     */
+    private final AtomicBoolean pendingAll = new AtomicBoolean();
+
+    /**
+     * Ids of the users named by {@link UserGroupUpdateEvent}s since the last
+     * reload. Only their sessions need reloading unless {@link #pendingAll}
+     * is set or {@link #forceUpdateInterval} has passed.
+     */
+    private final Set<Long> pendingUsers =
+        Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    /**
+     * Time at which the last reload of all sessions started. Only accessed
+     * from {@link #doUpdate()}.
+     */
+    private long lastFullReload = System.currentTimeMillis();
+
     /**
      * {@link OmeroContext} instance used to publish
      * {@link DestroySessionMessage} on {@link #removeSession(String)}
@@ -586,8 +635,16 @@ public class SessionCache implements ApplicationContextAware {
      * Adds a new entry to {@link #state}. If the
      * timestamp on the event is invalid, then
      * {@link System#currentTimeMillis()} will be used.
+     * If the event names the users it concerns, then only their sessions
+     * will be reloaded by the next {@link #doUpdate()}.
      */
     public void updateEvent(UserGroupUpdateEvent ugue) {
+        if (ugue == null || ugue.getExperimenterIds() == null) {
+            pendingAll.set(true);
+        } else {
+            pendingUsers.addAll(ugue.getExperimenterIds());
+        }
+
         long time = 0;
         if (ugue == null || ugue.getTimestamp() > System.currentTimeMillis()) {
             time = System.currentTimeMillis();
@@ -621,11 +678,29 @@ public class SessionCache implements ApplicationContextAware {
         }
 
         try {
+            final long started = System.currentTimeMillis();
+            final boolean full = pendingAll.getAndSet(false)
+                    || started - lastFullReload >= forceUpdateInterval;
+            final Set<Long> users = full ? null : takePendingUsers();
             final Set<String> ids = sessions.keySet();
-            log.info("Synchronizing session cache. Count = " + ids.size());
+            log.info("Synchronizing session cache. Count = " + ids.size()
+                    + (full ? "" : ", users = " + users.size()));
             final StopWatch sw = new Slf4JStopWatch();
+            final Map<String, Data> batch = new LinkedHashMap<String, Data>();
             for (String id : ids) {
-                reload(id);
+                final Data data = getDataOrRemove(id);
+                if (data == null || !(full || users.contains(ownerId(data)))) {
+                    continue;
+                }
+                batch.put(id, data);
+                if (batch.size() >= RELOAD_BATCH) {
+                    reload(batch);
+                    batch.clear();
+                }
+            }
+            reload(batch);
+            if (full) {
+                lastFullReload = started;
             }
 
             sw.stop("omero.sessions.synchronization");
@@ -640,6 +715,67 @@ public class SessionCache implements ApplicationContextAware {
 
     }
 
+    /**
+     * Removes and returns the ids in {@link #pendingUsers}, leaving any which
+     * are concurrently added for the next run.
+     */
+    private Set<Long> takePendingUsers() {
+        final Set<Long> users = new HashSet<Long>(pendingUsers);
+        pendingUsers.removeAll(users);
+        return users;
+    }
+
+    private static Long ownerId(Data data) {
+        final Experimenter owner =
+            data.sessionContext.getSession().getDetails().getOwner();
+        return owner == null ? null : owner.getId();
+    }
+
+    /**
+     * Reloads a batch of sessions, with a single call to the listener if it
+     * is a {@link BulkStaleCacheListener}.
+     */
+    private void reload(Map<String, Data> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final StaleCacheListener listener = staleCacheListener.get();
+        if (listener == null) {
+            log.error("Null stale cache listener!");
+            return;
+        }
+
+        Map<String, SessionContext> replacements = Collections.emptyMap();
+        if (listener instanceof BulkStaleCacheListener) {
+            final Set<SessionContext> contexts = new HashSet<SessionContext>();
+            for (Data data : batch.values()) {
+                contexts.add(data.sessionContext);
+            }
+            try {
+                replacements = ((BulkStaleCacheListener) listener)
+                        .reloadAll(contexts);
+            } catch (Exception e) {
+                log.warn("Bulk reload of " + batch.size() + " sessions "
+                        + "failed. Reloading individually.", e);
+            }
+        }
+
+        for (Map.Entry<String, Data> entry : batch.entrySet()) {
+            final String id = entry.getKey();
+            if (replacements.containsKey(id)) {
+                final SessionContext replacement = replacements.get(id);
+                if (replacement == null) {
+                    internalRemove(id, "Replacement null");
+                } else {
+                    refresh(id, entry.getValue(), replacement);
+                }
+            } else {
+                reload(id, entry.getValue(), listener);
+            }
+        }
+    }
+
     /**
      * Provides the reloading logic of the {@link SessionCache} for the
      * {@link SessionManagerImpl} to use.
@@ -655,21 +791,34 @@ public class SessionCache implements ApplicationContextAware {
             return;
         }
 
-        Data data = null;
+        final Data data = getDataOrRemove(id);
+        if (data != null) {
+            reload(id, data, listener);
+        }
+    }
+
+    /**
+     * Returns the {@link Data} for the given session or removes the session
+     * if it has timed out.
+     */
+    private Data getDataOrRemove(String id) {
         try {
-            data = getDataNullOrThrowOnTimeout(id, false);
+            final Data data = getDataNullOrThrowOnTimeout(id, false);
             if (data == null) {
                 internalRemove(id, "Timeout");
-                return;
             }
+            return data;
         } catch (Exception e) {
             // If an exception occurs here, then something is wrong
             // with the Data instance itself since no DB calls are
             // made. Therefore the instance will be removed.
             log.warn("Removing session on get error of " + id, e);
             internalRemove(id, "Get error");
+            return null;
         }
+    }
 
+    private void reload(String id, Data data, StaleCacheListener listener) {
         try {
             SessionContext ctx = data.sessionContext;
             // May throw an exception
@@ -5,11 +5,15 @@
 
 package ome.services.util;
 
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -22,6 +26,9 @@ import ome.system.EventContext;
 import ome.system.OmeroContext;
 import ome.system.Principal;
 import ome.system.ServiceFactory;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
 import ome.tools.hibernate.SessionFactory;
 import ome.tools.spring.InternalServiceFactory;
 import ome.util.SqlAction;
@@ -34,6 +41,9 @@ import org.slf4j.LoggerFactory;
 import org.hibernate.Session;
 import org.hibernate.StatelessSession;
 import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.framework.ReflectiveMethodInvocation;
+import org.springframework.aop.framework.adapter.AdvisorAdapterRegistry;
+import org.springframework.aop.framework.adapter.GlobalAdvisorAdapterRegistry;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
@@ -328,6 +338,21 @@ public interface Executor extends ApplicationContextAware {
 
         private final static Logger log = LoggerFactory.getLogger(Executor.class);
 
+        /** The method invoked on each {@link Work} by the advice chain. */
+        private final static Method DO_WORK;
+
+        /** The most timers kept, beyond which works share a single timer. */
+        private final static int MAX_TIMERS = 1000;
+
+        static {
+            try {
+                DO_WORK = Work.class.getMethod("doWork", Session.class,
+                        ServiceFactory.class);
+            } catch (NoSuchMethodException nsme) {
+                throw new ExceptionInInitializerError(nsme);
+            }
+        }
+
         protected OmeroContext context;
         protected InternalServiceFactory isf;
         final protected List<Advice> advices = new ArrayList<Advice>();
@@ -338,6 +363,19 @@ public interface Executor extends ApplicationContextAware {
         final protected ExecutorService service;
         final protected ExecutorService systemService;
 
+        /**
+         * The {@link #advices} followed by an {@link Interceptor}, converted
+         * to {@link MethodInterceptor}s once rather than on each call to
+         * {@link #execute(Map, Principal, Work)}.
+         */
+        private volatile List<Object> chain;
+
+        /** Latency timers keyed by the name derived from the work. */
+        private final Map<String, Timer> timers =
+                new ConcurrentHashMap<String, Timer>();
+
+        private Metrics metrics = new NullMetrics();
+
         public Impl(CurrentDetails principalHolder, SessionFactory factory,
                 SqlAction sqlAction, String[] proxyNames) {
             this(principalHolder, factory, sqlAction, proxyNames,
@@ -363,6 +401,12 @@ public interface Executor extends ApplicationContextAware {
             for (String name : proxyNames) {
                 advices.add((Advice) this.context.getBean(name));
             }
+            chain = null;
+        }
+
+        public void setMetrics(Metrics metrics) {
+            this.metrics = metrics;
+            timers.clear();
         }
 
         public OmeroContext getContext() {
@@ -408,18 +452,6 @@ public interface Executor extends ApplicationContextAware {
                 ((SimpleWork) work).setSqlAction(sqlAction);
             }
 
-            Interceptor i = new Interceptor(factory);
-            ProxyFactory factory = new ProxyFactory();
-            factory.setTarget(work);
-            factory.setInterfaces(new Class[] { Work.class });
-
-            for (Advice advice : advices) {
-                factory.addAdvice(advice);
-            }
-            factory.addAdvice(i);
-
-            Work wrapper = (Work) factory.getProxy();
-
             // First we guarantee that this will cause one and only
             // login to take place.
             if (p == null && principalHolder.size() == 0) {
@@ -438,10 +470,13 @@ public interface Executor extends ApplicationContextAware {
                 this.principalHolder.setContext(callContext);
             }
 
+            final Timer.Context timer = timer(work).time();
             try {
                 // Arguments will be replaced after hibernate is in effect
-                return wrapper.doWork(null, isf);
+                return new WorkInvocation(work, new Object[] { null, isf },
+                        chain()).invoke();
             } finally {
+                timer.stop();
                 if (callContext != null) {
                     this.principalHolder.setContext(null);
                 }
@@ -457,6 +492,59 @@ public interface Executor extends ApplicationContextAware {
             }
         }
 
+        /**
+         * Returns the cached advice chain, building it on first use.
+         */
+        protected List<Object> chain() {
+            List<Object> current = chain;
+            if (current == null) {
+                AdvisorAdapterRegistry registry =
+                        GlobalAdvisorAdapterRegistry.getInstance();
+                List<Object> built = new ArrayList<Object>();
+                for (Advice advice : advices) {
+                    Collections.addAll(built,
+                            registry.getInterceptors(registry.wrap(advice)));
+                }
+                built.add(new Interceptor(factory));
+                current = Collections.unmodifiableList(built);
+                chain = current;
+            }
+            return current;
+        }
+
+        /**
+         * Returns the timer for the given work, named after the leading
+         * class and method of its description so that the arguments which
+         * the description may contain do not create a timer per call.
+         */
+        protected Timer timer(Work work) {
+            String description = work.description();
+            int end = 0;
+            if (description != null) {
+                while (end < description.length()) {
+                    char c = description.charAt(end);
+                    if (c != '.' && !Character.isJavaIdentifierPart(c)) {
+                        break;
+                    }
+                    end++;
+                }
+            }
+            String name = end == 0 ? work.getClass().getName()
+                    : description.substring(0, end);
+            Timer timer = timers.get(name);
+            if (timer == null) {
+                if (timers.size() >= MAX_TIMERS) {
+                    name = "other";
+                    timer = timers.get(name);
+                }
+                if (timer == null) {
+                    timer = metrics.timer(this, "execute." + name);
+                    timers.put(name, timer);
+                }
+            }
+            return timer;
+        }
+
         public <T> Future<T> submit(final Callable<T> callable) {
             return submit(null, null, callable);
         }
@@ -543,6 +631,34 @@ public interface Executor extends ApplicationContextAware {
             return wrapper.doWork(this.sqlAction);
         }
 
+        /**
+         * Runs a {@link Work} through the cached advice chain without
+         * creating a proxy for it. Being a {@link ReflectiveMethodInvocation},
+         * it is accepted by the interceptors which require one.
+         */
+        static class WorkInvocation extends ReflectiveMethodInvocation {
+
+            WorkInvocation(Work work, Object[] args, List<Object> chain) {
+                super(work, work, DO_WORK, args, work.getClass(), chain);
+            }
+
+            /**
+             * Proceeds down the chain, rethrowing checked exceptions as a
+             * proxy for {@link Work} would.
+             */
+            Object invoke() {
+                try {
+                    return proceed();
+                } catch (RuntimeException rt) {
+                    throw rt;
+                } catch (Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new UndeclaredThrowableException(t);
+                }
+            }
+        }
+
         /**
          * Interceptor class which properly lookups and injects the session
          * objects in the
@@ -52,6 +52,13 @@ public class ProxyCleanupFilter extends ContextFilter {
 
     protected Map unloadedObjectCache = new IdentityHashMap();
 
+    /**
+     * Passed to {@link ACLVoter#postProcess(IObject, Map)} so that the
+     * security checks are shared by equivalent objects of the return value.
+     */
+    protected final Map<Object, Object> postProcessBatch =
+        new HashMap<Object, Object>();
+
     protected final ACLVoter acl;
 
     protected final CurrentDetails current;
@@ -120,7 +127,7 @@ public class ProxyCleanupFilter extends ContextFilter {
                     // When acl is null, assume this is for internal use
                     // and therefore the object will not be passed out.
                     // See ticket:8794 and OmeroMetadata.java
-                    acl.postProcess((IObject) f);
+                    acl.postProcess((IObject) f, postProcessBatch);
                 }
             }
 
@@ -36,6 +36,9 @@ import ome.model.internal.Permissions;
 import ome.model.meta.Experimenter;
 import ome.model.meta.ExperimenterGroup;
 import ome.parameters.Parameters;
+import ome.services.fulltext.FullTextAnalyzer;
+import ome.services.search.FullText;
+import ome.services.search.SearchValues;
 import ome.services.util.Executor;
 import ome.system.Principal;
 import ome.system.ServiceFactory;
@@ -2515,9 +2518,152 @@ public class SearchTest extends AbstractTest {
         assertAtLeastResults(search, 1);
     }
 
+    /**
+     * Pages of full text hits, whether loaded directly or in the batches of
+     * a {@link Search}, follow the order of the unpaged hits.
+     */
+    @Test
+    public void testFullTextPagesInScoreOrder() {
+        loginNewUser();
+        String term = uuid();
+        // More occurrences of the term give different scores
+        for (int k = 0; k < 7; k++) {
+            Image i = new Image();
+            i.setName(term);
+            StringBuilder description = new StringBuilder();
+            for (int j = 0; j <= k; j++) {
+                description.append(term).append(' ');
+            }
+            i.setDescription(description.toString());
+            i = iUpdate.saveAndReturnObject(i);
+            indexObject(i);
+        }
+
+        List<Long> expected = ids(executor.execute(loginAop.p,
+                fullText(term, null, false, null)));
+        assertEquals(7, expected.size());
+
+        FullText paged = fullText(term, null, false, null);
+        paged.page(0, 3);
+        List<Long> actual = new ArrayList<Long>();
+        Float lastScore = Float.MAX_VALUE;
+        for (int pageSize : new int[] { 3, 3, 1 }) {
+            List<IObject> page = (List<IObject>) executor.execute(
+                    loginAop.p, paged);
+            assertEquals(pageSize, page.size());
+            for (IObject obj : page) {
+                Float score = paged.getScore(obj);
+                assertTrue(score <= lastScore);
+                lastScore = score;
+                assertEquals(Integer.valueOf(7), paged.getTotalSize(obj));
+            }
+            actual.addAll(ids(page));
+            assertEquals(pageSize == 3, paged.hasMorePages());
+            if (paged.hasMorePages()) {
+                paged.nextPage();
+            }
+        }
+        assertEquals(expected, actual);
+
+        Search search = this.factory.createSearchService();
+        search.onlyType(Image.class);
+        search.setBatchSize(3);
+        search.byFullText(term);
+        assertEquals(1, search.activeQueries());
+        actual.clear();
+        for (int batchSize : new int[] { 3, 3, 1 }) {
+            assertTrue(search.hasNext());
+            List<IObject> batch = search.results();
+            assertEquals(batchSize, batch.size());
+            actual.addAll(ids(batch));
+            // the search is active until its last page is loaded
+            assertEquals(batchSize == 3 ? 1 : 0, search.activeQueries());
+        }
+        assertFalse(search.hasNext());
+        assertEquals(expected, actual);
+
+        // Clearing the queries drops the remaining pages
+        search.byFullText(term);
+        assertEquals(3, search.results().size());
+        assertEquals(1, search.activeQueries());
+        search.clearQueries();
+        assertEquals(0, search.activeQueries());
+        assertFalse(search.hasNext());
+        search.close();
+    }
+
+    /**
+     * Hits that cannot be loaded are counted and paged over unless the
+     * groups and owners are also filtered by Lucene.
+     */
+    @Test
+    public void testFullTextAclFilter() {
+        Experimenter e = loginNewUser();
+        String term = uuid();
+        for (int k = 0; k < 5; k++) {
+            Image i = new Image();
+            i.setName(term);
+            i = iUpdate.saveAndReturnObject(i);
+            indexObject(i);
+        }
+
+        Details owner = Details.create();
+        owner.setOwner(new Experimenter(e.getId(), false));
+        Details root = Details.create();
+        root.setOwner(new Experimenter(0L, false));
+
+        for (boolean aclFilter : new boolean[] { false, true }) {
+            // Owned by the user
+            FullText ft = fullText(term, owner, aclFilter, 2);
+            assertEquals(2, ((List<?>) executor.execute(loginAop.p, ft))
+                    .size());
+            assertTrue(ft.hasMorePages());
+
+            // Owned by someone else
+            ft = fullText(term, root, aclFilter, 2);
+            assertEquals(0, ((List<?>) executor.execute(loginAop.p, ft))
+                    .size());
+            assertEquals(!aclFilter, ft.hasMorePages());
+        }
+
+        // Another user in another private group
+        loginNewUser();
+        for (boolean aclFilter : new boolean[] { false, true }) {
+            FullText ft = fullText(term, null, aclFilter, 2);
+            assertEquals(0, ((List<?>) executor.execute(loginAop.p, ft))
+                    .size());
+            assertEquals(!aclFilter, ft.hasMorePages());
+        }
+    }
+
     // Helpers
     // =========================================================================
 
+    /**
+     * Returns a full text search for images, optionally paged from the first
+     * hit.
+     */
+    FullText fullText(String query, Details ownedBy, boolean aclFilter,
+            Integer pageSize) {
+        SearchValues values = new SearchValues();
+        values.onlyTypes = Arrays.<Class> asList(Image.class);
+        values.ownedBy = ownedBy;
+        FullText ft = new FullText(values, query, FullTextAnalyzer.class);
+        ft.setAclFilter(aclFilter);
+        if (pageSize != null) {
+            ft.page(0, pageSize);
+        }
+        return ft;
+    }
+
+    List<Long> ids(Object objects) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Object obj : (List<?>) objects) {
+            ids.add(((IObject) obj).getId());
+        }
+        return ids;
+    }
+
     List<IObject> assertResults(Search search, int k) {
         if (k == 0) {
             assertFalse(search.hasNext());
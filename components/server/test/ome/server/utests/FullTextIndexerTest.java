@@ -0,0 +1,160 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ome.model.core.Image;
+import ome.model.meta.EventLog;
+import ome.services.eventlogs.EventLogLoader;
+import ome.services.fulltext.FullTextIndexer;
+
+import org.hibernate.search.FullTextSession;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests how the {@link FullTextIndexer} recovers when the combined flush of a
+ * batch fails.
+ */
+@Test(groups = { "unit", "fulltext" })
+public class FullTextIndexerTest {
+
+    ListLogLoader loader;
+
+    Indexer indexer;
+
+    /** Ids purged since the last flush. */
+    List<Long> queued;
+
+    /** Ids written by successful flushes. */
+    List<Long> flushed;
+
+    /** Ids whose flush fails even on their own. */
+    List<Long> broken;
+
+    int flushes;
+
+    FullTextSession session;
+
+    @BeforeMethod
+    public void setup() {
+        loader = new ListLogLoader();
+        indexer = new Indexer(loader);
+        queued = new ArrayList<Long>();
+        flushed = new ArrayList<Long>();
+        broken = new ArrayList<Long>();
+        flushes = 0;
+        session = (FullTextSession) Proxy.newProxyInstance(getClass()
+                .getClassLoader(), new Class[] { FullTextSession.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        String name = method.getName();
+                        if ("purge".equals(name)) {
+                            queued.add((Long) args[1]);
+                        } else if ("flushToIndexes".equals(name)) {
+                            flush();
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Like Hibernate Search, drops the queued work whether or not it could be
+     * written.
+     */
+    void flush() {
+        flushes++;
+        List<Long> work = new ArrayList<Long>(queued);
+        queued.clear();
+        for (Long id : work) {
+            if (broken.contains(id)) {
+                throw new RuntimeException("Cannot index " + id);
+            }
+        }
+        flushed.addAll(work);
+    }
+
+    public void testBatchIsFlushedOnce() {
+        addDeletes(1L, 2L, 3L);
+        Assert.assertEquals(indexer.doIndexing(session), 3);
+        Assert.assertEquals(flushes, 1);
+        Assert.assertEquals(flushed, Arrays.asList(1L, 2L, 3L));
+        Assert.assertTrue(indexer.failures.isEmpty());
+    }
+
+    public void testFailedBatchIsRetriedInTheSameRun() {
+        addDeletes(1L, 2L, 3L);
+        broken.add(2L);
+        Assert.assertEquals(indexer.doIndexing(session), 3);
+        // The combined flush then one per event log.
+        Assert.assertEquals(flushes, 4);
+        Assert.assertEquals(flushed, Arrays.asList(1L, 3L));
+        Assert.assertEquals(indexer.failures.size(), 1);
+        Assert.assertEquals(indexer.failures.get(0).getEntityId(),
+                Long.valueOf(2L));
+        Assert.assertTrue(queued.isEmpty());
+    }
+
+    public void testEveryFailingLogIsReported() {
+        addDeletes(1L, 2L, 3L);
+        broken.addAll(Arrays.asList(1L, 3L));
+        indexer.doIndexing(session);
+        Assert.assertEquals(flushed, Arrays.asList(2L));
+        Assert.assertEquals(indexer.failures.size(), 2);
+        Assert.assertEquals(indexer.failures.get(0).getEntityId(),
+                Long.valueOf(1L));
+        Assert.assertEquals(indexer.failures.get(1).getEntityId(),
+                Long.valueOf(3L));
+    }
+
+    // ======================================================
+
+    private void addDeletes(Long... ids) {
+        for (Long id : ids) {
+            EventLog log = new EventLog(id, true);
+            log.setAction("DELETE");
+            log.setEntityType(Image.class.getName());
+            log.setEntityId(id);
+            loader.logs.add(log);
+        }
+    }
+
+    private static class Indexer extends FullTextIndexer {
+
+        final List<EventLog> failures = new ArrayList<EventLog>();
+
+        Indexer(EventLogLoader loader) {
+            super(loader);
+        }
+
+        @Override
+        protected void publishFailure(EventLog eventLog, Throwable t) {
+            failures.add(eventLog);
+        }
+    }
+
+    private static class ListLogLoader extends EventLogLoader {
+        public final List<EventLog> logs = new ArrayList<EventLog>();
+
+        @Override
+        protected EventLog query() {
+            return logs.size() < 1 ? null : logs.remove(0);
+        }
+
+        @Override
+        public long more() {
+            return 0;
+        }
+    }
+}
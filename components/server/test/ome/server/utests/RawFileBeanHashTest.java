@@ -0,0 +1,221 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+
+import ome.api.IAdmin;
+import ome.api.local.LocalQuery;
+import ome.api.local.LocalUpdate;
+import ome.io.nio.FileBuffer;
+import ome.model.core.OriginalFile;
+import ome.model.enums.ChecksumAlgorithm;
+import ome.services.RawFileBean;
+import ome.util.checksum.ChecksumProvider;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link RawFileBean} hashes sequential writes as they arrive and
+ * otherwise falls back to hashing the whole file on save.
+ */
+@Test(groups = { "unit", "rawfile" })
+public class RawFileBeanHashTest extends MockObjectTestCase {
+
+    private static final ChecksumProviderFactory FACTORY =
+        new ChecksumProviderFactoryImpl();
+
+    RawFileBean bean;
+
+    OriginalFile file;
+
+    File path;
+
+    /** Number of times a whole file was hashed. */
+    int filesHashed;
+
+    Mock mockQuery, mockUpdate, mockAdmin;
+
+    @Override
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        path = File.createTempFile("rawfile", ".bin");
+        filesHashed = 0;
+
+        ChecksumAlgorithm hasher = new ChecksumAlgorithm();
+        hasher.setValue("SHA1-160");
+        file = new OriginalFile(1L, true);
+        file.setHasher(hasher);
+
+        mockQuery = mock(LocalQuery.class);
+        mockUpdate = mock(LocalUpdate.class);
+        mockAdmin = mock(IAdmin.class);
+        mockQuery.expects(once()).method("get").will(returnValue(file));
+        mockAdmin.expects(once()).method("canUpdate")
+            .will(returnValue(true));
+        mockUpdate.expects(atLeastOnce()).method("flush");
+
+        bean = new RawFileBean();
+        bean.setQueryService((LocalQuery) mockQuery.proxy());
+        bean.setUpdateService((LocalUpdate) mockUpdate.proxy());
+        bean.setAdminService((IAdmin) mockAdmin.proxy());
+        bean.setChecksumProviderFactory(new CountingFactory());
+    }
+
+    @Override
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        bean.clean();
+        path.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Opens the file with the given initial content.
+     */
+    private void open(byte[] content) throws Exception {
+        if (content.length > 0) {
+            FileBuffer initial = new FileBuffer(path.getPath(), "rw");
+            initial.write(ByteBuffer.wrap(content), 0);
+            initial.close();
+        }
+        bean.setFileIdWithBuffer(1L, new FileBuffer(path.getPath(), "rw"));
+    }
+
+    private void write(byte[] content, int from, int to) {
+        bean.write(Arrays.copyOfRange(content, from, to), from, to - from);
+    }
+
+    private void assertHashOf(byte[] content, int expectedFilesHashed) {
+        OriginalFile saved = bean.save();
+        assertEquals(FACTORY.getProvider(ChecksumType.SHA1)
+                .putBytes(content).checksumAsString(), saved.getHash());
+        assertEquals(Long.valueOf(content.length), saved.getSize());
+        assertEquals(expectedFilesHashed, filesHashed);
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31 + 7);
+        }
+        return content;
+    }
+
+    public void testInOrderWritesAreNotRehashed() throws Exception {
+        byte[] content = content(1000);
+        open(new byte[0]);
+        write(content, 0, 100);
+        write(content, 100, 101);
+        write(content, 101, 1000);
+        assertHashOf(content, 0);
+    }
+
+    public void testOutOfOrderWritesAreRehashed() throws Exception {
+        byte[] content = content(1000);
+        open(new byte[0]);
+        write(content, 0, 100);
+        write(content, 500, 1000);
+        write(content, 100, 500);
+        assertHashOf(content, 1);
+    }
+
+    public void testFirstWriteNotAtStartIsRehashed() throws Exception {
+        byte[] content = content(1000);
+        open(new byte[0]);
+        write(content, 100, 1000);
+        write(content, 0, 100);
+        assertHashOf(content, 1);
+    }
+
+    public void testOverlappingWritesAreRehashed() throws Exception {
+        byte[] content = content(1000);
+        open(new byte[0]);
+        write(content, 0, 600);
+        write(content, 400, 1000);
+        assertHashOf(content, 1);
+    }
+
+    public void testRewriteOfStartIsRehashed() throws Exception {
+        byte[] content = content(1000);
+        open(new byte[0]);
+        write(content, 0, 1000);
+        content[0] = 42;
+        write(content, 0, 1);
+        assertHashOf(content, 1);
+    }
+
+    public void testAppendToExistingFileIsRehashed() throws Exception {
+        byte[] content = content(1000);
+        open(Arrays.copyOf(content, 300));
+        write(content, 300, 1000);
+        assertHashOf(content, 1);
+    }
+
+    public void testTruncatedFileIsRehashed() throws Exception {
+        byte[] content = content(1000);
+        open(new byte[0]);
+        write(content, 0, 1000);
+        bean.truncate(600);
+        assertHashOf(Arrays.copyOf(content, 600), 1);
+    }
+
+    public void testWritesAfterSaveAreRehashed() throws Exception {
+        byte[] content = content(1000);
+        open(new byte[0]);
+        write(content, 0, 500);
+        assertHashOf(Arrays.copyOf(content, 500), 0);
+        write(content, 500, 1000);
+        assertHashOf(content, 1);
+    }
+
+    // ======================================================
+
+    /**
+     * Counts the providers used to hash a whole file.
+     */
+    private class CountingFactory implements ChecksumProviderFactory {
+
+        public ChecksumProvider getProvider(ChecksumType checksumType) {
+            final ChecksumProvider provider =
+                FACTORY.getProvider(checksumType);
+            return (ChecksumProvider) Proxy.newProxyInstance(getClass()
+                    .getClassLoader(), new Class[] { ChecksumProvider.class },
+                    new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method,
+                                Object[] args) throws Throwable {
+                            if ("putFile".equals(method.getName())) {
+                                filesHashed++;
+                            }
+                            try {
+                                Object result = method.invoke(provider, args);
+                                return result == provider? proxy : result;
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        }
+                    });
+        }
+
+        public Set<ChecksumType> getAvailableTypes() {
+            return FACTORY.getAvailableTypes();
+        }
+    }
+}
@@ -14,6 +14,7 @@ import ome.model.annotations.TagAnnotation;
 import ome.model.core.Image;
 import ome.services.SearchBean;
 import ome.services.fulltext.FullTextAnalyzer;
+import ome.services.search.FullText;
 import ome.services.search.SearchAction;
 import ome.services.search.SearchValues;
 import ome.services.util.Executor;
@@ -156,6 +157,71 @@ public class SearchBeanTest extends MockObjectTestCase {
         bean.onlyAnnotatedWith((java.lang.Class[]) null);
     }
 
+    @Test
+    public void testFullTextPagedAcrossBatches() {
+        bean = new SearchBean(executor, analyzer);
+        bean.setBatchSize(3);
+        PagedFullText paged = addPagedFullText(7);
+        addActionWithResultOfSize_n(2);
+        assertEquals(2, bean.activeQueries());
+        List<Long> ids = new ArrayList<Long>();
+        for (int i = 0; i < 2; i++) {
+            for (IObject obj : bean.results()) {
+                ids.add(obj.getId());
+            }
+            // Only the pages returned so far are loaded
+            assertEquals(ids.size(), paged.loaded);
+            assertEquals(2, bean.activeQueries());
+        }
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L), ids);
+        // The last page is merged with the results of the following action
+        List<IObject> batch = bean.results();
+        assertEquals(3, batch.size());
+        assertEquals(Long.valueOf(6L), batch.get(0).getId());
+        assertNull(batch.get(1).getId());
+        assertEquals(7, paged.loaded);
+        assertEquals(0, bean.activeQueries());
+        assertFalse(bean.hasNext());
+    }
+
+    @Test
+    public void testFullTextSinglePage() {
+        bean = new SearchBean(executor, analyzer);
+        bean.setBatchSize(3);
+        PagedFullText paged = addPagedFullText(3);
+        assertEquals(3, bean.results().size());
+        assertEquals(0, bean.activeQueries());
+        assertFalse(bean.hasNext());
+        assertEquals(3, paged.loaded);
+    }
+
+    @Test
+    public void testClearingQueriesDropsPages() {
+        bean = new SearchBean(executor, analyzer);
+        bean.setBatchSize(3);
+        PagedFullText paged = addPagedFullText(7);
+        assertEquals(3, bean.results().size());
+        assertEquals(1, bean.activeQueries());
+        bean.clearQueries();
+        assertEquals(0, bean.activeQueries());
+        assertFalse(bean.hasNext());
+        assertEquals(3, paged.loaded);
+    }
+
+    @Test
+    public void testManyEmptyPagesInARow() {
+        bean = new SearchBean(executor, analyzer);
+        bean.setBatchSize(3);
+        PagedFullText paged = addPagedFullText(2);
+        // Hits filtered out of all the pages but the last one
+        paged.skipped = 300000;
+        List<IObject> batch = bean.results();
+        assertEquals(2, batch.size());
+        assertEquals(Long.valueOf(300000L), batch.get(0).getId());
+        assertEquals(0, bean.activeQueries());
+        assertFalse(bean.hasNext());
+    }
+
     // ==============================================
 
     private void addActionWithResultOfSize_n(final int n) {
@@ -171,4 +237,60 @@ public class SearchBeanTest extends MockObjectTestCase {
         });
     }
 
+    /**
+     * Adds a full text search whose hits are images with the IDs from 0 to
+     * n - 1, in order.
+     */
+    private PagedFullText addPagedFullText(int n) {
+        SearchValues values = new SearchValues();
+        values.onlyTypes = Arrays.<Class> asList(Image.class);
+        PagedFullText paged = new PagedFullText(values, n);
+        bean.addAction(paged);
+        return paged;
+    }
+
+    private static class PagedFullText extends FullText {
+
+        final int total;
+
+        int first, max, loaded;
+
+        /** Number of hits filtered out before the returned ones. */
+        int skipped;
+
+        PagedFullText(SearchValues values, int total) {
+            super(values, "a", FullTextAnalyzer.class);
+            this.total = total;
+        }
+
+        @Override
+        public void page(int firstResult, int maxResults) {
+            super.page(firstResult, maxResults);
+            first = firstResult;
+            max = maxResults;
+        }
+
+        @Override
+        public void nextPage() {
+            super.nextPage();
+            first += max;
+        }
+
+        @Override
+        public boolean hasMorePages() {
+            return first + max < skipped + total;
+        }
+
+        @Override
+        public Object doWork(Session session, ServiceFactory sf) {
+            List<IObject> rv = new ArrayList<IObject>();
+            for (int i = Math.max(first, skipped);
+                    i < Math.min(first + max, skipped + total); i++) {
+                rv.add(new Image((long) i, true));
+                loaded++;
+            }
+            return rv;
+        }
+    }
+
 }
@@ -46,6 +46,30 @@ public class FileParserUnitTest extends TestCase {
         list.clear();
     }
 
+    @Test
+    public void testPdfPrefetch() throws Exception {
+        File abc123 = ResourceUtils
+                .getFile("classpath:ome/server/utests/fileparsers/ABC123.pdf");
+        PdfParser parser = new PdfParser();
+        parser.setApplicationContext(new OmeroContext(
+                "classpath:ome/server/utests/fileparsers/config.xml"));
+        assertTrue(parser.prefetch(abc123) > 0);
+        // Both reads are served from the prefetched contents
+        for (int i = 0; i < 2; i++) {
+            StringBuffer sb = new StringBuffer();
+            for (Reader reader : parser.parse(abc123)) {
+                BufferedReader buffered = new BufferedReader(reader);
+                sb.append(buffered.readLine());
+            }
+            assertEquals("ABC123", sb.toString());
+        }
+        parser.clearPrefetched();
+        for (RegisterServiceCleanupMessage cleanup : list) {
+            cleanup.close();
+        }
+        list.clear();
+    }
+
     public static class Closer implements ApplicationListener {
 
         public void onApplicationEvent(ApplicationEvent arg0) {
@@ -7,7 +7,9 @@ package ome.server.utests.sec;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import ome.model.core.Image;
@@ -93,13 +95,18 @@ public class WritePermissionsTest extends MockObjectTestCase {
      *            Permissions to set on the object details.
      */
     protected Details objectBelongingTo(Session session, long user, Permissions p) {
+        Image i = image(session, user, p);
+        voter.postProcess(i);
+        return i.getDetails();
+    }
+
+    protected Image image(Session session, long user, Permissions p) {
         Image i = new Image();
         Details d = i.getDetails();
         d.setOwner(new Experimenter(user, true));
         d.setGroup(session.getDetails().getGroup());
         d.setPermissions(p);
-        voter.postProcess(i);
-        return d;
+        return i;
     }
 
     // object setting differs from group
@@ -116,6 +123,30 @@ public class WritePermissionsTest extends MockObjectTestCase {
         assertEquals("rwr---", d.getPermissions().toString());
     }
 
+    // batches
+    // =========================================================================
+    // Objects of one return value share the checks per class, owner and group
+    // but must still each receive their own Permissions instance.
+
+    public void testBatchMatchesSingleObjects() {
+        Session s = login("rwra--", GROUP_MEMBER, false);
+        Map<Object, Object> batch = new HashMap<Object, Object>();
+        Permissions previous = null;
+        for (Long owner : new Long[] { THE_OWNER, GROUP_MEMBER, THE_OWNER,
+                GROUP_MEMBER }) {
+            Permissions single = objectBelongingTo(s, owner).getPermissions();
+            Image i = image(s, owner, s.getDetails().getPermissions());
+            voter.postProcess(i, batch);
+            Permissions batched = i.getDetails().getPermissions();
+            assertEquals(single.toString(), batched.toString());
+            assertTrue(Arrays.equals(single.copyRestrictions(),
+                    batched.copyRestrictions()));
+            assertNotSame(previous, batched);
+            previous = batched;
+        }
+        assertEquals(2, batch.size());
+    }
+
     // rwr, non-system owner
     // =========================================================================
 
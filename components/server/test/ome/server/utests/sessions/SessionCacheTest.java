@@ -6,9 +6,13 @@
 package ome.server.utests.sessions;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CyclicBarrier;
 
@@ -23,12 +27,14 @@ import ome.conditions.RemovedSessionException;
 import ome.conditions.SessionException;
 import ome.conditions.SessionTimeoutException;
 import ome.model.internal.Permissions;
+import ome.model.meta.Experimenter;
 import ome.model.meta.ExperimenterGroup;
 import ome.model.meta.Session;
 import ome.services.sessions.SessionCallback;
 import ome.services.sessions.SessionContext;
 import ome.services.sessions.SessionContextImpl;
 import ome.services.sessions.events.UserGroupUpdateEvent;
+import ome.services.sessions.state.SessionCache.BulkStaleCacheListener;
 import ome.services.sessions.state.SessionCache.StaleCacheListener;
 import ome.services.sessions.state.SessionCache;
 import ome.services.sessions.stats.NullSessionStats;
@@ -183,6 +189,46 @@ public class SessionCacheTest extends TestCase {
 
     }
 
+    @Test
+    public void testScopedEventOnlyReloadsThoseUsers() throws Exception {
+        final Session s1 = sess();
+        s1.getDetails().setOwner(new Experimenter(1L, false));
+        final Session s2 = sess();
+        s2.getDetails().setOwner(new Experimenter(2L, false));
+        cache.putSession(s1.getUuid(), sc(s1));
+        cache.putSession(s2.getUuid(), sc(s2));
+
+        final List<String> reloaded = new ArrayList<String>();
+        cache.setStaleCacheListener(new BulkStaleCacheListener() {
+            public void prepareReload() {
+                // noop
+            }
+
+            public SessionContext reload(SessionContext context) {
+                fail("Should be reloaded in bulk");
+                return null;
+            }
+
+            public Map<String, SessionContext> reloadAll(
+                    Collection<SessionContext> contexts) {
+                Map<String, SessionContext> rv =
+                    new HashMap<String, SessionContext>();
+                for (SessionContext context : contexts) {
+                    String uuid = context.getSession().getUuid();
+                    reloaded.add(uuid);
+                    rv.put(uuid, context);
+                }
+                return rv;
+            }
+        });
+        cache.updateEvent(new UserGroupUpdateEvent(this,
+                Collections.singletonList(2L)));
+        cache.doUpdate();
+        assertEquals(Collections.singletonList(s2.getUuid()), reloaded);
+        cache.getSessionContext(s1.getUuid());
+        cache.getSessionContext(s2.getUuid());
+    }
+
     @Test
     public void testInMemoryAndOnDiskAreProperlyDisposed() {
         initCache();
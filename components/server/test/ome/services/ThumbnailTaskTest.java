@@ -0,0 +1,126 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.imageio.ImageIO;
+
+import ome.io.nio.ThumbnailService;
+import ome.logic.AWTScaleService;
+import ome.logic.CompressImpl;
+import ome.model.display.Thumbnail;
+import ome.model.enums.RenderingModel;
+import ome.system.metrics.NullMetrics;
+import omeis.providers.re.Renderer;
+import omeis.providers.re.utests.BaseRenderingTest;
+import omeis.providers.re.utests.TestPixelBuffer;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the creation of the thumbnails of a set by the
+ * {@link ThumbnailExecutor} workers.
+ */
+public class ThumbnailTaskTest extends BaseRenderingTest {
+
+    File dir;
+
+    ThumbnailExecutor executor;
+
+    ThumbnailBean bean;
+
+    /** Number of times the pixel buffer of {@link #newRenderer()} closed. */
+    int closed;
+
+    @Override
+    protected int getSizeX() {
+        return 64;
+    }
+
+    @Override
+    protected int getSizeY() {
+        return 64;
+    }
+
+    @BeforeMethod
+    public void setupBean() throws IOException {
+        dir = File.createTempFile("thumbnails", "");
+        dir.delete();
+        dir.mkdir();
+        executor = new ThumbnailExecutor(1, new NullMetrics());
+        bean = new ThumbnailBean(false);
+        bean.setScaleService(new AWTScaleService());
+        bean.setCompressionService(new CompressImpl());
+        bean.setIoService(new ThumbnailService(dir.getAbsolutePath()
+                + File.separator));
+        bean.setThumbnailExecutor(executor);
+        closed = 0;
+    }
+
+    @AfterMethod
+    public void teardownBean() throws IOException {
+        executor.destroy();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testThumbnailIsCreated() throws Exception {
+        Thumbnail thumbnail = newThumbnail();
+        ThumbnailBean.ThumbnailTask task = bean.submitThumbnailTask(
+                pixels.getId(), newRenderer(), pixels, settings, thumbnail,
+                true);
+        byte[] jpeg = task.future.get();
+        assertEquals(32, ImageIO.read(
+                new ByteArrayInputStream(jpeg)).getWidth());
+        assertTrue(task.dirtyMetadata);
+        assertSame(thumbnail, task.thumbnailMetadata);
+        assertNotSame(thumbnail, task.metadata);
+        assertEquals(Integer.valueOf(32), task.metadata.getSizeX());
+        assertEquals(1, closed);
+    }
+
+    @Test
+    public void testRejectedTaskClosesRenderer() {
+        executor.destroy();
+        try {
+            bean.submitThumbnailTask(pixels.getId(), newRenderer(), pixels,
+                    settings, newThumbnail(), true);
+            fail("Expected the task to be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(1, closed);
+    }
+
+    // ======================================================
+
+    private Thumbnail newThumbnail() {
+        Thumbnail thumbnail = new Thumbnail(1L, true);
+        thumbnail.setSizeX(32);
+        thumbnail.setSizeY(32);
+        return thumbnail;
+    }
+
+    private Renderer newRenderer() {
+        List<RenderingModel> renderingModels =
+            pixelsMetadataService.getAllEnumerations(RenderingModel.class);
+        TestPixelBuffer buffer = new TestPixelBuffer(pixels, getPlane()) {
+            @Override
+            public void close() throws IOException {
+                closed++;
+            }
+        };
+        return new Renderer(quantumFactory, renderingModels, pixels, settings,
+                buffer);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2015 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.graphs;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+import ome.services.graphs.GraphTraversal.CI;
+import ome.services.graphs.GraphTraversal.CISet;
+import ome.services.graphs.GraphTraversal.IdSet;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the primitive ID sets that hold the state of a {@link GraphTraversal}, comparing them with a {@link HashSet}.
+ * @author m.t.b.carroll@dundee.ac.uk
+ * @since 5.1.3
+ */
+@Test
+public class CISetTest {
+
+    private static final String IMAGE = "ome.model.core.Image";
+    private static final String DATASET = "ome.model.containers.Dataset";
+
+    /**
+     * Assert that the given set has the same content as the expected one, checking both iteration and lookup.
+     * @param actual a set of {@link CI}s
+     * @param expected the expected content
+     */
+    private static void assertSameContent(Set<CI> actual, Set<CI> expected) {
+        Assert.assertEquals(actual.size(), expected.size());
+        final Set<CI> iterated = new HashSet<CI>();
+        for (final CI instance : actual) {
+            Assert.assertTrue(iterated.add(instance), "iterated twice: " + instance);
+        }
+        Assert.assertEquals(iterated, expected);
+        for (final CI instance : expected) {
+            Assert.assertTrue(actual.contains(instance), "missing: " + instance);
+        }
+    }
+
+    /**
+     * Test that an ID may be added again after its removal and that other IDs remain found.
+     */
+    public void testAddAfterRemove() {
+        final Set<CI> set = new CISet();
+        for (long id = 1; id <= 5; id++) {
+            set.add(new CI(IMAGE, id));
+        }
+        Assert.assertTrue(set.remove(new CI(IMAGE, 3)));
+        Assert.assertFalse(set.remove(new CI(IMAGE, 3)));
+        Assert.assertFalse(set.contains(new CI(IMAGE, 3)));
+        Assert.assertEquals(set.size(), 4);
+        Assert.assertTrue(set.add(new CI(IMAGE, 3)));
+        Assert.assertFalse(set.add(new CI(IMAGE, 3)));
+        Assert.assertEquals(set.size(), 5);
+        for (long id = 1; id <= 5; id++) {
+            Assert.assertTrue(set.contains(new CI(IMAGE, id)));
+        }
+    }
+
+    /**
+     * Test that IDs already in the set are not added again when a removal marker precedes them in their probe sequence.
+     */
+    public void testAddPresentAfterRemove() {
+        final IdSet ids = new IdSet();
+        /* with few slots the probe sequences of many IDs overlap */
+        for (long id = 0; id < 5; id++) {
+            ids.add(id);
+        }
+        for (long id = 0; id < 5; id += 2) {
+            ids.remove(id);
+        }
+        for (long id = 1; id < 5; id += 2) {
+            Assert.assertFalse(ids.add(id));
+        }
+        Assert.assertEquals(ids.size(), 2);
+    }
+
+    /**
+     * Test that the same ID in different classes is held separately.
+     */
+    public void testClassesAreSeparate() {
+        final Set<CI> set = new CISet();
+        set.add(new CI(IMAGE, 1));
+        set.add(new CI(DATASET, 1));
+        Assert.assertEquals(set.size(), 2);
+        Assert.assertTrue(set.remove(new CI(IMAGE, 1)));
+        Assert.assertFalse(set.contains(new CI(IMAGE, 1)));
+        Assert.assertTrue(set.contains(new CI(DATASET, 1)));
+        Assert.assertFalse(set.contains(IMAGE));
+    }
+
+    /**
+     * Test that resizing a table which holds removal markers keeps every ID and drops the markers.
+     */
+    public void testResizeWithRemovals() {
+        final Set<CI> set = new CISet();
+        final Set<CI> expected = new HashSet<CI>();
+        for (long id = 0; id < 1000; id++) {
+            set.add(new CI(IMAGE, id));
+            expected.add(new CI(IMAGE, id));
+        }
+        for (long id = 0; id < 1000; id += 3) {
+            set.remove(new CI(IMAGE, id));
+            expected.remove(new CI(IMAGE, id));
+        }
+        /* enough new IDs to resize the table again */
+        for (long id = 1000; id < 3000; id++) {
+            set.add(new CI(IMAGE, id));
+            expected.add(new CI(IMAGE, id));
+        }
+        assertSameContent(set, expected);
+    }
+
+    /**
+     * Test that repeatedly adding and removing IDs does not grow the table, as resizing drops the removal markers.
+     */
+    public void testRemovalMarkersAreReclaimed() {
+        final IdSet ids = new IdSet();
+        for (long id = 0; id < 100000; id++) {
+            Assert.assertTrue(ids.add(id));
+            Assert.assertTrue(ids.remove(id));
+        }
+        Assert.assertEquals(ids.size(), 0);
+        Assert.assertTrue(ids.capacity() <= 8, "capacity " + ids.capacity());
+    }
+
+    /**
+     * Test removing instances through the iterator, then adding them back.
+     */
+    public void testIteratorRemove() {
+        final Set<CI> set = new CISet();
+        final Set<CI> expected = new HashSet<CI>();
+        final Set<CI> removed = new HashSet<CI>();
+        for (long id = 0; id < 100; id++) {
+            set.add(new CI(IMAGE, id));
+            set.add(new CI(DATASET, id));
+        }
+        final Iterator<CI> iterator = set.iterator();
+        while (iterator.hasNext()) {
+            final CI instance = iterator.next();
+            if (instance.id % 2 == 0 || instance.className.equals(DATASET) && instance.id > 50) {
+                iterator.remove();
+                removed.add(instance);
+            } else {
+                expected.add(instance);
+            }
+        }
+        assertSameContent(set, expected);
+        for (final CI instance : removed) {
+            Assert.assertFalse(set.contains(instance));
+        }
+        set.addAll(removed);
+        expected.addAll(removed);
+        assertSameContent(set, expected);
+    }
+
+    /**
+     * Test that the iterator allows only one removal per instance returned.
+     */
+    public void testIteratorRemoveState() {
+        final Set<CI> set = new CISet();
+        set.add(new CI(IMAGE, 1));
+        final Iterator<CI> iterator = set.iterator();
+        try {
+            iterator.remove();
+            Assert.fail("removed before next");
+        } catch (IllegalStateException e) {
+            /* expected */
+        }
+        iterator.next();
+        iterator.remove();
+        try {
+            iterator.remove();
+            Assert.fail("removed twice");
+        } catch (IllegalStateException e) {
+            /* expected */
+        }
+        Assert.assertFalse(iterator.hasNext());
+        try {
+            iterator.next();
+            Assert.fail("iterated past the end");
+        } catch (NoSuchElementException e) {
+            /* expected */
+        }
+        Assert.assertTrue(set.isEmpty());
+    }
+
+    /**
+     * Test random additions and removals, including of absent instances, against a {@link HashSet}.
+     */
+    public void testRandomOperations() {
+        final Random random = new Random(5);
+        final Set<CI> set = new CISet();
+        final Set<CI> expected = new HashSet<CI>();
+        for (int operation = 0; operation < 20000; operation++) {
+            final CI instance = new CI(random.nextBoolean() ? IMAGE : DATASET, random.nextInt(500) - 100);
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(set.remove(instance), expected.remove(instance));
+            } else {
+                Assert.assertEquals(set.add(instance), expected.add(instance));
+            }
+            Assert.assertEquals(set.size(), expected.size());
+        }
+        assertSameContent(set, expected);
+        Assert.assertEquals(new CISet(expected), expected);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ *   Copyright 2015 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.projection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import ome.api.IProjection;
+import ome.io.nio.InMemoryPlanarPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.system.metrics.NullMetrics;
+import ome.util.PixelData;
+import omeis.providers.re.RenderingExecutor;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Compares the projections of the {@link ProjectionEngine} with those of the
+ * former pixel by pixel implementation of the {@link ProjectionBean}, for
+ * every projection algorithm, pixels type and split of the planes into bands
+ * of rows.
+ */
+@Test(groups = { "unit", "projection" })
+public class ProjectionEngineTest {
+
+    private static final int SIZE_X = 8;
+
+    /** Odd, so that the last band of rows is shorter than the others. */
+    private static final int SIZE_Y = 7;
+
+    private static final int SIZE_Z = 5;
+
+    private static final int PLANE_SIZE = SIZE_X * SIZE_Y;
+
+    private static final String[] TYPES = { "int8", "uint8", "int16",
+            "uint16", "int32", "uint32", "float", "double", "bit" };
+
+    private static final int[] ALGORITHMS = {
+            IProjection.MAXIMUM_INTENSITY, IProjection.MEAN_INTENSITY,
+            IProjection.SUM_INTENSITY };
+
+    /**
+     * Threads of the executor: one band; bands of 3, 3 and 1 rows; bands of
+     * 2, 2, 2 and 1 rows; more threads than rows.
+     */
+    private static final int[] THREADS = { 1, 3, 4, 16 };
+
+    /**
+     * Start, end and stepping of the projected sections. They include
+     * stepping onto the end, which only the maximum projects, stepping over
+     * the end and a single section.
+     */
+    private static final int[][] RANGES = { { 0, 4, 1 }, { 0, 4, 2 },
+            { 1, 4, 2 }, { 3, 4, 1 }, { 2, 2, 1 }, { 0, 0, 1 } };
+
+    Map<Integer, RenderingExecutor> executors;
+
+    @BeforeClass
+    public void startExecutors() {
+        executors = new HashMap<Integer, RenderingExecutor>();
+        for (int threads : THREADS) {
+            executors.put(threads,
+                    new RenderingExecutor(threads, new NullMetrics()));
+        }
+    }
+
+    @AfterClass
+    public void stopExecutors() {
+        for (RenderingExecutor executor : executors.values()) {
+            executor.destroy();
+        }
+    }
+
+    @DataProvider(name = "projections")
+    public Object[][] projections() {
+        List<Object[]> projections = new ArrayList<Object[]>();
+        for (String type : TYPES) {
+            // Into the same type and into a smaller one, which clamps sums.
+            for (String toType : new String[] { type, "uint8" }) {
+                for (int algorithm : ALGORITHMS) {
+                    for (int threads : THREADS) {
+                        projections.add(new Object[] { type, toType,
+                                algorithm, threads });
+                    }
+                }
+            }
+        }
+        return projections.toArray(new Object[projections.size()][]);
+    }
+
+    @Test(dataProvider = "projections")
+    public void testSameAsPerPixelProjection(String type, String toType,
+            int algorithm, int threads) throws Exception {
+        byte[][][][] planes = randomPlanes(type);
+        byte[] stack = new byte[planes[0][0][0].length * SIZE_Z];
+        for (int z = 0; z < SIZE_Z; z++) {
+            byte[] plane = planes[z][0][0];
+            System.arraycopy(plane, 0, stack, z * plane.length, plane.length);
+        }
+        InMemoryPlanarPixelBuffer source =
+            new InMemoryPlanarPixelBuffer(pixels(type), planes);
+        ProjectionEngine engine =
+            new ProjectionEngine(executors.get(threads));
+        for (int[] range : RANGES) {
+            int start = range[0], end = range[1], stepping = range[2];
+            String msg = String.format("%s to %s, sections %d-%d by %d",
+                    type, toType, start, end, stepping);
+
+            PixelData expected = newPlane(toType);
+            double[] expectedMinMax = projectPerPixel(
+                    new PixelData(type, ByteBuffer.wrap(stack)), expected,
+                    algorithm, stepping, start, end);
+
+            PixelData actual = newPlane(toType);
+            double[] actualMinMax = engine.project(source, 0, 0, algorithm,
+                    stepping, start, end, SIZE_X, SIZE_Y, actual);
+
+            Assert.assertEquals(actual.getData().array(),
+                    expected.getData().array(), msg);
+            Assert.assertEquals(actualMinMax[0], expectedMinMax[0], 0, msg);
+            Assert.assertEquals(actualMinMax[1], expectedMinMax[1], 0, msg);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownAlgorithm() throws Exception {
+        new ProjectionEngine(executors.get(1)).project(
+                new InMemoryPlanarPixelBuffer(pixels("uint8"),
+                        randomPlanes("uint8")), 0, 0, -1, 1, 0, 4,
+                SIZE_X, SIZE_Y, newPlane("uint8"));
+    }
+
+    // ======================================================
+
+    /**
+     * The projection of the {@link ProjectionBean} before the
+     * {@link ProjectionEngine}, reading the pixels of the whole stack one by
+     * one.
+     */
+    private double[] projectPerPixel(PixelData from, PixelData to,
+            int algorithm, int stepping, int start, int end) {
+        double planeMaximum = to.getMaximum();
+        double minimum = Double.MAX_VALUE;
+        double maximum = -Double.MAX_VALUE;
+        for (int i = 0; i < PLANE_SIZE; i++) {
+            double projectedValue = 0;
+            if (algorithm == IProjection.MAXIMUM_INTENSITY) {
+                for (int z = start; z <= end; z += stepping) {
+                    double stackValue = from.getPixelValue(PLANE_SIZE * z + i);
+                    if (stackValue > projectedValue) {
+                        projectedValue = stackValue;
+                    }
+                }
+            } else {
+                int projectedPlaneCount = 0;
+                for (int z = start; z < end; z += stepping) {
+                    projectedValue += from.getPixelValue(PLANE_SIZE * z + i);
+                    projectedPlaneCount++;
+                }
+                if (algorithm == IProjection.MEAN_INTENSITY) {
+                    projectedValue = projectedValue / projectedPlaneCount;
+                }
+                if (projectedValue > planeMaximum) {
+                    projectedValue = planeMaximum;
+                }
+            }
+            to.setPixelValue(i, projectedValue);
+            minimum = projectedValue < minimum? projectedValue : minimum;
+            maximum = projectedValue > maximum? projectedValue : maximum;
+        }
+        return new double[] { minimum, maximum };
+    }
+
+    /**
+     * Returns the planes of a stack of the given type, indexed by z, c and t.
+     * Integral values cover the whole range of the type, including negative
+     * values for signed types.
+     */
+    private byte[][][][] randomPlanes(String type) {
+        Random random = new Random(type.hashCode());
+        byte[][][][] planes = new byte[SIZE_Z][1][1][];
+        for (int z = 0; z < SIZE_Z; z++) {
+            PixelData plane = newPlane(type);
+            if (plane.isFloat()) {
+                for (int i = 0; i < PLANE_SIZE; i++) {
+                    plane.setPixelValue(i, random.nextGaussian() * 1000);
+                }
+            } else {
+                random.nextBytes(plane.getData().array());
+            }
+            planes[z][0][0] = plane.getData().array();
+        }
+        return planes;
+    }
+
+    private PixelData newPlane(String type) {
+        int size = PLANE_SIZE * PixelData.getBitDepth(type) / 8;
+        return new PixelData(type, ByteBuffer.wrap(new byte[size]));
+    }
+
+    private Pixels pixels(String type) {
+        PixelsType pixelsType = new PixelsType();
+        pixelsType.setValue(type);
+        Pixels pixels = new Pixels();
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(SIZE_Z);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        pixels.setPixelsType(pixelsType);
+        return pixels;
+    }
+}
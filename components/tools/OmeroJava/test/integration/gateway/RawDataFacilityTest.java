@@ -20,6 +20,7 @@
  */
 package integration.gateway;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -31,6 +32,7 @@ import omero.gateway.exception.DSAccessException;
 import omero.gateway.exception.DSOutOfServiceException;
 import omero.gateway.exception.DataSourceException;
 import omero.gateway.rnd.Plane2D;
+import omero.gateway.rnd.RawDataStream;
 import omero.model.IObject;
 import omero.model.PixelsType;
 
@@ -90,6 +92,58 @@ public class RawDataFacilityTest extends GatewayTest {
         Assert.assertEquals(planeData, rawDataPart);
     }
     
+    @Test
+    public void testGetPlanes() throws Exception {
+        ImageData img = browseFacility.getImage(rootCtx, imgId);
+        RawDataStream stream = rawdataFacility.getPlanes(rootCtx,
+                img.getDefaultPixels(), new int[] {0}, new int[] {0},
+                new int[] {0});
+        try {
+            Assert.assertEquals(stream.size(), 1);
+            RawDataStream.Tile tile = stream.next();
+            Assert.assertEquals(tile.getWidth(), 100);
+            Assert.assertEquals(tile.getHeight(), 100);
+            byte[] planeData = new byte[100*100];
+            tile.getData().get(planeData);
+            Assert.assertEquals(planeData, rawData);
+            Assert.assertFalse(stream.hasNext());
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testGetTiles() throws Exception {
+        ImageData img = browseFacility.getImage(rootCtx, imgId);
+        // tiles of 30 by 40 pixels, narrower and shorter at the edges
+        RawDataStream stream = rawdataFacility.getTiles(rootCtx,
+                img.getDefaultPixels(), new int[] {0}, new int[] {0},
+                new int[] {0}, 30, 40, 3, 4);
+        byte[] planeData = new byte[100*100];
+        int tiles = 0;
+        try {
+            Assert.assertEquals(stream.size(), 4 * 3);
+            while (stream.hasNext()) {
+                RawDataStream.Tile tile = stream.next();
+                Assert.assertEquals(tile.getX(), 30 * (tiles % 4));
+                Assert.assertEquals(tile.getY(), 40 * (tiles / 4));
+                Assert.assertEquals(tile.getWidth(),
+                        Math.min(30, 100 - tile.getX()));
+                Assert.assertEquals(tile.getHeight(),
+                        Math.min(40, 100 - tile.getY()));
+                ByteBuffer data = tile.getData();
+                for (int y = 0; y < tile.getHeight(); y++)
+                    data.get(planeData, (tile.getY() + y) * 100 + tile.getX(),
+                            tile.getWidth());
+                tiles++;
+            }
+        } finally {
+            stream.close();
+        }
+        Assert.assertEquals(tiles, 4 * 3);
+        Assert.assertEquals(planeData, rawData);
+    }
+
     private void initData() throws Exception {
         ProjectData p = createProject(rootCtx);
         DatasetData d = createDataset(rootCtx, p);